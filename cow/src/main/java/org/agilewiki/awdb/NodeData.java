@@ -25,8 +25,11 @@ public class NodeData {
         VersionedMapNode avmn = db.get(nodeId);
         if (avmn == null)
             atts = new ConcurrentSkipListMap<>();
-        else
-            atts = new ConcurrentSkipListMap<>(avmn.flatMap(timestamp));
+        else {
+            atts = new ConcurrentSkipListMap<>();
+            for (Map.Entry<Comparable, List> e : avmn.mapView(timestamp).entrySet())
+                atts.put(e.getKey(), new ArrayList<>(e.getValue()));
+        }
 
         keys = new ConcurrentSkipListMap<>();
         for (String keyId : SecondaryId.typeIdIterable(db, nodeId)) {
@@ -5,7 +5,9 @@ import org.slf4j.LoggerFactory;
 
 import java.nio.ByteBuffer;
 import java.util.BitSet;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 
 /**
  * A durable class for managing up to a million blocks.
@@ -17,11 +19,17 @@ public class DiskSpaceManager {
 
     HashSet<Integer> freed = new HashSet<Integer>();
 
+    /**
+     * The number of additional references to shared blocks.
+     */
+    final HashMap<Integer, Integer> shared;
+
     /**
      * Create a DSM with no space allocated.
      */
     public DiskSpaceManager() {
         bitSet = new BitSet();
+        shared = new HashMap<Integer, Integer>();
     }
 
     /**
@@ -29,15 +37,28 @@ public class DiskSpaceManager {
      * The bit array indicates which blocks are in use.
      * The ByteBuffer contains first a byte count pf the size of the bit array,
      * followed by the bytes of the bit array.
+     * A negative byte count of -(n + 1) indicates that the n bytes of the bit array
+     * are followed by a count of shared blocks and the (block, references) pairs.
      *
      * @param byteBuffer The source of the bit array.
      */
     public DiskSpaceManager(ByteBuffer byteBuffer) {
         int byteCount = byteBuffer.getInt();
+        boolean extended = byteCount < 0;
+        if (extended)
+            byteCount = -byteCount - 1;
         ByteBuffer bb = byteBuffer.slice();
         bb.limit(byteCount);
         bitSet = BitSet.valueOf(bb);
         byteBuffer.position(byteBuffer.position() + byteCount);
+        shared = new HashMap<Integer, Integer>();
+        if (extended) {
+            int count = byteBuffer.getInt();
+            for (int i = 0; i < count; ++i) {
+                int blockNbr = byteBuffer.getInt();
+                shared.put(blockNbr, byteBuffer.getInt());
+            }
+        }
     }
 
     /**
@@ -65,13 +86,41 @@ public class DiskSpaceManager {
         return bitSet.cardinality();
     }
 
+    /**
+     * Adds a reference to an allocated block,
+     * so it must be released one more time before it is freed.
+     *
+     * @param i The block to be retained.
+     */
+    public void retain(int i) {
+        if (!isLive(i)) {
+            Logger logger = LoggerFactory.getLogger(getClass());
+            logger.error("attempt to retain an unallocated block");
+            throw new RetainingUnallocatedBlockException();
+        }
+        Integer n = shared.get(i);
+        shared.put(i, n == null ? 1 : n + 1);
+    }
+
+    /**
+     * Returns true when a block is allocated and has not been freed.
+     *
+     * @param i The block number.
+     * @return True when the block is in use.
+     */
+    public boolean isLive(int i) {
+        return bitSet.get(i) && !freed.contains(i);
+    }
+
     /**
      * Release a block.
-     * It will become available on the next transaction.
+     * Once the last reference is released,
+     * it will become available on the next transaction.
      *
      * @param i The block to be released.
+     * @return True when the block was freed, false when it is still referenced.
      */
-    public void release(int i) {
+    public boolean release(int i) {
         if (!bitSet.get(i)) {
             Logger logger = LoggerFactory.getLogger(getClass());
             logger.error("attempt to release an unallocated block");
@@ -82,7 +131,16 @@ public class DiskSpaceManager {
             logger.error("attempt to release a block a second time");
             throw new DuplicateReleaseException();
         }
+        Integer n = shared.get(i);
+        if (n != null) {
+            if (n == 1)
+                shared.remove(i);
+            else
+                shared.put(i, n - 1);
+            return false;
+        }
         freed.add(i);
+        return true;
     }
 
     /**
@@ -92,7 +150,10 @@ public class DiskSpaceManager {
      * @return The number of bytes needed to save the bit array.
      */
     public int durableLength() {
-        return (bitSet.length() + 7) / 8 + 4;
+        int length = (bitSet.length() + 7) / 8 + 4;
+        if (!shared.isEmpty())
+            length += 4 + shared.size() * 8;
+        return length;
     }
 
     /**
@@ -117,7 +178,17 @@ public class DiskSpaceManager {
      */
     public void write(ByteBuffer byteBuffer) {
         byte[] bytes = bitSet.toByteArray();
-        byteBuffer.putInt(bytes.length);
+        if (shared.isEmpty()) {
+            byteBuffer.putInt(bytes.length);
+            byteBuffer.put(bytes);
+            return;
+        }
+        byteBuffer.putInt(-bytes.length - 1);
         byteBuffer.put(bytes);
+        byteBuffer.putInt(shared.size());
+        for (Map.Entry<Integer, Integer> e : shared.entrySet()) {
+            byteBuffer.putInt(e.getKey());
+            byteBuffer.putInt(e.getValue());
+        }
     }
 }
@@ -0,0 +1,7 @@
+package org.agilewiki.awdb.db.dsm;
+
+/**
+ * Thrown when retaining a block that is not allocated.
+ */
+public class RetainingUnallocatedBlockException extends DSMException {
+}
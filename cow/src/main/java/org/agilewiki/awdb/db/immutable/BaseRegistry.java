@@ -13,6 +13,7 @@ public class BaseRegistry extends CascadingRegistry {
     public BaseRegistry() {
         new NullFactory(this, NULL_ID); // 'N'
         new StringFactory(this, 'S');
+        new CompactStringFactory(this, 's');
         new DoubleFactory(this, 'D');
         new BooleanFactory(this, 'B', 't', 'f');
         new FloatFactory(this, 'F');
@@ -3,10 +3,18 @@ package org.agilewiki.awdb.db.immutable;
 import org.agilewiki.awdb.db.immutable.scalars.NullFactory;
 
 import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Implements a cascading factory registry.
+ * <p>
+ * Once frozen, registration is closed and lookups skip the maps and the parent chain:
+ * ids are resolved through an array indexed by id and classes through a ClassValue cache.
+ * Both are flattened from the parent chain when frozen, so the parents themselves stay open,
+ * and factories they register later are not seen by this registry.
+ * </p>
  */
 public class CascadingRegistry implements FactoryRegistry {
     public final CascadingRegistry parent;
@@ -16,6 +24,29 @@ public class CascadingRegistry implements FactoryRegistry {
     protected final ConcurrentHashMap<Class, ImmutableFactory> classMap =
             new ConcurrentHashMap<>(16, 0.75f, 1);
 
+    /**
+     * The factories indexed by id, flattened through the parent chain, or null until frozen.
+     */
+    private volatile ImmutableFactory[] idTable;
+
+    /**
+     * The factories by class, flattened through the parent chain, or null until frozen.
+     */
+    private volatile Map<Class, ImmutableFactory> classTable;
+
+    /**
+     * Caches the resolution of classes to factories.
+     */
+    private final ClassValue<ImmutableFactory> classCache = new ClassValue<ImmutableFactory>() {
+        @Override
+        protected ImmutableFactory computeValue(Class<?> c) {
+            ImmutableFactory factory = classTable.get(c);
+            if (factory == null)
+                throw new IllegalArgumentException("Unknown class: " + c.getName());
+            return factory;
+        }
+    };
+
     /**
      * Creates the registry and registers the default factories.
      */
@@ -32,14 +63,59 @@ public class CascadingRegistry implements FactoryRegistry {
         this.parent = parent;
     }
 
+    /**
+     * Closes registration here, and resolves the lookup tables from a snapshot
+     * of this registry and its parent chain. The parents are not frozen.
+     * Freezing an already frozen registry has no effect.
+     */
+    public synchronized void freeze() {
+        if (idTable != null)
+            return;
+        Map<Character, ImmutableFactory> ids = new HashMap<>();
+        Map<Class, ImmutableFactory> classes = new HashMap<>();
+        flatten(ids, classes);
+        int length = 0;
+        for (char id : ids.keySet())
+            length = Math.max(length, id + 1);
+        ImmutableFactory[] table = new ImmutableFactory[length];
+        for (Map.Entry<Character, ImmutableFactory> entry : ids.entrySet())
+            table[entry.getKey()] = entry.getValue();
+        classTable = classes;
+        idTable = table;
+    }
+
+    /**
+     * Adds the factories of the parent chain, then those of this registry, which take precedence.
+     */
+    private void flatten(Map<Character, ImmutableFactory> ids, Map<Class, ImmutableFactory> classes) {
+        if (parent != null)
+            parent.flatten(ids, classes);
+        ids.putAll(idMap);
+        classes.putAll(classMap);
+    }
+
+    /**
+     * Returns true once registration is closed.
+     *
+     * @return True when frozen.
+     */
+    public boolean isFrozen() {
+        return idTable != null;
+    }
+
     @Override
     public void register(ImmutableFactory factory) {
+        if (idTable != null)
+            throw new IllegalStateException("The registry is frozen");
         idMap.put(factory.getId(), factory);
         classMap.put(factory.getImmutableClass(), factory);
     }
 
     @Override
     public ImmutableFactory getImmutableFactory(char id) {
+        ImmutableFactory[] table = idTable;
+        if (table != null)
+            return id < table.length ? table[id] : null;
         ImmutableFactory f = idMap.get(id);
         if (f != null || parent == null)
             return f;
@@ -48,23 +124,15 @@ public class CascadingRegistry implements FactoryRegistry {
 
     @Override
     public ImmutableFactory getImmutableFactory(Class c) {
-        ImmutableFactory factory = classMap.get(c);
-        if (factory != null)
-            return factory;
-        if (parent != null)
-            return parent.getImmutableFactory(c);
-        throw new IllegalArgumentException("Unknown class: " + c.getName());
+        if (idTable != null)
+            return classCache.get(c);
+        return resolve(c);
     }
 
     @Override
     public ImmutableFactory getImmutableFactory(Object immutable) {
         Class c = immutable == null ? NullFactory.class : immutable.getClass();
-        ImmutableFactory factory = classMap.get(c);
-        if (factory != null)
-            return factory.getImmutableFactory(immutable);
-        if (parent != null)
-            return parent.getImmutableFactory(immutable);
-        throw new IllegalArgumentException("Unknown class: " + c.getName());
+        return getImmutableFactory(c).getImmutableFactory(immutable);
     }
 
     @Override
@@ -75,4 +143,13 @@ public class CascadingRegistry implements FactoryRegistry {
             throw new IllegalStateException("Unknown durable id: " + id);
         return factory;
     }
+
+    private ImmutableFactory resolve(Class c) {
+        ImmutableFactory factory = classMap.get(c);
+        if (factory != null)
+            return factory;
+        if (parent != null)
+            return parent.resolve(c);
+        throw new IllegalArgumentException("Unknown class: " + c.getName());
+    }
 }
@@ -0,0 +1,76 @@
+package org.agilewiki.awdb.db.immutable;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Encoding of the chars of a String in 1 to 3 bytes each, as in UTF-8 but one UTF-16 unit
+ * at a time, so every string, even one with unpaired surrogates, round trips.
+ * Encodings compare as unsigned bytes in the order of String.compareTo.
+ */
+public final class CompactChars {
+
+    private CompactChars() {
+    }
+
+    /**
+     * Returns the number of bytes needed to encode a string.
+     *
+     * @param string The string.
+     * @return The encoded length.
+     */
+    public static int length(String string) {
+        int length = 0;
+        for (int i = 0; i < string.length(); ++i) {
+            char c = string.charAt(i);
+            length += c < 0x80 ? 1 : c < 0x800 ? 2 : 3;
+        }
+        return length;
+    }
+
+    /**
+     * Encodes a string.
+     *
+     * @param string     The string.
+     * @param byteBuffer Where the encoding is written.
+     */
+    public static void encode(String string, ByteBuffer byteBuffer) {
+        for (int i = 0; i < string.length(); ++i) {
+            char c = string.charAt(i);
+            if (c < 0x80) {
+                byteBuffer.put((byte) c);
+            } else if (c < 0x800) {
+                byteBuffer.put((byte) (0xc0 | (c >>> 6)));
+                byteBuffer.put((byte) (0x80 | (c & 0x3f)));
+            } else {
+                byteBuffer.put((byte) (0xe0 | (c >>> 12)));
+                byteBuffer.put((byte) (0x80 | ((c >>> 6) & 0x3f)));
+                byteBuffer.put((byte) (0x80 | (c & 0x3f)));
+            }
+        }
+    }
+
+    /**
+     * Decodes a string, advancing the position of the buffer.
+     *
+     * @param byteBuffer Holds the encoding.
+     * @param length     The length of the encoding.
+     * @return The string.
+     */
+    public static String decode(ByteBuffer byteBuffer, int length) {
+        char[] c = new char[length];
+        int n = 0;
+        int end = byteBuffer.position() + length;
+        while (byteBuffer.position() < end) {
+            int b = byteBuffer.get() & 0xff;
+            if (b < 0x80) {
+                c[n++] = (char) b;
+            } else if (b < 0xe0) {
+                c[n++] = (char) (((b & 0x1f) << 6) | (byteBuffer.get() & 0x3f));
+            } else {
+                int b2 = byteBuffer.get() & 0x3f;
+                c[n++] = (char) (((b & 0x0f) << 12) | (b2 << 6) | (byteBuffer.get() & 0x3f));
+            }
+        }
+        return new String(c, 0, n);
+    }
+}
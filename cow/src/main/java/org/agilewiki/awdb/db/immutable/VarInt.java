@@ -0,0 +1,118 @@
+package org.agilewiki.awdb.db.immutable;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Variable length encoding of non-negative ints and longs, 7 bits per byte,
+ * with the high bit set on every byte but the last.
+ * Signed longs are zigzag encoded, so values near zero stay short.
+ */
+public final class VarInt {
+
+    private VarInt() {
+    }
+
+    /**
+     * Returns the number of bytes needed to encode a value.
+     *
+     * @param value A non-negative value.
+     * @return The encoded length, from 1 to 5.
+     */
+    public static int size(int value) {
+        if (value < 0)
+            throw new IllegalArgumentException("negative value: " + value);
+        int size = 1;
+        while (value >= 0x80) {
+            value >>>= 7;
+            size += 1;
+        }
+        return size;
+    }
+
+    /**
+     * Encodes a value.
+     *
+     * @param byteBuffer Where the value is written.
+     * @param value      A non-negative value.
+     */
+    public static void put(ByteBuffer byteBuffer, int value) {
+        if (value < 0)
+            throw new IllegalArgumentException("negative value: " + value);
+        while (value >= 0x80) {
+            byteBuffer.put((byte) (value | 0x80));
+            value >>>= 7;
+        }
+        byteBuffer.put((byte) value);
+    }
+
+    /**
+     * Decodes a value.
+     *
+     * @param byteBuffer Where the value is read.
+     * @return The value.
+     */
+    public static int get(ByteBuffer byteBuffer) {
+        int value = 0;
+        int shift = 0;
+        while (true) {
+            byte b = byteBuffer.get();
+            value |= (b & 0x7f) << shift;
+            if (b >= 0)
+                return value;
+            shift += 7;
+        }
+    }
+
+    /**
+     * Returns the number of bytes needed to encode a signed value.
+     *
+     * @param value A value.
+     * @return The encoded length, from 1 to 10.
+     */
+    public static int sizeSigned(long value) {
+        long v = zigZag(value);
+        int size = 1;
+        while ((v & ~0x7fL) != 0) {
+            v >>>= 7;
+            size += 1;
+        }
+        return size;
+    }
+
+    /**
+     * Encodes a signed value.
+     *
+     * @param byteBuffer Where the value is written.
+     * @param value      A value.
+     */
+    public static void putSigned(ByteBuffer byteBuffer, long value) {
+        long v = zigZag(value);
+        while ((v & ~0x7fL) != 0) {
+            byteBuffer.put((byte) (v | 0x80));
+            v >>>= 7;
+        }
+        byteBuffer.put((byte) v);
+    }
+
+    /**
+     * Decodes a signed value.
+     *
+     * @param byteBuffer Where the value is read.
+     * @return The value.
+     */
+    public static long getSigned(ByteBuffer byteBuffer) {
+        long v = 0;
+        int shift = 0;
+        while (true) {
+            byte b = byteBuffer.get();
+            v |= (long) (b & 0x7f) << shift;
+            if (b >= 0)
+                return (v >>> 1) ^ -(v & 1);
+            shift += 7;
+        }
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+}
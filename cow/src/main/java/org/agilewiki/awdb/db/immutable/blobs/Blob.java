@@ -0,0 +1,187 @@
+package org.agilewiki.awdb.db.immutable.blobs;
+
+import org.agilewiki.awdb.db.immutable.collections.Releasable;
+import org.agilewiki.awdb.db.virtualcow.DbFactoryRegistry;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * An immutable sequence of bytes held in a tree of blocks.
+ * Only the blocks covering the bytes being read are loaded.
+ * <p>
+ * Blobs are created with a BlobWriter while processing a transaction.
+ * </p>
+ */
+public class Blob implements Releasable {
+
+    /**
+     * The database factory registry.
+     */
+    public final DbFactoryRegistry registry;
+
+    /**
+     * The number of bytes in the blob.
+     */
+    public final long size;
+
+    /**
+     * The number of bytes held by each content block, except the last.
+     */
+    public final int chunkSize;
+
+    /**
+     * The depth of the trees rooted in the root references.
+     */
+    public final int depth;
+
+    protected final BlobReference[] roots;
+
+    /**
+     * The number of references held by a full index block.
+     */
+    protected final int fanout;
+
+    /**
+     * Create a blob.
+     *
+     * @param registry  The database factory registry.
+     * @param size      The number of bytes in the blob.
+     * @param chunkSize The number of bytes held by each content block.
+     * @param depth     The depth of the trees rooted in the root references.
+     * @param roots     The root references.
+     */
+    public Blob(DbFactoryRegistry registry, long size, int chunkSize, int depth, BlobReference[] roots) {
+        this.registry = registry;
+        this.size = size;
+        this.chunkSize = chunkSize;
+        this.depth = depth;
+        this.roots = roots;
+        fanout = fanout(chunkSize);
+    }
+
+    /**
+     * Returns the number of references held by a full index block.
+     *
+     * @param chunkSize The size of a block.
+     * @return The fanout.
+     */
+    static int fanout(int chunkSize) {
+        return (chunkSize - 4) / BlobReference.DURABLE_LENGTH;
+    }
+
+    /**
+     * Returns the number of bytes in the blob.
+     *
+     * @return The size of the blob.
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Returns a read-only view of a content block.
+     *
+     * @param chunkNbr The index of the content block.
+     * @return The content of the block.
+     */
+    public ByteBuffer chunk(long chunkNbr) {
+        if (chunkNbr < 0 || chunkNbr * chunkSize >= size)
+            throw new IndexOutOfBoundsException("chunk out of range: " + chunkNbr);
+        long span = 1;
+        for (int d = 0; d < depth; ++d) {
+            span *= fanout;
+        }
+        BlobReference ref = roots[(int) (chunkNbr / span)];
+        chunkNbr %= span;
+        while (ref.depth > 0) {
+            span /= fanout;
+            ref = ref.children()[(int) (chunkNbr / span)];
+            chunkNbr %= span;
+        }
+        return ref.content();
+    }
+
+    /**
+     * Copies bytes from the blob, loading only the blocks that are needed.
+     *
+     * @param position The offset of the first byte to be copied.
+     * @param dst      Where the bytes are placed.
+     * @return The number of bytes copied, or -1 if the position is at or past the end of the blob.
+     */
+    public int read(long position, ByteBuffer dst) {
+        if (position >= size)
+            return -1;
+        int count = 0;
+        while (dst.remaining() > 0 && position < size) {
+            ByteBuffer chunk = chunk(position / chunkSize);
+            chunk.position((int) (position % chunkSize));
+            int n = Math.min(chunk.remaining(), dst.remaining());
+            chunk.limit(chunk.position() + n);
+            dst.put(chunk);
+            position += n;
+            count += n;
+        }
+        return count;
+    }
+
+    /**
+     * Returns a read-only channel over the blob.
+     * The position of the channel can be set to read a range of bytes.
+     *
+     * @return A new channel.
+     */
+    public SeekableByteChannel newChannel() {
+        return new BlobChannel(this);
+    }
+
+    /**
+     * Returns an input stream over the blob.
+     *
+     * @return A new input stream.
+     */
+    public InputStream newInputStream() {
+        return Channels.newInputStream(newChannel());
+    }
+
+    @Override
+    public int getDurableLength() {
+        return 2 + 8 + 4 + 4 + 4 + roots.length * BlobReference.DURABLE_LENGTH;
+    }
+
+    /**
+     * Serialize this object into a ByteBuffer.
+     *
+     * @param byteBuffer Where the serialized data is to be placed.
+     */
+    public void serialize(ByteBuffer byteBuffer) {
+        byteBuffer.putLong(size);
+        byteBuffer.putInt(chunkSize);
+        byteBuffer.putInt(depth);
+        byteBuffer.putInt(roots.length);
+        for (BlobReference root : roots) {
+            root.serialize(byteBuffer);
+        }
+    }
+
+    @Override
+    public void releaseAll() {
+        for (BlobReference root : roots) {
+            root.releaseAll();
+        }
+    }
+
+    @Override
+    public void retainAll() {
+        for (BlobReference root : roots) {
+            root.retainAll();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Blob(" + size + ")";
+    }
+}
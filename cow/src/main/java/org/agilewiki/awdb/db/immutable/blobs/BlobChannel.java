@@ -0,0 +1,90 @@
+package org.agilewiki.awdb.db.immutable.blobs;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * A read-only channel over a blob.
+ * The content block being read is kept until the position moves past it.
+ */
+public class BlobChannel implements SeekableByteChannel {
+    private final Blob blob;
+    private long position;
+    private long chunkNbr = -1;
+    private ByteBuffer chunk;
+    private boolean open = true;
+
+    /**
+     * Create a channel.
+     *
+     * @param blob The blob to be read.
+     */
+    public BlobChannel(Blob blob) {
+        this.blob = blob;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws ClosedChannelException {
+        if (!open)
+            throw new ClosedChannelException();
+        if (position >= blob.size)
+            return -1;
+        int count = 0;
+        while (dst.remaining() > 0 && position < blob.size) {
+            long cn = position / blob.chunkSize;
+            if (cn != chunkNbr) {
+                chunk = blob.chunk(cn);
+                chunkNbr = cn;
+            }
+            ByteBuffer c = chunk.duplicate();
+            c.position((int) (position % blob.chunkSize));
+            int n = Math.min(c.remaining(), dst.remaining());
+            c.limit(c.position() + n);
+            dst.put(c);
+            position += n;
+            count += n;
+        }
+        return count;
+    }
+
+    @Override
+    public int write(ByteBuffer src) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public long position() {
+        return position;
+    }
+
+    @Override
+    public SeekableByteChannel position(long newPosition) {
+        if (newPosition < 0)
+            throw new IllegalArgumentException("negative position");
+        position = newPosition;
+        return this;
+    }
+
+    @Override
+    public long size() {
+        return blob.size;
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() {
+        open = false;
+        chunk = null;
+    }
+}
@@ -0,0 +1,50 @@
+package org.agilewiki.awdb.db.immutable.blobs;
+
+import org.agilewiki.awdb.db.immutable.BaseFactory;
+import org.agilewiki.awdb.db.virtualcow.DbFactoryRegistry;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Defines how a Blob is serialized / deserialized.
+ */
+public class BlobFactory extends BaseFactory {
+
+    /**
+     * Create and register the factory.
+     *
+     * @param registry The registry where the factory is registered.
+     */
+    public BlobFactory(DbFactoryRegistry registry) {
+        super(registry, registry.blobId);
+    }
+
+    @Override
+    public Class getImmutableClass() {
+        return Blob.class;
+    }
+
+    @Override
+    public int getDurableLength(Object immutable) {
+        return ((Blob) immutable).getDurableLength();
+    }
+
+    @Override
+    public void serialize(Object immutable, ByteBuffer byteBuffer) {
+        ((Blob) immutable).serialize(byteBuffer);
+    }
+
+    @Override
+    public Blob deserialize(ByteBuffer byteBuffer) {
+        DbFactoryRegistry registry = (DbFactoryRegistry) factoryRegistry;
+        long size = byteBuffer.getLong();
+        int chunkSize = byteBuffer.getInt();
+        int depth = byteBuffer.getInt();
+        int count = byteBuffer.getInt();
+        BlobReference[] roots = new BlobReference[count];
+        for (int i = 0; i < count; ++i) {
+            roots[i] = BlobReference.read(registry, byteBuffer, depth);
+        }
+        return new Blob(registry, size, chunkSize, depth, roots);
+    }
+}
@@ -0,0 +1,103 @@
+package org.agilewiki.awdb.db.immutable.blobs;
+
+import org.agilewiki.awdb.db.immutable.ImmutableFactory;
+import org.agilewiki.awdb.db.immutable.scalars.CS256;
+import org.agilewiki.awdb.db.virtualcow.BlockReference;
+import org.agilewiki.awdb.db.virtualcow.DbFactoryRegistry;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A reference to a block of a blob.
+ * At depth 0 the block holds raw content, otherwise it holds
+ * the references to the blocks of the next lower depth.
+ */
+public class BlobReference extends BlockReference {
+
+    /**
+     * The durable length of a reference held by an index block.
+     */
+    public final static int DURABLE_LENGTH = 4 + 4 + 34;
+
+    /**
+     * The depth of the subtree rooted in the referenced block.
+     */
+    public final int depth;
+
+    /**
+     * Create a reference to an existing block.
+     *
+     * @param registry    The registry for the database.
+     * @param blockNbr    The number of the block being referenced.
+     * @param blockLength The length of the data held by the block.
+     * @param cs256       The checksum of the contents of the block.
+     * @param depth       The depth of the subtree rooted in the block.
+     */
+    public BlobReference(DbFactoryRegistry registry,
+                         int blockNbr,
+                         int blockLength,
+                         CS256 cs256,
+                         int depth) {
+        super(registry, blockNbr, blockLength, cs256);
+        this.depth = depth;
+    }
+
+    /**
+     * Returns a read-only view of the content of a depth 0 block.
+     *
+     * @return The content.
+     */
+    public ByteBuffer content() {
+        return ((ByteBuffer) getData()).duplicate();
+    }
+
+    /**
+     * Returns the references held by an index block.
+     *
+     * @return The references.
+     */
+    public BlobReference[] children() {
+        return (BlobReference[]) getData();
+    }
+
+    @Override
+    protected Object loadData(ByteBuffer byteBuffer) {
+        if (depth == 0)
+            return byteBuffer.asReadOnlyBuffer();
+        int count = byteBuffer.getInt();
+        BlobReference[] children = new BlobReference[count];
+        for (int i = 0; i < count; ++i) {
+            children[i] = read(registry, byteBuffer, depth - 1);
+        }
+        return children;
+    }
+
+    /**
+     * Releases the block and, unless it is still shared,
+     * the blocks of the subtree below it.
+     */
+    @Override
+    public void releaseAll() {
+        if (!registry.db.release(blockNbr) || depth == 0)
+            return;
+        for (BlobReference child : children()) {
+            child.releaseAll();
+        }
+    }
+
+    /**
+     * Read a reference written by BlockReference.serialize.
+     *
+     * @param registry   The registry for the database.
+     * @param byteBuffer Holds the serialized reference.
+     * @param depth      The depth of the subtree rooted in the referenced block.
+     * @return The reference.
+     */
+    static BlobReference read(DbFactoryRegistry registry, ByteBuffer byteBuffer, int depth) {
+        int blockNbr = byteBuffer.getInt();
+        int blockLength = byteBuffer.getInt();
+        ImmutableFactory factory = registry.readId(byteBuffer);
+        CS256 cs256 = (CS256) factory.deserialize(byteBuffer);
+        return new BlobReference(registry, blockNbr, blockLength, cs256, depth);
+    }
+}
@@ -0,0 +1,154 @@
+package org.agilewiki.awdb.db.immutable.blobs;
+
+import org.agilewiki.awdb.db.immutable.scalars.CS256;
+import org.agilewiki.awdb.db.virtualcow.Db;
+import org.agilewiki.awdb.db.virtualcow.DbFactoryRegistry;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes a blob as its content arrives, one block at a time.
+ * Index blocks are written as each level fills, so only one content block
+ * and one partial index per level are held in memory.
+ * <p>
+ * A BlobWriter can only be used while processing a transaction.
+ * </p>
+ */
+public class BlobWriter extends OutputStream implements WritableByteChannel {
+    private final DbFactoryRegistry registry;
+    private final Db db;
+    private final int chunkSize;
+    private final int fanout;
+    private final ByteBuffer chunk;
+    private final List<List<BlobReference>> levels = new ArrayList<>();
+    private long size;
+    private Blob blob;
+
+    /**
+     * Create a blob writer.
+     *
+     * @param registry The database factory registry.
+     */
+    public BlobWriter(DbFactoryRegistry registry) {
+        this.registry = registry;
+        db = registry.db;
+        db.checkPrivilege();
+        chunkSize = db.maxBlockSize;
+        fanout = Blob.fanout(chunkSize);
+        if (fanout < 2)
+            throw new IllegalArgumentException("max block size is too small for a blob");
+        chunk = ByteBuffer.allocate(chunkSize);
+    }
+
+    @Override
+    public void write(int b) throws ClosedChannelException {
+        if (blob != null)
+            throw new ClosedChannelException();
+        chunk.put((byte) b);
+        ++size;
+        if (!chunk.hasRemaining())
+            flushChunk();
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws ClosedChannelException {
+        write(ByteBuffer.wrap(b, off, len));
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws ClosedChannelException {
+        if (blob != null)
+            throw new ClosedChannelException();
+        int count = src.remaining();
+        while (src.hasRemaining()) {
+            int n = Math.min(src.remaining(), chunk.remaining());
+            ByteBuffer s = src.duplicate();
+            s.limit(s.position() + n);
+            chunk.put(s);
+            src.position(src.position() + n);
+            if (!chunk.hasRemaining())
+                flushChunk();
+        }
+        size += count;
+        return count;
+    }
+
+    private void flushChunk() {
+        chunk.flip();
+        add(0, writeBlock(chunk, 0, null));
+        chunk.clear();
+    }
+
+    private BlobReference writeBlock(ByteBuffer content, int depth, Blob children) {
+        CS256 cs256 = new CS256(content);
+        int blockLength = content.remaining();
+        int blockNbr = db.writeContent(content, cs256, depth == 0 ? Blob.class : BlobReference.class, children);
+        return new BlobReference(registry, blockNbr, blockLength, cs256, depth);
+    }
+
+    private void add(int depth, BlobReference ref) {
+        if (levels.size() == depth)
+            levels.add(new ArrayList<>());
+        List<BlobReference> level = levels.get(depth);
+        level.add(ref);
+        if (level.size() == fanout)
+            flushLevel(depth);
+    }
+
+    private void flushLevel(int depth) {
+        List<BlobReference> level = levels.get(depth);
+        ByteBuffer index = ByteBuffer.allocate(4 + level.size() * BlobReference.DURABLE_LENGTH);
+        index.putInt(level.size());
+        for (BlobReference ref : level) {
+            ref.serialize(index);
+        }
+        index.flip();
+        Blob children = new Blob(registry, 0, chunkSize, depth, level.toArray(new BlobReference[level.size()]));
+        level.clear();
+        add(depth + 1, writeBlock(index, depth + 1, children));
+    }
+
+    @Override
+    public boolean isOpen() {
+        return blob == null;
+    }
+
+    /**
+     * Writes the last content block and the partial index blocks, reducing the tree to a single root.
+     */
+    @Override
+    public void close() {
+        if (blob != null)
+            return;
+        if (chunk.position() > 0)
+            flushChunk();
+        int depth = 0;
+        while (depth < levels.size()) {
+            List<BlobReference> level = levels.get(depth);
+            if (depth == levels.size() - 1 && level.size() < 2)
+                break;
+            if (level.size() > 0)
+                flushLevel(depth);
+            ++depth;
+        }
+        BlobReference[] roots = levels.isEmpty() ?
+                new BlobReference[0] :
+                levels.get(depth).toArray(new BlobReference[0]);
+        blob = new Blob(registry, size, chunkSize, depth, roots);
+    }
+
+    /**
+     * Closes the writer and returns the blob.
+     *
+     * @return The blob that was written.
+     */
+    public Blob blob() {
+        close();
+        return blob;
+    }
+}
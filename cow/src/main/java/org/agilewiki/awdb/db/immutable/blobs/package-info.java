@@ -0,0 +1,5 @@
+/**
+ * Immutable values too large for a single block,
+ * held as a tree of blocks and read as a stream.
+ */
+package org.agilewiki.awdb.db.immutable.blobs;
@@ -0,0 +1,208 @@
+package org.agilewiki.awdb.db.immutable.collections;
+
+import java.util.ArrayList;
+
+/**
+ * A cursor over an AA tree. The path holds the data of each node from the root
+ * down to the current node, along with the side each was reached from.
+ */
+public abstract class AATreeCursor extends KeyCursor {
+
+    private final Object root;
+    private final ArrayList<Object> path = new ArrayList<>();
+    private final ArrayList<Boolean> fromRight = new ArrayList<>();
+
+    /**
+     * Create a cursor, which must then be positioned.
+     *
+     * @param root The root node of the tree.
+     */
+    protected AATreeCursor(Object root) {
+        this.root = root;
+    }
+
+    /**
+     * Returns the data of a node.
+     *
+     * @param node A node.
+     * @return The data, or null when the subtree is nil or holds nothing to visit.
+     */
+    protected abstract Object data(Object node);
+
+    protected abstract Object left(Object data);
+
+    protected abstract Object right(Object data);
+
+    protected abstract Comparable key(Object data);
+
+    protected abstract Object list(Object data);
+
+    /**
+     * Hints that a subtree is likely to be visited soon, as the cursor is moving forward.
+     *
+     * @param node A node.
+     */
+    protected void readAhead(Object node) {
+    }
+
+    /**
+     * Returns true when the cursor may stop on a node.
+     *
+     * @param data The data of the node.
+     * @return True if the key is visited.
+     */
+    protected boolean accept(Object data) {
+        return true;
+    }
+
+    private Object top() {
+        return path.get(path.size() - 1);
+    }
+
+    private void push(Object data, boolean right) {
+        path.add(data);
+        fromRight.add(right);
+    }
+
+    private boolean pop() {
+        path.remove(path.size() - 1);
+        return fromRight.remove(fromRight.size() - 1);
+    }
+
+    private void clear() {
+        path.clear();
+        fromRight.clear();
+    }
+
+    private void leftmost(Object node, boolean right) {
+        Object d = data(node);
+        while (d != null) {
+            push(d, right);
+            right = false;
+            readAhead(right(d));
+            d = data(left(d));
+        }
+    }
+
+    private void rightmost(Object node, boolean right) {
+        Object d = data(node);
+        while (d != null) {
+            push(d, right);
+            right = true;
+            d = data(right(d));
+        }
+    }
+
+    private boolean successor() {
+        Object d = top();
+        if (data(right(d)) != null) {
+            leftmost(right(d), true);
+            return true;
+        }
+        while (!path.isEmpty() && pop()) {
+        }
+        return !path.isEmpty();
+    }
+
+    private boolean predecessor() {
+        Object d = top();
+        if (data(left(d)) != null) {
+            rightmost(left(d), false);
+            return true;
+        }
+        while (!path.isEmpty() && !pop()) {
+        }
+        return !path.isEmpty();
+    }
+
+    private boolean settleForward() {
+        while (!path.isEmpty() && !accept(top())) {
+            if (!successor())
+                return false;
+        }
+        return !path.isEmpty();
+    }
+
+    private boolean settleBackward() {
+        while (!path.isEmpty() && !accept(top())) {
+            if (!predecessor())
+                return false;
+        }
+        return !path.isEmpty();
+    }
+
+    @Override
+    public void first() {
+        clear();
+        leftmost(root, false);
+        settleForward();
+    }
+
+    @Override
+    public void last() {
+        clear();
+        rightmost(root, false);
+        settleBackward();
+    }
+
+    @Override
+    public void seek(Comparable key, boolean inclusive) {
+        clear();
+        int candidate = 0;
+        boolean right = false;
+        Object d = data(root);
+        while (d != null) {
+            push(d, right);
+            int c = key.compareTo(key(d));
+            if (c == 0 && inclusive) {
+                candidate = path.size();
+                break;
+            }
+            if (c < 0) {
+                candidate = path.size();
+                right = false;
+                readAhead(right(d));
+                d = data(left(d));
+            } else {
+                right = true;
+                d = data(right(d));
+            }
+        }
+        while (path.size() > candidate)
+            pop();
+        settleForward();
+    }
+
+    @Override
+    public boolean next() {
+        if (path.isEmpty())
+            return false;
+        if (!successor())
+            return false;
+        return settleForward();
+    }
+
+    @Override
+    public boolean prior() {
+        if (path.isEmpty())
+            return false;
+        if (!predecessor())
+            return false;
+        return settleBackward();
+    }
+
+    @Override
+    public boolean isValid() {
+        return !path.isEmpty();
+    }
+
+    @Override
+    public Comparable key() {
+        return key(top());
+    }
+
+    @Override
+    public Object list() {
+        return list(top());
+    }
+}
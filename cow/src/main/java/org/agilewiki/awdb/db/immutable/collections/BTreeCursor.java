@@ -0,0 +1,170 @@
+package org.agilewiki.awdb.db.immutable.collections;
+
+import org.agilewiki.awdb.db.virtualcow.BlockReference;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A cursor over a B-tree map. The path holds the data of each node from the root
+ * down to a leaf, along with the index of the child, or in a leaf the key, being visited.
+ */
+public class BTreeCursor extends KeyCursor {
+
+    private final BTreeMapNode root;
+    private final ArrayList<BTreeMapNodeData> path = new ArrayList<>();
+    private int[] indexes = new int[8];
+
+    /**
+     * Create a cursor, positioned on the smallest key.
+     *
+     * @param root The root node of the tree.
+     */
+    public BTreeCursor(BTreeMapNode root) {
+        this.root = root;
+        first();
+    }
+
+    private void push(BTreeMapNodeData data, int index) {
+        if (path.size() == indexes.length)
+            indexes = Arrays.copyOf(indexes, indexes.length * 2);
+        indexes[path.size()] = index;
+        path.add(data);
+    }
+
+    private static void readAhead(BTreeMapNodeData d, int index) {
+        if (index + 1 < d.children.length && d.children[index + 1] instanceof BlockReference)
+            ((BlockReference) d.children[index + 1]).readAhead();
+    }
+
+    private BTreeMapNodeData leaf() {
+        return path.get(path.size() - 1);
+    }
+
+    private int leafIndex() {
+        return indexes[path.size() - 1];
+    }
+
+    private void leftmost(BTreeMapNode node) {
+        BTreeMapNodeData d = node.getBTreeData();
+        while (!d.isLeaf()) {
+            push(d, 0);
+            readAhead(d, 0);
+            d = d.children[0].getBTreeData();
+        }
+        if (d.keys.length > 0)
+            push(d, 0);
+        else
+            path.clear();
+    }
+
+    private void rightmost(BTreeMapNode node) {
+        BTreeMapNodeData d = node.getBTreeData();
+        while (!d.isLeaf()) {
+            push(d, d.children.length - 1);
+            d = d.children[d.children.length - 1].getBTreeData();
+        }
+        if (d.keys.length > 0)
+            push(d, d.keys.length - 1);
+        else
+            path.clear();
+    }
+
+    private boolean nextLeaf() {
+        path.remove(path.size() - 1);
+        while (!path.isEmpty()) {
+            int top = path.size() - 1;
+            BTreeMapNodeData d = path.get(top);
+            if (indexes[top] + 1 < d.children.length) {
+                indexes[top] += 1;
+                readAhead(d, indexes[top]);
+                leftmost(d.children[indexes[top]]);
+                return true;
+            }
+            path.remove(top);
+        }
+        return false;
+    }
+
+    private boolean priorLeaf() {
+        path.remove(path.size() - 1);
+        while (!path.isEmpty()) {
+            int top = path.size() - 1;
+            BTreeMapNodeData d = path.get(top);
+            if (indexes[top] > 0) {
+                indexes[top] -= 1;
+                rightmost(d.children[indexes[top]]);
+                return true;
+            }
+            path.remove(top);
+        }
+        return false;
+    }
+
+    @Override
+    public void first() {
+        path.clear();
+        leftmost(root);
+    }
+
+    @Override
+    public void last() {
+        path.clear();
+        rightmost(root);
+    }
+
+    @Override
+    public void seek(Comparable key, boolean inclusive) {
+        path.clear();
+        BTreeMapNodeData d = root.getBTreeData();
+        while (!d.isLeaf()) {
+            int i = Arrays.binarySearch(d.keys, key);
+            i = i >= 0 ? i : Math.max(-i - 2, 0);
+            push(d, i);
+            readAhead(d, i);
+            d = d.children[i].getBTreeData();
+        }
+        int i = Arrays.binarySearch(d.keys, key);
+        i = i >= 0 ? (inclusive ? i : i + 1) : -i - 1;
+        push(d, i);
+        if (i >= d.keys.length)
+            nextLeaf();
+    }
+
+    @Override
+    public boolean next() {
+        if (path.isEmpty())
+            return false;
+        if (leafIndex() + 1 < leaf().keys.length) {
+            indexes[path.size() - 1] += 1;
+            return true;
+        }
+        return nextLeaf();
+    }
+
+    @Override
+    public boolean prior() {
+        if (path.isEmpty())
+            return false;
+        if (leafIndex() > 0) {
+            indexes[path.size() - 1] -= 1;
+            return true;
+        }
+        return priorLeaf();
+    }
+
+    @Override
+    public boolean isValid() {
+        return !path.isEmpty();
+    }
+
+    @Override
+    public Comparable key() {
+        return leaf().keys[leafIndex()];
+    }
+
+    @Override
+    public Object list() {
+        return leaf().lists[leafIndex()];
+    }
+}
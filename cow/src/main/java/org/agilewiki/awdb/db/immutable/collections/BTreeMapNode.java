@@ -0,0 +1,177 @@
+package org.agilewiki.awdb.db.immutable.collections;
+
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.UnaryOperator;
+
+/**
+ * An immutable map of lists held in a B-tree.
+ * <p>
+ * Each node holds up to fanout sorted keys, so a lookup reads
+ * far fewer nodes, and blocks, than in the AA tree of a MapNode.
+ * A B-tree map is never the nil map; when empty, it is a leaf without keys.
+ * </p>
+ */
+public interface BTreeMapNode extends MapNode {
+
+    /**
+     * Returns the content of the node.
+     *
+     * @return The node data.
+     */
+    BTreeMapNodeData getBTreeData();
+
+    /**
+     * A B-tree node has no AA tree data.
+     */
+    @Override
+    default MapNodeData getData() {
+        throw new UnsupportedOperationException("a B-tree map node has no AA tree data");
+    }
+
+    @Override
+    default boolean isNil() {
+        return false;
+    }
+
+    /**
+     * Replaces the list of a key.
+     *
+     * @param key      The key of the list.
+     * @param function Maps the current list, or the nil list, to its replacement.
+     *                 An empty replacement removes the key.
+     * @return The revised root node.
+     */
+    default BTreeMapNode update(Comparable key, UnaryOperator<ListNode> function) {
+        if (key == null)
+            throw new IllegalArgumentException("key may not be null");
+        BTreeMapNodeData data = getBTreeData();
+        BTreeMapNode[] nodes = data.update(key, function);
+        if (nodes == null)
+            return this;
+        return getRegistry().bTreeMapNodeFactory.root(data.fanout, nodes);
+    }
+
+    @Override
+    default MapNode compute(Comparable key, UnaryOperator<ListNode> function) {
+        return update(key, function);
+    }
+
+    @Override
+    default ListNode getList(Comparable key) {
+        return getBTreeData().getList(key);
+    }
+
+    @Override
+    default MapNode add(Comparable key, int ndx, Object value) {
+        return update(key, l -> l.add(ndx, value));
+    }
+
+    @Override
+    default MapNode remove(Comparable key, int ndx) {
+        return update(key, l -> l.isNil() ? l : l.remove(ndx));
+    }
+
+    @Override
+    default MapNode remove(Comparable key, Object x) {
+        return update(key, l -> l.isNil() ? l : l.remove(x));
+    }
+
+    @Override
+    default MapNode remove(Comparable key) {
+        ListNode nil = getRegistry().nilList;
+        return update(key, l -> {
+            if (l.isNil())
+                return l;
+            l.releaseAll();
+            return nil;
+        });
+    }
+
+    @Override
+    default NavigableSet flatKeys() {
+        NavigableSet keys = new TreeSet<>();
+        getBTreeData().flatKeys(keys);
+        return keys;
+    }
+
+    @Override
+    default NavigableMap<Comparable, List> flatMap() {
+        NavigableMap<Comparable, List> map = new TreeMap<Comparable, List>();
+        getBTreeData().flatMap(map);
+        return map;
+    }
+
+    @Override
+    default KeyCursor cursor() {
+        return new BTreeCursor(this);
+    }
+
+    @Override
+    default int totalSize() {
+        return getBTreeData().totalSize();
+    }
+
+    @Override
+    default int size() {
+        return totalSize();
+    }
+
+    @Override
+    default int rank(Comparable key) {
+        return getBTreeData().rank(key);
+    }
+
+    @Override
+    default Comparable keyAt(int ndx) {
+        return getBTreeData().keyAt(ndx);
+    }
+
+    @Override
+    default Comparable firstKey() {
+        return getBTreeData().firstKey();
+    }
+
+    @Override
+    default Comparable lastKey() {
+        return getBTreeData().lastKey();
+    }
+
+    @Override
+    default Comparable higherKey(Comparable key) {
+        return getBTreeData().higherKey(key);
+    }
+
+    @Override
+    default Comparable ceilingKey(Comparable key) {
+        return getBTreeData().ceilingKey(key);
+    }
+
+    @Override
+    default Comparable lowerKey(Comparable key) {
+        return getBTreeData().lowerKey(key);
+    }
+
+    @Override
+    default Comparable floorKey(Comparable key) {
+        return getBTreeData().floorKey(key);
+    }
+
+    @Override
+    default void releaseAll() {
+        getBTreeData().releaseAll();
+    }
+
+    @Override
+    default void retainAll() {
+        getBTreeData().retainAll();
+    }
+
+    @Override
+    default Object resize(int maxSize, int maxBlockSize) {
+        return getBTreeData().resize(maxSize, maxBlockSize);
+    }
+}
@@ -0,0 +1,605 @@
+package org.agilewiki.awdb.db.immutable.collections;
+
+import org.agilewiki.awdb.db.immutable.FactoryRegistry;
+import org.agilewiki.awdb.db.immutable.ImmutableFactory;
+import org.agilewiki.awdb.db.virtualcow.BlockReference;
+import org.agilewiki.awdb.db.virtualcow.DbFactoryRegistry;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.function.UnaryOperator;
+
+/**
+ * The durable data elements of a B-tree map node.
+ * <p>
+ * A leaf holds sorted keys and their lists. An inner node holds its children,
+ * each with the smallest key held by that child.
+ * </p>
+ */
+public class BTreeMapNodeData implements Releasable {
+
+    /**
+     * The node which holds this data.
+     */
+    public final BTreeMapNode thisNode;
+
+    /**
+     * The height of the node, 0 for a leaf.
+     */
+    public final int height;
+
+    /**
+     * The max number of keys or children in a node of this tree.
+     */
+    public final int fanout;
+
+    /**
+     * The sorted keys of a leaf, or the smallest key of each child.
+     */
+    public final Comparable[] keys;
+
+    /**
+     * The lists of a leaf, or null.
+     */
+    public final ListNode[] lists;
+
+    /**
+     * The children of an inner node, or null.
+     */
+    public final BTreeMapNode[] children;
+
+    /**
+     * The count of the keys in this subtree, or -1 when not yet known.
+     */
+    private int totalSize = -1;
+
+    /**
+     * Create the data for a leaf.
+     *
+     * @param thisNode The node which holds this data.
+     * @param fanout   The max number of keys in a node.
+     * @param keys     The sorted keys.
+     * @param lists    The lists of the keys.
+     */
+    public BTreeMapNodeData(BTreeMapNode thisNode, int fanout, Comparable[] keys, ListNode[] lists) {
+        this.thisNode = thisNode;
+        height = 0;
+        this.fanout = fanout;
+        this.keys = keys;
+        this.lists = lists;
+        children = null;
+    }
+
+    /**
+     * Create the data for an inner node.
+     *
+     * @param thisNode The node which holds this data.
+     * @param height   The height of the node.
+     * @param fanout   The max number of children in a node.
+     * @param keys     The smallest key of each child.
+     * @param children The children.
+     */
+    public BTreeMapNodeData(BTreeMapNode thisNode, int height, int fanout,
+                            Comparable[] keys, BTreeMapNode[] children) {
+        this.thisNode = thisNode;
+        this.height = height;
+        this.fanout = fanout;
+        this.keys = keys;
+        lists = null;
+        this.children = children;
+    }
+
+    /**
+     * Create the data for a node.
+     *
+     * @param thisNode   The node which holds this data.
+     * @param byteBuffer Holds the serialized data.
+     */
+    public BTreeMapNodeData(BTreeMapNode thisNode, ByteBuffer byteBuffer) {
+        this.thisNode = thisNode;
+        height = byteBuffer.getInt();
+        fanout = byteBuffer.getInt();
+        int count = byteBuffer.getInt();
+        FactoryRegistry factoryRegistry = thisNode.getRegistry();
+        keys = new Comparable[count];
+        if (height == 0) {
+            lists = new ListNode[count];
+            children = null;
+        } else {
+            lists = null;
+            children = new BTreeMapNode[count];
+        }
+        for (int i = 0; i < count; ++i) {
+            ImmutableFactory f = factoryRegistry.readId(byteBuffer);
+            keys[i] = (Comparable) f.deserialize(byteBuffer);
+            f = factoryRegistry.readId(byteBuffer);
+            if (height == 0)
+                lists[i] = (ListNode) f.deserialize(byteBuffer);
+            else
+                children[i] = (BTreeMapNode) f.deserialize(byteBuffer);
+        }
+    }
+
+    /**
+     * Returns true if this is the data of a leaf.
+     *
+     * @return True if a leaf.
+     */
+    public boolean isLeaf() {
+        return height == 0;
+    }
+
+    private int search(Comparable key) {
+        return Arrays.binarySearch(keys, key);
+    }
+
+    /**
+     * Returns the index of the child which holds, or would hold, the given key.
+     *
+     * @param key The key.
+     * @return The index of the child.
+     */
+    private int childIndex(Comparable key) {
+        int i = search(key);
+        if (i >= 0)
+            return i;
+        return Math.max(-i - 2, 0);
+    }
+
+    /**
+     * Returns the list for the node.
+     *
+     * @param key The key for the node.
+     * @return The list, or null.
+     */
+    public ListNode getList(Comparable key) {
+        if (isLeaf()) {
+            int i = search(key);
+            return i < 0 ? null : lists[i];
+        }
+        return children[childIndex(key)].getList(key);
+    }
+
+    /**
+     * Replaces the list of a key.
+     *
+     * @param key      The key of the list.
+     * @param function Maps the current list, or the nil list, to its replacement.
+     *                 An empty replacement removes the key.
+     * @return The nodes replacing this node: none when it is now empty, two when split,
+     * or null when unchanged.
+     */
+    public BTreeMapNode[] update(Comparable key, UnaryOperator<ListNode> function) {
+        DbFactoryRegistry registry = thisNode.getRegistry();
+        BTreeMapNodeFactory factory = registry.bTreeMapNodeFactory;
+        if (isLeaf()) {
+            int i = search(key);
+            ListNode old = i < 0 ? registry.nilList : lists[i];
+            ListNode n = function.apply(old);
+            if (n == old)
+                return null;
+            Comparable[] k;
+            ListNode[] l;
+            if (i < 0) {
+                if (n.isNil())
+                    return null;
+                k = insert(keys, -i - 1, key);
+                l = insert(lists, -i - 1, n);
+            } else if (n.isNil()) {
+                k = delete(keys, i);
+                l = delete(lists, i);
+            } else {
+                k = keys;
+                l = lists.clone();
+                l[i] = n;
+            }
+            thisNode.releaseLocal();
+            return factory.leaves(fanout, k, l);
+        }
+        int ci = childIndex(key);
+        BTreeMapNode[] r = children[ci].getBTreeData().update(key, function);
+        if (r == null)
+            return null;
+        Comparable[] rk = new Comparable[r.length];
+        for (int j = 0; j < r.length; ++j) {
+            rk[j] = r[j].getBTreeData().keys[0];
+        }
+        thisNode.releaseLocal();
+        return factory.inners(height, fanout, splice(keys, ci, 1, rk), splice(children, ci, 1, r));
+    }
+
+    /**
+     * Returns a copy of an array with elements removed and inserted.
+     *
+     * @param array       The array.
+     * @param index       Where elements are removed and inserted.
+     * @param deleteCount The number of elements removed.
+     * @param inserts     The elements inserted.
+     * @return The revised copy.
+     */
+    static <T> T[] splice(T[] array, int index, int deleteCount, T[] inserts) {
+        T[] result = Arrays.copyOf(array, array.length - deleteCount + inserts.length);
+        System.arraycopy(inserts, 0, result, index, inserts.length);
+        System.arraycopy(array, index + deleteCount, result, index + inserts.length,
+                array.length - index - deleteCount);
+        return result;
+    }
+
+    /**
+     * Returns a copy of an array with an element inserted.
+     *
+     * @param array   The array.
+     * @param index   Where the element is inserted.
+     * @param element The element.
+     * @return The revised copy.
+     */
+    static <T> T[] insert(T[] array, int index, T element) {
+        T[] result = Arrays.copyOf(array, array.length + 1);
+        System.arraycopy(array, index, result, index + 1, array.length - index);
+        result[index] = element;
+        return result;
+    }
+
+    /**
+     * Returns a copy of an array with an element removed.
+     *
+     * @param array The array.
+     * @param index The position of the element.
+     * @return The revised copy.
+     */
+    static <T> T[] delete(T[] array, int index) {
+        T[] result = Arrays.copyOf(array, array.length - 1);
+        System.arraycopy(array, index + 1, result, index, array.length - index - 1);
+        return result;
+    }
+
+    /**
+     * Add the non-empty keys to a set.
+     *
+     * @param keys The set of keys.
+     */
+    public void flatKeys(NavigableSet<Comparable> keys) {
+        if (isLeaf()) {
+            for (int i = 0; i < this.keys.length; ++i) {
+                if (!lists[i].isEmpty())
+                    keys.add(this.keys[i]);
+            }
+            return;
+        }
+        for (BTreeMapNode child : children) {
+            child.getBTreeData().flatKeys(keys);
+        }
+    }
+
+    /**
+     * Add the non-empty keys and their lists to a map.
+     *
+     * @param map The map.
+     */
+    public void flatMap(NavigableMap<Comparable, List> map) {
+        if (isLeaf()) {
+            for (int i = 0; i < keys.length; ++i) {
+                if (!lists[i].isEmpty())
+                    map.put(keys[i], lists[i].flatList());
+            }
+            return;
+        }
+        for (BTreeMapNode child : children) {
+            child.getBTreeData().flatMap(map);
+        }
+    }
+
+    /**
+     * Returns the count of all the keys in the map.
+     *
+     * @return The count of all the keys in the map.
+     */
+    public int totalSize() {
+        if (isLeaf())
+            return keys.length;
+        int t = totalSize;
+        if (t < 0) {
+            t = 0;
+            for (BTreeMapNode child : children) {
+                t += child.totalSize();
+            }
+            if (!(thisNode instanceof BTreeMapNodeImpl && ((BTreeMapNodeImpl) thisNode).isTransient()))
+                totalSize = t;
+        }
+        return t;
+    }
+
+    /**
+     * Returns the count of the keys less than the given key.
+     *
+     * @param key The given key.
+     * @return The position the key has, or would have, in the map.
+     */
+    public int rank(Comparable key) {
+        if (isLeaf()) {
+            int i = search(key);
+            return i < 0 ? -i - 1 : i;
+        }
+        int ci = childIndex(key);
+        int r = 0;
+        for (int i = 0; i < ci; ++i) {
+            r += children[i].totalSize();
+        }
+        return r + children[ci].getBTreeData().rank(key);
+    }
+
+    /**
+     * Returns the key at the given position.
+     *
+     * @param ndx The position of the key.
+     * @return The key, or null when out of range.
+     */
+    public Comparable keyAt(int ndx) {
+        if (ndx < 0)
+            return null;
+        if (isLeaf())
+            return ndx < keys.length ? keys[ndx] : null;
+        for (BTreeMapNode child : children) {
+            int s = child.totalSize();
+            if (ndx < s)
+                return child.getBTreeData().keyAt(ndx);
+            ndx -= s;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the smallest key.
+     *
+     * @return The smallest key, or null.
+     */
+    public Comparable firstKey() {
+        return keys.length == 0 ? null : keys[0];
+    }
+
+    /**
+     * Returns the largest key.
+     *
+     * @return The largest key, or null.
+     */
+    public Comparable lastKey() {
+        if (isLeaf())
+            return keys.length == 0 ? null : keys[keys.length - 1];
+        return children[children.length - 1].lastKey();
+    }
+
+    /**
+     * Returns the next greater key.
+     *
+     * @param key The given key.
+     * @return The next greater key, or null.
+     */
+    public Comparable higherKey(Comparable key) {
+        if (isLeaf()) {
+            int i = search(key);
+            i = i < 0 ? -i - 1 : i + 1;
+            return i < keys.length ? keys[i] : null;
+        }
+        for (int j = childIndex(key); j < children.length; ++j) {
+            if (j + 1 < children.length)
+                readAhead(children[j + 1]);
+            Comparable k = children[j].higherKey(key);
+            if (k != null)
+                return k;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the key that is greater than or equal to the given key.
+     *
+     * @param key The given key.
+     * @return The key greater than or equal to the given key, or null.
+     */
+    public Comparable ceilingKey(Comparable key) {
+        if (isLeaf()) {
+            int i = search(key);
+            if (i < 0)
+                i = -i - 1;
+            return i < keys.length ? keys[i] : null;
+        }
+        for (int j = childIndex(key); j < children.length; ++j) {
+            if (j + 1 < children.length)
+                readAhead(children[j + 1]);
+            Comparable k = children[j].ceilingKey(key);
+            if (k != null)
+                return k;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the next smaller key.
+     *
+     * @param key The given key.
+     * @return The next smaller key, or null.
+     */
+    public Comparable lowerKey(Comparable key) {
+        if (isLeaf()) {
+            int i = search(key);
+            i = i < 0 ? -i - 2 : i - 1;
+            return i < 0 ? null : keys[i];
+        }
+        for (int j = childIndex(key); j >= 0; --j) {
+            Comparable k = children[j].lowerKey(key);
+            if (k != null)
+                return k;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the key that is smaller than or equal to the given key.
+     *
+     * @param key The given key.
+     * @return The key smaller than or equal to the given key, or null.
+     */
+    public Comparable floorKey(Comparable key) {
+        if (isLeaf()) {
+            int i = search(key);
+            if (i < 0)
+                i = -i - 2;
+            return i < 0 ? null : keys[i];
+        }
+        for (int j = childIndex(key); j >= 0; --j) {
+            Comparable k = children[j].floorKey(key);
+            if (k != null)
+                return k;
+        }
+        return null;
+    }
+
+    /**
+     * Queues the blocks referenced by this node and the nodes held in the same block.
+     *
+     * @param depth How many levels below those blocks are also loaded.
+     */
+    public void readAhead(int depth) {
+        if (isLeaf()) {
+            for (ListNode list : lists) {
+                if (list instanceof BlockReference)
+                    ((BlockReference) list).readAhead(0);
+            }
+            return;
+        }
+        for (BTreeMapNode child : children) {
+            if (child instanceof BlockReference)
+                ((BlockReference) child).readAhead(depth);
+            else
+                child.getBTreeData().readAhead(depth);
+        }
+    }
+
+    private static void readAhead(BTreeMapNode node) {
+        if (node instanceof BlockReference)
+            ((BlockReference) node).readAhead();
+    }
+
+    /**
+     * Returns the length of the serialized data, including the id and durable length.
+     *
+     * @return The length of the serialized data.
+     */
+    public int getDurableLength() {
+        FactoryRegistry registry = thisNode.getRegistry();
+        int dl = 2 + 4 + 4 + 4 + 4;
+        for (int i = 0; i < keys.length; ++i) {
+            dl += registry.getImmutableFactory(keys[i]).getDurableLength(keys[i]);
+            dl += value(i).getDurableLength();
+        }
+        return dl;
+    }
+
+    /**
+     * Serialize this object into a ByteBuffer.
+     *
+     * @param byteBuffer Where the serialized data is to be placed.
+     */
+    public void serialize(ByteBuffer byteBuffer) {
+        FactoryRegistry registry = thisNode.getRegistry();
+        byteBuffer.putInt(height);
+        byteBuffer.putInt(fanout);
+        byteBuffer.putInt(keys.length);
+        for (int i = 0; i < keys.length; ++i) {
+            registry.getImmutableFactory(keys[i]).writeDurable(keys[i], byteBuffer);
+            if (isLeaf())
+                lists[i].writeDurable(byteBuffer);
+            else
+                children[i].writeDurable(byteBuffer);
+        }
+    }
+
+    private Releasable value(int i) {
+        return isLeaf() ? lists[i] : children[i];
+    }
+
+    @Override
+    public void releaseAll() {
+        for (int i = 0; i < keys.length; ++i) {
+            value(i).releaseAll();
+        }
+    }
+
+    @Override
+    public void retainAll() {
+        for (int i = 0; i < keys.length; ++i) {
+            value(i).retainAll();
+        }
+    }
+
+    /**
+     * Replaces the lists or children of this node.
+     *
+     * @param values The new lists or children.
+     * @return The new node.
+     */
+    private BTreeMapNode replace(Releasable[] values) {
+        thisNode.releaseLocal();
+        DbFactoryRegistry registry = thisNode.getRegistry();
+        if (isLeaf())
+            return new BTreeMapNodeImpl(registry, fanout, keys,
+                    Arrays.copyOf(values, values.length, ListNode[].class));
+        return new BTreeMapNodeImpl(registry, height, fanout, keys,
+                Arrays.copyOf(values, values.length, BTreeMapNode[].class));
+    }
+
+    @Override
+    public Object resize(int maxSize, int maxBlockSize) {
+        if (thisNode.getDurableLength() <= maxSize) {
+            return thisNode;
+        }
+
+        Releasable[] values = new Releasable[keys.length];
+        boolean resized = false;
+        for (int i = 0; i < keys.length; ++i) {
+            Releasable v = value(i);
+            values[i] = v;
+            if (v.getDurableLength() > maxBlockSize) {
+                values[i] = (Releasable) v.resize(maxBlockSize, maxBlockSize);
+                resized = true;
+            }
+        }
+        if (resized)
+            return replace(values).resize(maxSize, maxBlockSize);
+
+        int s = -1;
+        int dl = 0;
+        for (int i = 0; i < keys.length; ++i) {
+            if (values[i] instanceof BlockReference)
+                continue;
+            int vdl = values[i].getDurableLength();
+            if (vdl > dl) {
+                dl = vdl;
+                s = i;
+            }
+        }
+        if (s < 0)
+            throw new UnsupportedOperationException("Unable to shrink");
+        values[s] = (Releasable) values[s].shrink();
+        return replace(values).resize(maxSize, maxBlockSize);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append('[');
+        for (int i = 0; i < keys.length; ++i) {
+            if (i > 0)
+                sb.append(' ');
+            if (isLeaf())
+                sb.append(keys[i]).append('=').append(lists[i].getData());
+            else
+                sb.append(children[i].getBTreeData());
+        }
+        sb.append(']');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,151 @@
+package org.agilewiki.awdb.db.immutable.collections;
+
+import org.agilewiki.awdb.db.immutable.BaseFactory;
+import org.agilewiki.awdb.db.virtualcow.DbFactoryRegistry;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Defines how a B-tree map node is serialized / deserialized,
+ * and how nodes are split as they grow.
+ */
+public class BTreeMapNodeFactory extends BaseFactory {
+
+    /**
+     * The default max number of keys or children in a node.
+     */
+    public final static int DEFAULT_FANOUT = 16;
+
+    private volatile int fanout = DEFAULT_FANOUT;
+
+    public BTreeMapNodeFactory(DbFactoryRegistry registry) {
+        super(registry, registry.bTreeMapNodeImplId);
+        new BTreeMapReferenceFactory(registry);
+    }
+
+    /**
+     * Returns the max number of keys or children in a node.
+     *
+     * @return The fanout.
+     */
+    public int getFanout() {
+        return fanout;
+    }
+
+    /**
+     * Sets the max number of keys or children in a node of the B-trees created from now on.
+     * The fanout is kept in each node, so existing trees keep theirs.
+     * A node holding fanout keys and block references must fit in a block.
+     *
+     * @param fanout The fanout, at least 4.
+     */
+    public void setFanout(int fanout) {
+        if (fanout < 4)
+            throw new IllegalArgumentException("fanout must be at least 4");
+        this.fanout = fanout;
+    }
+
+    /**
+     * Returns an empty B-tree map.
+     *
+     * @return A leaf without keys.
+     */
+    public BTreeMapNode empty() {
+        DbFactoryRegistry registry = (DbFactoryRegistry) factoryRegistry;
+        return new BTreeMapNodeImpl(registry, fanout, new Comparable[0], new ListNode[0]);
+    }
+
+    /**
+     * Creates the leaves holding the given keys, splitting them when there are too many.
+     *
+     * @param fanout The max number of keys in a leaf.
+     * @param keys   The sorted keys.
+     * @param lists  The lists of the keys.
+     * @return The leaves, none when there are no keys.
+     */
+    BTreeMapNode[] leaves(int fanout, Comparable[] keys, ListNode[] lists) {
+        DbFactoryRegistry registry = (DbFactoryRegistry) factoryRegistry;
+        if (keys.length == 0)
+            return new BTreeMapNode[0];
+        if (keys.length <= fanout)
+            return new BTreeMapNode[]{new BTreeMapNodeImpl(registry, fanout, keys, lists)};
+        int h = keys.length / 2;
+        return new BTreeMapNode[]{
+                new BTreeMapNodeImpl(registry, fanout, Arrays.copyOfRange(keys, 0, h),
+                        Arrays.copyOfRange(lists, 0, h)),
+                new BTreeMapNodeImpl(registry, fanout, Arrays.copyOfRange(keys, h, keys.length),
+                        Arrays.copyOfRange(lists, h, lists.length))};
+    }
+
+    /**
+     * Creates the inner nodes holding the given children, splitting them when there are too many.
+     *
+     * @param height   The height of the nodes.
+     * @param fanout   The max number of children in a node.
+     * @param keys     The smallest key of each child.
+     * @param children The children.
+     * @return The inner nodes, none when there are no children.
+     */
+    BTreeMapNode[] inners(int height, int fanout, Comparable[] keys, BTreeMapNode[] children) {
+        DbFactoryRegistry registry = (DbFactoryRegistry) factoryRegistry;
+        if (keys.length == 0)
+            return new BTreeMapNode[0];
+        if (keys.length <= fanout)
+            return new BTreeMapNode[]{new BTreeMapNodeImpl(registry, height, fanout, keys, children)};
+        int h = keys.length / 2;
+        return new BTreeMapNode[]{
+                new BTreeMapNodeImpl(registry, height, fanout, Arrays.copyOfRange(keys, 0, h),
+                        Arrays.copyOfRange(children, 0, h)),
+                new BTreeMapNodeImpl(registry, height, fanout, Arrays.copyOfRange(keys, h, keys.length),
+                        Arrays.copyOfRange(children, h, children.length))};
+    }
+
+    /**
+     * Creates the root over the nodes which replaced the previous root.
+     *
+     * @param fanout The fanout of the tree.
+     * @param nodes  The replacement nodes.
+     * @return The new root.
+     */
+    BTreeMapNode root(int fanout, BTreeMapNode[] nodes) {
+        DbFactoryRegistry registry = (DbFactoryRegistry) factoryRegistry;
+        if (nodes.length == 0)
+            return new BTreeMapNodeImpl(registry, fanout, new Comparable[0], new ListNode[0]);
+        if (nodes.length == 1) {
+            BTreeMapNode root = nodes[0];
+            BTreeMapNodeData data = root.getBTreeData();
+            while (!data.isLeaf() && data.children.length == 1) {
+                root = data.children[0];
+                data = root.getBTreeData();
+            }
+            return root;
+        }
+        Comparable[] keys = new Comparable[nodes.length];
+        for (int i = 0; i < nodes.length; ++i) {
+            keys[i] = nodes[i].getBTreeData().keys[0];
+        }
+        int height = nodes[0].getBTreeData().height + 1;
+        return new BTreeMapNodeImpl(registry, height, fanout, keys, nodes);
+    }
+
+    @Override
+    public Class getImmutableClass() {
+        return BTreeMapNodeImpl.class;
+    }
+
+    @Override
+    public int getDurableLength(Object durable) {
+        return ((BTreeMapNode) durable).getDurableLength();
+    }
+
+    @Override
+    public void serialize(Object durable, ByteBuffer byteBuffer) {
+        ((BTreeMapNode) durable).serialize(byteBuffer);
+    }
+
+    @Override
+    public BTreeMapNode deserialize(ByteBuffer byteBuffer) {
+        return new BTreeMapNodeImpl(((DbFactoryRegistry) factoryRegistry), byteBuffer);
+    }
+}
@@ -0,0 +1,133 @@
+package org.agilewiki.awdb.db.immutable.collections;
+
+import org.agilewiki.awdb.db.immutable.scalars.CS256;
+import org.agilewiki.awdb.db.virtualcow.Db;
+import org.agilewiki.awdb.db.virtualcow.DbFactoryRegistry;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * An immutable map of lists held in a B-tree.
+ */
+public class BTreeMapNodeImpl implements BTreeMapNode {
+
+    public final DbFactoryRegistry registry;
+
+    protected final AtomicReference<BTreeMapNodeData> dataReference = new AtomicReference<>();
+    protected final Object owner;
+    protected int durableLength;
+    protected ByteBuffer byteBuffer;
+
+    protected BTreeMapNodeImpl(DbFactoryRegistry registry, ByteBuffer byteBuffer) {
+        this.registry = registry;
+        owner = null;
+        durableLength = byteBuffer.getInt();
+        this.byteBuffer = byteBuffer.slice();
+        this.byteBuffer.limit(durableLength - 6);
+        byteBuffer.position(byteBuffer.position() + durableLength - 6);
+    }
+
+    protected BTreeMapNodeImpl(DbFactoryRegistry registry,
+                               int fanout,
+                               Comparable[] keys,
+                               ListNode[] lists) {
+        this.registry = registry;
+        BTreeMapNodeData data = new BTreeMapNodeData(this, fanout, keys, lists);
+        owner = registry.db.getTransientOwner();
+        durableLength = owner == null ? data.getDurableLength() : -1;
+        dataReference.set(data);
+    }
+
+    protected BTreeMapNodeImpl(DbFactoryRegistry registry,
+                               int height,
+                               int fanout,
+                               Comparable[] keys,
+                               BTreeMapNode[] children) {
+        this.registry = registry;
+        BTreeMapNodeData data = new BTreeMapNodeData(this, height, fanout, keys, children);
+        owner = registry.db.getTransientOwner();
+        durableLength = owner == null ? data.getDurableLength() : -1;
+        dataReference.set(data);
+    }
+
+    @Override
+    public DbFactoryRegistry getRegistry() {
+        return registry;
+    }
+
+    @Override
+    public BTreeMapNodeData getBTreeData() {
+        BTreeMapNodeData data = dataReference.get();
+        if (data != null)
+            return data;
+        dataReference.compareAndSet(null, new BTreeMapNodeData(this, byteBuffer.slice()));
+        return dataReference.get();
+    }
+
+    @Override
+    public int getDurableLength() {
+        if (durableLength < 0) {
+            if (isTransient())
+                return getBTreeData().getDurableLength();
+            durableLength = getBTreeData().getDurableLength();
+        }
+        return durableLength;
+    }
+
+    /**
+     * Returns true while the current transaction may still update this B-tree node in place.
+     *
+     * @return True when the node is transient.
+     */
+    public boolean isTransient() {
+        return owner != null && owner == registry.db.getTransientOwner();
+    }
+
+    /**
+     * Write the durable to a byte buffer.
+     *
+     * @param byteBuffer The byte buffer.
+     */
+    public void writeDurable(ByteBuffer byteBuffer) {
+        int expected = byteBuffer.position() + getDurableLength();
+        byteBuffer.putChar(getRegistry().bTreeMapNodeImplId);
+        serialize(byteBuffer);
+        if (expected != byteBuffer.position()) {
+            getRegistry().db.close();
+            throw new SerializationException();
+        }
+    }
+
+    @Override
+    public void serialize(ByteBuffer byteBuffer) {
+        byteBuffer.putInt(getDurableLength());
+        if (this.byteBuffer == null) {
+            getBTreeData().serialize(byteBuffer);
+            return;
+        }
+        ByteBuffer bb = byteBuffer.slice();
+        bb.limit(durableLength - 6);
+        byteBuffer.put(this.byteBuffer.slice());
+        this.byteBuffer = bb;
+        dataReference.set(null); //limit memory footprint, plugs memory leak.
+    }
+
+    @Override
+    public Object shrink() {
+        Db db = registry.db;
+        int dl = getDurableLength();
+        BTreeMapNodeData data = getBTreeData();
+        ByteBuffer byteBuffer = ByteBuffer.allocate(dl - 6);
+        data.serialize(byteBuffer);
+        byteBuffer.flip();
+        CS256 cs256 = new CS256(byteBuffer);
+        int blockNbr = db.writeContent(byteBuffer, cs256, BTreeMapReference.class, data);
+        return new BTreeMapReference(registry, blockNbr, dl - 6, cs256);
+    }
+
+    @Override
+    public String toString() {
+        return getBTreeData().toString();
+    }
+}
@@ -0,0 +1,53 @@
+package org.agilewiki.awdb.db.immutable.collections;
+
+import org.agilewiki.awdb.db.immutable.scalars.CS256;
+import org.agilewiki.awdb.db.virtualcow.BlockReference;
+import org.agilewiki.awdb.db.virtualcow.DbFactoryRegistry;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A reference to a B-tree map node.
+ */
+public class BTreeMapReference extends BlockReference implements BTreeMapNode {
+    public BTreeMapReference(DbFactoryRegistry registry,
+                             int blockNbr,
+                             int blockLength,
+                             CS256 cs256) {
+        super(registry, blockNbr, blockLength, cs256);
+    }
+
+    @Override
+    public MapNodeData getData() {
+        return BTreeMapNode.super.getData();
+    }
+
+    @Override
+    public BTreeMapNodeData getBTreeData() {
+        return (BTreeMapNodeData) getContent();
+    }
+
+    @Override
+    protected void readAheadChildren(int depth) {
+        getBTreeData().readAhead(depth);
+    }
+
+    protected Object loadData(ByteBuffer byteBuffer) {
+        return new BTreeMapNodeData(this, byteBuffer);
+    }
+
+    /**
+     * Write the durable to a byte buffer.
+     *
+     * @param byteBuffer The byte buffer.
+     */
+    public void writeDurable(ByteBuffer byteBuffer) {
+        int expected = byteBuffer.position() + getDurableLength();
+        byteBuffer.putChar(getRegistry().bTreeMapReferenceId);
+        serialize(byteBuffer);
+        if (expected != byteBuffer.position()) {
+            getRegistry().db.close();
+            throw new SerializationException();
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package org.agilewiki.awdb.db.immutable.collections;
+
+import org.agilewiki.awdb.db.immutable.scalars.CS256;
+import org.agilewiki.awdb.db.virtualcow.BlockReference;
+import org.agilewiki.awdb.db.virtualcow.BlockReferenceFactory;
+import org.agilewiki.awdb.db.virtualcow.DbFactoryRegistry;
+
+/**
+ * Defines how a B-tree map reference is serialized / deserialized.
+ */
+public class BTreeMapReferenceFactory extends BlockReferenceFactory {
+
+    /**
+     * Create and register the factory.
+     *
+     * @param registry The registry where the factory is registered.
+     */
+    public BTreeMapReferenceFactory(DbFactoryRegistry registry) {
+        super(registry, registry.bTreeMapReferenceId);
+    }
+
+    @Override
+    public Class getImmutableClass() {
+        return BTreeMapReference.class;
+    }
+
+    protected BlockReference createReference(DbFactoryRegistry registry,
+                                             int blockNbr,
+                                             int blockLength,
+                                             CS256 cs256) {
+        return new BTreeMapReference(registry, blockNbr, blockLength, cs256);
+    }
+}
@@ -0,0 +1,149 @@
+package org.agilewiki.awdb.db.immutable.collections;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A Bloom filter over the keys of a map subtree, held with the reference to the subtree
+ * so a lookup for an absent key can stop without reading the block.
+ * <p>
+ * The filters of a db all have the same size, set by its max block size,
+ * so the filter of a subtree absorbs the filters of the subtrees it references
+ * by a bitwise or, without losing any bits.
+ * </p>
+ */
+public final class BloomFilter {
+
+    /**
+     * The minimum number of bits per key.
+     */
+    public static final int BITS_PER_KEY = 10;
+
+    /**
+     * The number of bits set per key.
+     */
+    public static final int HASHES = 5;
+
+    private final long[] words;
+
+    private BloomFilter(int wordCount) {
+        words = new long[wordCount];
+    }
+
+    /**
+     * Deserialize a filter.
+     *
+     * @param byteBuffer Holds the serialized filter.
+     */
+    public BloomFilter(ByteBuffer byteBuffer) {
+        words = new long[byteBuffer.getInt()];
+        for (int i = 0; i < words.length; ++i)
+            words[i] = byteBuffer.getLong();
+    }
+
+    /**
+     * Returns an empty filter sized for a number of keys.
+     *
+     * @param keyCount The number of keys.
+     * @return The filter.
+     */
+    public static BloomFilter of(int keyCount) {
+        int wordCount = 1;
+        while (wordCount * 64L < (long) keyCount * BITS_PER_KEY)
+            wordCount <<= 1;
+        return new BloomFilter(wordCount);
+    }
+
+    /**
+     * Returns an empty filter of the size used for the references of a db,
+     * the largest power of two words within a sixteenth of a block.
+     *
+     * @param maxBlockSize The max block size of the db.
+     * @return The filter.
+     */
+    public static BloomFilter forBlockSize(int maxBlockSize) {
+        return new BloomFilter(Integer.highestOneBit(Math.max(1, maxBlockSize / 16 / 8)));
+    }
+
+    /**
+     * Returns the number of 64-bit words in the filter.
+     *
+     * @return The number of words, a power of two.
+     */
+    public int wordCount() {
+        return words.length;
+    }
+
+    private static long mix(Comparable key) {
+        long x = key.hashCode() * 0x9E3779B97F4A7C15L;
+        x ^= x >>> 32;
+        x *= 0xBF58476D1CE4E5B9L;
+        return x ^ (x >>> 29);
+    }
+
+    /**
+     * Adds a key.
+     *
+     * @param key The key.
+     */
+    public void add(Comparable key) {
+        long x = mix(key);
+        int h1 = (int) x;
+        int h2 = (int) (x >>> 32) | 1;
+        int mask = words.length * 64 - 1;
+        for (int i = 0; i < HASHES; ++i) {
+            int b = (h1 + i * h2) & mask;
+            words[b >>> 6] |= 1L << b;
+        }
+    }
+
+    /**
+     * Returns false when the key was certainly not added.
+     *
+     * @param key The key.
+     * @return True when the key may have been added.
+     */
+    public boolean mightContain(Comparable key) {
+        long x = mix(key);
+        int h1 = (int) x;
+        int h2 = (int) (x >>> 32) | 1;
+        int mask = words.length * 64 - 1;
+        for (int i = 0; i < HASHES; ++i) {
+            int b = (h1 + i * h2) & mask;
+            if ((words[b >>> 6] & (1L << b)) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Adds the keys of another filter of the same size.
+     *
+     * @param other The other filter.
+     */
+    public void merge(BloomFilter other) {
+        if (other.words.length != words.length)
+            throw new IllegalArgumentException("filters differ in size");
+        for (int i = 0; i < words.length; ++i)
+            words[i] |= other.words[i];
+    }
+
+    /**
+     * Returns the length of the serialized filter.
+     *
+     * @return The length in bytes.
+     */
+    public int getDurableLength() {
+        return 4 + 8 * words.length;
+    }
+
+    /**
+     * Serialize this filter into a ByteBuffer.
+     *
+     * @param byteBuffer Where the serialized data is to be placed.
+     */
+    public void serialize(ByteBuffer byteBuffer) {
+        byteBuffer.putInt(words.length);
+        for (long word : words)
+            byteBuffer.putLong(word);
+    }
+}
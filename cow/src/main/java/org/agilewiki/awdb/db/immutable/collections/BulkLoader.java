@@ -0,0 +1,112 @@
+package org.agilewiki.awdb.db.immutable.collections;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+/**
+ * Builds an AA tree from entries sorted by key, shared by the map and versioned map factories.
+ * <p>
+ * The tree is the one a run of insertions at the right end would give, but only the right spine
+ * is held, in mutable form. A subtree is built once, bottom-up, when a split moves it off the spine,
+ * so loading takes linear time and the entries are never gathered in memory.
+ * </p>
+ *
+ * @param <N> The type of node.
+ * @param <L> The type of list held by a node.
+ */
+final class BulkLoader<N, L> {
+
+    /**
+     * Creates a node.
+     */
+    interface NodeMaker<N, L> {
+        N make(int level, N left, L list, N right, Comparable key);
+    }
+
+    private static final class Spine<N, L> {
+        int level = 1;
+        N left;
+        final L list;
+        final Comparable key;
+
+        Spine(N left, L list, Comparable key) {
+            this.left = left;
+            this.list = list;
+            this.key = key;
+        }
+    }
+
+    private final N nil;
+    private final NodeMaker<N, L> maker;
+    private final UnaryOperator<N> fill;
+    private final List<Spine<N, L>> spine = new ArrayList<>();
+
+    private BulkLoader(N nil, NodeMaker<N, L> maker, UnaryOperator<N> fill) {
+        this.nil = nil;
+        this.maker = maker;
+        this.fill = fill;
+    }
+
+    /**
+     * Builds a map from entries sorted by key.
+     *
+     * @param sorted The entries, with unique keys in ascending order and non-empty lists.
+     * @param isNil  Returns true for an empty list.
+     * @param nil    The nil node.
+     * @param maker  Creates a node.
+     * @param fill   Applied to each subtree as it becomes the child of another node.
+     * @return The root node.
+     */
+    static <N, L> N load(Iterator<? extends Map.Entry<? extends Comparable, ? extends L>> sorted,
+                         Predicate<L> isNil,
+                         N nil,
+                         NodeMaker<N, L> maker,
+                         UnaryOperator<N> fill) {
+        BulkLoader<N, L> loader = new BulkLoader<>(nil, maker, fill);
+        Comparable last = null;
+        while (sorted.hasNext()) {
+            Map.Entry<? extends Comparable, ? extends L> entry = sorted.next();
+            Comparable key = entry.getKey();
+            if (key == null)
+                throw new IllegalArgumentException("key may not be null");
+            if (last != null && last.compareTo(key) >= 0)
+                throw new IllegalArgumentException("keys must be unique and in ascending order");
+            if (isNil.test(entry.getValue()))
+                throw new IllegalArgumentException("list may not be empty");
+            loader.add(key, entry.getValue());
+            last = key;
+        }
+        return loader.finish();
+    }
+
+    /**
+     * Appends a key as the new bottom of the spine, then splits wherever three spine nodes
+     * share a level. As with a binary counter, the splits take constant amortized time.
+     */
+    private void add(Comparable key, L list) {
+        spine.add(new Spine<>(nil, list, key));
+        int i = spine.size() - 1;
+        while (i >= 2 && spine.get(i - 2).level == spine.get(i).level &&
+                spine.get(i - 1).level == spine.get(i).level) {
+            Spine<N, L> a = spine.get(i - 2);
+            Spine<N, L> b = spine.get(i - 1);
+            b.left = maker.make(a.level, fill.apply(a.left), a.list, fill.apply(b.left), a.key);
+            b.level += 1;
+            spine.remove(i - 2);
+            i -= 2;
+        }
+    }
+
+    private N finish() {
+        N right = nil;
+        for (int i = spine.size() - 1; i >= 0; --i) {
+            Spine<N, L> s = spine.get(i);
+            right = maker.make(s.level, fill.apply(s.left), s.list, fill.apply(right), s.key);
+        }
+        return right;
+    }
+}
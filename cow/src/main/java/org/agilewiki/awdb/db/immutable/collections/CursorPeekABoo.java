@@ -0,0 +1,206 @@
+package org.agilewiki.awdb.db.immutable.collections;
+
+import java.util.NoSuchElementException;
+import java.util.function.BiFunction;
+
+/**
+ * A PeekABoo over the keys of a map, driven by a cursor,
+ * optionally limited to the keys within bounds or starting with a prefix,
+ * in ascending or descending order.
+ * The position is the next key, so a position remains valid across updates to the map.
+ */
+public class CursorPeekABoo implements PeekABoo<ListAccessor> {
+
+    private final KeyCursor cursor;
+    private final BiFunction<Comparable, Object, ListAccessor> accessor;
+    private final Comparable from;
+    private final boolean fromInclusive;
+    private final Comparable to;
+    private final boolean toInclusive;
+    private final String prefix;
+    private final boolean descending;
+    private boolean atEnd;
+
+    /**
+     * Create a PeekABoo over all the keys.
+     *
+     * @param cursor   The cursor over the map.
+     * @param accessor Creates the list accessor for a key and its list.
+     */
+    public CursorPeekABoo(KeyCursor cursor, BiFunction<Comparable, Object, ListAccessor> accessor) {
+        this(cursor, accessor, null, true, null, true, null, false);
+    }
+
+    /**
+     * Create a PeekABoo over the keys starting with a prefix.
+     *
+     * @param cursor   The cursor over the map.
+     * @param accessor Creates the list accessor for a key and its list.
+     * @param prefix   The qualifying prefix.
+     */
+    public CursorPeekABoo(KeyCursor cursor, BiFunction<Comparable, Object, ListAccessor> accessor, String prefix) {
+        this(cursor, accessor, prefix, true, null, true, prefix, false);
+    }
+
+    /**
+     * Create a PeekABoo over the keys within bounds.
+     *
+     * @param cursor        The cursor over the map.
+     * @param accessor      Creates the list accessor for a key and its list.
+     * @param from          The lower bound, or null.
+     * @param fromInclusive True if a key equal to the lower bound qualifies.
+     * @param to            The upper bound, or null.
+     * @param toInclusive   True if a key equal to the upper bound qualifies.
+     * @param prefix        The qualifying prefix, or null.
+     * @param descending    True if the keys are visited from the largest to the smallest.
+     */
+    public CursorPeekABoo(KeyCursor cursor,
+                          BiFunction<Comparable, Object, ListAccessor> accessor,
+                          Comparable from,
+                          boolean fromInclusive,
+                          Comparable to,
+                          boolean toInclusive,
+                          String prefix,
+                          boolean descending) {
+        this.cursor = cursor;
+        this.accessor = accessor;
+        this.from = from;
+        this.fromInclusive = fromInclusive;
+        this.to = to;
+        this.toInclusive = toInclusive;
+        this.prefix = prefix;
+        this.descending = descending;
+        start();
+    }
+
+    private void start() {
+        if (descending)
+            seekHigh();
+        else
+            seekLow();
+        check();
+    }
+
+    private void seekLow() {
+        if (from == null)
+            cursor.first();
+        else
+            cursor.seek(from, fromInclusive);
+    }
+
+    private void seekHigh() {
+        if (to != null)
+            cursor.seekBack(to, toInclusive);
+        else if (prefix != null)
+            cursor.seekBack(prefix + Character.MAX_VALUE, false);
+        else
+            cursor.last();
+    }
+
+    private boolean advance() {
+        return descending ? cursor.prior() : cursor.next();
+    }
+
+    private boolean retreat() {
+        return descending ? cursor.next() : cursor.prior();
+    }
+
+    private boolean inRange(Comparable key) {
+        if (from != null) {
+            int c = key.compareTo(from);
+            if (c < 0 || (c == 0 && !fromInclusive))
+                return false;
+        }
+        if (to != null) {
+            int c = key.compareTo(to);
+            if (c > 0 || (c == 0 && !toInclusive))
+                return false;
+        }
+        return prefix == null || key.toString().startsWith(prefix);
+    }
+
+    private boolean check() {
+        atEnd = !cursor.isValid() || !inRange(cursor.key());
+        return !atEnd;
+    }
+
+    @Override
+    public String getPosition() {
+        return atEnd ? null : cursor.key().toString();
+    }
+
+    @Override
+    public void setPosition(String state) {
+        if (state == null) {
+            atEnd = true;
+            return;
+        }
+        seek(state);
+    }
+
+    /**
+     * Positions on the first qualifying key at or after the given key,
+     * or at or before it when descending.
+     *
+     * @param key The key, which need not be a String.
+     */
+    public void seek(Comparable key) {
+        if (descending) {
+            if (to != null && to.compareTo(key) < 0)
+                start();
+            else {
+                cursor.seekBack(key, true);
+                check();
+            }
+            return;
+        }
+        if (from != null && from.compareTo(key) > 0)
+            start();
+        else {
+            cursor.seek(key, true);
+            check();
+        }
+    }
+
+    @Override
+    public boolean positionPrior() {
+        if (atEnd) {
+            if (descending)
+                seekLow();
+            else
+                seekHigh();
+            return check();
+        }
+        Comparable key = cursor.key();
+        if (retreat() && inRange(cursor.key()))
+            return true;
+        if (descending)
+            cursor.seekBack(key, true);
+        else
+            cursor.seek(key, true);
+        check();
+        return false;
+    }
+
+    @Override
+    public ListAccessor peek() {
+        if (atEnd)
+            return null;
+        return accessor.apply(cursor.key(), cursor.list());
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !atEnd;
+    }
+
+    @Override
+    public ListAccessor next() {
+        if (atEnd)
+            throw new NoSuchElementException();
+        ListAccessor la = peek();
+        advance();
+        check();
+        return la;
+    }
+}
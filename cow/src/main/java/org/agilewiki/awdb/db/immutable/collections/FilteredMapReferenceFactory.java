@@ -0,0 +1,39 @@
+package org.agilewiki.awdb.db.immutable.collections;
+
+import org.agilewiki.awdb.db.immutable.ImmutableFactory;
+import org.agilewiki.awdb.db.immutable.scalars.CS256;
+import org.agilewiki.awdb.db.virtualcow.BlockReferenceFactory;
+import org.agilewiki.awdb.db.virtualcow.DbFactoryRegistry;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads a map reference which is followed by a Bloom filter over the keys of the referenced map.
+ * Map references are written by the MapReferenceFactory, which picks the id.
+ */
+public class FilteredMapReferenceFactory extends BlockReferenceFactory {
+
+    /**
+     * Create and register the factory.
+     *
+     * @param registry The registry where the factory is registered.
+     */
+    public FilteredMapReferenceFactory(DbFactoryRegistry registry) {
+        super(registry, registry.filteredMapReferenceId);
+    }
+
+    @Override
+    public Class getImmutableClass() {
+        return getClass();
+    }
+
+    @Override
+    public Object deserialize(ByteBuffer byteBuffer) {
+        int blockNbr = byteBuffer.getInt();
+        int blockLength = byteBuffer.getInt();
+        ImmutableFactory factory = factoryRegistry.readId(byteBuffer);
+        CS256 cs256 = (CS256) factory.deserialize(byteBuffer);
+        BloomFilter filter = new BloomFilter(byteBuffer);
+        return new MapReference((DbFactoryRegistry) factoryRegistry, blockNbr, blockLength, cs256, filter);
+    }
+}
@@ -0,0 +1,262 @@
+package org.agilewiki.awdb.db.immutable.collections;
+
+import org.agilewiki.awdb.db.immutable.ImmutableFactory;
+import org.agilewiki.awdb.db.virtualcow.DbFactoryRegistry;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * An immutable map of lists held in a hash array mapped trie.
+ * <p>
+ * A lookup takes one hop per 5 bits of the hash of the key, with a single
+ * key comparison at the end, rather than a string comparison at every level of a tree.
+ * The map is unordered: point lookups and updates are supported, as is unordered
+ * traversal. As there are no ordered queries, a hash map is not a MapNode.
+ * Keys must have a hash code which is stable across JVMs, as Strings, Integers and Longs do.
+ * A hash map is never nil; when empty, it is a node without entries.
+ * </p>
+ */
+public interface HashMapNode extends Releasable {
+
+    /**
+     * Returns the database factory registry.
+     *
+     * @return The registry.
+     */
+    DbFactoryRegistry getRegistry();
+
+    /**
+     * Returns the content of the node.
+     *
+     * @return The node data.
+     */
+    HashMapNodeData getHashData();
+
+    /**
+     * Replaces the list of a key.
+     *
+     * @param key      The key of the list.
+     * @param function Maps the current list, or the nil list, to its replacement.
+     *                 A nil replacement removes the key.
+     * @return The revised root node.
+     */
+    default HashMapNode update(Comparable key, UnaryOperator<ListNode> function) {
+        if (key == null)
+            throw new IllegalArgumentException("key may not be null");
+        HashMapNode node = getHashData().update(key, HashMapNodeData.hash(key), function);
+        return node == null ? getRegistry().hashMapNodeFactory.empty() : node;
+    }
+
+    /**
+     * Returns the list of a key.
+     *
+     * @param key The key for the list.
+     * @return The list, or null.
+     */
+    default ListNode getList(Comparable key) {
+        return getHashData().getList(key, HashMapNodeData.hash(key));
+    }
+
+    /**
+     * Returns the first value of the list of a key.
+     *
+     * @param key The key of the selected object.
+     * @return The object, or null.
+     */
+    default Object get(Comparable key) {
+        ListNode ln = getList(key);
+        if (ln == null || ln.isEmpty())
+            return null;
+        return ln.get(0);
+    }
+
+    /**
+     * Returns a list accessor.
+     *
+     * @param key The key for the list.
+     * @return A list accessor or null.
+     */
+    default ListAccessor listAccessor(Comparable key) {
+        ListNode listNode = getList(key);
+        if (listNode == null)
+            return null;
+        return listNode.listAccessor(key);
+    }
+
+    /**
+     * Add a non-null value to the end of the list.
+     *
+     * @param key   The key of the list.
+     * @param value The value to be added.
+     * @return The revised root node.
+     */
+    default HashMapNode add(Comparable key, Object value) {
+        return add(key, -1, value);
+    }
+
+    /**
+     * Add a non-null value to the list.
+     *
+     * @param key   The key of the list.
+     * @param ndx   Where to add the value.
+     * @param value The value to be added.
+     * @return The revised root node.
+     */
+    default HashMapNode add(Comparable key, int ndx, Object value) {
+        return update(key, l -> l.add(ndx, value));
+    }
+
+    /**
+     * Remove a value from the list.
+     *
+     * @param key The key of the list.
+     * @param ndx The index of the value.
+     * @return The revised root node.
+     */
+    default HashMapNode remove(Comparable key, int ndx) {
+        return update(key, l -> l.isNil() ? l : l.remove(ndx));
+    }
+
+    /**
+     * Remove the first occurance of a value from a list.
+     *
+     * @param key The key of the list.
+     * @param x   The value to be removed.
+     * @return The revised root node.
+     */
+    default HashMapNode remove(Comparable key, Object x) {
+        return update(key, l -> l.isNil() ? l : l.remove(x));
+    }
+
+    /**
+     * Delete the list.
+     *
+     * @param key The key of the list.
+     * @return The revised root node.
+     */
+    default HashMapNode remove(Comparable key) {
+        ListNode nil = getRegistry().nilList;
+        return update(key, l -> {
+            if (l.isNil())
+                return l;
+            l.releaseAll();
+            return nil;
+        });
+    }
+
+    /**
+     * Returns a set of all keys with non-empty lists.
+     *
+     * @return A set of the keys.
+     */
+    default NavigableSet flatKeys() {
+        NavigableSet keys = new TreeSet<>();
+        getHashData().forEach((k, l) -> {
+            if (!l.isEmpty())
+                keys.add(k);
+        });
+        return keys;
+    }
+
+    /**
+     * Returns a map of all the keys and values.
+     *
+     * @return A map of lists.
+     */
+    default NavigableMap<Comparable, List> flatMap() {
+        NavigableMap<Comparable, List> map = new TreeMap<Comparable, List>();
+        getHashData().forEach((k, l) -> {
+            if (!l.isEmpty())
+                map.put(k, l.flatList());
+        });
+        return map;
+    }
+
+    /**
+     * Returns a spliterator over the list accessors, in no particular order.
+     *
+     * @return The spliterator.
+     */
+    default Spliterator<ListAccessor> spliterator() {
+        List<ListAccessor> accessors = new ArrayList<>(totalSize());
+        getHashData().forEach((k, l) -> accessors.add(l.listAccessor(k)));
+        return Spliterators.spliterator(accessors, Spliterator.DISTINCT | Spliterator.NONNULL);
+    }
+
+    /**
+     * Returns a sequential stream of the list accessors, in no particular order.
+     *
+     * @return The stream.
+     */
+    default Stream<ListAccessor> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    /**
+     * Returns the count of all the keys in the map.
+     *
+     * @return The count of all the keys in the map.
+     */
+    default int totalSize() {
+        return getHashData().totalSize();
+    }
+
+    /**
+     * Returns the count of all the keys.
+     *
+     * @return The size of the map.
+     */
+    default int size() {
+        return totalSize();
+    }
+
+    /**
+     * Write the durable to a byte buffer.
+     *
+     * @param byteBuffer The byte buffer.
+     */
+    void writeDurable(ByteBuffer byteBuffer);
+
+    /**
+     * Serialize this object into a ByteBuffer.
+     *
+     * @param byteBuffer Where the serialized data is to be placed.
+     */
+    void serialize(ByteBuffer byteBuffer);
+
+    @Override
+    default void releaseAll() {
+        getHashData().releaseAll();
+    }
+
+    @Override
+    default void retainAll() {
+        getHashData().retainAll();
+    }
+
+    @Override
+    default Object resize(int maxSize, int maxBlockSize) {
+        return getHashData().resize(maxSize, maxBlockSize);
+    }
+
+    /**
+     * Returns a ByteBuffer loaded with the serialized contents of the immutable.
+     *
+     * @return The loaded ByteBuffer.
+     */
+    default ByteBuffer toByteBuffer() {
+        ImmutableFactory factory = getRegistry().getImmutableFactory(this);
+        return factory.toByteBuffer(this);
+    }
+}
@@ -0,0 +1,461 @@
+package org.agilewiki.awdb.db.immutable.collections;
+
+import org.agilewiki.awdb.db.immutable.FactoryRegistry;
+import org.agilewiki.awdb.db.immutable.ImmutableFactory;
+import org.agilewiki.awdb.db.virtualcow.BlockReference;
+import org.agilewiki.awdb.db.virtualcow.DbFactoryRegistry;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.function.BiConsumer;
+import java.util.function.UnaryOperator;
+
+/**
+ * The durable data elements of a hash map node.
+ * <p>
+ * Each node consumes 5 bits of the hash of a key. The bits select a slot,
+ * which is either empty, holds a key and its list, or holds a child node.
+ * Only the occupied slots are stored, in slot order, as flagged by two bitmaps.
+ * Once the hash is used up, a collision node holds its keys in a plain array.
+ * A child is never left holding a single key; that key moves up into the parent instead,
+ * so a map has a single shape whatever the order of its updates.
+ * </p>
+ */
+public class HashMapNodeData implements Releasable {
+
+    /**
+     * The number of hash bits consumed by a node.
+     */
+    public static final int BITS = 5;
+
+    /**
+     * The node which holds this data.
+     */
+    public final HashMapNode thisNode;
+
+    /**
+     * The position of the hash bits consumed by this node, 32 or more for a collision node.
+     */
+    public final int shift;
+
+    /**
+     * Flags the slots which hold a key and its list.
+     */
+    public final int datamap;
+
+    /**
+     * Flags the slots which hold a child.
+     */
+    public final int nodemap;
+
+    /**
+     * The keys, in slot order.
+     */
+    public final Comparable[] keys;
+
+    /**
+     * The lists of the keys.
+     */
+    public final ListNode[] lists;
+
+    /**
+     * The children, in slot order.
+     */
+    public final HashMapNode[] children;
+
+    /**
+     * The count of the keys in this subtree, or -1 when not yet known.
+     */
+    private int totalSize = -1;
+
+    /**
+     * Create the data for a node.
+     *
+     * @param thisNode The node which holds this data.
+     * @param shift    The position of the hash bits consumed by this node.
+     * @param datamap  Flags the slots which hold a key and its list.
+     * @param nodemap  Flags the slots which hold a child.
+     * @param keys     The keys, in slot order.
+     * @param lists    The lists of the keys.
+     * @param children The children, in slot order.
+     */
+    public HashMapNodeData(HashMapNode thisNode,
+                           int shift,
+                           int datamap,
+                           int nodemap,
+                           Comparable[] keys,
+                           ListNode[] lists,
+                           HashMapNode[] children) {
+        this.thisNode = thisNode;
+        this.shift = shift;
+        this.datamap = datamap;
+        this.nodemap = nodemap;
+        this.keys = keys;
+        this.lists = lists;
+        this.children = children;
+    }
+
+    /**
+     * Create the data for a node.
+     *
+     * @param thisNode   The node which holds this data.
+     * @param byteBuffer Holds the serialized data.
+     */
+    public HashMapNodeData(HashMapNode thisNode, ByteBuffer byteBuffer) {
+        this.thisNode = thisNode;
+        shift = byteBuffer.getInt();
+        int keyCount;
+        if (shift < 32) {
+            datamap = byteBuffer.getInt();
+            nodemap = byteBuffer.getInt();
+            keyCount = Integer.bitCount(datamap);
+        } else {
+            datamap = 0;
+            nodemap = 0;
+            keyCount = byteBuffer.getInt();
+        }
+        FactoryRegistry factoryRegistry = thisNode.getRegistry();
+        keys = new Comparable[keyCount];
+        lists = new ListNode[keyCount];
+        for (int i = 0; i < keyCount; ++i) {
+            ImmutableFactory f = factoryRegistry.readId(byteBuffer);
+            keys[i] = (Comparable) f.deserialize(byteBuffer);
+            f = factoryRegistry.readId(byteBuffer);
+            lists[i] = (ListNode) f.deserialize(byteBuffer);
+        }
+        children = new HashMapNode[Integer.bitCount(nodemap)];
+        for (int i = 0; i < children.length; ++i) {
+            ImmutableFactory f = factoryRegistry.readId(byteBuffer);
+            children[i] = (HashMapNode) f.deserialize(byteBuffer);
+        }
+    }
+
+    /**
+     * Returns the hash of a key.
+     *
+     * @param key The key.
+     * @return The hash code of the key, with the high bits folded into the low bits.
+     */
+    public static int hash(Comparable key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Returns true if this is the data of a collision node.
+     *
+     * @return True when the hash is used up.
+     */
+    public boolean isCollision() {
+        return shift >= 32;
+    }
+
+    private int bit(int hash) {
+        return 1 << ((hash >>> shift) & 31);
+    }
+
+    private static int index(int map, int bit) {
+        return Integer.bitCount(map & (bit - 1));
+    }
+
+    private int collisionIndex(Comparable key) {
+        for (int i = 0; i < keys.length; ++i) {
+            if (keys[i].equals(key))
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the list of a key.
+     *
+     * @param key  The key.
+     * @param hash The hash of the key.
+     * @return The list, or null.
+     */
+    public ListNode getList(Comparable key, int hash) {
+        if (isCollision()) {
+            int i = collisionIndex(key);
+            return i < 0 ? null : lists[i];
+        }
+        int bit = bit(hash);
+        if ((datamap & bit) != 0) {
+            int i = index(datamap, bit);
+            return keys[i].equals(key) ? lists[i] : null;
+        }
+        if ((nodemap & bit) != 0)
+            return children[index(nodemap, bit)].getHashData().getList(key, hash);
+        return null;
+    }
+
+    /**
+     * Replaces the list of a key.
+     *
+     * @param key      The key of the list.
+     * @param hash     The hash of the key.
+     * @param function Maps the current list, or the nil list, to its replacement.
+     *                 A nil replacement removes the key.
+     * @return The node replacing this node, this node when unchanged, or null when now empty.
+     */
+    public HashMapNode update(Comparable key, int hash, UnaryOperator<ListNode> function) {
+        DbFactoryRegistry registry = thisNode.getRegistry();
+        ListNode nil = registry.nilList;
+        if (isCollision()) {
+            int i = collisionIndex(key);
+            ListNode old = i < 0 ? nil : lists[i];
+            ListNode n = function.apply(old);
+            if (n == old || (i < 0 && n.isNil()))
+                return thisNode;
+            thisNode.releaseLocal();
+            if (i < 0)
+                return node(0, 0, BTreeMapNodeData.insert(keys, keys.length, key),
+                        BTreeMapNodeData.insert(lists, lists.length, n), children);
+            if (n.isNil())
+                return node(0, 0, BTreeMapNodeData.delete(keys, i),
+                        BTreeMapNodeData.delete(lists, i), children);
+            return node(0, 0, keys, replace(lists, i, n), children);
+        }
+        int bit = bit(hash);
+        if ((datamap & bit) != 0) {
+            int i = index(datamap, bit);
+            if (keys[i].equals(key)) {
+                ListNode old = lists[i];
+                ListNode n = function.apply(old);
+                if (n == old)
+                    return thisNode;
+                thisNode.releaseLocal();
+                if (n.isNil())
+                    return node(datamap ^ bit, nodemap, BTreeMapNodeData.delete(keys, i),
+                            BTreeMapNodeData.delete(lists, i), children);
+                return node(datamap, nodemap, keys, replace(lists, i, n), children);
+            }
+            ListNode n = function.apply(nil);
+            if (n.isNil())
+                return thisNode;
+            thisNode.releaseLocal();
+            HashMapNode child = registry.hashMapNodeFactory.pair(shift + BITS,
+                    keys[i], lists[i], hash(keys[i]), key, n, hash);
+            return node(datamap ^ bit, nodemap | bit, BTreeMapNodeData.delete(keys, i),
+                    BTreeMapNodeData.delete(lists, i),
+                    BTreeMapNodeData.insert(children, index(nodemap, bit), child));
+        }
+        if ((nodemap & bit) != 0) {
+            int j = index(nodemap, bit);
+            HashMapNode child = children[j];
+            HashMapNode r = child.getHashData().update(key, hash, function);
+            if (r == child)
+                return thisNode;
+            thisNode.releaseLocal();
+            if (r == null)
+                return node(datamap, nodemap ^ bit, keys, lists, BTreeMapNodeData.delete(children, j));
+            HashMapNodeData rd = r.getHashData();
+            if (rd.children.length == 0 && rd.keys.length == 1) {
+                int i = index(datamap, bit);
+                return node(datamap | bit, nodemap ^ bit, BTreeMapNodeData.insert(keys, i, rd.keys[0]),
+                        BTreeMapNodeData.insert(lists, i, rd.lists[0]),
+                        BTreeMapNodeData.delete(children, j));
+            }
+            return node(datamap, nodemap, keys, lists, replace(children, j, r));
+        }
+        ListNode n = function.apply(nil);
+        if (n.isNil())
+            return thisNode;
+        thisNode.releaseLocal();
+        int i = index(datamap, bit);
+        return node(datamap | bit, nodemap, BTreeMapNodeData.insert(keys, i, key),
+                BTreeMapNodeData.insert(lists, i, n), children);
+    }
+
+    private static <T> T[] replace(T[] array, int index, T value) {
+        T[] result = array.clone();
+        result[index] = value;
+        return result;
+    }
+
+    /**
+     * Creates a node at the same depth as this one.
+     *
+     * @return The new node, or null when it would be empty.
+     */
+    private HashMapNode node(int datamap, int nodemap, Comparable[] keys, ListNode[] lists, HashMapNode[] children) {
+        if (keys.length == 0 && children.length == 0)
+            return null;
+        return new HashMapNodeImpl(thisNode.getRegistry(), shift, datamap, nodemap, keys, lists, children);
+    }
+
+    /**
+     * Passes each key and its list to an action, in no particular order.
+     *
+     * @param action The action.
+     */
+    public void forEach(BiConsumer<Comparable, ListNode> action) {
+        for (int i = 0; i < keys.length; ++i) {
+            action.accept(keys[i], lists[i]);
+        }
+        for (HashMapNode child : children) {
+            child.getHashData().forEach(action);
+        }
+    }
+
+    /**
+     * Returns the count of all the keys in the map.
+     *
+     * @return The count of all the keys in the map.
+     */
+    public int totalSize() {
+        int s = totalSize;
+        if (s < 0) {
+            s = keys.length;
+            for (HashMapNode child : children) {
+                s += child.totalSize();
+            }
+            totalSize = s;
+        }
+        return s;
+    }
+
+    /**
+     * Queues the blocks referenced by this node and the nodes held in the same block.
+     *
+     * @param depth How many levels below those blocks are also loaded.
+     */
+    public void readAhead(int depth) {
+        for (ListNode list : lists) {
+            if (list instanceof BlockReference)
+                ((BlockReference) list).readAhead(0);
+        }
+        for (HashMapNode child : children) {
+            if (child instanceof BlockReference)
+                ((BlockReference) child).readAhead(depth);
+            else
+                child.getHashData().readAhead(depth);
+        }
+    }
+
+    /**
+     * Returns the length of the serialized data, including the id and durable length.
+     *
+     * @return The length of the serialized data.
+     */
+    public int getDurableLength() {
+        FactoryRegistry registry = thisNode.getRegistry();
+        int dl = 2 + 4 + 4 + (isCollision() ? 4 : 4 + 4);
+        for (int i = 0; i < keys.length; ++i) {
+            dl += registry.getImmutableFactory(keys[i]).getDurableLength(keys[i]);
+            dl += lists[i].getDurableLength();
+        }
+        for (HashMapNode child : children) {
+            dl += child.getDurableLength();
+        }
+        return dl;
+    }
+
+    /**
+     * Serialize this object into a ByteBuffer.
+     *
+     * @param byteBuffer Where the serialized data is to be placed.
+     */
+    public void serialize(ByteBuffer byteBuffer) {
+        FactoryRegistry registry = thisNode.getRegistry();
+        byteBuffer.putInt(shift);
+        if (isCollision()) {
+            byteBuffer.putInt(keys.length);
+        } else {
+            byteBuffer.putInt(datamap);
+            byteBuffer.putInt(nodemap);
+        }
+        for (int i = 0; i < keys.length; ++i) {
+            registry.getImmutableFactory(keys[i]).writeDurable(keys[i], byteBuffer);
+            lists[i].writeDurable(byteBuffer);
+        }
+        for (HashMapNode child : children) {
+            child.writeDurable(byteBuffer);
+        }
+    }
+
+    private Releasable value(int i) {
+        return i < lists.length ? lists[i] : children[i - lists.length];
+    }
+
+    @Override
+    public void releaseAll() {
+        for (int i = 0; i < keys.length + children.length; ++i) {
+            value(i).releaseAll();
+        }
+    }
+
+    @Override
+    public void retainAll() {
+        for (int i = 0; i < keys.length + children.length; ++i) {
+            value(i).retainAll();
+        }
+    }
+
+    /**
+     * Replaces the lists and children of this node.
+     *
+     * @param values The new lists followed by the new children.
+     * @return The new node.
+     */
+    private HashMapNode replace(Releasable[] values) {
+        thisNode.releaseLocal();
+        return new HashMapNodeImpl(thisNode.getRegistry(), shift, datamap, nodemap, keys,
+                Arrays.copyOfRange(values, 0, lists.length, ListNode[].class),
+                Arrays.copyOfRange(values, lists.length, values.length, HashMapNode[].class));
+    }
+
+    @Override
+    public Object resize(int maxSize, int maxBlockSize) {
+        if (thisNode.getDurableLength() <= maxSize) {
+            return thisNode;
+        }
+
+        int count = keys.length + children.length;
+        Releasable[] values = new Releasable[count];
+        boolean resized = false;
+        for (int i = 0; i < count; ++i) {
+            Releasable v = value(i);
+            values[i] = v;
+            if (v.getDurableLength() > maxBlockSize) {
+                values[i] = (Releasable) v.resize(maxBlockSize, maxBlockSize);
+                resized = true;
+            }
+        }
+        if (resized)
+            return replace(values).resize(maxSize, maxBlockSize);
+
+        int s = -1;
+        int dl = 0;
+        for (int i = 0; i < count; ++i) {
+            if (values[i] instanceof BlockReference)
+                continue;
+            int vdl = values[i].getDurableLength();
+            if (vdl > dl) {
+                dl = vdl;
+                s = i;
+            }
+        }
+        if (s < 0)
+            throw new UnsupportedOperationException("Unable to shrink");
+        values[s] = (Releasable) values[s].shrink();
+        return replace(values).resize(maxSize, maxBlockSize);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append('{');
+        for (int i = 0; i < keys.length; ++i) {
+            if (i > 0)
+                sb.append(' ');
+            sb.append(keys[i]).append('=').append(lists[i].getData());
+        }
+        for (int i = 0; i < children.length; ++i) {
+            if (i > 0 || keys.length > 0)
+                sb.append(' ');
+            sb.append(children[i].getHashData());
+        }
+        sb.append('}');
+        return sb.toString();
+    }
+}
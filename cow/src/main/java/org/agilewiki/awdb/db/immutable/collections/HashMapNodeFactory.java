@@ -0,0 +1,80 @@
+package org.agilewiki.awdb.db.immutable.collections;
+
+import org.agilewiki.awdb.db.immutable.BaseFactory;
+import org.agilewiki.awdb.db.virtualcow.DbFactoryRegistry;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Defines how a hash map node is serialized / deserialized.
+ */
+public class HashMapNodeFactory extends BaseFactory {
+
+    public HashMapNodeFactory(DbFactoryRegistry registry) {
+        super(registry, registry.hashMapNodeImplId);
+        new HashMapReferenceFactory(registry);
+    }
+
+    /**
+     * Returns an empty hash map.
+     *
+     * @return A node without entries.
+     */
+    public HashMapNode empty() {
+        DbFactoryRegistry registry = (DbFactoryRegistry) factoryRegistry;
+        return new HashMapNodeImpl(registry, 0, 0, 0, new Comparable[0], new ListNode[0], new HashMapNode[0]);
+    }
+
+    /**
+     * Creates the node holding two keys whose hashes match up to the given depth.
+     *
+     * @param shift The position of the hash bits consumed by the node.
+     * @param key1  The first key.
+     * @param list1 The list of the first key.
+     * @param hash1 The hash of the first key.
+     * @param key2  The second key.
+     * @param list2 The list of the second key.
+     * @param hash2 The hash of the second key.
+     * @return The node.
+     */
+    HashMapNode pair(int shift,
+                     Comparable key1, ListNode list1, int hash1,
+                     Comparable key2, ListNode list2, int hash2) {
+        DbFactoryRegistry registry = (DbFactoryRegistry) factoryRegistry;
+        if (shift >= 32)
+            return new HashMapNodeImpl(registry, shift, 0, 0,
+                    new Comparable[]{key1, key2}, new ListNode[]{list1, list2}, new HashMapNode[0]);
+        int bit1 = 1 << ((hash1 >>> shift) & 31);
+        int bit2 = 1 << ((hash2 >>> shift) & 31);
+        if (bit1 == bit2) {
+            HashMapNode child = pair(shift + HashMapNodeData.BITS, key1, list1, hash1, key2, list2, hash2);
+            return new HashMapNodeImpl(registry, shift, 0, bit1,
+                    new Comparable[0], new ListNode[0], new HashMapNode[]{child});
+        }
+        if (Integer.compareUnsigned(bit1, bit2) < 0)
+            return new HashMapNodeImpl(registry, shift, bit1 | bit2, 0,
+                    new Comparable[]{key1, key2}, new ListNode[]{list1, list2}, new HashMapNode[0]);
+        return new HashMapNodeImpl(registry, shift, bit1 | bit2, 0,
+                new Comparable[]{key2, key1}, new ListNode[]{list2, list1}, new HashMapNode[0]);
+    }
+
+    @Override
+    public Class getImmutableClass() {
+        return HashMapNodeImpl.class;
+    }
+
+    @Override
+    public int getDurableLength(Object durable) {
+        return ((HashMapNode) durable).getDurableLength();
+    }
+
+    @Override
+    public void serialize(Object durable, ByteBuffer byteBuffer) {
+        ((HashMapNode) durable).serialize(byteBuffer);
+    }
+
+    @Override
+    public HashMapNode deserialize(ByteBuffer byteBuffer) {
+        return new HashMapNodeImpl(((DbFactoryRegistry) factoryRegistry), byteBuffer);
+    }
+}
@@ -0,0 +1,124 @@
+package org.agilewiki.awdb.db.immutable.collections;
+
+import org.agilewiki.awdb.db.immutable.scalars.CS256;
+import org.agilewiki.awdb.db.virtualcow.Db;
+import org.agilewiki.awdb.db.virtualcow.DbFactoryRegistry;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * An immutable map of lists held in a hash array mapped trie.
+ */
+public class HashMapNodeImpl implements HashMapNode {
+
+    public final DbFactoryRegistry registry;
+
+    protected final AtomicReference<HashMapNodeData> dataReference = new AtomicReference<>();
+    protected final Object owner;
+    protected int durableLength;
+    protected ByteBuffer byteBuffer;
+
+    protected HashMapNodeImpl(DbFactoryRegistry registry, ByteBuffer byteBuffer) {
+        this.registry = registry;
+        owner = null;
+        durableLength = byteBuffer.getInt();
+        this.byteBuffer = byteBuffer.slice();
+        this.byteBuffer.limit(durableLength - 6);
+        byteBuffer.position(byteBuffer.position() + durableLength - 6);
+    }
+
+    protected HashMapNodeImpl(DbFactoryRegistry registry,
+                              int shift,
+                              int datamap,
+                              int nodemap,
+                              Comparable[] keys,
+                              ListNode[] lists,
+                              HashMapNode[] children) {
+        this.registry = registry;
+        HashMapNodeData data = new HashMapNodeData(this, shift, datamap, nodemap, keys, lists, children);
+        owner = registry.db.getTransientOwner();
+        durableLength = owner == null ? data.getDurableLength() : -1;
+        dataReference.set(data);
+    }
+
+    @Override
+    public DbFactoryRegistry getRegistry() {
+        return registry;
+    }
+
+    @Override
+    public HashMapNodeData getHashData() {
+        HashMapNodeData data = dataReference.get();
+        if (data != null)
+            return data;
+        dataReference.compareAndSet(null, new HashMapNodeData(this, byteBuffer.slice()));
+        return dataReference.get();
+    }
+
+    @Override
+    public int getDurableLength() {
+        if (durableLength < 0) {
+            if (isTransient())
+                return getHashData().getDurableLength();
+            durableLength = getHashData().getDurableLength();
+        }
+        return durableLength;
+    }
+
+    /**
+     * Returns true while the current transaction may still update this hash map node in place.
+     *
+     * @return True when the node is transient.
+     */
+    public boolean isTransient() {
+        return owner != null && owner == registry.db.getTransientOwner();
+    }
+
+    /**
+     * Write the durable to a byte buffer.
+     *
+     * @param byteBuffer The byte buffer.
+     */
+    public void writeDurable(ByteBuffer byteBuffer) {
+        int expected = byteBuffer.position() + getDurableLength();
+        byteBuffer.putChar(getRegistry().hashMapNodeImplId);
+        serialize(byteBuffer);
+        if (expected != byteBuffer.position()) {
+            getRegistry().db.close();
+            throw new SerializationException();
+        }
+    }
+
+    @Override
+    public void serialize(ByteBuffer byteBuffer) {
+        byteBuffer.putInt(getDurableLength());
+        if (this.byteBuffer == null) {
+            getHashData().serialize(byteBuffer);
+            return;
+        }
+        ByteBuffer bb = byteBuffer.slice();
+        bb.limit(durableLength - 6);
+        byteBuffer.put(this.byteBuffer.slice());
+        this.byteBuffer = bb;
+        dataReference.set(null); //limit memory footprint, plugs memory leak.
+    }
+
+    @Override
+    public Object shrink() {
+        Db db = registry.db;
+        int dl = getDurableLength();
+        HashMapNodeData data = getHashData();
+        ByteBuffer byteBuffer = ByteBuffer.allocate(dl - 6);
+        data.serialize(byteBuffer);
+        byteBuffer.flip();
+        CS256 cs256 = new CS256(byteBuffer);
+        int blockNbr = db.writeContent(byteBuffer, cs256, HashMapReference.class, data);
+        return new HashMapReference(registry, blockNbr, dl - 6, cs256);
+    }
+
+    @Override
+    public String toString() {
+        return getHashData().toString();
+    }
+}
@@ -0,0 +1,48 @@
+package org.agilewiki.awdb.db.immutable.collections;
+
+import org.agilewiki.awdb.db.immutable.scalars.CS256;
+import org.agilewiki.awdb.db.virtualcow.BlockReference;
+import org.agilewiki.awdb.db.virtualcow.DbFactoryRegistry;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A reference to a hash map node.
+ */
+public class HashMapReference extends BlockReference implements HashMapNode {
+    public HashMapReference(DbFactoryRegistry registry,
+                             int blockNbr,
+                             int blockLength,
+                             CS256 cs256) {
+        super(registry, blockNbr, blockLength, cs256);
+    }
+
+    @Override
+    public HashMapNodeData getHashData() {
+        return (HashMapNodeData) getContent();
+    }
+
+    @Override
+    protected void readAheadChildren(int depth) {
+        getHashData().readAhead(depth);
+    }
+
+    protected Object loadData(ByteBuffer byteBuffer) {
+        return new HashMapNodeData(this, byteBuffer);
+    }
+
+    /**
+     * Write the durable to a byte buffer.
+     *
+     * @param byteBuffer The byte buffer.
+     */
+    public void writeDurable(ByteBuffer byteBuffer) {
+        int expected = byteBuffer.position() + getDurableLength();
+        byteBuffer.putChar(getRegistry().hashMapReferenceId);
+        serialize(byteBuffer);
+        if (expected != byteBuffer.position()) {
+            getRegistry().db.close();
+            throw new SerializationException();
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package org.agilewiki.awdb.db.immutable.collections;
+
+import org.agilewiki.awdb.db.immutable.scalars.CS256;
+import org.agilewiki.awdb.db.virtualcow.BlockReference;
+import org.agilewiki.awdb.db.virtualcow.BlockReferenceFactory;
+import org.agilewiki.awdb.db.virtualcow.DbFactoryRegistry;
+
+/**
+ * Defines how a hash map reference is serialized / deserialized.
+ */
+public class HashMapReferenceFactory extends BlockReferenceFactory {
+
+    /**
+     * Create and register the factory.
+     *
+     * @param registry The registry where the factory is registered.
+     */
+    public HashMapReferenceFactory(DbFactoryRegistry registry) {
+        super(registry, registry.hashMapReferenceId);
+    }
+
+    @Override
+    public Class getImmutableClass() {
+        return HashMapReference.class;
+    }
+
+    protected BlockReference createReference(DbFactoryRegistry registry,
+                                             int blockNbr,
+                                             int blockLength,
+                                             CS256 cs256) {
+        return new HashMapReference(registry, blockNbr, blockLength, cs256);
+    }
+}
@@ -9,17 +9,33 @@ public class IdPeekABooable implements PeekABooable<String> {
     final PeekABoo<String> peekABoo;
 
     public IdPeekABooable(Db db, String prefix, long timestamp) {
-        MapAccessor ma = db.mapAccessor();
-        PeekABoo<ListAccessor> iterator = ma.iterator(prefix);
+        this(db.mapAccessor().iterator(prefix), prefix, timestamp);
+    }
+
+    /**
+     * Iterates over the non-empty ids within the given bounds,
+     * which, like the ids returned, do not include the prefix.
+     */
+    public IdPeekABooable(Db db, String prefix,
+                          String fromId, boolean fromInclusive,
+                          String toId, boolean toInclusive,
+                          boolean descending, long timestamp) {
+        this(db.mapAccessor().range(
+                fromId == null ? prefix : prefix + fromId, fromId == null || fromInclusive,
+                toId == null ? prefix + Character.MAX_VALUE : prefix + toId, toId != null && toInclusive,
+                descending), prefix, timestamp);
+    }
+
+    private IdPeekABooable(PeekABoo<ListAccessor> iterator, String prefix, long timestamp) {
         PeekABooFilter<ListAccessor> filter = new PeekABooFilter<ListAccessor>(iterator) {
             @Override
             protected boolean select(ListAccessor value) {
-                if (value == null)
+                if (value == null || value.isEmpty())
                     return false;
-                VersionedMapNode vmn = (VersionedMapNode) value.get(0);
-                if (vmn == null)
+                Object vmn = value.get(0);
+                if (!(vmn instanceof VersionedMapNode))
                     return false;
-                return !vmn.isEmpty(timestamp);
+                return !((VersionedMapNode) vmn).isEmpty(timestamp);
             }
         };
         peekABoo = new PeekABooMap<ListAccessor, String>(filter) {
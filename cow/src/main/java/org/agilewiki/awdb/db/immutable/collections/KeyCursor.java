@@ -0,0 +1,76 @@
+package org.agilewiki.awdb.db.immutable.collections;
+
+/**
+ * A position within the keys of a map, held as the path from the root,
+ * so that stepping to the next or prior key takes amortized constant time
+ * rather than a fresh descent from the root.
+ */
+public abstract class KeyCursor {
+
+    /**
+     * Positions the cursor on the smallest key.
+     */
+    public abstract void first();
+
+    /**
+     * Positions the cursor on the largest key.
+     */
+    public abstract void last();
+
+    /**
+     * Positions the cursor on the smallest key greater than, or equal to, the given key.
+     *
+     * @param key       The given key.
+     * @param inclusive True if an equal key qualifies.
+     */
+    public abstract void seek(Comparable key, boolean inclusive);
+
+    /**
+     * Positions the cursor on the largest key less than, or equal to, the given key.
+     *
+     * @param key       The given key.
+     * @param inclusive True if an equal key qualifies.
+     */
+    public void seekBack(Comparable key, boolean inclusive) {
+        seek(key, !inclusive);
+        if (isValid())
+            prior();
+        else
+            last();
+    }
+
+    /**
+     * Steps to the next key.
+     *
+     * @return False when there is no next key, leaving the cursor invalid.
+     */
+    public abstract boolean next();
+
+    /**
+     * Steps to the prior key.
+     *
+     * @return False when there is no prior key, leaving the cursor invalid.
+     */
+    public abstract boolean prior();
+
+    /**
+     * Returns true when the cursor is positioned on a key.
+     *
+     * @return True if valid.
+     */
+    public abstract boolean isValid();
+
+    /**
+     * Returns the key the cursor is positioned on.
+     *
+     * @return The key.
+     */
+    public abstract Comparable key();
+
+    /**
+     * Returns the list of the key the cursor is positioned on.
+     *
+     * @return A ListNode or a VersionedListNode.
+     */
+    public abstract Object list();
+}
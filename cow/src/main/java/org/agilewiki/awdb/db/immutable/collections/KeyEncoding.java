@@ -0,0 +1,124 @@
+package org.agilewiki.awdb.db.immutable.collections;
+
+import org.agilewiki.awdb.db.immutable.CompactChars;
+
+import java.nio.ByteBuffer;
+
+/**
+ * An order-preserving binary encoding of String, Long and Integer keys.
+ * Two keys of the same type compare as their encodings do, taken as unsigned bytes,
+ * so a search key can be compared against a serialized key without deserializing it.
+ * <p>
+ * The chars of a String are written by {@link CompactChars},
+ * so ASCII keys take a byte per char and the order of String.compareTo is kept.
+ * As an encoding is always stored with its length, a zero char is just a zero byte.
+ * Strings written 2 bytes per char by earlier versions are still decoded.
+ * </p>
+ */
+public final class KeyEncoding {
+
+    private static final byte INTEGER = 1;
+    private static final byte LONG = 2;
+    private static final byte UTF16_STRING = 3;
+    private static final byte STRING = 4;
+
+    private KeyEncoding() {
+    }
+
+    /**
+     * Returns the encoding of a key.
+     *
+     * @param key The key.
+     * @return The encoding, or null when the type of key is not supported.
+     */
+    public static byte[] encode(Comparable key) {
+        if (key instanceof String) {
+            String s = (String) key;
+            byte[] bytes = new byte[1 + CompactChars.length(s)];
+            bytes[0] = STRING;
+            ByteBuffer byteBuffer = ByteBuffer.wrap(bytes);
+            byteBuffer.position(1);
+            CompactChars.encode(s, byteBuffer);
+            return bytes;
+        }
+        if (key instanceof Long) {
+            long v = (Long) key ^ Long.MIN_VALUE;
+            byte[] bytes = new byte[9];
+            bytes[0] = LONG;
+            for (int i = 8; i > 0; --i) {
+                bytes[i] = (byte) v;
+                v >>>= 8;
+            }
+            return bytes;
+        }
+        if (key instanceof Integer) {
+            int v = (Integer) key ^ Integer.MIN_VALUE;
+            byte[] bytes = new byte[5];
+            bytes[0] = INTEGER;
+            for (int i = 4; i > 0; --i) {
+                bytes[i] = (byte) v;
+                v >>>= 8;
+            }
+            return bytes;
+        }
+        return null;
+    }
+
+    /**
+     * Deserializes an encoded key, advancing the position of the buffer.
+     *
+     * @param byteBuffer Holds the encoding.
+     * @param length     The length of the encoding.
+     * @return The key.
+     */
+    public static Comparable decode(ByteBuffer byteBuffer, int length) {
+        byte type = byteBuffer.get();
+        switch (type) {
+            case STRING:
+                return CompactChars.decode(byteBuffer, length - 1);
+            case UTF16_STRING:
+                char[] c = new char[(length - 1) / 2];
+                for (int i = 0; i < c.length; ++i)
+                    c[i] = byteBuffer.getChar();
+                return new String(c);
+            case LONG:
+                return byteBuffer.getLong() ^ Long.MIN_VALUE;
+            case INTEGER:
+                return byteBuffer.getInt() ^ Integer.MIN_VALUE;
+            default:
+                throw new IllegalStateException("Unknown key encoding: " + type);
+        }
+    }
+
+    /**
+     * Returns true when a key and an encoding held in a buffer are of the same type,
+     * so the two can be compared in place.
+     *
+     * @param encoded    The encoded key.
+     * @param byteBuffer Holds the other encoding.
+     * @param offset     The absolute position of the other encoding.
+     * @return True when comparable.
+     */
+    public static boolean comparable(byte[] encoded, ByteBuffer byteBuffer, int offset) {
+        return encoded[0] == byteBuffer.get(offset);
+    }
+
+    /**
+     * Compares an encoded key against an encoding held in a buffer.
+     *
+     * @param encoded    The encoded key.
+     * @param byteBuffer Holds the other encoding.
+     * @param offset     The absolute position of the other encoding.
+     * @param length     The length of the other encoding.
+     * @return Negative, zero or positive as the key is less than, equal to or greater than the other.
+     */
+    public static int compare(byte[] encoded, ByteBuffer byteBuffer, int offset, int length) {
+        int n = Math.min(encoded.length, length);
+        for (int i = 0; i < n; ++i) {
+            int c = (encoded[i] & 0xff) - (byteBuffer.get(offset + i) & 0xff);
+            if (c != 0)
+                return c;
+        }
+        return encoded.length - length;
+    }
+}
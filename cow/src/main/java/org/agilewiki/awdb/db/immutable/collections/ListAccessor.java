@@ -1,6 +1,8 @@
 package org.agilewiki.awdb.db.immutable.collections;
 
 import java.util.List;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Accesses a list.
@@ -138,4 +140,22 @@ public interface ListAccessor extends PeekABooable {
      * @return The iterator.
      */
     PeekABoo iterator();
+
+    /**
+     * Returns a sequential stream of the values.
+     *
+     * @return The stream.
+     */
+    default Stream stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    /**
+     * Returns a parallel stream of the values.
+     *
+     * @return The stream.
+     */
+    default Stream parallelStream() {
+        return StreamSupport.stream(spliterator(), true);
+    }
 }
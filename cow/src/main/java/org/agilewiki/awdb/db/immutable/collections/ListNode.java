@@ -9,6 +9,9 @@ import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * An immutable list.
@@ -228,6 +231,15 @@ public interface ListNode extends Releasable {
         return list;
     }
 
+    /**
+     * Returns a read-only view of the values, backed by this list.
+     *
+     * @return The view.
+     */
+    default List listView() {
+        return ListView.of(this);
+    }
+
     /**
      * Returns an iterator over the values.
      *
@@ -281,6 +293,33 @@ public interface ListNode extends Releasable {
         };
     }
 
+    /**
+     * Returns a spliterator over the values, which splits on subtrees.
+     *
+     * @return The spliterator.
+     */
+    default Spliterator<Object> spliterator() {
+        return TreeSpliterator.of(this);
+    }
+
+    /**
+     * Returns a sequential stream of the values.
+     *
+     * @return The stream.
+     */
+    default Stream<Object> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    /**
+     * Returns a parallel stream of the values.
+     *
+     * @return The stream.
+     */
+    default Stream<Object> parallelStream() {
+        return StreamSupport.stream(spliterator(), true);
+    }
+
     /**
      * Returns a list accessor.
      *
@@ -298,6 +337,11 @@ public interface ListNode extends Releasable {
      */
     default ListAccessor listAccessor(Comparable key) {
         return new ListAccessor() {
+            @Override
+            public Spliterator spliterator() {
+                return ListNode.this.spliterator();
+            }
+
             @Override
             public Comparable key() {
                 return key;
@@ -474,6 +518,13 @@ public interface ListNode extends Releasable {
         getData().releaseAll();
     }
 
+    @Override
+    default void retainAll() {
+        if (isNil())
+            return;
+        getData().retainAll();
+    }
+
     @Override
     default Object resize(int maxSize, int maxBlockSize) {
         return getData().resize(maxSize, maxBlockSize);
@@ -379,13 +379,15 @@ public class ListNodeData implements Releasable {
         DbFactoryRegistry registry = thisNode.getRegistry();
         int leftSize = leftNode.size();
         ListNode t = thisNode;
+        // Sizes are compared, as a transient child is revised in place.
         if (ndx > leftSize) {
+            int rightSize = totalSize - leftSize - 1;
             ListNode r = rightNode.remove(ndx - leftSize - 1);
-            if (r != rightNode)
+            if (r.totalSize() != rightSize)
                 t = replaceRight(totalSize - 1, r);
         } else if (ndx < leftSize) {
             ListNode l = leftNode.remove(ndx);
-            if (l != leftNode)
+            if (l.totalSize() != leftSize)
                 t = replaceLeft(totalSize - 1, l);
         } else {
             if (value instanceof Releasable)
@@ -395,11 +397,12 @@ public class ListNodeData implements Releasable {
                 return nil;
             }
             if (leftNode.isNil()) {
-                ListNode l = successor();
-                t = replaceRight(totalSize - 1, l.getData().value, rightNode.remove(0));
+                Object v = successor().getData().value;
+                t = replaceRight(totalSize - 1, v, rightNode.remove(0));
             } else {
-                ListNode l = predecessor();
-                t = replaceLeft(totalSize - 1, leftNode.remove(leftSize - 1), l.getData().value);
+                // Read before the removal, which may update the predecessor in place.
+                Object v = predecessor().getData().value;
+                t = replaceLeft(totalSize - 1, leftNode.remove(leftSize - 1), v);
             }
         }
         t = t.getData().decreaseLevel().getData().skew();
@@ -436,68 +439,92 @@ public class ListNodeData implements Releasable {
             ((Releasable) rightNode).releaseAll();
     }
 
+    @Override
+    public void retainAll() {
+        if (isNil())
+            return;
+        if (leftNode instanceof Releasable)
+            ((Releasable) leftNode).retainAll();
+        if (value instanceof Releasable)
+            ((Releasable) value).retainAll();
+        if (rightNode instanceof Releasable)
+            ((Releasable) rightNode).retainAll();
+    }
+
     public ListNode replace(int level, int totalSize) {
         thisNode.releaseLocal();
-        return new ListNodeImpl(thisNode.getRegistry(), level, totalSize, leftNode, value, rightNode);
+        return newNode(level, totalSize, leftNode, value, rightNode);
     }
 
     public ListNode replace(Object value) {
         thisNode.releaseLocal();
-        return new ListNodeImpl(thisNode.getRegistry(), level, totalSize, leftNode, value, rightNode);
+        return newNode(level, totalSize, leftNode, value, rightNode);
     }
 
     public ListNode replace(ListNode leftNode, ListNode rightNode) {
         thisNode.releaseLocal();
-        return new ListNodeImpl(thisNode.getRegistry(), level, totalSize, leftNode, value, rightNode);
+        return newNode(level, totalSize, leftNode, value, rightNode);
     }
 
     public ListNode replace(ListNode leftNode, Object value, ListNode rightNode) {
         thisNode.releaseLocal();
-        return new ListNodeImpl(thisNode.getRegistry(), level, totalSize, leftNode, value, rightNode);
+        return newNode(level, totalSize, leftNode, value, rightNode);
     }
 
     public ListNode replace(int level, int totalSize, Object value) {
         thisNode.releaseLocal();
-        return new ListNodeImpl(thisNode.getRegistry(), level, totalSize, leftNode, value, rightNode);
+        return newNode(level, totalSize, leftNode, value, rightNode);
     }
 
     public ListNode replaceLeft(ListNode leftNode) {
         thisNode.releaseLocal();
-        return new ListNodeImpl(thisNode.getRegistry(), level, totalSize, leftNode, value, rightNode);
+        return newNode(level, totalSize, leftNode, value, rightNode);
     }
 
     public ListNode replaceLeft(int totalSize, ListNode leftNode, Object value) {
         thisNode.releaseLocal();
-        return new ListNodeImpl(thisNode.getRegistry(), level, totalSize, leftNode, value, rightNode);
+        return newNode(level, totalSize, leftNode, value, rightNode);
     }
 
     public ListNode replaceLeft(int totalSize, ListNode leftNode) {
         thisNode.releaseLocal();
-        return new ListNodeImpl(thisNode.getRegistry(), level, totalSize, leftNode, value, rightNode);
+        return newNode(level, totalSize, leftNode, value, rightNode);
     }
 
     public ListNode replaceLeft(int level, int totalSize, ListNode leftNode) {
         thisNode.releaseLocal();
-        return new ListNodeImpl(thisNode.getRegistry(), level, totalSize, leftNode, value, rightNode);
+        return newNode(level, totalSize, leftNode, value, rightNode);
     }
 
     public ListNode replaceRight(ListNode rightNode) {
         thisNode.releaseLocal();
-        return new ListNodeImpl(thisNode.getRegistry(), level, totalSize, leftNode, value, rightNode);
+        return newNode(level, totalSize, leftNode, value, rightNode);
     }
 
     public ListNode replaceRight(int totalSize, ListNode rightNode) {
         thisNode.releaseLocal();
-        return new ListNodeImpl(thisNode.getRegistry(), level, totalSize, leftNode, value, rightNode);
+        return newNode(level, totalSize, leftNode, value, rightNode);
     }
 
     public ListNode replaceRight(int totalSize, Object value, ListNode rightNode) {
         thisNode.releaseLocal();
-        return new ListNodeImpl(thisNode.getRegistry(), level, totalSize, leftNode, value, rightNode);
+        return newNode(level, totalSize, leftNode, value, rightNode);
     }
 
     public ListNode replaceRight(int level, int totalSize, ListNode rightNode) {
         thisNode.releaseLocal();
+        return newNode(level, totalSize, leftNode, value, rightNode);
+    }
+
+    /**
+     * Creates the revised node, or updates this node in place when it is transient.
+     */
+    private ListNode newNode(int level, int totalSize, ListNode leftNode, Object value, ListNode rightNode) {
+        if (thisNode instanceof ListNodeImpl && ((ListNodeImpl) thisNode).isTransient()) {
+            ListNodeImpl impl = (ListNodeImpl) thisNode;
+            impl.dataReference.set(new ListNodeData(impl, level, totalSize, leftNode, value, rightNode));
+            return impl;
+        }
         return new ListNodeImpl(thisNode.getRegistry(), level, totalSize, leftNode, value, rightNode);
     }
 
@@ -15,17 +15,20 @@ public class ListNodeImpl implements ListNode {
     public final DbFactoryRegistry registry;
 
     protected final AtomicReference<ListNodeData> dataReference = new AtomicReference<>();
-    protected final int durableLength;
+    protected final Object owner;
+    protected int durableLength;
     protected ByteBuffer byteBuffer;
 
     protected ListNodeImpl(DbFactoryRegistry registry) {
         this.registry = registry;
         dataReference.set(new ListNodeData(this));
+        owner = null;
         durableLength = 2;
     }
 
     protected ListNodeImpl(DbFactoryRegistry registry, ByteBuffer byteBuffer) {
         this.registry = registry;
+        owner = null;
         durableLength = byteBuffer.getInt();
         this.byteBuffer = byteBuffer.slice();
         this.byteBuffer.limit(durableLength - 6);
@@ -46,7 +49,8 @@ public class ListNodeImpl implements ListNode {
                 leftNode,
                 value,
                 rightNode);
-        durableLength = data.getDurableLength();
+        owner = registry.db.getTransientOwner();
+        durableLength = owner == null ? data.getDurableLength() : -1;
         dataReference.set(data);
     }
 
@@ -64,9 +68,23 @@ public class ListNodeImpl implements ListNode {
 
     @Override
     public int getDurableLength() {
+        if (durableLength < 0) {
+            if (isTransient())
+                return getData().getDurableLength();
+            durableLength = getData().getDurableLength();
+        }
         return durableLength;
     }
 
+    /**
+     * Returns true while the current transaction may still update this list node in place.
+     *
+     * @return True when the node is transient.
+     */
+    public boolean isTransient() {
+        return owner != null && owner == registry.db.getTransientOwner();
+    }
+
     @Override
     public void writeDurable(ByteBuffer byteBuffer) {
         int expected = byteBuffer.position() + getDurableLength();
@@ -99,14 +117,14 @@ public class ListNodeImpl implements ListNode {
     @Override
     public Object shrink() {
         Db db = registry.db;
+        int dl = getDurableLength();
         ListNodeData data = getData();
-        ByteBuffer byteBuffer = ByteBuffer.allocate(durableLength - 6);
+        ByteBuffer byteBuffer = ByteBuffer.allocate(dl - 6);
         data.serialize(byteBuffer);
         byteBuffer.flip();
         CS256 cs256 = new CS256(byteBuffer);
-        int blockNbr = db.allocate();
-        db.writeBlock(byteBuffer, blockNbr);
-        return new ListReference(registry, blockNbr, durableLength - 6, cs256);
+        int blockNbr = db.writeContent(byteBuffer, cs256, ListReference.class, data);
+        return new ListReference(registry, blockNbr, dl - 6, cs256);
     }
 
     @Override
@@ -0,0 +1,107 @@
+package org.agilewiki.awdb.db.immutable.collections;
+
+import java.util.AbstractList;
+import java.util.Iterator;
+import java.util.RandomAccess;
+import java.util.Spliterator;
+import java.util.Spliterators;
+
+/**
+ * A read-only view of a list, backed directly by the tree rather than a copy.
+ * Iteration walks the tree with a spliterator.
+ */
+public abstract class ListView extends AbstractList<Object> {
+
+    /**
+     * Returns a view of a list.
+     *
+     * @param listNode The list.
+     * @return The view.
+     */
+    public static ListView of(ListNode listNode) {
+        return new Plain(listNode);
+    }
+
+    /**
+     * Returns a view of the values of a versioned list present at a given time.
+     *
+     * @param listNode  The list.
+     * @param timestamp The time of the query.
+     * @return The view.
+     */
+    public static ListView of(VersionedListNode listNode, long timestamp) {
+        return new Versioned(listNode, timestamp);
+    }
+
+    @Override
+    public Iterator<Object> iterator() {
+        return Spliterators.iterator(spliterator());
+    }
+
+    private static class Plain extends ListView implements RandomAccess {
+        private final ListNode listNode;
+
+        Plain(ListNode listNode) {
+            this.listNode = listNode;
+        }
+
+        @Override
+        public Object get(int index) {
+            if (index < 0 || index >= size())
+                throw new IndexOutOfBoundsException("index out of range " + index);
+            return listNode.get(index);
+        }
+
+        @Override
+        public int size() {
+            return listNode.size();
+        }
+
+        @Override
+        public Spliterator<Object> spliterator() {
+            return listNode.spliterator();
+        }
+    }
+
+    /**
+     * Positional access walks the indexes of the values present at the time of the query,
+     * so it takes linear time; iteration does not.
+     */
+    private static class Versioned extends ListView {
+        private final VersionedListNode listNode;
+        private final long timestamp;
+        private int size = -1;
+
+        Versioned(VersionedListNode listNode, long timestamp) {
+            this.listNode = listNode;
+            this.timestamp = timestamp;
+        }
+
+        @Override
+        public Object get(int index) {
+            if (index < 0 || index >= size())
+                throw new IndexOutOfBoundsException("index out of range " + index);
+            int ndx = listNode.firstIndex(timestamp);
+            for (int i = 0; i < index; ++i)
+                ndx = listNode.higherIndex(ndx, timestamp);
+            return listNode.getExistingValue(ndx, timestamp);
+        }
+
+        @Override
+        public int size() {
+            if (size == -1)
+                size = listNode.size(timestamp);
+            return size;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return listNode.isEmpty(timestamp);
+        }
+
+        @Override
+        public Spliterator<Object> spliterator() {
+            return listNode.spliterator(timestamp);
+        }
+    }
+}
@@ -3,6 +3,8 @@ package org.agilewiki.awdb.db.immutable.collections;
 import java.util.List;
 import java.util.NavigableMap;
 import java.util.NavigableSet;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Accesses a map list.
@@ -117,10 +119,42 @@ public interface MapAccessor extends PeekABooable<ListAccessor> {
      */
     PeekABoo<ListAccessor> iterable(final String prefix);
 
+    /**
+     * Returns an iterator over the list accessors with keys within the given bounds.
+     *
+     * @param fromKey       The lower bound, or null.
+     * @param fromInclusive True if a key equal to the lower bound is included.
+     * @param toKey         The upper bound, or null.
+     * @param toInclusive   True if a key equal to the upper bound is included.
+     * @param descending    True if the keys are visited from the largest to the smallest.
+     * @return The iterator.
+     */
+    PeekABoo<ListAccessor> range(Comparable fromKey, boolean fromInclusive,
+                                 Comparable toKey, boolean toInclusive,
+                                 boolean descending);
+
     /**
      * Returns a map of all the keys and values present at the given time.
      *
      * @return A map of lists.
      */
     NavigableMap<Comparable, List> flatMap();
+
+    /**
+     * Returns a sequential stream of the list accessors.
+     *
+     * @return The stream.
+     */
+    default Stream<ListAccessor> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    /**
+     * Returns a parallel stream of the list accessors.
+     *
+     * @return The stream.
+     */
+    default Stream<ListAccessor> parallelStream() {
+        return StreamSupport.stream(spliterator(), true);
+    }
 }
@@ -0,0 +1,50 @@
+package org.agilewiki.awdb.db.immutable.collections;
+
+/**
+ * A key which was added, removed or changed between two maps.
+ */
+public class MapChange {
+
+    /**
+     * The key.
+     */
+    public final Comparable key;
+
+    /**
+     * The list of the key in the first map, or null when the key was added.
+     */
+    public final ListNode oldList;
+
+    /**
+     * The list of the key in the second map, or null when the key was removed.
+     */
+    public final ListNode newList;
+
+    public MapChange(Comparable key, ListNode oldList, ListNode newList) {
+        this.key = key;
+        this.oldList = oldList;
+        this.newList = newList;
+    }
+
+    /**
+     * Returns true when the key is only in the second map.
+     *
+     * @return True if added.
+     */
+    public boolean isAdded() {
+        return oldList == null;
+    }
+
+    /**
+     * Returns true when the key is only in the first map.
+     *
+     * @return True if removed.
+     */
+    public boolean isRemoved() {
+        return newList == null;
+    }
+
+    public String toString() {
+        return (isAdded() ? "+" : isRemoved() ? "-" : "~") + key;
+    }
+}
@@ -0,0 +1,191 @@
+package org.agilewiki.awdb.db.immutable.collections;
+
+import org.agilewiki.awdb.db.virtualcow.BlockReference;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates over the keys which differ between two maps, in key order.
+ * Both maps are walked together, and a subtree held by both maps,
+ * as the same node or the same block, is skipped without being read.
+ * So the cost of comparing two successive roots is proportional to
+ * the number of changes times the depth of the tree.
+ */
+public class MapDiff implements Iterator<MapChange> {
+
+    /**
+     * A key and its list, not yet compared.
+     */
+    private static class Entry {
+        final Comparable key;
+        final ListNode listNode;
+
+        Entry(Comparable key, ListNode listNode) {
+            this.key = key;
+            this.listNode = listNode;
+        }
+    }
+
+    /**
+     * Walks a map in key order. The top of the stack is either a subtree (a MapNode)
+     * or an Entry, and everything below it holds greater keys.
+     */
+    private static class Cursor {
+        final ArrayDeque<Object> stack = new ArrayDeque<>();
+
+        Cursor(MapNode root) {
+            push(root);
+        }
+
+        void push(MapNode node) {
+            if (!node.isNil() && node.totalSize() > 0)
+                stack.push(node);
+        }
+
+        /**
+         * Replaces the subtree on top of the stack with its parts.
+         */
+        void expand() {
+            MapNode node = (MapNode) stack.pop();
+            if (node instanceof BTreeMapNode) {
+                BTreeMapNodeData data = ((BTreeMapNode) node).getBTreeData();
+                if (data.isLeaf()) {
+                    for (int i = data.keys.length - 1; i >= 0; --i)
+                        stack.push(new Entry(data.keys[i], data.lists[i]));
+                } else {
+                    for (int i = data.children.length - 1; i >= 0; --i)
+                        push(data.children[i]);
+                }
+                return;
+            }
+            MapNodeData data = node.getData();
+            push(data.rightNode);
+            stack.push(new Entry(data.key, data.listNode));
+            push(data.leftNode);
+        }
+
+        /**
+         * Returns the smallest key on top of the stack.
+         */
+        Comparable firstKey() {
+            Object top = stack.peek();
+            if (top instanceof Entry)
+                return ((Entry) top).key;
+            return ((MapNode) top).firstKey();
+        }
+    }
+
+    private final Cursor oldCursor;
+    private final Cursor newCursor;
+    private MapChange next;
+
+    /**
+     * Create a diff.
+     *
+     * @param oldMap The first map.
+     * @param newMap The second map.
+     */
+    public MapDiff(MapNode oldMap, MapNode newMap) {
+        oldCursor = new Cursor(oldMap);
+        newCursor = new Cursor(newMap);
+        next = advance();
+    }
+
+    /**
+     * Returns true when two nodes are known to hold the same content.
+     * Block numbers are reused once freed, so the length and checksum must match as well.
+     */
+    static boolean same(Object a, Object b) {
+        if (a == b)
+            return true;
+        if (!(a instanceof BlockReference) || !(b instanceof BlockReference) || a.getClass() != b.getClass())
+            return false;
+        BlockReference ra = (BlockReference) a;
+        BlockReference rb = (BlockReference) b;
+        return ra.blockNbr == rb.blockNbr &&
+                ra.blockLength == rb.blockLength &&
+                ra.cs256.equals(rb.cs256);
+    }
+
+    private MapChange advance() {
+        while (true) {
+            Object o = oldCursor.stack.peek();
+            Object n = newCursor.stack.peek();
+            if (o == null && n == null)
+                return null;
+            if (o == null) {
+                if (n instanceof MapNode) {
+                    newCursor.expand();
+                    continue;
+                }
+                newCursor.stack.pop();
+                return new MapChange(((Entry) n).key, null, ((Entry) n).listNode);
+            }
+            if (n == null) {
+                if (o instanceof MapNode) {
+                    oldCursor.expand();
+                    continue;
+                }
+                oldCursor.stack.pop();
+                return new MapChange(((Entry) o).key, ((Entry) o).listNode, null);
+            }
+            if (o instanceof MapNode && n instanceof MapNode) {
+                if (same(o, n)) {
+                    oldCursor.stack.pop();
+                    newCursor.stack.pop();
+                } else if (((MapNode) o).totalSize() >= ((MapNode) n).totalSize())
+                    oldCursor.expand();
+                else
+                    newCursor.expand();
+                continue;
+            }
+            int c = oldCursor.firstKey().compareTo(newCursor.firstKey());
+            if (o instanceof MapNode) {
+                if (c <= 0) {
+                    oldCursor.expand();
+                    continue;
+                }
+                newCursor.stack.pop();
+                return new MapChange(((Entry) n).key, null, ((Entry) n).listNode);
+            }
+            if (n instanceof MapNode) {
+                if (c >= 0) {
+                    newCursor.expand();
+                    continue;
+                }
+                oldCursor.stack.pop();
+                return new MapChange(((Entry) o).key, ((Entry) o).listNode, null);
+            }
+            Entry oe = (Entry) o;
+            Entry ne = (Entry) n;
+            if (c < 0) {
+                oldCursor.stack.pop();
+                return new MapChange(oe.key, oe.listNode, null);
+            }
+            if (c > 0) {
+                newCursor.stack.pop();
+                return new MapChange(ne.key, null, ne.listNode);
+            }
+            oldCursor.stack.pop();
+            newCursor.stack.pop();
+            if (!same(oe.listNode, ne.listNode) && !oe.listNode.flatList().equals(ne.listNode.flatList()))
+                return new MapChange(oe.key, oe.listNode, ne.listNode);
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return next != null;
+    }
+
+    @Override
+    public MapChange next() {
+        if (next == null)
+            throw new NoSuchElementException();
+        MapChange change = next;
+        next = advance();
+        return change;
+    }
+}
@@ -7,6 +7,11 @@ import org.agilewiki.awdb.db.virtualcow.DbFactoryRegistry;
 
 import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * An immutable map of lists.
@@ -184,11 +189,67 @@ public interface MapNode extends Releasable {
         if (value == null) {
             throw new IllegalArgumentException("value may not be null");
         }
-        if (isNil()) {
-            ListNode listNode = getRegistry().nilList.add(value);
-            return getData().replace(1, listNode, key);
+        ListNode nil = getRegistry().nilList;
+        return compute(key, l -> {
+            l.releaseAll();
+            return nil.add(value);
+        });
+    }
+
+    /**
+     * Replace the list of a key.
+     * Unlike set, the previous list is not released, as the new list
+     * is expected to share its unchanged nodes.
+     *
+     * @param key      The key of the list.
+     * @param listNode The new list, which must not be empty.
+     * @return The revised root node.
+     */
+    default MapNode setList(Comparable key, ListNode listNode) {
+        if (listNode.isNil()) {
+            throw new IllegalArgumentException("list may not be empty");
+        }
+        return compute(key, l -> listNode);
+    }
+
+    /**
+     * Replaces the list of a key, descending the tree only once.
+     * The current list is not released; the function does that when appropriate.
+     *
+     * @param key      The key of the list.
+     * @param function Maps the current list, or the nil list, to its replacement.
+     *                 An empty replacement removes the key.
+     * @return The revised root node.
+     */
+    default MapNode compute(Comparable key, UnaryOperator<ListNode> function) {
+        if (key == null) {
+            throw new IllegalArgumentException("key may not be null");
         }
-        return getData().set(key, value);
+        return getData().compute(key, function);
+    }
+
+    /**
+     * Gives a key a list when it has none.
+     *
+     * @param key      The key of the list.
+     * @param function Creates the list from the key.
+     * @return The revised root node.
+     */
+    default MapNode computeIfAbsent(Comparable key, Function<Comparable, ListNode> function) {
+        return compute(key, l -> l.isNil() ? function.apply(key) : l);
+    }
+
+    /**
+     * Gives a key a list when it has none, or else combines its current list with that list.
+     *
+     * @param key      The key of the list.
+     * @param listNode The list to be merged.
+     * @param function Combines the current list and the merged list.
+     *                 An empty result removes the key.
+     * @return The revised root node.
+     */
+    default MapNode merge(Comparable key, ListNode listNode, BinaryOperator<ListNode> function) {
+        return compute(key, l -> l.isNil() ? listNode : function.apply(l, listNode));
     }
 
     /**
@@ -214,6 +275,16 @@ public interface MapNode extends Releasable {
         return map;
     }
 
+    /**
+     * Returns a read-only view of the keys and values, backed by this map.
+     * The lists are views as well.
+     *
+     * @return A map of lists.
+     */
+    default NavigableMap<Comparable, List> mapView() {
+        return MapView.of(this);
+    }
+
     /**
      * Returns the count of all the keys in the map.
      *
@@ -236,6 +307,30 @@ public interface MapNode extends Releasable {
         return getData().size();
     }
 
+    /**
+     * Returns the count of the keys less than the given key.
+     *
+     * @param key The given key.
+     * @return The position the key has, or would have, in the map.
+     */
+    default int rank(Comparable key) {
+        if (isNil())
+            return 0;
+        return getData().rank(key);
+    }
+
+    /**
+     * Returns the key at the given position.
+     *
+     * @param ndx The position of the key.
+     * @return The key, or null when out of range.
+     */
+    default Comparable keyAt(int ndx) {
+        if (isNil())
+            return null;
+        return getData().keyAt(ndx);
+    }
+
     /**
      * Returns the smallest key.
      *
@@ -307,57 +402,51 @@ public interface MapNode extends Releasable {
     }
 
     /**
-     * Returns an iterator over the list accessors.
+     * Returns an iterator over the keys which were added, removed or changed
+     * in going from this map to another. Subtrees shared by the two maps are skipped,
+     * so comparing successive roots costs little more than the changes themselves.
      *
+     * @param other The other map.
      * @return The iterator.
      */
-    default PeekABoo<ListAccessor> iterator() {
-        return new PeekABoo<ListAccessor>() {
-
-            String next = (String) firstKey();
-
-            @Override
-            public String getPosition() {
-                return next;
-            }
-
-            @Override
-            public void setPosition(String state) {
-                next = (String) ceilingKey(state);
-            }
-
-            @Override
-            public boolean positionPrior() {
-                if (next == null) {
-                    next = (String) lastKey();
-                    return next != null;
-                }
-                String n = (String) lowerKey(next);
-                if (n == null)
-                    return false;
-                next = n;
-                return true;
-            }
+    default Iterator<MapChange> diff(MapNode other) {
+        return new MapDiff(this, other);
+    }
 
-            @Override
-            public ListAccessor peek() {
-                return listAccessor(next);
-            }
+    /**
+     * Returns a cursor over the keys, positioned on the first key.
+     *
+     * @return The cursor.
+     */
+    default KeyCursor cursor() {
+        return new MapNodeCursor(this);
+    }
 
-            @Override
-            public boolean hasNext() {
-                return next != null;
-            }
+    /**
+     * Returns an iterator over the list accessors.
+     *
+     * @return The iterator.
+     */
+    default PeekABoo<ListAccessor> iterator() {
+        return new CursorPeekABoo(cursor(), (k, l) -> ((ListNode) l).listAccessor(k));
+    }
 
-            @Override
-            public ListAccessor next() {
-                if (next == null)
-                    throw new NoSuchElementException();
-                ListAccessor la = peek();
-                next = (String) higherKey(next);
-                return la;
-            }
-        };
+    /**
+     * Returns an iterator over the list accessors, starting at the given position.
+     *
+     * @param fromIndex The position of the first key.
+     * @return The iterator.
+     */
+    default PeekABoo<ListAccessor> iterator(int fromIndex) {
+        int size = totalSize();
+        if (fromIndex < 0 || fromIndex > size)
+            throw new IndexOutOfBoundsException("index out of range " + fromIndex);
+        CursorPeekABoo iterator = new CursorPeekABoo(cursor(), (k, l) -> ((ListNode) l).listAccessor(k));
+        if (fromIndex == size)
+            iterator.setPosition(null);
+        else
+            iterator.seek(keyAt(fromIndex));
+        return iterator;
     }
 
     /**
@@ -379,64 +468,52 @@ public interface MapNode extends Releasable {
      * @return The iterator.
      */
     default PeekABoo<ListAccessor> iterable(String prefix) {
-        return new PeekABoo<ListAccessor>() {
-
-            String next = ceiling(prefix);
-
-            private String ceiling(String state) {
-                String k = (String) ceilingKey(state);
-                if (k != null && k.startsWith(prefix))
-                    return k;
-                return null;
-            }
-
-            @Override
-            public String getPosition() {
-                return next;
-            }
-
-            @Override
-            public void setPosition(String state) {
-                next = ceiling(state);
-            }
+        return new CursorPeekABoo(cursor(), (k, l) -> ((ListNode) l).listAccessor(k), prefix);
+    }
 
-            @Override
-            public boolean positionPrior() {
-                if (next == null) {
-                    String n = (String) lowerKey(prefix + Character.MAX_VALUE);
-                    if (n == null || !n.startsWith(prefix))
-                        return false;
-                    next = n;
-                    return true;
-                }
-                String n = (String) lowerKey(next);
-                if (n == null || !n.startsWith(prefix))
-                    return false;
-                next = n;
-                return true;
-            }
+    /**
+     * Returns an iterator over the list accessors with keys within the given bounds.
+     * The cursor is positioned once, and iteration stops at the far bound.
+     *
+     * @param fromKey       The lower bound, or null.
+     * @param fromInclusive True if a key equal to the lower bound is included.
+     * @param toKey         The upper bound, or null.
+     * @param toInclusive   True if a key equal to the upper bound is included.
+     * @param descending    True if the keys are visited from the largest to the smallest.
+     * @return The iterator.
+     */
+    default PeekABoo<ListAccessor> range(Comparable fromKey, boolean fromInclusive,
+                                         Comparable toKey, boolean toInclusive,
+                                         boolean descending) {
+        return new CursorPeekABoo(cursor(), (k, l) -> ((ListNode) l).listAccessor(k),
+                fromKey, fromInclusive, toKey, toInclusive, null, descending);
+    }
 
-            @Override
-            public ListAccessor peek() {
-                return listAccessor(next);
-            }
+    /**
+     * Returns a spliterator over the list accessors, which splits on subtrees.
+     *
+     * @return The spliterator.
+     */
+    default Spliterator<ListAccessor> spliterator() {
+        return TreeSpliterator.of(this);
+    }
 
-            @Override
-            public boolean hasNext() {
-                return next != null;
-            }
+    /**
+     * Returns a sequential stream of the list accessors.
+     *
+     * @return The stream.
+     */
+    default Stream<ListAccessor> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
 
-            @Override
-            public ListAccessor next() {
-                if (next == null)
-                    throw new NoSuchElementException();
-                ListAccessor la = peek();
-                next = (String) higherKey(next);
-                if (next != null && !next.startsWith(prefix))
-                    next = null;
-                return la;
-            }
-        };
+    /**
+     * Returns a parallel stream of the list accessors.
+     *
+     * @return The stream.
+     */
+    default Stream<ListAccessor> parallelStream() {
+        return StreamSupport.stream(spliterator(), true);
     }
 
     /**
@@ -446,6 +523,11 @@ public interface MapNode extends Releasable {
      */
     default MapAccessor mapAccessor() {
         return new MapAccessor() {
+            @Override
+            public Spliterator<ListAccessor> spliterator() {
+                return MapNode.this.spliterator();
+            }
+
 
             @Override
             public long getTimestamp() {
@@ -517,6 +599,13 @@ public interface MapNode extends Releasable {
                 return MapNode.this.iterable(prefix);
             }
 
+            @Override
+            public PeekABoo<ListAccessor> range(Comparable fromKey, boolean fromInclusive,
+                                                Comparable toKey, boolean toInclusive,
+                                                boolean descending) {
+                return MapNode.this.range(fromKey, fromInclusive, toKey, toInclusive, descending);
+            }
+
             @Override
             public NavigableMap<Comparable, List> flatMap() {
                 return MapNode.this.flatMap();
@@ -553,6 +642,13 @@ public interface MapNode extends Releasable {
         getData().releaseAll();
     }
 
+    @Override
+    default void retainAll() {
+        if (isNil())
+            return;
+        getData().retainAll();
+    }
+
     @Override
     default Object resize(int maxSize, int maxBlockSize) {
         return getData().resize(maxSize, maxBlockSize);
@@ -0,0 +1,51 @@
+package org.agilewiki.awdb.db.immutable.collections;
+
+import org.agilewiki.awdb.db.virtualcow.BlockReference;
+
+/**
+ * A cursor over the keys of an AA tree map.
+ */
+public class MapNodeCursor extends AATreeCursor {
+
+    /**
+     * Create a cursor, positioned on the smallest key.
+     *
+     * @param root The root of the map.
+     */
+    public MapNodeCursor(MapNode root) {
+        super(root);
+        first();
+    }
+
+    @Override
+    protected Object data(Object node) {
+        MapNode n = (MapNode) node;
+        return n.isNil() ? null : n.getData();
+    }
+
+    @Override
+    protected void readAhead(Object node) {
+        if (node instanceof BlockReference)
+            ((BlockReference) node).readAhead();
+    }
+
+    @Override
+    protected Object left(Object data) {
+        return ((MapNodeData) data).leftNode;
+    }
+
+    @Override
+    protected Object right(Object data) {
+        return ((MapNodeData) data).rightNode;
+    }
+
+    @Override
+    protected Comparable key(Object data) {
+        return ((MapNodeData) data).key;
+    }
+
+    @Override
+    protected Object list(Object data) {
+        return ((MapNodeData) data).listNode;
+    }
+}
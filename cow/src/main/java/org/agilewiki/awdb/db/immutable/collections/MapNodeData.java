@@ -2,11 +2,14 @@ package org.agilewiki.awdb.db.immutable.collections;
 
 import org.agilewiki.awdb.db.immutable.FactoryRegistry;
 import org.agilewiki.awdb.db.immutable.ImmutableFactory;
+import org.agilewiki.awdb.db.virtualcow.BlockReference;
+import org.agilewiki.awdb.db.virtualcow.DbFactoryRegistry;
 
 import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.NavigableMap;
 import java.util.NavigableSet;
+import java.util.function.UnaryOperator;
 
 import static java.lang.Math.min;
 
@@ -50,6 +53,28 @@ public class MapNodeData implements Releasable {
      */
     public final ImmutableFactory keyFactory;
 
+    /**
+     * Flags a serialized level which is followed by the subtree counts.
+     */
+    static final int COUNTED = 0x40000000;
+
+    /**
+     * Flags a serialized level whose key is binary encoded ahead of the subtrees,
+     * along with the offset of the right subtree, so a lookup can compare and
+     * descend without deserializing the node.
+     */
+    static final int KEYED = 0x10000000;
+
+    /**
+     * The binary encoding of the key, or null when not yet computed.
+     */
+    private byte[] encodedKey;
+
+    /**
+     * The count of the keys in this subtree, or -1 when not yet known.
+     */
+    private int totalSize = -1;
+
     /**
      * Create the nil node data.
      *
@@ -99,16 +124,38 @@ public class MapNodeData implements Releasable {
      */
     public MapNodeData(MapNode thisNode, ByteBuffer byteBuffer) {
         this.thisNode = thisNode;
-        level = byteBuffer.getInt();
+        int l = byteBuffer.getInt();
+        level = l & ~(COUNTED | KEYED);
+        int leftSize = -1;
+        if ((l & COUNTED) != 0) {
+            totalSize = byteBuffer.getInt();
+            leftSize = byteBuffer.getInt();
+        }
         FactoryRegistry factoryRegistry = thisNode.getRegistry();
+        Comparable k = null;
+        if ((l & KEYED) != 0) {
+            byteBuffer.getInt();
+            k = KeyEncoding.decode(byteBuffer, byteBuffer.getInt());
+        }
         ImmutableFactory f = factoryRegistry.readId(byteBuffer);
         leftNode = (MapNode) f.deserialize(byteBuffer);
         f = factoryRegistry.readId(byteBuffer);
         listNode = (ListNode) f.deserialize(byteBuffer);
         f = factoryRegistry.readId(byteBuffer);
         rightNode = (MapNode) f.deserialize(byteBuffer);
-        keyFactory = factoryRegistry.readId(byteBuffer);
-        key = (Comparable) keyFactory.deserialize(byteBuffer);
+        if (k == null) {
+            keyFactory = factoryRegistry.readId(byteBuffer);
+            key = (Comparable) keyFactory.deserialize(byteBuffer);
+        } else {
+            key = k;
+            keyFactory = factoryRegistry.getImmutableFactory(key);
+        }
+        if (leftSize >= 0) {
+            if (leftNode instanceof MapReference)
+                ((MapReference) leftNode).setTotalSize(leftSize);
+            if (rightNode instanceof MapReference)
+                ((MapReference) rightNode).setTotalSize(totalSize - leftSize - 1);
+        }
     }
 
     /**
@@ -229,7 +276,6 @@ public class MapNodeData implements Releasable {
     public MapNode remove(Comparable key) {
         if (isNil())
             return thisNode;
-        MapNodeFactory factory = thisNode.getRegistry().mapNodeFactory;
         int c = key.compareTo(this.key);
         MapNode t = thisNode;
         if (c > 0) {
@@ -243,20 +289,40 @@ public class MapNodeData implements Releasable {
         } else {
             if (listNode instanceof Releasable)
                 ((Releasable) listNode).releaseAll();
-            MapNode nil = factory.nilMap;
-            if (leftNode.isNil() && rightNode.isNil()) {
-                return nil;
-            }
-            if (leftNode.isNil()) {
-                MapNode l = successor();
-                MapNodeData ld = l.getData();
-                t = ld.replace(level, nil, rightNode.remove(ld.key));
-            } else {
-                MapNode l = predecessor();
-                MapNodeData ld = l.getData();
-                t = ld.replaceLeft(level, leftNode.remove(ld.key));
-            }
+            t = unlink();
+            if (t.isNil())
+                return t;
         }
+        return rebalance(t);
+    }
+
+    /**
+     * Removes this node from its subtree, without releasing its list.
+     *
+     * @return The subtree without this node, not yet rebalanced.
+     */
+    private MapNode unlink() {
+        MapNode nil = thisNode.getRegistry().mapNodeFactory.nilMap;
+        if (leftNode.isNil() && rightNode.isNil()) {
+            return nil;
+        }
+        if (leftNode.isNil()) {
+            MapNode l = successor();
+            MapNodeData ld = l.getData();
+            return ld.replace(level, nil, rightNode.remove(ld.key));
+        }
+        MapNode l = predecessor();
+        MapNodeData ld = l.getData();
+        return ld.replace(level, leftNode.remove(ld.key), rightNode);
+    }
+
+    /**
+     * Restores the AA tree invariants after a removal.
+     *
+     * @param t The subtree root.
+     * @return The revised subtree root.
+     */
+    private MapNode rebalance(MapNode t) {
         t = t.getData().decreaseLevel().getData().skew();
         MapNodeData td = t.getData();
         MapNode r = td.rightNode.getData().skew();
@@ -279,6 +345,64 @@ public class MapNodeData implements Releasable {
         return t;
     }
 
+    /**
+     * Replaces the list of a key, descending the tree only once.
+     *
+     * @param key      The key of the list.
+     * @param function Maps the current list, or the nil list, to its replacement.
+     *                 An empty replacement removes the key.
+     *                 The current list is not released.
+     * @return The revised node.
+     */
+    public MapNode compute(Comparable key, UnaryOperator<ListNode> function) {
+        return compute(key, function, new int[1]);
+    }
+
+    /**
+     * Replaces the list of a key, descending the tree only once.
+     *
+     * @param key      The key of the list.
+     * @param function Maps the current list, or the nil list, to its replacement.
+     * @param change   Set to 1 when the key is added, or -1 when it is removed,
+     *                 so only the nodes on the path which may be unbalanced are revisited.
+     * @return The revised node.
+     */
+    private MapNode compute(Comparable key, UnaryOperator<ListNode> function, int[] change) {
+        if (isNil()) {
+            ListNode n = function.apply(thisNode.getRegistry().nilList);
+            if (n.isNil())
+                return thisNode;
+            change[0] = 1;
+            return replace(1, n, key);
+        }
+        int c = key.compareTo(this.key);
+        MapNode t = thisNode;
+        if (c < 0) {
+            MapNode l = leftNode.getData().compute(key, function, change);
+            if (l != leftNode)
+                t = replaceLeft(l);
+        } else if (c == 0) {
+            ListNode n = function.apply(listNode);
+            if (n == listNode)
+                return thisNode;
+            if (!n.isNil())
+                return replace(n);
+            change[0] = -1;
+            t = unlink();
+            if (t.isNil())
+                return t;
+        } else {
+            MapNode r = rightNode.getData().compute(key, function, change);
+            if (r != rightNode)
+                t = replaceRight(r);
+        }
+        if (change[0] > 0)
+            return t.getData().skew().getData().split();
+        if (change[0] < 0)
+            return rebalance(t);
+        return t;
+    }
+
     /**
      * Delete a value from the list.
      *
@@ -345,28 +469,6 @@ public class MapNodeData implements Releasable {
         return replace(n);
     }
 
-    /**
-     * Replace the list entries with a single value.
-     *
-     * @param key   The key of the list.
-     * @param value The new value.
-     * @return The revised node.
-     */
-    public MapNode set(Comparable key, Object value) {
-        int c = key.compareTo(this.key);
-        if (c < 0) {
-            MapNode n = leftNode.set(key, value);
-            return replaceLeft(n);
-        } else if (c == 0) {
-            listNode.releaseAll();
-            ListNode n = thisNode.getRegistry().nilList.add(value);
-            return replace(n);
-        } else {
-            MapNode n = rightNode.set(key, value);
-            return replaceRight(n);
-        }
-    }
-
     /**
      * Builds a set of all keys with non-empty lists.
      *
@@ -421,7 +523,47 @@ public class MapNodeData implements Releasable {
     public int totalSize() {
         if (isNil())
             return 0;
-        return leftNode.totalSize() + 1 + rightNode.totalSize();
+        int t = totalSize;
+        if (t < 0) {
+            t = leftNode.totalSize() + 1 + rightNode.totalSize();
+            if (!isTransient())
+                totalSize = t;
+        }
+        return t;
+    }
+
+    /**
+     * Returns the count of the keys less than the given key.
+     *
+     * @param key The given key.
+     * @return The position the key has, or would have, in the map.
+     */
+    public int rank(Comparable key) {
+        if (isNil())
+            return 0;
+        int c = key.compareTo(this.key);
+        if (c < 0)
+            return leftNode.rank(key);
+        if (c == 0)
+            return leftNode.totalSize();
+        return leftNode.totalSize() + 1 + rightNode.rank(key);
+    }
+
+    /**
+     * Returns the key at the given position.
+     *
+     * @param ndx The position of the key.
+     * @return The key, or null when out of range.
+     */
+    public Comparable keyAt(int ndx) {
+        if (isNil())
+            return null;
+        int leftSize = leftNode.totalSize();
+        if (ndx < leftSize)
+            return leftNode.keyAt(ndx);
+        if (ndx == leftSize)
+            return key;
+        return rightNode.keyAt(ndx - leftSize - 1);
     }
 
     /**
@@ -461,6 +603,32 @@ public class MapNodeData implements Releasable {
         return key;
     }
 
+    /**
+     * Queues the blocks referenced by this node and the nodes held in the same block.
+     *
+     * @param depth How many levels below those blocks are also loaded.
+     */
+    public void readAhead(int depth) {
+        if (isNil())
+            return;
+        readAhead(leftNode, depth);
+        if (listNode instanceof BlockReference)
+            ((BlockReference) listNode).readAhead(0);
+        readAhead(rightNode, depth);
+    }
+
+    private static void readAhead(MapNode node, int depth) {
+        if (node instanceof BlockReference)
+            ((BlockReference) node).readAhead(depth);
+        else
+            node.getData().readAhead(depth);
+    }
+
+    private static void readAhead(MapNode node) {
+        if (node instanceof BlockReference)
+            ((BlockReference) node).readAhead();
+    }
+
     /**
      * Returns the next greater key.
      *
@@ -471,6 +639,8 @@ public class MapNodeData implements Releasable {
         if (isNil())
             return null;
         int c = key.compareTo(this.key);
+        if (c < 0)
+            readAhead(rightNode);
         if (c <= 0) {
             Comparable k = leftNode.higherKey(key);
             if (k != null)
@@ -491,6 +661,8 @@ public class MapNodeData implements Releasable {
         if (isNil())
             return null;
         int c = key.compareTo(this.key);
+        if (c < 0)
+            readAhead(rightNode);
         if (c < 0) {
             Comparable k = leftNode.ceilingKey(key);
             if (k != null)
@@ -549,11 +721,22 @@ public class MapNodeData implements Releasable {
     public int getDurableLength() {
         if (isNil())
             return 2;
-        return 2 + 4 + 4 +
+        byte[] encoded = getEncodedKey();
+        int keyLength = encoded == null ? keyFactory.getDurableLength(key) : 4 + 4 + encoded.length;
+        return 2 + 4 + 4 + 4 + 4 +
                 leftNode.getDurableLength() +
                 listNode.getDurableLength() +
                 rightNode.getDurableLength() +
-                keyFactory.getDurableLength(key);
+                keyLength;
+    }
+
+    private byte[] getEncodedKey() {
+        byte[] encoded = encodedKey;
+        if (encoded == null) {
+            encoded = KeyEncoding.encode(key);
+            encodedKey = encoded;
+        }
+        return encoded;
     }
 
     /**
@@ -562,11 +745,101 @@ public class MapNodeData implements Releasable {
      * @param byteBuffer Where the serialized data is to be placed.
      */
     public void serialize(ByteBuffer byteBuffer) {
-        byteBuffer.putInt(level);
+        byte[] encoded = getEncodedKey();
+        if (encoded == null) {
+            byteBuffer.putInt(level | COUNTED);
+            byteBuffer.putInt(totalSize());
+            byteBuffer.putInt(leftNode.totalSize());
+            leftNode.writeDurable(byteBuffer);
+            listNode.writeDurable(byteBuffer);
+            rightNode.writeDurable(byteBuffer);
+            keyFactory.writeDurable(key, byteBuffer);
+            return;
+        }
+        byteBuffer.putInt(level | COUNTED | KEYED);
+        byteBuffer.putInt(totalSize());
+        byteBuffer.putInt(leftNode.totalSize());
+        byteBuffer.putInt(20 + encoded.length + leftNode.getDurableLength() + listNode.getDurableLength());
+        byteBuffer.putInt(encoded.length);
+        byteBuffer.put(encoded);
         leftNode.writeDurable(byteBuffer);
         listNode.writeDurable(byteBuffer);
         rightNode.writeDurable(byteBuffer);
-        keyFactory.writeDurable(key, byteBuffer);
+    }
+
+    /**
+     * Returns the list for a key, searching the serialized form of a node.
+     * The key is compared in place against the encoded keys of the node and of the
+     * descendants held inline in the same buffer, so only the node that matches is deserialized.
+     *
+     * @param thisNode   The node.
+     * @param byteBuffer The serialized data of the node.
+     * @param key        The key sought.
+     * @return The list, or null.
+     */
+    static ListNode getList(MapNode thisNode, ByteBuffer byteBuffer, Comparable key) {
+        byte[] encoded = KeyEncoding.encode(key);
+        if (encoded == null)
+            return thisNode.getData().getList(key);
+        DbFactoryRegistry registry = thisNode.getRegistry();
+        MapNode node = thisNode;
+        int durable = -1;
+        int p = 0;
+        while (true) {
+            if ((byteBuffer.getInt(p) & KEYED) == 0)
+                return node(node, registry, byteBuffer, durable).getData().getList(key);
+            int length = byteBuffer.getInt(p + 16);
+            if (!KeyEncoding.comparable(encoded, byteBuffer, p + 20))
+                return node(node, registry, byteBuffer, durable).getData().getList(key);
+            int c = KeyEncoding.compare(encoded, byteBuffer, p + 20, length);
+            if (c == 0)
+                return node(node, registry, byteBuffer, durable).getData().listNode;
+            durable = c < 0 ? p + 20 + length : p + byteBuffer.getInt(p + 12);
+            char id = byteBuffer.getChar(durable);
+            if (id == registry.nilMapId)
+                return null;
+            node = null;
+            if (id != registry.mapNodeImplId)
+                return node(node, registry, byteBuffer, durable).getList(key);
+            p = durable + 6;
+        }
+    }
+
+    private static MapNode node(MapNode node, DbFactoryRegistry registry, ByteBuffer byteBuffer, int durable) {
+        if (node != null)
+            return node;
+        ByteBuffer bb = byteBuffer.duplicate();
+        bb.position(durable);
+        return (MapNode) registry.readId(bb).deserialize(bb);
+    }
+
+    /**
+     * Returns a Bloom filter over the keys of this subtree, for the reference replacing it.
+     * The filters of referenced subtrees are merged in, so no blocks are read.
+     *
+     * @param maxBlockSize The max block size of the db, which sets the size of the filter.
+     * @return The filter, or null when a referenced subtree has no filter.
+     */
+    public BloomFilter bloomFilter(int maxBlockSize) {
+        BloomFilter filter = BloomFilter.forBlockSize(maxBlockSize);
+        if (!addKeys(thisNode, filter))
+            return null;
+        return filter;
+    }
+
+    private static boolean addKeys(MapNode node, BloomFilter filter) {
+        if (node.isNil())
+            return true;
+        if (node instanceof MapReference) {
+            BloomFilter f = ((MapReference) node).filter;
+            if (f == null || f.wordCount() != filter.wordCount())
+                return false;
+            filter.merge(f);
+            return true;
+        }
+        MapNodeData data = node.getData();
+        filter.add(data.key);
+        return addKeys(data.leftNode, filter) && addKeys(data.rightNode, filter);
     }
 
     @Override
@@ -581,48 +854,81 @@ public class MapNodeData implements Releasable {
             ((Releasable) rightNode).releaseAll();
     }
 
+    @Override
+    public void retainAll() {
+        if (isNil())
+            return;
+        if (leftNode instanceof Releasable)
+            ((Releasable) leftNode).retainAll();
+        if (listNode instanceof Releasable)
+            ((Releasable) listNode).retainAll();
+        if (rightNode instanceof Releasable)
+            ((Releasable) rightNode).retainAll();
+    }
+
     public MapNode replace(int level) {
         thisNode.releaseLocal();
-        return new MapNodeImpl(thisNode.getRegistry(), level, leftNode, listNode, rightNode, key);
+        return newNode(level, leftNode, listNode, rightNode, key);
     }
 
     public MapNode replace(ListNode listNode) {
         thisNode.releaseLocal();
-        return new MapNodeImpl(thisNode.getRegistry(), level, leftNode, listNode, rightNode, key);
+        return newNode(level, leftNode, listNode, rightNode, key);
     }
 
     public MapNode replace(int level, ListNode listNode, Comparable key) {
         thisNode.releaseLocal();
-        return new MapNodeImpl(thisNode.getRegistry(), level, leftNode, listNode, rightNode, key);
+        return newNode(level, leftNode, listNode, rightNode, key);
     }
 
     public MapNode replace(int level, MapNode leftNode, MapNode rightNode) {
         thisNode.releaseLocal();
-        return new MapNodeImpl(thisNode.getRegistry(), level, leftNode, listNode, rightNode, key);
+        return newNode(level, leftNode, listNode, rightNode, key);
     }
 
     public MapNode replace(MapNode leftNode, ListNode listNode, MapNode rightNode) {
         thisNode.releaseLocal();
-        return new MapNodeImpl(thisNode.getRegistry(), level, leftNode, listNode, rightNode, key);
+        return newNode(level, leftNode, listNode, rightNode, key);
     }
 
     public MapNode replaceLeft(MapNode leftNode) {
         thisNode.releaseLocal();
-        return new MapNodeImpl(thisNode.getRegistry(), level, leftNode, listNode, rightNode, key);
+        return newNode(level, leftNode, listNode, rightNode, key);
     }
 
     public MapNode replaceLeft(int level, MapNode leftNode) {
         thisNode.releaseLocal();
-        return new MapNodeImpl(thisNode.getRegistry(), level, leftNode, listNode, rightNode, key);
+        return newNode(level, leftNode, listNode, rightNode, key);
     }
 
     public MapNode replaceRight(MapNode rightNode) {
         thisNode.releaseLocal();
-        return new MapNodeImpl(thisNode.getRegistry(), level, leftNode, listNode, rightNode, key);
+        return newNode(level, leftNode, listNode, rightNode, key);
     }
 
     public MapNode replaceRight(int level, MapNode rightNode) {
         thisNode.releaseLocal();
+        return newNode(level, leftNode, listNode, rightNode, key);
+    }
+
+    /**
+     * Returns true when this data belongs to a node which can still be updated in place.
+     *
+     * @return True when transient.
+     */
+    private boolean isTransient() {
+        return thisNode instanceof MapNodeImpl && ((MapNodeImpl) thisNode).isTransient();
+    }
+
+    /**
+     * Creates the revised node, or updates this node in place when it is transient.
+     */
+    private MapNode newNode(int level, MapNode leftNode, ListNode listNode, MapNode rightNode, Comparable key) {
+        if (isTransient()) {
+            MapNodeImpl impl = (MapNodeImpl) thisNode;
+            impl.dataReference.set(new MapNodeData(impl, level, leftNode, listNode, rightNode, key));
+            return impl;
+        }
         return new MapNodeImpl(thisNode.getRegistry(), level, leftNode, listNode, rightNode, key);
     }
 
@@ -5,6 +5,8 @@ import org.agilewiki.awdb.db.immutable.ImmutableFactory;
 import org.agilewiki.awdb.db.virtualcow.DbFactoryRegistry;
 
 import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.Map;
 
 /**
  * Defines how map is serialized / deserialized.
@@ -19,6 +21,51 @@ public class MapNodeFactory extends BaseFactory {
         nilMapNodeFactory = new NilMapNodeFactory(registry);
         nilMap = new MapNodeImpl(registry);
         new MapReferenceFactory(registry);
+        new FilteredMapReferenceFactory(registry);
+    }
+
+    /**
+     * Builds a balanced map from entries sorted by key, in linear time.
+     * A stream can be loaded by passing its iterator.
+     *
+     * @param sorted The entries, with unique keys in ascending order and non-empty lists.
+     * @return The map.
+     */
+    public MapNode bulkLoad(Iterator<? extends Map.Entry<? extends Comparable, ? extends ListNode>> sorted) {
+        return bulkLoad(sorted, 0);
+    }
+
+    /**
+     * Builds a balanced map from entries sorted by key, in linear time.
+     * A stream can be loaded by passing its iterator, and is not gathered in memory.
+     * <p>
+     * When a fill size is given, each subtree whose durable length exceeds half of it
+     * is written to its own block as soon as it is built, so the blocks hold
+     * between half and all of the fill size. Blocks can only be written
+     * while processing a transaction.
+     * </p>
+     *
+     * @param sorted   The entries, with unique keys in ascending order and non-empty lists.
+     * @param fillSize The target length of a block, not more than the max block size, or 0.
+     * @return The map.
+     */
+    public MapNode bulkLoad(Iterator<? extends Map.Entry<? extends Comparable, ? extends ListNode>> sorted,
+                         int fillSize) {
+        DbFactoryRegistry registry = (DbFactoryRegistry) factoryRegistry;
+        if (fillSize > registry.db.maxBlockSize)
+            throw new IllegalArgumentException("fill size exceeds max block size");
+        return BulkLoader.load(sorted, ListNode::isNil, nilMap,
+                (level, left, list, right, key) -> new MapNodeImpl(registry, level, left, list, right, key),
+                node -> fill(node, fillSize));
+    }
+
+    private MapNode fill(MapNode node, int fillSize) {
+        if (fillSize == 0 || node.isNil() || node.getDurableLength() <= fillSize / 2)
+            return node;
+        int maxBlockSize = ((DbFactoryRegistry) factoryRegistry).db.maxBlockSize;
+        if (node.getDurableLength() > maxBlockSize)
+            node = (MapNode) node.resize(maxBlockSize, maxBlockSize);
+        return (MapNode) node.shrink();
     }
 
     @Override
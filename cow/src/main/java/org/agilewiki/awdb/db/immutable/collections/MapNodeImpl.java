@@ -15,17 +15,20 @@ public class MapNodeImpl implements MapNode {
     public final DbFactoryRegistry registry;
 
     protected final AtomicReference<MapNodeData> dataReference = new AtomicReference<>();
-    protected final int durableLength;
+    protected final Object owner;
+    protected int durableLength;
     protected ByteBuffer byteBuffer;
 
     protected MapNodeImpl(DbFactoryRegistry registry) {
         this.registry = registry;
         dataReference.set(new MapNodeData(this));
+        owner = null;
         durableLength = 2;
     }
 
     protected MapNodeImpl(DbFactoryRegistry registry, ByteBuffer byteBuffer) {
         this.registry = registry;
+        owner = null;
         durableLength = byteBuffer.getInt();
         this.byteBuffer = byteBuffer.slice();
         this.byteBuffer.limit(durableLength - 6);
@@ -46,7 +49,8 @@ public class MapNodeImpl implements MapNode {
                 listNode,
                 rightNode,
                 key);
-        durableLength = data.getDurableLength();
+        owner = registry.db.getTransientOwner();
+        durableLength = owner == null ? data.getDurableLength() : -1;
         dataReference.set(data);
     }
 
@@ -64,11 +68,33 @@ public class MapNodeImpl implements MapNode {
         return dataReference.get();
     }
 
+    @Override
+    public ListNode getList(Comparable key) {
+        ByteBuffer bb = byteBuffer;
+        if (bb == null || dataReference.get() != null)
+            return MapNode.super.getList(key);
+        return MapNodeData.getList(this, bb, key);
+    }
+
     @Override
     public int getDurableLength() {
+        if (durableLength < 0) {
+            if (isTransient())
+                return getData().getDurableLength();
+            durableLength = getData().getDurableLength();
+        }
         return durableLength;
     }
 
+    /**
+     * Returns true while the current transaction may still update this map node in place.
+     *
+     * @return True when the node is transient.
+     */
+    public boolean isTransient() {
+        return owner != null && owner == registry.db.getTransientOwner();
+    }
+
     /**
      * Write the durable to a byte buffer.
      *
@@ -105,14 +131,17 @@ public class MapNodeImpl implements MapNode {
     @Override
     public Object shrink() {
         Db db = registry.db;
+        int dl = getDurableLength();
         MapNodeData data = getData();
-        ByteBuffer byteBuffer = ByteBuffer.allocate(durableLength - 6);
+        ByteBuffer byteBuffer = ByteBuffer.allocate(dl - 6);
         data.serialize(byteBuffer);
         byteBuffer.flip();
         CS256 cs256 = new CS256(byteBuffer);
-        int blockNbr = db.allocate();
-        db.writeBlock(byteBuffer, blockNbr);
-        return new MapReference(registry, blockNbr, durableLength - 6, cs256);
+        int blockNbr = db.writeContent(byteBuffer, cs256, MapReference.class, data);
+        MapReference mapReference = new MapReference(registry, blockNbr, dl - 6, cs256,
+                data.bloomFilter(db.maxBlockSize));
+        mapReference.setTotalSize(data.totalSize());
+        return mapReference;
     }
 
     @Override
@@ -10,11 +10,31 @@ import java.nio.ByteBuffer;
  * A reference to an immutable map of lists.
  */
 public class MapReference extends BlockReference implements MapNode {
+
+    /**
+     * The count of the keys in the referenced map, or -1 when not yet known.
+     */
+    private volatile int totalSize = -1;
+
+    /**
+     * A Bloom filter over the keys of the referenced map, or null.
+     */
+    public final BloomFilter filter;
+
     public MapReference(DbFactoryRegistry registry,
                         int blockNbr,
                         int blockLength,
                         CS256 cs256) {
+        this(registry, blockNbr, blockLength, cs256, null);
+    }
+
+    public MapReference(DbFactoryRegistry registry,
+                        int blockNbr,
+                        int blockLength,
+                        CS256 cs256,
+                        BloomFilter filter) {
         super(registry, blockNbr, blockLength, cs256);
+        this.filter = filter;
     }
 
     @Override
@@ -22,6 +42,44 @@ public class MapReference extends BlockReference implements MapNode {
         return (MapNodeData) super.getData();
     }
 
+    /**
+     * Records the count of the keys in the referenced map,
+     * so the count is known without reading the block.
+     *
+     * @param totalSize The count of the keys.
+     */
+    public void setTotalSize(int totalSize) {
+        this.totalSize = totalSize;
+    }
+
+    @Override
+    public int totalSize() {
+        int t = totalSize;
+        if (t < 0) {
+            t = getData().totalSize();
+            totalSize = t;
+        }
+        return t;
+    }
+
+    /**
+     * Returns the list of a key, without reading the block when the filter rules the key out.
+     *
+     * @param key The key for the node.
+     * @return The list, or null.
+     */
+    @Override
+    public ListNode getList(Comparable key) {
+        if (filter != null && !filter.mightContain(key))
+            return null;
+        return getData().getList(key);
+    }
+
+    @Override
+    protected void readAheadChildren(int depth) {
+        getData().readAhead(depth);
+    }
+
     protected Object loadData(ByteBuffer byteBuffer) {
         return new MapNodeData(this, byteBuffer);
     }
@@ -33,11 +91,28 @@ public class MapReference extends BlockReference implements MapNode {
      */
     public void writeDurable(ByteBuffer byteBuffer) {
         int expected = byteBuffer.position() + getDurableLength();
-        byteBuffer.putChar(getRegistry().mapReferenceId);
+        byteBuffer.putChar(filter == null ?
+                getRegistry().mapReferenceId :
+                getRegistry().filteredMapReferenceId);
         serialize(byteBuffer);
         if (expected != byteBuffer.position()) {
             getRegistry().db.close();
             throw new SerializationException();
         }
     }
+
+    @Override
+    public void serialize(ByteBuffer byteBuffer) {
+        super.serialize(byteBuffer);
+        if (filter != null)
+            filter.serialize(byteBuffer);
+    }
+
+    @Override
+    public int getDurableLength() {
+        int dl = super.getDurableLength();
+        if (filter != null)
+            dl += filter.getDurableLength();
+        return dl;
+    }
 }
@@ -19,6 +19,13 @@ public class MapReferenceFactory extends BlockReferenceFactory {
         super(registry, registry.mapReferenceId);
     }
 
+    @Override
+    public char getId(Object durable) {
+        return ((MapReference) durable).filter == null ?
+                getId() :
+                ((DbFactoryRegistry) factoryRegistry).filteredMapReferenceId;
+    }
+
     @Override
     public Class getImmutableClass() {
         return MapReference.class;
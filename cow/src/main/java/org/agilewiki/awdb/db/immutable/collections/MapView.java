@@ -0,0 +1,717 @@
+package org.agilewiki.awdb.db.immutable.collections;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+
+/**
+ * A read-only view of a map of lists, backed directly by the tree rather than a copy.
+ * Lookups descend the tree, iteration walks it with a cursor, and the lists are views as well.
+ * Sub-map and descending views share the same tree.
+ */
+public abstract class MapView extends AbstractMap<Comparable, List> implements NavigableMap<Comparable, List> {
+
+    private final Comparable lo;
+    private final boolean loInclusive;
+    private final Comparable hi;
+    private final boolean hiInclusive;
+    private final boolean descending;
+
+    /**
+     * Create a view.
+     *
+     * @param lo          The lower bound, or null.
+     * @param loInclusive True if a key equal to the lower bound is included.
+     * @param hi          The upper bound, or null.
+     * @param hiInclusive True if a key equal to the upper bound is included.
+     * @param descending  True if the keys are ordered from the largest to the smallest.
+     */
+    protected MapView(Comparable lo, boolean loInclusive, Comparable hi, boolean hiInclusive, boolean descending) {
+        this.lo = lo;
+        this.loInclusive = loInclusive;
+        this.hi = hi;
+        this.hiInclusive = hiInclusive;
+        this.descending = descending;
+    }
+
+    /**
+     * Returns a view of a map.
+     *
+     * @param mapNode The map, either an AA tree or a B-tree.
+     * @return The view.
+     */
+    public static MapView of(MapNode mapNode) {
+        return new Plain(mapNode, null, true, null, true, false);
+    }
+
+    /**
+     * Returns a view of the keys of a versioned map with a non-empty list at a given time.
+     *
+     * @param mapNode   The map.
+     * @param timestamp The time of the query.
+     * @return The view.
+     */
+    public static MapView of(VersionedMapNode mapNode, long timestamp) {
+        return new Versioned(mapNode, timestamp, null, true, null, true, false);
+    }
+
+    protected abstract Comparable first();
+
+    protected abstract Comparable last();
+
+    protected abstract Comparable ceiling(Comparable key);
+
+    protected abstract Comparable higher(Comparable key);
+
+    protected abstract Comparable floor(Comparable key);
+
+    protected abstract Comparable lower(Comparable key);
+
+    /**
+     * Returns a view of the list of a key.
+     *
+     * @param key The key.
+     * @return The list, or null when the key has no list.
+     */
+    protected abstract List list(Comparable key);
+
+    /**
+     * Returns a view of a list reached by a cursor.
+     *
+     * @param list A ListNode or a VersionedListNode.
+     * @return The list, or null when it is empty.
+     */
+    protected abstract List view(Object list);
+
+    /**
+     * Returns a cursor over the whole map.
+     *
+     * @return The cursor.
+     */
+    protected abstract KeyCursor cursor();
+
+    /**
+     * Returns the number of keys in the whole map.
+     *
+     * @return The size.
+     */
+    protected abstract int totalSize();
+
+    /**
+     * Creates a view of the same map.
+     *
+     * @param lo          The lower bound, or null.
+     * @param loInclusive True if a key equal to the lower bound is included.
+     * @param hi          The upper bound, or null.
+     * @param hiInclusive True if a key equal to the upper bound is included.
+     * @param descending  True if the keys are ordered from the largest to the smallest.
+     * @return The view.
+     */
+    protected abstract MapView create(Comparable lo, boolean loInclusive,
+                                      Comparable hi, boolean hiInclusive,
+                                      boolean descending);
+
+    private boolean tooLow(Comparable key) {
+        if (lo == null)
+            return false;
+        int c = key.compareTo(lo);
+        return c < 0 || (c == 0 && !loInclusive);
+    }
+
+    private boolean tooHigh(Comparable key) {
+        if (hi == null)
+            return false;
+        int c = key.compareTo(hi);
+        return c > 0 || (c == 0 && !hiInclusive);
+    }
+
+    private boolean inRange(Comparable key) {
+        return !tooLow(key) && !tooHigh(key);
+    }
+
+    private Comparable lowest() {
+        Comparable k = lo == null ? first() : loInclusive ? ceiling(lo) : higher(lo);
+        return k == null || tooHigh(k) ? null : k;
+    }
+
+    private Comparable highest() {
+        Comparable k = hi == null ? last() : hiInclusive ? floor(hi) : lower(hi);
+        return k == null || tooLow(k) ? null : k;
+    }
+
+    private Comparable absCeiling(Comparable key) {
+        if (tooLow(key))
+            return lowest();
+        Comparable k = ceiling(key);
+        return k == null || tooHigh(k) ? null : k;
+    }
+
+    private Comparable absHigher(Comparable key) {
+        if (tooLow(key))
+            return lowest();
+        Comparable k = higher(key);
+        return k == null || tooHigh(k) ? null : k;
+    }
+
+    private Comparable absFloor(Comparable key) {
+        if (tooHigh(key))
+            return highest();
+        Comparable k = floor(key);
+        return k == null || tooLow(k) ? null : k;
+    }
+
+    private Comparable absLower(Comparable key) {
+        if (tooHigh(key))
+            return highest();
+        Comparable k = lower(key);
+        return k == null || tooLow(k) ? null : k;
+    }
+
+    private Entry<Comparable, List> entry(Comparable key) {
+        if (key == null)
+            return null;
+        return new SimpleImmutableEntry<>(key, list(key));
+    }
+
+    private static Comparable key(Comparable key) {
+        if (key == null)
+            throw new NoSuchElementException();
+        return key;
+    }
+
+    private MapView bounded(Comparable lo, boolean loInclusive,
+                            Comparable hi, boolean hiInclusive,
+                            boolean descending) {
+        if (this.lo != null) {
+            int c = lo == null ? -1 : lo.compareTo(this.lo);
+            if (c < 0) {
+                lo = this.lo;
+                loInclusive = this.loInclusive;
+            } else if (c == 0)
+                loInclusive &= this.loInclusive;
+        }
+        if (this.hi != null) {
+            int c = hi == null ? 1 : hi.compareTo(this.hi);
+            if (c > 0) {
+                hi = this.hi;
+                hiInclusive = this.hiInclusive;
+            } else if (c == 0)
+                hiInclusive &= this.hiInclusive;
+        }
+        if (lo != null && hi != null && lo.compareTo(hi) > 0)
+            throw new IllegalArgumentException("fromKey > toKey");
+        return create(lo, loInclusive, hi, hiInclusive, descending);
+    }
+
+    @Override
+    public List get(Object key) {
+        if (!(key instanceof Comparable) || !inRange((Comparable) key))
+            return null;
+        return list((Comparable) key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public int size() {
+        if (lo == null && hi == null)
+            return totalSize();
+        int s = 0;
+        Iterator<Entry<Comparable, List>> it = entrySet().iterator();
+        while (it.hasNext()) {
+            it.next();
+            s += 1;
+        }
+        return s;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return lowest() == null;
+    }
+
+    @Override
+    public Comparator<? super Comparable> comparator() {
+        return descending ? Collections.reverseOrder() : null;
+    }
+
+    @Override
+    public Comparable firstKey() {
+        return key(descending ? highest() : lowest());
+    }
+
+    @Override
+    public Comparable lastKey() {
+        return key(descending ? lowest() : highest());
+    }
+
+    @Override
+    public Comparable lowerKey(Comparable key) {
+        return descending ? absHigher(key) : absLower(key);
+    }
+
+    @Override
+    public Comparable floorKey(Comparable key) {
+        return descending ? absCeiling(key) : absFloor(key);
+    }
+
+    @Override
+    public Comparable ceilingKey(Comparable key) {
+        return descending ? absFloor(key) : absCeiling(key);
+    }
+
+    @Override
+    public Comparable higherKey(Comparable key) {
+        return descending ? absLower(key) : absHigher(key);
+    }
+
+    @Override
+    public Entry<Comparable, List> firstEntry() {
+        return entry(descending ? highest() : lowest());
+    }
+
+    @Override
+    public Entry<Comparable, List> lastEntry() {
+        return entry(descending ? lowest() : highest());
+    }
+
+    @Override
+    public Entry<Comparable, List> lowerEntry(Comparable key) {
+        return entry(lowerKey(key));
+    }
+
+    @Override
+    public Entry<Comparable, List> floorEntry(Comparable key) {
+        return entry(floorKey(key));
+    }
+
+    @Override
+    public Entry<Comparable, List> ceilingEntry(Comparable key) {
+        return entry(ceilingKey(key));
+    }
+
+    @Override
+    public Entry<Comparable, List> higherEntry(Comparable key) {
+        return entry(higherKey(key));
+    }
+
+    @Override
+    public Entry<Comparable, List> pollFirstEntry() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Entry<Comparable, List> pollLastEntry() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public NavigableMap<Comparable, List> descendingMap() {
+        return create(lo, loInclusive, hi, hiInclusive, !descending);
+    }
+
+    @Override
+    public NavigableMap<Comparable, List> subMap(Comparable fromKey, boolean fromInclusive,
+                                                 Comparable toKey, boolean toInclusive) {
+        if (fromKey == null || toKey == null)
+            throw new NullPointerException();
+        if (descending)
+            return bounded(toKey, toInclusive, fromKey, fromInclusive, true);
+        return bounded(fromKey, fromInclusive, toKey, toInclusive, false);
+    }
+
+    @Override
+    public NavigableMap<Comparable, List> headMap(Comparable toKey, boolean inclusive) {
+        if (toKey == null)
+            throw new NullPointerException();
+        if (descending)
+            return bounded(toKey, inclusive, null, true, true);
+        return bounded(null, true, toKey, inclusive, false);
+    }
+
+    @Override
+    public NavigableMap<Comparable, List> tailMap(Comparable fromKey, boolean inclusive) {
+        if (fromKey == null)
+            throw new NullPointerException();
+        if (descending)
+            return bounded(null, true, fromKey, inclusive, true);
+        return bounded(fromKey, inclusive, null, true, false);
+    }
+
+    @Override
+    public SortedMap<Comparable, List> subMap(Comparable fromKey, Comparable toKey) {
+        return subMap(fromKey, true, toKey, false);
+    }
+
+    @Override
+    public SortedMap<Comparable, List> headMap(Comparable toKey) {
+        return headMap(toKey, false);
+    }
+
+    @Override
+    public SortedMap<Comparable, List> tailMap(Comparable fromKey) {
+        return tailMap(fromKey, true);
+    }
+
+    @Override
+    public NavigableSet<Comparable> keySet() {
+        return navigableKeySet();
+    }
+
+    @Override
+    public NavigableSet<Comparable> navigableKeySet() {
+        return new KeySet(this);
+    }
+
+    @Override
+    public NavigableSet<Comparable> descendingKeySet() {
+        return new KeySet(descendingMap());
+    }
+
+    @Override
+    public Set<Entry<Comparable, List>> entrySet() {
+        return new AbstractSet<Entry<Comparable, List>>() {
+            @Override
+            public Iterator<Entry<Comparable, List>> iterator() {
+                return new EntryIterator();
+            }
+
+            @Override
+            public int size() {
+                return MapView.this.size();
+            }
+
+            @Override
+            public boolean isEmpty() {
+                return MapView.this.isEmpty();
+            }
+        };
+    }
+
+    private class EntryIterator implements Iterator<Entry<Comparable, List>> {
+        private final KeyCursor cursor = cursor();
+        private List next;
+
+        EntryIterator() {
+            if (descending) {
+                if (hi == null)
+                    cursor.last();
+                else
+                    cursor.seekBack(hi, hiInclusive);
+            } else if (lo != null)
+                cursor.seek(lo, loInclusive);
+            settle();
+        }
+
+        private void settle() {
+            while (cursor.isValid() && inRange(cursor.key())) {
+                next = view(cursor.list());
+                if (next != null)
+                    return;
+                step();
+            }
+            next = null;
+        }
+
+        private void step() {
+            if (descending)
+                cursor.prior();
+            else
+                cursor.next();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Entry<Comparable, List> next() {
+            if (next == null)
+                throw new NoSuchElementException();
+            Entry<Comparable, List> e = new SimpleImmutableEntry<>(cursor.key(), next);
+            step();
+            settle();
+            return e;
+        }
+    }
+
+    private static class KeySet extends AbstractSet<Comparable> implements NavigableSet<Comparable> {
+        private final NavigableMap<Comparable, List> map;
+
+        KeySet(NavigableMap<Comparable, List> map) {
+            this.map = map;
+        }
+
+        @Override
+        public Iterator<Comparable> iterator() {
+            Iterator<Entry<Comparable, List>> it = map.entrySet().iterator();
+            return new Iterator<Comparable>() {
+                @Override
+                public boolean hasNext() {
+                    return it.hasNext();
+                }
+
+                @Override
+                public Comparable next() {
+                    return it.next().getKey();
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return map.size();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return map.isEmpty();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return map.containsKey(o);
+        }
+
+        @Override
+        public Comparable lower(Comparable e) {
+            return map.lowerKey(e);
+        }
+
+        @Override
+        public Comparable floor(Comparable e) {
+            return map.floorKey(e);
+        }
+
+        @Override
+        public Comparable ceiling(Comparable e) {
+            return map.ceilingKey(e);
+        }
+
+        @Override
+        public Comparable higher(Comparable e) {
+            return map.higherKey(e);
+        }
+
+        @Override
+        public Comparable pollFirst() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Comparable pollLast() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public NavigableSet<Comparable> descendingSet() {
+            return new KeySet(map.descendingMap());
+        }
+
+        @Override
+        public Iterator<Comparable> descendingIterator() {
+            return descendingSet().iterator();
+        }
+
+        @Override
+        public NavigableSet<Comparable> subSet(Comparable fromElement, boolean fromInclusive,
+                                               Comparable toElement, boolean toInclusive) {
+            return new KeySet(map.subMap(fromElement, fromInclusive, toElement, toInclusive));
+        }
+
+        @Override
+        public NavigableSet<Comparable> headSet(Comparable toElement, boolean inclusive) {
+            return new KeySet(map.headMap(toElement, inclusive));
+        }
+
+        @Override
+        public NavigableSet<Comparable> tailSet(Comparable fromElement, boolean inclusive) {
+            return new KeySet(map.tailMap(fromElement, inclusive));
+        }
+
+        @Override
+        public Comparator<? super Comparable> comparator() {
+            return map.comparator();
+        }
+
+        @Override
+        public SortedSet<Comparable> subSet(Comparable fromElement, Comparable toElement) {
+            return subSet(fromElement, true, toElement, false);
+        }
+
+        @Override
+        public SortedSet<Comparable> headSet(Comparable toElement) {
+            return headSet(toElement, false);
+        }
+
+        @Override
+        public SortedSet<Comparable> tailSet(Comparable fromElement) {
+            return tailSet(fromElement, true);
+        }
+
+        @Override
+        public Comparable first() {
+            return map.firstKey();
+        }
+
+        @Override
+        public Comparable last() {
+            return map.lastKey();
+        }
+    }
+
+    private static class Plain extends MapView {
+        private final MapNode mapNode;
+
+        Plain(MapNode mapNode, Comparable lo, boolean loInclusive,
+              Comparable hi, boolean hiInclusive, boolean descending) {
+            super(lo, loInclusive, hi, hiInclusive, descending);
+            this.mapNode = mapNode;
+        }
+
+        @Override
+        protected Comparable first() {
+            return mapNode.firstKey();
+        }
+
+        @Override
+        protected Comparable last() {
+            return mapNode.lastKey();
+        }
+
+        @Override
+        protected Comparable ceiling(Comparable key) {
+            return mapNode.ceilingKey(key);
+        }
+
+        @Override
+        protected Comparable higher(Comparable key) {
+            return mapNode.higherKey(key);
+        }
+
+        @Override
+        protected Comparable floor(Comparable key) {
+            return mapNode.floorKey(key);
+        }
+
+        @Override
+        protected Comparable lower(Comparable key) {
+            return mapNode.lowerKey(key);
+        }
+
+        @Override
+        protected List list(Comparable key) {
+            return view(mapNode.getList(key));
+        }
+
+        @Override
+        protected List view(Object list) {
+            ListNode listNode = (ListNode) list;
+            if (listNode == null || listNode.isEmpty())
+                return null;
+            return ListView.of(listNode);
+        }
+
+        @Override
+        protected KeyCursor cursor() {
+            return mapNode.cursor();
+        }
+
+        @Override
+        protected int totalSize() {
+            return mapNode.size();
+        }
+
+        @Override
+        protected MapView create(Comparable lo, boolean loInclusive,
+                                 Comparable hi, boolean hiInclusive,
+                                 boolean descending) {
+            return new Plain(mapNode, lo, loInclusive, hi, hiInclusive, descending);
+        }
+    }
+
+    private static class Versioned extends MapView {
+        private final VersionedMapNode mapNode;
+        private final long timestamp;
+
+        Versioned(VersionedMapNode mapNode, long timestamp, Comparable lo, boolean loInclusive,
+                  Comparable hi, boolean hiInclusive, boolean descending) {
+            super(lo, loInclusive, hi, hiInclusive, descending);
+            this.mapNode = mapNode;
+            this.timestamp = timestamp;
+        }
+
+        @Override
+        protected Comparable first() {
+            return mapNode.firstKey(timestamp);
+        }
+
+        @Override
+        protected Comparable last() {
+            return mapNode.lastKey(timestamp);
+        }
+
+        @Override
+        protected Comparable ceiling(Comparable key) {
+            return mapNode.ceilingKey(key, timestamp);
+        }
+
+        @Override
+        protected Comparable higher(Comparable key) {
+            return mapNode.higherKey(key, timestamp);
+        }
+
+        @Override
+        protected Comparable floor(Comparable key) {
+            return mapNode.floorKey(key, timestamp);
+        }
+
+        @Override
+        protected Comparable lower(Comparable key) {
+            return mapNode.lowerKey(key, timestamp);
+        }
+
+        @Override
+        protected List list(Comparable key) {
+            return view(mapNode.getList(key));
+        }
+
+        @Override
+        protected List view(Object list) {
+            VersionedListNode listNode = (VersionedListNode) list;
+            if (listNode == null || listNode.isEmpty(timestamp))
+                return null;
+            return ListView.of(listNode, timestamp);
+        }
+
+        @Override
+        protected KeyCursor cursor() {
+            return mapNode.cursor(timestamp);
+        }
+
+        @Override
+        protected int totalSize() {
+            return mapNode.size(timestamp);
+        }
+
+        @Override
+        protected MapView create(Comparable lo, boolean loInclusive,
+                                 Comparable hi, boolean hiInclusive,
+                                 boolean descending) {
+            return new Versioned(mapNode, timestamp, lo, loInclusive, hi, hiInclusive, descending);
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package org.agilewiki.awdb.db.immutable.collections;
+
+import org.agilewiki.awdb.db.immutable.BaseFactory;
+import org.agilewiki.awdb.db.virtualcow.DbFactoryRegistry;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Defines how a nil set node is serialized / deserialized.
+ */
+public class NilSetNodeFactory extends BaseFactory {
+
+    public NilSetNodeFactory(DbFactoryRegistry registry) {
+        super(registry, registry.nilSetId);
+    }
+
+    @Override
+    public Class getImmutableClass() {
+        return getClass();
+    }
+
+    @Override
+    public void match(Object durable) {
+        if (!((SetNode) durable).isNil())
+            throw new IllegalArgumentException("The immutable object is not a nil set node");
+    }
+
+    @Override
+    public int getDurableLength(Object durable) {
+        return 2;
+    }
+
+    @Override
+    public void serialize(Object durable, ByteBuffer byteBuffer) {
+    }
+
+    @Override
+    public SetNode deserialize(ByteBuffer byteBuffer) {
+        return ((DbFactoryRegistry) factoryRegistry).nilSet;
+    }
+}
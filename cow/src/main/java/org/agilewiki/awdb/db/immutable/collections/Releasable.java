@@ -23,6 +23,11 @@ public interface Releasable {
      */
     default void releaseLocal() {}
 
+    /**
+     * Add a reference to all shared resources.
+     */
+    default void retainAll() {}
+
     /**
      * Resize immutables which are too large.
      *
@@ -0,0 +1,265 @@
+package org.agilewiki.awdb.db.immutable.collections;
+
+import org.agilewiki.awdb.db.immutable.ImmutableFactory;
+import org.agilewiki.awdb.db.virtualcow.Db;
+import org.agilewiki.awdb.db.virtualcow.DbFactoryRegistry;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.TreeSet;
+
+/**
+ * An immutable sorted set of keys, held in an AA tree.
+ * Unlike a map, no list is kept for a key, which suits index entries that carry no payload.
+ */
+public interface SetNode extends Releasable {
+
+    /**
+     * Returns the database factory registry.
+     *
+     * @return The registry.
+     */
+    DbFactoryRegistry getRegistry();
+
+    /**
+     * Returns the database.
+     *
+     * @return The database.
+     */
+    default Db getDb() {
+        return getRegistry().db;
+    }
+
+    SetNodeData getData();
+
+    /**
+     * Returns true if this is the nil node.
+     *
+     * @return True if nil node.
+     */
+    default boolean isNil() {
+        return this == getRegistry().nilSet;
+    }
+
+    /**
+     * Returns true when the key is in the set.
+     *
+     * @param key The key.
+     * @return True if present.
+     */
+    default boolean contains(Comparable key) {
+        if (key == null)
+            throw new IllegalArgumentException("key may not be null");
+        if (isNil())
+            return false;
+        return getData().contains(key);
+    }
+
+    /**
+     * Add a key to the set.
+     *
+     * @param key The key.
+     * @return The revised root node.
+     */
+    default SetNode add(Comparable key) {
+        if (key == null)
+            throw new IllegalArgumentException("key may not be null");
+        return getData().add(key);
+    }
+
+    /**
+     * Remove a key from the set.
+     *
+     * @param key The key.
+     * @return The revised root node.
+     */
+    default SetNode remove(Comparable key) {
+        if (key == null)
+            throw new IllegalArgumentException("key may not be null");
+        return getData().remove(key);
+    }
+
+    /**
+     * Returns a set of all the keys.
+     *
+     * @return A set of the keys.
+     */
+    default NavigableSet<Comparable> flatSet() {
+        NavigableSet<Comparable> keys = new TreeSet<>();
+        getData().flatSet(keys);
+        return keys;
+    }
+
+    /**
+     * Returns the count of all the keys in the set.
+     *
+     * @return The count of all the keys in the set.
+     */
+    default int totalSize() {
+        if (isNil())
+            return 0;
+        return getData().totalSize();
+    }
+
+    /**
+     * Returns the count of all the keys.
+     *
+     * @return The size of the set.
+     */
+    default int size() {
+        return totalSize();
+    }
+
+    /**
+     * Returns the smallest key.
+     *
+     * @return The smallest key, or null.
+     */
+    default Comparable firstKey() {
+        return getData().firstKey();
+    }
+
+    /**
+     * Returns the largest key.
+     *
+     * @return The largest key, or null.
+     */
+    default Comparable lastKey() {
+        return getData().lastKey();
+    }
+
+    /**
+     * Returns the next greater key.
+     *
+     * @param key The given key.
+     * @return The next greater key, or null.
+     */
+    default Comparable higherKey(Comparable key) {
+        return getData().higherKey(key);
+    }
+
+    /**
+     * Returns the key that is greater than or equal to the given key.
+     *
+     * @param key The given key.
+     * @return The key greater than or equal to the given key, or null.
+     */
+    default Comparable ceilingKey(Comparable key) {
+        return getData().ceilingKey(key);
+    }
+
+    /**
+     * Returns the next smaller key.
+     *
+     * @param key The given key.
+     * @return The next smaller key, or null.
+     */
+    default Comparable lowerKey(Comparable key) {
+        return getData().lowerKey(key);
+    }
+
+    /**
+     * Returns the key that is smaller than or equal to the given key.
+     *
+     * @param key The given key.
+     * @return The key smaller than or equal to the given key, or null.
+     */
+    default Comparable floorKey(Comparable key) {
+        return getData().floorKey(key);
+    }
+
+    /**
+     * Returns a cursor over the keys, positioned on the first key.
+     *
+     * @return The cursor.
+     */
+    default KeyCursor cursor() {
+        return new SetNodeCursor(this);
+    }
+
+    /**
+     * Returns an iterator over the keys.
+     *
+     * @return The iterator.
+     */
+    default Iterator<Comparable> iterator() {
+        return keys(cursor());
+    }
+
+    /**
+     * Returns an iterator over the keys visited by a cursor, starting with its current key.
+     *
+     * @param cursor The cursor.
+     * @return The iterator.
+     */
+    static Iterator<Comparable> keys(KeyCursor cursor) {
+        return new Iterator<Comparable>() {
+            @Override
+            public boolean hasNext() {
+                return cursor.isValid();
+            }
+
+            @Override
+            public Comparable next() {
+                if (!cursor.isValid())
+                    throw new NoSuchElementException();
+                Comparable key = cursor.key();
+                cursor.next();
+                return key;
+            }
+        };
+    }
+
+    /**
+     * Returns the size of a byte array needed to serialize this object,
+     * including the space needed for the durable id.
+     *
+     * @return The size in bytes of the serialized data.
+     */
+    int getDurableLength();
+
+    /**
+     * Write the durable to a byte buffer.
+     *
+     * @param byteBuffer The byte buffer.
+     */
+    void writeDurable(ByteBuffer byteBuffer);
+
+    /**
+     * Serialize this object into a ByteBuffer.
+     *
+     * @param byteBuffer Where the serialized data is to be placed.
+     */
+    void serialize(ByteBuffer byteBuffer);
+
+    @Override
+    default void releaseAll() {
+        if (isNil())
+            return;
+        getData().releaseAll();
+    }
+
+    @Override
+    default void retainAll() {
+        if (isNil())
+            return;
+        getData().retainAll();
+    }
+
+    @Override
+    default Object resize(int maxSize, int maxBlockSize) {
+        return getData().resize(maxSize, maxBlockSize);
+    }
+
+    /**
+     * Returns a ByteBuffer loaded with the serialized contents of the immutable.
+     *
+     * @return The loaded ByteBuffer.
+     */
+    default ByteBuffer toByteBuffer() {
+        ImmutableFactory factory = getRegistry().getImmutableFactory(this);
+        return factory.toByteBuffer(this);
+    }
+}
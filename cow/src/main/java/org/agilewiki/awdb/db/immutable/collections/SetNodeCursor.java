@@ -0,0 +1,52 @@
+package org.agilewiki.awdb.db.immutable.collections;
+
+import org.agilewiki.awdb.db.virtualcow.BlockReference;
+
+/**
+ * A cursor over the keys of an AA tree set.
+ * As a set holds no lists, the list of each key is null.
+ */
+public class SetNodeCursor extends AATreeCursor {
+
+    /**
+     * Create a cursor, positioned on the smallest key.
+     *
+     * @param root The root of the set.
+     */
+    public SetNodeCursor(SetNode root) {
+        super(root);
+        first();
+    }
+
+    @Override
+    protected Object data(Object node) {
+        SetNode n = (SetNode) node;
+        return n.isNil() ? null : n.getData();
+    }
+
+    @Override
+    protected void readAhead(Object node) {
+        if (node instanceof BlockReference)
+            ((BlockReference) node).readAhead();
+    }
+
+    @Override
+    protected Object left(Object data) {
+        return ((SetNodeData) data).leftNode;
+    }
+
+    @Override
+    protected Object right(Object data) {
+        return ((SetNodeData) data).rightNode;
+    }
+
+    @Override
+    protected Comparable key(Object data) {
+        return ((SetNodeData) data).key;
+    }
+
+    @Override
+    protected Object list(Object data) {
+        return null;
+    }
+}
@@ -0,0 +1,583 @@
+package org.agilewiki.awdb.db.immutable.collections;
+
+import org.agilewiki.awdb.db.immutable.FactoryRegistry;
+import org.agilewiki.awdb.db.immutable.ImmutableFactory;
+import org.agilewiki.awdb.db.virtualcow.BlockReference;
+
+import java.nio.ByteBuffer;
+import java.util.NavigableSet;
+
+import static java.lang.Math.min;
+
+/**
+ * The durable data elements of a set node.
+ */
+public class SetNodeData implements Releasable {
+
+    /**
+     * The node which holds this data.
+     */
+    public final SetNode thisNode;
+
+    /**
+     * Composite node depth--see AA Tree algorithm.
+     */
+    public final int level;
+
+    /**
+     * Left subtree node.
+     */
+    public final SetNode leftNode;
+
+    /**
+     * Right subtree node.
+     */
+    public final SetNode rightNode;
+
+    /**
+     * The key of the node.
+     */
+    public final Comparable key;
+
+    /**
+     * The factory for the key.
+     */
+    public final ImmutableFactory keyFactory;
+
+    /**
+     * The count of the keys in this subtree, or -1 when not yet known.
+     */
+    private int totalSize = -1;
+
+    /**
+     * Create the nil node data.
+     *
+     * @param thisNode The node which holds this data.
+     */
+    public SetNodeData(SetNode thisNode) {
+        this.thisNode = thisNode;
+        this.level = 0;
+        this.leftNode = thisNode;
+        this.rightNode = thisNode;
+        key = null;
+        keyFactory = null;
+    }
+
+    /**
+     * Create non-nill node data.
+     *
+     * @param thisNode  The node which holds this data.
+     * @param level     Composite node depth--see AA Tree algorithm.
+     * @param leftNode  Left subtree node.
+     * @param rightNode Right subtree node.
+     * @param key       The key of node.
+     */
+    public SetNodeData(SetNode thisNode,
+                       int level,
+                       SetNode leftNode,
+                       SetNode rightNode,
+                       Comparable key) {
+        this.thisNode = thisNode;
+        this.level = level;
+        this.leftNode = leftNode;
+        this.rightNode = rightNode;
+        this.key = key;
+        keyFactory = thisNode.getRegistry().getImmutableFactory(key);
+    }
+
+    /**
+     * Create non-nill node data.
+     *
+     * @param thisNode   The node which holds this data.
+     * @param byteBuffer Holds the serialized data.
+     */
+    public SetNodeData(SetNode thisNode, ByteBuffer byteBuffer) {
+        this.thisNode = thisNode;
+        level = byteBuffer.getInt();
+        totalSize = byteBuffer.getInt();
+        int leftSize = byteBuffer.getInt();
+        FactoryRegistry factoryRegistry = thisNode.getRegistry();
+        ImmutableFactory f = factoryRegistry.readId(byteBuffer);
+        leftNode = (SetNode) f.deserialize(byteBuffer);
+        f = factoryRegistry.readId(byteBuffer);
+        rightNode = (SetNode) f.deserialize(byteBuffer);
+        keyFactory = factoryRegistry.readId(byteBuffer);
+        key = (Comparable) keyFactory.deserialize(byteBuffer);
+        if (leftNode instanceof SetReference)
+            ((SetReference) leftNode).setTotalSize(leftSize);
+        if (rightNode instanceof SetReference)
+            ((SetReference) rightNode).setTotalSize(totalSize - leftSize - 1);
+    }
+
+    /**
+     * Returns true if this is the data for the nil node.
+     *
+     * @return True if nil node.
+     */
+    public boolean isNil() {
+        return level == 0;
+    }
+
+    /**
+     * Returns true when the key is in this subtree.
+     *
+     * @param key The key.
+     * @return True if present.
+     */
+    public boolean contains(Comparable key) {
+        SetNodeData data = this;
+        while (!data.isNil()) {
+            int c = key.compareTo(data.key);
+            if (c == 0)
+                return true;
+            data = (c < 0 ? data.leftNode : data.rightNode).getData();
+        }
+        return false;
+    }
+
+    /**
+     * AA Tree skew operation.
+     *
+     * @return Revised root node.
+     */
+    public SetNode skew() {
+        if (isNil() || leftNode.isNil())
+            return thisNode;
+        SetNodeData leftData = leftNode.getData();
+        if (leftData.level == level) {
+            SetNode t = replaceLeft(leftData.rightNode);
+            return leftData.replaceRight(t);
+        } else
+            return thisNode;
+    }
+
+    /**
+     * AA Tree split
+     *
+     * @return The revised root node.
+     */
+    public SetNode split() {
+        if (isNil() || rightNode.isNil())
+            return thisNode;
+        SetNodeData rightData = rightNode.getData();
+        if (rightData.rightNode.isNil())
+            return thisNode;
+        if (level == rightData.rightNode.getData().level) {
+            SetNode t = replaceRight(rightData.leftNode);
+            return rightData.replace(rightData.level + 1, t, rightData.rightNode);
+        }
+        return thisNode;
+    }
+
+    /**
+     * Add a key to the set.
+     *
+     * @param key The key.
+     * @return The revised root node.
+     */
+    public SetNode add(Comparable key) {
+        if (isNil())
+            return newNode(1, thisNode, thisNode, key);
+        SetNode t;
+        int c = key.compareTo(this.key);
+        if (c < 0) {
+            SetNode l = leftNode.add(key);
+            if (l == leftNode)
+                return thisNode;
+            t = replaceLeft(l);
+        } else if (c == 0) {
+            return thisNode;
+        } else {
+            SetNode r = rightNode.add(key);
+            if (r == rightNode)
+                return thisNode;
+            t = replaceRight(r);
+        }
+        return t.getData().skew().getData().split();
+    }
+
+    private SetNode successor() {
+        return rightNode.getData().leftMost();
+    }
+
+    private SetNode leftMost() {
+        if (!leftNode.isNil())
+            return leftNode.getData().leftMost();
+        return thisNode;
+    }
+
+    private SetNode predecessor() {
+        return leftNode.getData().rightMost();
+    }
+
+    private SetNode rightMost() {
+        if (!rightNode.isNil())
+            return rightNode.getData().rightMost();
+        return thisNode;
+    }
+
+    private SetNode decreaseLevel() {
+        SetNodeData rd = rightNode.getData();
+        int shouldBe = min(leftNode.getData().level, rd.level) + 1;
+        if (shouldBe < level) {
+            SetNode r;
+            if (shouldBe < rd.level)
+                r = rd.replace(shouldBe, rd.leftNode, rd.rightNode);
+            else
+                r = rightNode;
+            return replace(shouldBe, leftNode, r);
+        }
+        return thisNode;
+    }
+
+    /**
+     * Remove a key from the set.
+     *
+     * @param key The key.
+     * @return The revised root node.
+     */
+    public SetNode remove(Comparable key) {
+        if (isNil())
+            return thisNode;
+        int c = key.compareTo(this.key);
+        SetNode t;
+        if (c > 0) {
+            SetNode r = rightNode.remove(key);
+            if (r == rightNode)
+                return thisNode;
+            t = replaceRight(r);
+        } else if (c < 0) {
+            SetNode l = leftNode.remove(key);
+            if (l == leftNode)
+                return thisNode;
+            t = replaceLeft(l);
+        } else {
+            t = unlink();
+            if (t.isNil())
+                return t;
+        }
+        return rebalance(t);
+    }
+
+    /**
+     * Removes this node from its subtree.
+     *
+     * @return The subtree without this node, not yet rebalanced.
+     */
+    private SetNode unlink() {
+        SetNode nil = thisNode.getRegistry().nilSet;
+        if (leftNode.isNil() && rightNode.isNil()) {
+            thisNode.releaseLocal();
+            return nil;
+        }
+        if (leftNode.isNil()) {
+            SetNode l = successor();
+            SetNodeData ld = l.getData();
+            SetNode r = rightNode.remove(ld.key);
+            thisNode.releaseLocal();
+            return newNode(level, nil, r, ld.key);
+        }
+        SetNode l = predecessor();
+        SetNodeData ld = l.getData();
+        SetNode left = leftNode.remove(ld.key);
+        thisNode.releaseLocal();
+        return newNode(level, left, rightNode, ld.key);
+    }
+
+    /**
+     * Restores the AA tree invariants after a removal.
+     *
+     * @param t The subtree root.
+     * @return The revised subtree root.
+     */
+    private static SetNode rebalance(SetNode t) {
+        t = t.getData().decreaseLevel().getData().skew();
+        SetNodeData td = t.getData();
+        SetNode r = td.rightNode.getData().skew();
+        if (!r.isNil()) {
+            SetNodeData rd = r.getData();
+            SetNode rr = rd.rightNode.getData().skew();
+            if (rd.rightNode != rr) {
+                r = rd.replaceRight(rr);
+            }
+        }
+        if (r != td.rightNode) {
+            t = td.replaceRight(r);
+        }
+        t = t.getData().split();
+        r = t.getData().rightNode.getData().split();
+        td = t.getData();
+        if (r != td.rightNode) {
+            t = td.replaceRight(r);
+        }
+        return t;
+    }
+
+    /**
+     * Builds a set of all the keys.
+     *
+     * @param keys The set being built.
+     */
+    public void flatSet(NavigableSet<Comparable> keys) {
+        if (isNil())
+            return;
+        leftNode.getData().flatSet(keys);
+        keys.add(key);
+        rightNode.getData().flatSet(keys);
+    }
+
+    /**
+     * Returns the count of all the keys in the set.
+     *
+     * @return The count of all the keys in the set.
+     */
+    public int totalSize() {
+        if (isNil())
+            return 0;
+        int t = totalSize;
+        if (t < 0) {
+            t = leftNode.totalSize() + 1 + rightNode.totalSize();
+            if (!isTransient())
+                totalSize = t;
+        }
+        return t;
+    }
+
+    /**
+     * Returns the smallest key.
+     *
+     * @return The smallest key, or null.
+     */
+    public Comparable firstKey() {
+        if (isNil())
+            return null;
+        Comparable k = leftNode.firstKey();
+        if (k != null)
+            return k;
+        return key;
+    }
+
+    /**
+     * Returns the largest key.
+     *
+     * @return The largest key, or null.
+     */
+    public Comparable lastKey() {
+        if (isNil())
+            return null;
+        Comparable k = rightNode.lastKey();
+        if (k != null)
+            return k;
+        return key;
+    }
+
+    /**
+     * Queues the blocks referenced by this node and the nodes held in the same block.
+     *
+     * @param depth How many levels below those blocks are also loaded.
+     */
+    public void readAhead(int depth) {
+        if (isNil())
+            return;
+        readAhead(leftNode, depth);
+        readAhead(rightNode, depth);
+    }
+
+    private static void readAhead(SetNode node, int depth) {
+        if (node instanceof BlockReference)
+            ((BlockReference) node).readAhead(depth);
+        else
+            node.getData().readAhead(depth);
+    }
+
+    /**
+     * Returns the next greater key.
+     *
+     * @param key The given key.
+     * @return The next greater key, or null.
+     */
+    public Comparable higherKey(Comparable key) {
+        if (isNil())
+            return null;
+        int c = key.compareTo(this.key);
+        if (c < 0) {
+            Comparable k = leftNode.higherKey(key);
+            if (k != null)
+                return k;
+            return this.key;
+        }
+        return rightNode.higherKey(key);
+    }
+
+    /**
+     * Returns the key that is greater than or equal to the given key.
+     *
+     * @param key The given key.
+     * @return The key greater than or equal to the given key, or null.
+     */
+    public Comparable ceilingKey(Comparable key) {
+        if (isNil())
+            return null;
+        int c = key.compareTo(this.key);
+        if (c < 0) {
+            Comparable k = leftNode.ceilingKey(key);
+            if (k != null)
+                return k;
+        }
+        if (c <= 0)
+            return this.key;
+        return rightNode.ceilingKey(key);
+    }
+
+    /**
+     * Returns the next smaller key.
+     *
+     * @param key The given key.
+     * @return The next smaller key, or null.
+     */
+    public Comparable lowerKey(Comparable key) {
+        if (isNil())
+            return null;
+        int c = key.compareTo(this.key);
+        if (c > 0) {
+            Comparable k = rightNode.lowerKey(key);
+            if (k != null)
+                return k;
+            return this.key;
+        }
+        return leftNode.lowerKey(key);
+    }
+
+    /**
+     * Returns the key that is smaller than or equal to the given key.
+     *
+     * @param key The given key.
+     * @return The key smaller than or equal to the given key, or null.
+     */
+    public Comparable floorKey(Comparable key) {
+        if (isNil())
+            return null;
+        int c = key.compareTo(this.key);
+        if (c > 0) {
+            Comparable k = rightNode.floorKey(key);
+            if (k != null)
+                return k;
+        }
+        if (c >= 0)
+            return this.key;
+        return leftNode.floorKey(key);
+    }
+
+    /**
+     * Returns the length of the serialized data, including the id and durable length.
+     *
+     * @return The length of the serialized data.
+     */
+    public int getDurableLength() {
+        if (isNil())
+            return 2;
+        return 2 + 4 + 4 + 4 + 4 +
+                leftNode.getDurableLength() +
+                rightNode.getDurableLength() +
+                keyFactory.getDurableLength(key);
+    }
+
+    /**
+     * Serialize this object into a ByteBuffer.
+     *
+     * @param byteBuffer Where the serialized data is to be placed.
+     */
+    public void serialize(ByteBuffer byteBuffer) {
+        byteBuffer.putInt(level);
+        byteBuffer.putInt(totalSize());
+        byteBuffer.putInt(leftNode.totalSize());
+        leftNode.writeDurable(byteBuffer);
+        rightNode.writeDurable(byteBuffer);
+        keyFactory.writeDurable(key, byteBuffer);
+    }
+
+    @Override
+    public void releaseAll() {
+        if (isNil())
+            return;
+        leftNode.releaseAll();
+        rightNode.releaseAll();
+    }
+
+    @Override
+    public void retainAll() {
+        if (isNil())
+            return;
+        leftNode.retainAll();
+        rightNode.retainAll();
+    }
+
+    public SetNode replace(int level, SetNode leftNode, SetNode rightNode) {
+        thisNode.releaseLocal();
+        return newNode(level, leftNode, rightNode, key);
+    }
+
+    public SetNode replaceLeft(SetNode leftNode) {
+        thisNode.releaseLocal();
+        return newNode(level, leftNode, rightNode, key);
+    }
+
+    public SetNode replaceRight(SetNode rightNode) {
+        thisNode.releaseLocal();
+        return newNode(level, leftNode, rightNode, key);
+    }
+
+    /**
+     * Returns true when this data belongs to a node which can still be updated in place.
+     *
+     * @return True when transient.
+     */
+    private boolean isTransient() {
+        return thisNode instanceof SetNodeImpl && ((SetNodeImpl) thisNode).isTransient();
+    }
+
+    /**
+     * Creates the revised node, or updates this node in place when it is transient.
+     */
+    private SetNode newNode(int level, SetNode leftNode, SetNode rightNode, Comparable key) {
+        if (!isNil() && isTransient()) {
+            SetNodeImpl impl = (SetNodeImpl) thisNode;
+            impl.dataReference.set(new SetNodeData(impl, level, leftNode, rightNode, key));
+            return impl;
+        }
+        return new SetNodeImpl(thisNode.getRegistry(), level, leftNode, rightNode, key);
+    }
+
+    @Override
+    public Object resize(int maxSize, int maxBlockSize) {
+        if (thisNode.getDurableLength() <= maxSize) {
+            return thisNode;
+        }
+
+        SetNode l = leftNode;
+        if (l.getDurableLength() > maxBlockSize)
+            l = (SetNode) l.resize(maxBlockSize, maxBlockSize);
+        SetNode r = rightNode;
+        if (r.getDurableLength() > maxBlockSize)
+            r = (SetNode) r.resize(maxBlockSize, maxBlockSize);
+        if (l != leftNode || r != rightNode)
+            return replace(level, l, r).resize(maxSize, maxBlockSize);
+
+        SetNode s = leftNode;
+        if (rightNode.getDurableLength() > leftNode.getDurableLength())
+            s = rightNode;
+        SetNode q = (SetNode) s.shrink();
+        SetNode n;
+        if (leftNode == s)
+            n = replaceLeft(q);
+        else
+            n = replaceRight(q);
+        return n.resize(maxSize, maxBlockSize);
+    }
+
+    public String toString() {
+        if (isNil())
+            return "";
+        return "(" + leftNode.getData().toString() + "-" + level + "-" + key + rightNode.getData().toString() + ")";
+    }
+}
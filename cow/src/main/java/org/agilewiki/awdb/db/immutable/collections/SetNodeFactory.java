@@ -0,0 +1,50 @@
+package org.agilewiki.awdb.db.immutable.collections;
+
+import org.agilewiki.awdb.db.immutable.BaseFactory;
+import org.agilewiki.awdb.db.immutable.ImmutableFactory;
+import org.agilewiki.awdb.db.virtualcow.DbFactoryRegistry;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Defines how a set is serialized / deserialized.
+ */
+public class SetNodeFactory extends BaseFactory {
+
+    public final SetNode nilSet;
+    public final NilSetNodeFactory nilSetNodeFactory;
+
+    public SetNodeFactory(DbFactoryRegistry registry) {
+        super(registry, registry.setNodeImplId);
+        nilSetNodeFactory = new NilSetNodeFactory(registry);
+        nilSet = new SetNodeImpl(registry);
+        new SetReferenceFactory(registry);
+    }
+
+    @Override
+    public ImmutableFactory getImmutableFactory(Object durable) {
+        if (((SetNode) durable).isNil())
+            return nilSetNodeFactory;
+        return this;
+    }
+
+    @Override
+    public Class getImmutableClass() {
+        return SetNodeImpl.class;
+    }
+
+    @Override
+    public int getDurableLength(Object durable) {
+        return ((SetNode) durable).getDurableLength();
+    }
+
+    @Override
+    public void serialize(Object durable, ByteBuffer byteBuffer) {
+        ((SetNode) durable).serialize(byteBuffer);
+    }
+
+    @Override
+    public SetNode deserialize(ByteBuffer byteBuffer) {
+        return new SetNodeImpl(((DbFactoryRegistry) factoryRegistry), byteBuffer);
+    }
+}
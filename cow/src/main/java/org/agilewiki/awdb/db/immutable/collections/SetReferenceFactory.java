@@ -0,0 +1,33 @@
+package org.agilewiki.awdb.db.immutable.collections;
+
+import org.agilewiki.awdb.db.immutable.scalars.CS256;
+import org.agilewiki.awdb.db.virtualcow.BlockReference;
+import org.agilewiki.awdb.db.virtualcow.BlockReferenceFactory;
+import org.agilewiki.awdb.db.virtualcow.DbFactoryRegistry;
+
+/**
+ * Defines how a set reference is serialized / deserialized.
+ */
+public class SetReferenceFactory extends BlockReferenceFactory {
+
+    /**
+     * Create and register the factory.
+     *
+     * @param registry The registry where the factory is registered.
+     */
+    public SetReferenceFactory(DbFactoryRegistry registry) {
+        super(registry, registry.setReferenceId);
+    }
+
+    @Override
+    public Class getImmutableClass() {
+        return SetReference.class;
+    }
+
+    protected BlockReference createReference(DbFactoryRegistry registry,
+                                             int blockNbr,
+                                             int blockLength,
+                                             CS256 cs256) {
+        return new SetReference(registry, blockNbr, blockLength, cs256);
+    }
+}
@@ -0,0 +1,221 @@
+package org.agilewiki.awdb.db.immutable.collections;
+
+import org.agilewiki.awdb.db.immutable.VarInt;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A summary of the creation and deletion times held in a versioned subtree,
+ * used to skip subtrees which can not hold a value for a given time.
+ */
+public final class TemporalSummary {
+
+    /**
+     * Flags a serialized level which is followed by a temporal summary.
+     */
+    static final int SUMMARIZED = 0x20000000;
+
+    /**
+     * Flags a serialized level where each child held as a block reference is followed by its summary,
+     * so the summary of a revised parent can be computed without reading the blocks of its children.
+     */
+    static final int CHILD_SUMMARIZED = 0x08000000;
+
+    /**
+     * The length of a serialized summary.
+     */
+    public static final int DURABLE_LENGTH = 8 + 8 + 8 + 4;
+
+    /**
+     * The summary of an empty subtree.
+     */
+    public static final TemporalSummary NIL =
+            new TemporalSummary(Long.MAX_VALUE, Long.MIN_VALUE, Long.MIN_VALUE, 0);
+
+    /**
+     * The earliest creation time in the subtree.
+     */
+    public final long minCreated;
+
+    /**
+     * The latest deletion time in the subtree.
+     */
+    public final long maxDeleted;
+
+    /**
+     * The latest creation or (finite) deletion time in the subtree.
+     */
+    public final long lastChange;
+
+    /**
+     * The number of entries present at any time at or after lastChange.
+     */
+    public final int liveCount;
+
+    /**
+     * Create a summary.
+     *
+     * @param minCreated The earliest creation time in the subtree.
+     * @param maxDeleted The latest deletion time in the subtree.
+     * @param lastChange The latest creation or (finite) deletion time in the subtree.
+     * @param liveCount  The number of entries present at any time at or after lastChange.
+     */
+    public TemporalSummary(long minCreated, long maxDeleted, long lastChange, int liveCount) {
+        this.minCreated = minCreated;
+        this.maxDeleted = maxDeleted;
+        this.lastChange = lastChange;
+        this.liveCount = liveCount;
+    }
+
+    /**
+     * Deserialize a summary.
+     *
+     * @param byteBuffer Holds the serialized summary.
+     */
+    public TemporalSummary(ByteBuffer byteBuffer) {
+        minCreated = byteBuffer.getLong();
+        maxDeleted = byteBuffer.getLong();
+        lastChange = byteBuffer.getLong();
+        liveCount = byteBuffer.getInt();
+    }
+
+    /**
+     * Returns the summary of a single entry.
+     *
+     * @param created Creation time of the entry.
+     * @param deleted Deletion time of the entry, or MAX_VALUE.
+     * @return The summary.
+     */
+    public static TemporalSummary of(long created, long deleted) {
+        if (deleted == Long.MAX_VALUE)
+            return new TemporalSummary(created, deleted, created, 1);
+        return new TemporalSummary(created, deleted, Math.max(created, deleted), 0);
+    }
+
+    /**
+     * Returns the summary of two disjoint subtrees.
+     *
+     * @param s The other summary.
+     * @return The combined summary.
+     */
+    public TemporalSummary combine(TemporalSummary s) {
+        if (s == NIL)
+            return this;
+        if (this == NIL)
+            return s;
+        return new TemporalSummary(
+                Math.min(minCreated, s.minCreated),
+                Math.max(maxDeleted, s.maxDeleted),
+                Math.max(lastChange, s.lastChange),
+                liveCount + s.liveCount);
+    }
+
+    /**
+     * Returns the summary with liveCount reduced to 0 or 1,
+     * for use when a whole subtree stands for a single map entry.
+     *
+     * @return The summary of the entry.
+     */
+    public TemporalSummary asEntry() {
+        if (liveCount < 2)
+            return this;
+        return new TemporalSummary(minCreated, maxDeleted, lastChange, 1);
+    }
+
+    /**
+     * Returns true when the subtree can not hold an entry present at the given time.
+     *
+     * @param timestamp The time of the query.
+     * @return True if there are no entries for the given time.
+     */
+    public boolean isEmpty(long timestamp) {
+        if (timestamp < minCreated || timestamp >= maxDeleted)
+            return true;
+        return timestamp >= lastChange && liveCount == 0;
+    }
+
+    /**
+     * Returns true when the subtree holds the same entries at both of the given times.
+     *
+     * @param t1 The earlier time.
+     * @param t2 The later time.
+     * @return True if nothing was added or removed after t1 and up to t2.
+     */
+    public boolean isUnchanged(long t1, long t2) {
+        if (t1 >= lastChange)
+            return true;
+        return isEmpty(t1) && isEmpty(t2);
+    }
+
+    /**
+     * Returns the number of entries present at the given time, when known from the summary alone.
+     *
+     * @param timestamp The time of the query.
+     * @return The number of entries present, or -1 when the subtree must be searched.
+     */
+    public int size(long timestamp) {
+        if (timestamp >= lastChange)
+            return liveCount;
+        if (timestamp < minCreated || timestamp >= maxDeleted)
+            return 0;
+        return -1;
+    }
+
+    /**
+     * Returns the length of the compact form of this summary.
+     *
+     * @param base The creation time of the node holding the summary.
+     * @return The length in bytes.
+     */
+    public int getCompactLength(long base) {
+        int length = VarInt.sizeSigned(minCreated - base) +
+                VarInt.sizeSigned(lastChange - base) +
+                VarInt.size(liveCount);
+        if (maxDeleted != Long.MAX_VALUE)
+            length += VarInt.sizeSigned(maxDeleted - base);
+        return length;
+    }
+
+    /**
+     * Serialize the compact form of this summary, with the times held as deltas from a base time.
+     * Whether maxDeleted is MAX_VALUE is recorded in the flags of the node.
+     *
+     * @param byteBuffer Where the serialized data is to be placed.
+     * @param base       The creation time of the node holding the summary.
+     */
+    public void serializeCompact(ByteBuffer byteBuffer, long base) {
+        VarInt.putSigned(byteBuffer, minCreated - base);
+        VarInt.putSigned(byteBuffer, lastChange - base);
+        VarInt.put(byteBuffer, liveCount);
+        if (maxDeleted != Long.MAX_VALUE)
+            VarInt.putSigned(byteBuffer, maxDeleted - base);
+    }
+
+    /**
+     * Deserialize the compact form of a summary.
+     *
+     * @param byteBuffer Holds the serialized summary.
+     * @param base       The creation time of the node holding the summary.
+     * @param deleted    True when maxDeleted is not MAX_VALUE.
+     * @return The summary.
+     */
+    public static TemporalSummary readCompact(ByteBuffer byteBuffer, long base, boolean deleted) {
+        long minCreated = base + VarInt.getSigned(byteBuffer);
+        long lastChange = base + VarInt.getSigned(byteBuffer);
+        int liveCount = VarInt.get(byteBuffer);
+        long maxDeleted = deleted ? base + VarInt.getSigned(byteBuffer) : Long.MAX_VALUE;
+        return new TemporalSummary(minCreated, maxDeleted, lastChange, liveCount);
+    }
+
+    /**
+     * Serialize this summary into a ByteBuffer.
+     *
+     * @param byteBuffer Where the serialized data is to be placed.
+     */
+    public void serialize(ByteBuffer byteBuffer) {
+        byteBuffer.putLong(minCreated);
+        byteBuffer.putLong(maxDeleted);
+        byteBuffer.putLong(lastChange);
+        byteBuffer.putInt(liveCount);
+    }
+}
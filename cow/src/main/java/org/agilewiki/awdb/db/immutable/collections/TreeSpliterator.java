@@ -0,0 +1,367 @@
+package org.agilewiki.awdb.db.immutable.collections;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * A spliterator over a tree, which splits on subtrees so that
+ * the halves of a large tree can be walked in parallel.
+ * Pending work is a deque of subtrees and entries, in order.
+ *
+ * @param <T> The type of the elements.
+ */
+public abstract class TreeSpliterator<T> implements Spliterator<T> {
+
+    private final ArrayDeque<Object> items;
+    private long estimate;
+    private final int characteristics;
+
+    /**
+     * Create a spliterator.
+     *
+     * @param items           The subtrees and entries to be walked, in order.
+     * @param estimate        The number of elements they hold, or an upper bound.
+     * @param characteristics The characteristics of the spliterator.
+     */
+    protected TreeSpliterator(ArrayDeque<Object> items, long estimate, int characteristics) {
+        this.items = items;
+        this.estimate = estimate;
+        this.characteristics = characteristics;
+    }
+
+    /**
+     * Returns a deque holding only the root, unless the tree is empty.
+     */
+    static ArrayDeque<Object> root(Object root, boolean empty) {
+        ArrayDeque<Object> items = new ArrayDeque<>();
+        if (!empty)
+            items.add(root);
+        return items;
+    }
+
+    /**
+     * Returns true when the item is a subtree rather than an entry.
+     *
+     * @param item A subtree or entry.
+     * @return True if a subtree.
+     */
+    protected abstract boolean isNode(Object item);
+
+    /**
+     * Returns the number of elements in a subtree, or an upper bound.
+     *
+     * @param node A subtree.
+     * @return The size of the subtree.
+     */
+    protected abstract long size(Object node);
+
+    /**
+     * Passes the parts of a subtree, in order, skipping empty subtrees.
+     *
+     * @param node  A subtree.
+     * @param parts Receives the smaller subtrees and entries.
+     */
+    protected abstract void expand(Object node, Consumer<Object> parts);
+
+    /**
+     * Returns the element of an entry.
+     *
+     * @param entry An entry.
+     * @return The element, or null when the entry is not to be included.
+     */
+    protected abstract T element(Object entry);
+
+    /**
+     * Creates a spliterator of the same kind.
+     *
+     * @param items    The subtrees and entries to be walked, in order.
+     * @param estimate The number of elements they hold, or an upper bound.
+     * @return The new spliterator.
+     */
+    protected abstract TreeSpliterator<T> create(ArrayDeque<Object> items, long estimate);
+
+    private long itemSize(Object item) {
+        return isNode(item) ? size(item) : 1;
+    }
+
+    private void expandFirst() {
+        Object node = items.pollFirst();
+        List<Object> parts = new ArrayList<>(3);
+        expand(node, parts::add);
+        long s = 0;
+        for (int i = parts.size() - 1; i >= 0; --i) {
+            Object part = parts.get(i);
+            items.addFirst(part);
+            s += itemSize(part);
+        }
+        estimate += s - size(node);
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super T> action) {
+        while (!items.isEmpty()) {
+            if (isNode(items.peekFirst())) {
+                expandFirst();
+                continue;
+            }
+            Object entry = items.pollFirst();
+            estimate -= 1;
+            T t = element(entry);
+            if (t != null) {
+                action.accept(t);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public Spliterator<T> trySplit() {
+        while (items.size() == 1 && isNode(items.peekFirst()))
+            expandFirst();
+        if (items.size() < 2)
+            return null;
+        long half = estimate / 2;
+        ArrayDeque<Object> prefix = new ArrayDeque<>();
+        long s = 0;
+        while (items.size() > 1 && s < half) {
+            Object item = items.pollFirst();
+            prefix.addLast(item);
+            s += itemSize(item);
+        }
+        estimate -= s;
+        return create(prefix, s);
+    }
+
+    @Override
+    public long estimateSize() {
+        return estimate;
+    }
+
+    @Override
+    public int characteristics() {
+        return characteristics;
+    }
+
+    /**
+     * Returns a spliterator over the values of a list.
+     *
+     * @param listNode The list.
+     * @return The spliterator.
+     */
+    public static Spliterator<Object> of(ListNode listNode) {
+        return new ListSpliterator(root(listNode, listNode.isNil()), listNode.totalSize());
+    }
+
+    /**
+     * Returns a spliterator over the values of a versioned list present at a given time.
+     *
+     * @param listNode  The list.
+     * @param timestamp The time of the query.
+     * @return The spliterator.
+     */
+    public static Spliterator<Object> of(VersionedListNode listNode, long timestamp) {
+        VersionedListSpliterator s = new VersionedListSpliterator(null, 0, timestamp);
+        boolean empty = listNode.isNil() || listNode.getSummary().isEmpty(timestamp);
+        return s.create(root(listNode, empty), empty ? 0 : s.size(listNode));
+    }
+
+    /**
+     * Returns a spliterator over the list accessors of a map.
+     *
+     * @param mapNode The map, either an AA tree or a B-tree.
+     * @return The spliterator.
+     */
+    public static Spliterator<ListAccessor> of(MapNode mapNode) {
+        return new MapSpliterator(root(mapNode, mapNode.isNil() || mapNode.totalSize() == 0), mapNode.totalSize());
+    }
+
+    /**
+     * Returns a spliterator over the list accessors of a versioned map,
+     * for the keys with a non-empty list at a given time.
+     *
+     * @param mapNode   The map.
+     * @param timestamp The time of the query.
+     * @return The spliterator.
+     */
+    public static Spliterator<ListAccessor> of(VersionedMapNode mapNode, long timestamp) {
+        VersionedMapSpliterator s = new VersionedMapSpliterator(null, 0, timestamp);
+        boolean empty = mapNode.isNil() || mapNode.getSummary().isEmpty(timestamp);
+        return s.create(root(mapNode, empty), empty ? 0 : s.size(mapNode));
+    }
+
+    private static final int SIZED_TREE = ORDERED | NONNULL | IMMUTABLE | SIZED | SUBSIZED;
+
+    private static final int FILTERED_TREE = ORDERED | NONNULL | IMMUTABLE;
+
+    private static class ListSpliterator extends TreeSpliterator<Object> {
+        ListSpliterator(ArrayDeque<Object> items, long estimate) {
+            super(items, estimate, SIZED_TREE);
+        }
+
+        @Override
+        protected boolean isNode(Object item) {
+            return item instanceof ListNode;
+        }
+
+        @Override
+        protected long size(Object node) {
+            return ((ListNode) node).totalSize();
+        }
+
+        @Override
+        protected void expand(Object node, Consumer<Object> parts) {
+            ListNodeData data = ((ListNode) node).getData();
+            if (!data.leftNode.isNil())
+                parts.accept(data.leftNode);
+            parts.accept(data);
+            if (!data.rightNode.isNil())
+                parts.accept(data.rightNode);
+        }
+
+        @Override
+        protected Object element(Object entry) {
+            return ((ListNodeData) entry).value;
+        }
+
+        @Override
+        protected TreeSpliterator<Object> create(ArrayDeque<Object> items, long estimate) {
+            return new ListSpliterator(items, estimate);
+        }
+    }
+
+    private static class VersionedListSpliterator extends TreeSpliterator<Object> {
+        private final long timestamp;
+
+        VersionedListSpliterator(ArrayDeque<Object> items, long estimate, long timestamp) {
+            super(items, estimate, FILTERED_TREE);
+            this.timestamp = timestamp;
+        }
+
+        @Override
+        protected boolean isNode(Object item) {
+            return item instanceof VersionedListNode;
+        }
+
+        @Override
+        protected long size(Object node) {
+            VersionedListNodeData data = ((VersionedListNode) node).getData();
+            int s = data.getSummary().size(timestamp);
+            return s > -1 ? s : data.totalSize;
+        }
+
+        @Override
+        protected void expand(Object node, Consumer<Object> parts) {
+            VersionedListNodeData data = ((VersionedListNode) node).getData();
+            if (!data.leftNode.isNil() && !data.leftNode.getSummary().isEmpty(timestamp))
+                parts.accept(data.leftNode);
+            parts.accept(data);
+            if (!data.rightNode.isNil() && !data.rightNode.getSummary().isEmpty(timestamp))
+                parts.accept(data.rightNode);
+        }
+
+        @Override
+        protected Object element(Object entry) {
+            return ((VersionedListNodeData) entry).getExistingValue(timestamp);
+        }
+
+        @Override
+        protected TreeSpliterator<Object> create(ArrayDeque<Object> items, long estimate) {
+            return new VersionedListSpliterator(items, estimate, timestamp);
+        }
+    }
+
+    private static class MapSpliterator extends TreeSpliterator<ListAccessor> {
+        MapSpliterator(ArrayDeque<Object> items, long estimate) {
+            super(items, estimate, SIZED_TREE);
+        }
+
+        @Override
+        protected boolean isNode(Object item) {
+            return item instanceof MapNode;
+        }
+
+        @Override
+        protected long size(Object node) {
+            return ((MapNode) node).totalSize();
+        }
+
+        @Override
+        protected void expand(Object node, Consumer<Object> parts) {
+            if (node instanceof BTreeMapNode) {
+                BTreeMapNodeData data = ((BTreeMapNode) node).getBTreeData();
+                if (data.isLeaf()) {
+                    for (int i = 0; i < data.keys.length; ++i)
+                        parts.accept(data.lists[i].listAccessor(data.keys[i]));
+                } else {
+                    for (BTreeMapNode child : data.children)
+                        parts.accept(child);
+                }
+                return;
+            }
+            MapNodeData data = ((MapNode) node).getData();
+            if (!data.leftNode.isNil())
+                parts.accept(data.leftNode);
+            parts.accept(data.listNode.listAccessor(data.key));
+            if (!data.rightNode.isNil())
+                parts.accept(data.rightNode);
+        }
+
+        @Override
+        protected ListAccessor element(Object entry) {
+            return (ListAccessor) entry;
+        }
+
+        @Override
+        protected TreeSpliterator<ListAccessor> create(ArrayDeque<Object> items, long estimate) {
+            return new MapSpliterator(items, estimate);
+        }
+    }
+
+    private static class VersionedMapSpliterator extends TreeSpliterator<ListAccessor> {
+        private final long timestamp;
+
+        VersionedMapSpliterator(ArrayDeque<Object> items, long estimate, long timestamp) {
+            super(items, estimate, FILTERED_TREE);
+            this.timestamp = timestamp;
+        }
+
+        @Override
+        protected boolean isNode(Object item) {
+            return item instanceof VersionedMapNode;
+        }
+
+        @Override
+        protected long size(Object node) {
+            VersionedMapNode mapNode = (VersionedMapNode) node;
+            int s = mapNode.getSummary().size(timestamp);
+            return s > -1 ? s : mapNode.totalSize();
+        }
+
+        @Override
+        protected void expand(Object node, Consumer<Object> parts) {
+            VersionedMapNodeData data = ((VersionedMapNode) node).getData();
+            if (!data.leftNode.isNil() && !data.leftNode.getSummary().isEmpty(timestamp))
+                parts.accept(data.leftNode);
+            parts.accept(data);
+            if (!data.rightNode.isNil() && !data.rightNode.getSummary().isEmpty(timestamp))
+                parts.accept(data.rightNode);
+        }
+
+        @Override
+        protected ListAccessor element(Object entry) {
+            VersionedMapNodeData data = (VersionedMapNodeData) entry;
+            if (data.listNode.isEmpty(timestamp))
+                return null;
+            return data.listNode.listAccessor(data.key, timestamp);
+        }
+
+        @Override
+        protected TreeSpliterator<ListAccessor> create(ArrayDeque<Object> items, long estimate) {
+            return new VersionedMapSpliterator(items, estimate, timestamp);
+        }
+    }
+}
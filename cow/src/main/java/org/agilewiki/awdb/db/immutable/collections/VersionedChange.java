@@ -0,0 +1,50 @@
+package org.agilewiki.awdb.db.immutable.collections;
+
+/**
+ * A value which was added to or removed from a versioned list between two times.
+ */
+public class VersionedChange {
+
+    /**
+     * The key of the list, or null when the change is not from a map.
+     */
+    public final Comparable key;
+
+    /**
+     * The position of the value within the list, counting deleted values.
+     */
+    public final int index;
+
+    /**
+     * The value.
+     */
+    public final Object value;
+
+    /**
+     * Creation time of the value.
+     */
+    public final long created;
+
+    /**
+     * Deletion time of the value, or MAX_VALUE.
+     */
+    public final long deleted;
+
+    /**
+     * True when the value was added, false when it was removed.
+     */
+    public final boolean added;
+
+    public VersionedChange(Comparable key, int index, Object value, long created, long deleted, boolean added) {
+        this.key = key;
+        this.index = index;
+        this.value = value;
+        this.created = created;
+        this.deleted = deleted;
+        this.added = added;
+    }
+
+    public String toString() {
+        return (added ? "+" : "-") + (key == null ? "" : key + ":") + index + "=" + value;
+    }
+}
@@ -0,0 +1,37 @@
+package org.agilewiki.awdb.db.immutable.collections;
+
+import org.agilewiki.awdb.db.immutable.BaseFactory;
+import org.agilewiki.awdb.db.virtualcow.DbFactoryRegistry;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads a versioned list node in the compact form, with a varint header.
+ * Versioned list nodes are written by the VersionedListNodeFactory, which picks the id.
+ */
+public class VersionedCompactListNodeFactory extends BaseFactory {
+
+    public VersionedCompactListNodeFactory(DbFactoryRegistry registry) {
+        super(registry, registry.versionedCompactListNodeImplId);
+    }
+
+    @Override
+    public Class getImmutableClass() {
+        return getClass();
+    }
+
+    @Override
+    public int getDurableLength(Object immutable) {
+        return ((VersionedListNode) immutable).getDurableLength();
+    }
+
+    @Override
+    public void serialize(Object immutable, ByteBuffer byteBuffer) {
+        ((VersionedListNode) immutable).serialize(byteBuffer);
+    }
+
+    @Override
+    public VersionedListNode deserialize(ByteBuffer byteBuffer) {
+        return new VersionedListNodeImpl((DbFactoryRegistry) factoryRegistry, byteBuffer, false);
+    }
+}
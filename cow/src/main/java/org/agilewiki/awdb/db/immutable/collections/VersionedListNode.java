@@ -6,8 +6,12 @@ import org.agilewiki.awdb.db.virtualcow.DbFactoryRegistry;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * An immutable versioned list.
@@ -42,6 +46,15 @@ public interface VersionedListNode extends Releasable {
 
     VersionedListNodeData getData();
 
+    /**
+     * Returns the creation and deletion times summarized over the list.
+     *
+     * @return The temporal summary.
+     */
+    default TemporalSummary getSummary() {
+        return getData().getSummary();
+    }
+
     /**
      * Returns the count of all the values in the list, deleted or not.
      *
@@ -229,6 +242,16 @@ public interface VersionedListNode extends Releasable {
         return list;
     }
 
+    /**
+     * Returns a read-only view of the values present for a given time, backed by this list.
+     *
+     * @param timestamp The time of the query.
+     * @return The view.
+     */
+    default List listView(long timestamp) {
+        return ListView.of(this, timestamp);
+    }
+
     /**
      * Returns an iterator over the existing values.
      *
@@ -283,6 +306,78 @@ public interface VersionedListNode extends Releasable {
         };
     }
 
+    /**
+     * Returns an iterator over the values added or removed after t1 and up to t2.
+     *
+     * @param t1 The earlier time.
+     * @param t2 The later time.
+     * @return The iterator.
+     */
+    default Iterator<VersionedChange> changes(long t1, long t2) {
+        return changes(null, t1, t2);
+    }
+
+    /**
+     * Returns an iterator over the values added or removed after t1 and up to t2.
+     *
+     * @param key The key reported with each change.
+     * @param t1  The earlier time.
+     * @param t2  The later time.
+     * @return The iterator.
+     */
+    default Iterator<VersionedChange> changes(Comparable key, long t1, long t2) {
+        if (t1 > t2)
+            throw new IllegalArgumentException("t1 is later than t2");
+        return new Iterator<VersionedChange>() {
+            int next = getData().ceilingChange(0, t1, t2);
+
+            @Override
+            public boolean hasNext() {
+                return next > -1;
+            }
+
+            @Override
+            public VersionedChange next() {
+                if (next == -1)
+                    throw new NoSuchElementException();
+                VersionedListNodeData d = getData().getListNode(next).getData();
+                VersionedChange change = new VersionedChange(key, next, d.value, d.created, d.deleted, d.exists(t2));
+                next = getData().ceilingChange(next + 1, t1, t2);
+                return change;
+            }
+        };
+    }
+
+    /**
+     * Returns a spliterator over the values present at the given time, which splits on subtrees.
+     *
+     * @param timestamp The time of the query.
+     * @return The spliterator.
+     */
+    default Spliterator<Object> spliterator(long timestamp) {
+        return TreeSpliterator.of(this, timestamp);
+    }
+
+    /**
+     * Returns a sequential stream of the values present at the given time.
+     *
+     * @param timestamp The time of the query.
+     * @return The stream.
+     */
+    default Stream<Object> stream(long timestamp) {
+        return StreamSupport.stream(spliterator(timestamp), false);
+    }
+
+    /**
+     * Returns a parallel stream of the values present at the given time.
+     *
+     * @param timestamp The time of the query.
+     * @return The stream.
+     */
+    default Stream<Object> parallelStream(long timestamp) {
+        return StreamSupport.stream(spliterator(timestamp), true);
+    }
+
     /**
      * Returns a list accessor for the time of the current transaction.
      *
@@ -311,6 +406,11 @@ public interface VersionedListNode extends Releasable {
      */
     default ListAccessor listAccessor(Comparable key, long timestamp) {
         return new ListAccessor() {
+            @Override
+            public Spliterator spliterator() {
+                return VersionedListNode.this.spliterator(timestamp);
+            }
+
             @Override
             public Comparable key() {
                 return key;
@@ -487,6 +587,18 @@ public interface VersionedListNode extends Releasable {
         return getData().copyList(getRegistry().versionedNilList, timestamp);
     }
 
+    /**
+     * Returns true if any value was deleted before a given time.
+     *
+     * @param timestamp The given time.
+     * @return True if copyList(timestamp) would drop a value.
+     */
+    default boolean hasDeletedBefore(long timestamp) {
+        if (isNil())
+            return false;
+        return getData().hasDeletedBefore(timestamp);
+    }
+
     /**
      * Empty the list by marking all the existing values as deleted.
      *
@@ -525,6 +637,13 @@ public interface VersionedListNode extends Releasable {
         getData().releaseAll();
     }
 
+    @Override
+    default void retainAll() {
+        if (isNil())
+            return;
+        getData().retainAll();
+    }
+
     @Override
     default Object resize(int maxSize, int maxBlockSize) {
         return getData().resize(maxSize, maxBlockSize);
@@ -2,6 +2,7 @@ package org.agilewiki.awdb.db.immutable.collections;
 
 import org.agilewiki.awdb.db.immutable.FactoryRegistry;
 import org.agilewiki.awdb.db.immutable.ImmutableFactory;
+import org.agilewiki.awdb.db.immutable.VarInt;
 
 import java.nio.ByteBuffer;
 import java.util.List;
@@ -11,6 +12,26 @@ import java.util.List;
  */
 public class VersionedListNodeData implements Releasable {
 
+    /**
+     * Flags the first byte of compact data. Legacy data starts with a non-negative level int.
+     */
+    private static final int COMPACT = 0x80;
+
+    /**
+     * Flags compact data where the node is not deleted.
+     */
+    private static final int NOT_DELETED = 0x01;
+
+    /**
+     * Flags compact data where no value of the subtree is deleted after all others.
+     */
+    private static final int SUMMARY_NOT_DELETED = 0x02;
+
+    /**
+     * Flags compact data where each child held as a block reference is followed by its summary.
+     */
+    private static final int CHILD_SUMMARIZED = 0x04;
+
     /**
      * The node which holds this data.
      */
@@ -56,6 +77,11 @@ public class VersionedListNodeData implements Releasable {
      */
     protected final ImmutableFactory valueFactory;
 
+    /**
+     * The temporal summary of this subtree, or null until needed.
+     */
+    private TemporalSummary summary;
+
     /**
      * Create the nil node data.
      *
@@ -113,17 +139,47 @@ public class VersionedListNodeData implements Releasable {
      */
     public VersionedListNodeData(VersionedListNode thisNode, ByteBuffer byteBuffer) {
         this.thisNode = thisNode;
-        level = byteBuffer.getInt();
-        totalSize = byteBuffer.getInt();
-        created = byteBuffer.getLong();
-        deleted = byteBuffer.getLong();
+        int flags = byteBuffer.get(byteBuffer.position()) & 0xff;
+        if ((flags & COMPACT) != 0) {
+            byteBuffer.get();
+            level = VarInt.get(byteBuffer);
+            totalSize = VarInt.get(byteBuffer);
+            created = byteBuffer.getLong();
+            deleted = (flags & NOT_DELETED) != 0 ? Long.MAX_VALUE : created + VarInt.getSigned(byteBuffer);
+            summary = TemporalSummary.readCompact(byteBuffer, created, (flags & SUMMARY_NOT_DELETED) == 0);
+        } else {
+            int l = byteBuffer.getInt();
+            level = l & ~TemporalSummary.SUMMARIZED;
+            totalSize = byteBuffer.getInt();
+            created = byteBuffer.getLong();
+            deleted = byteBuffer.getLong();
+            if ((l & TemporalSummary.SUMMARIZED) != 0)
+                summary = new TemporalSummary(byteBuffer);
+        }
+        boolean childSummarized = (flags & (COMPACT | CHILD_SUMMARIZED)) == (COMPACT | CHILD_SUMMARIZED);
         FactoryRegistry registry = thisNode.getRegistry();
         ImmutableFactory f = registry.readId(byteBuffer);
-        leftNode = (VersionedListNode) f.deserialize(byteBuffer);
+        leftNode = readChild(f.deserialize(byteBuffer), byteBuffer, childSummarized);
         valueFactory = registry.readId(byteBuffer);
         value = valueFactory.deserialize(byteBuffer);
         f = registry.readId(byteBuffer);
-        rightNode = (VersionedListNode) f.deserialize(byteBuffer);
+        rightNode = readChild(f.deserialize(byteBuffer), byteBuffer, childSummarized);
+    }
+
+    private static VersionedListNode readChild(Object child, ByteBuffer byteBuffer, boolean childSummarized) {
+        if (childSummarized && child instanceof VersionedListReference)
+            ((VersionedListReference) child).setSummary(new TemporalSummary(byteBuffer));
+        return (VersionedListNode) child;
+    }
+
+    private static int childSummaryLength(VersionedListNode child) {
+        return child instanceof VersionedListReference ? TemporalSummary.DURABLE_LENGTH : 0;
+    }
+
+    private static void writeChild(VersionedListNode child, ByteBuffer byteBuffer) {
+        child.writeDurable(byteBuffer);
+        if (child instanceof VersionedListReference)
+            child.getSummary().serialize(byteBuffer);
     }
 
     /**
@@ -143,25 +199,66 @@ public class VersionedListNodeData implements Releasable {
     public int getDurableLength() {
         if (isNil())
             return 2;
-        return 2 + 4 + 4 + 4 + 8 + 8 +
-                leftNode.getDurableLength() +
+        int dataLength = getDataLength();
+        return 2 + VarInt.size(dataLength) + dataLength;
+    }
+
+    /**
+     * Returns the length of the serialized data, excluding the id and durable length.
+     *
+     * @return The length of the serialized data.
+     */
+    public int getDataLength() {
+        int length = 1 + VarInt.size(level) + VarInt.size(totalSize) + 8;
+        if (deleted != Long.MAX_VALUE)
+            length += VarInt.sizeSigned(deleted - created);
+        return length + getSummary().getCompactLength(created) +
+                leftNode.getDurableLength() + childSummaryLength(leftNode) +
                 valueFactory.getDurableLength(value) +
-                rightNode.getDurableLength();
+                rightNode.getDurableLength() + childSummaryLength(rightNode);
     }
 
     /**
-     * Serialize this object into a ByteBuffer.
+     * Serialize this object into a ByteBuffer, in the compact form.
+     * Counts are varints and the deletion and summary times are deltas from the creation time.
      *
      * @param byteBuffer Where the serialized data is to be placed.
      */
     public void serialize(ByteBuffer byteBuffer) {
-        byteBuffer.putInt(level);
-        byteBuffer.putInt(totalSize);
+        TemporalSummary s = getSummary();
+        int flags = COMPACT | CHILD_SUMMARIZED;
+        if (deleted == Long.MAX_VALUE)
+            flags |= NOT_DELETED;
+        if (s.maxDeleted == Long.MAX_VALUE)
+            flags |= SUMMARY_NOT_DELETED;
+        byteBuffer.put((byte) flags);
+        VarInt.put(byteBuffer, level);
+        VarInt.put(byteBuffer, totalSize);
         byteBuffer.putLong(created);
-        byteBuffer.putLong(deleted);
-        leftNode.writeDurable(byteBuffer);
+        if (deleted != Long.MAX_VALUE)
+            VarInt.putSigned(byteBuffer, deleted - created);
+        s.serializeCompact(byteBuffer, created);
+        writeChild(leftNode, byteBuffer);
         valueFactory.writeDurable(value, byteBuffer);
-        rightNode.writeDurable(byteBuffer);
+        writeChild(rightNode, byteBuffer);
+    }
+
+    /**
+     * Returns the creation and deletion times summarized over this subtree.
+     *
+     * @return The temporal summary.
+     */
+    public TemporalSummary getSummary() {
+        if (isNil())
+            return TemporalSummary.NIL;
+        TemporalSummary s = summary;
+        if (s == null) {
+            s = leftNode.getSummary().
+                    combine(TemporalSummary.of(created, deleted)).
+                    combine(rightNode.getSummary());
+            summary = s;
+        }
+        return s;
     }
 
     /**
@@ -183,7 +280,10 @@ public class VersionedListNodeData implements Releasable {
     public int size(long timestamp) {
         if (isNil())
             return 0;
-        int s = leftNode.size(timestamp) + rightNode.size(timestamp);
+        int s = getSummary().size(timestamp);
+        if (s > -1)
+            return s;
+        s = leftNode.size(timestamp) + rightNode.size(timestamp);
         if (exists(timestamp))
             s += 1;
         return s;
@@ -225,7 +325,7 @@ public class VersionedListNodeData implements Releasable {
      * @return The index, or -1.
      */
     public int getIndex(Object value, long timestamp) {
-        if (isNil())
+        if (isNil() || getSummary().isEmpty(timestamp))
             return -1;
         int ndx = leftNode.getIndex(value, timestamp);
         if (ndx > -1)
@@ -247,7 +347,7 @@ public class VersionedListNodeData implements Releasable {
      * @return The index, or -1.
      */
     public int getIndexRight(Object value, long timestamp) {
-        if (isNil())
+        if (isNil() || getSummary().isEmpty(timestamp))
             return -1;
         int ndx = rightNode.getIndexRight(value, timestamp);
         if (ndx > -1)
@@ -269,7 +369,7 @@ public class VersionedListNodeData implements Releasable {
      * @return The index, or -1.
      */
     public int findIndex(Object value, long timestamp) {
-        if (isNil())
+        if (isNil() || getSummary().isEmpty(timestamp))
             return -1;
         int ndx = leftNode.findIndex(value, timestamp);
         if (ndx > -1)
@@ -291,7 +391,7 @@ public class VersionedListNodeData implements Releasable {
      * @return The index, or -1.
      */
     public int findIndexRight(Object value, long timestamp) {
-        if (isNil())
+        if (isNil() || getSummary().isEmpty(timestamp))
             return -1;
         int ndx = rightNode.findIndexRight(value, timestamp);
         if (ndx > -1)
@@ -312,7 +412,7 @@ public class VersionedListNodeData implements Releasable {
      * @return An index of an existing value that is higher, or -1.
      */
     public int higherIndex(int ndx, long timestamp) {
-        if (ndx >= totalSize - 1 || isNil())
+        if (ndx >= totalSize - 1 || isNil() || getSummary().isEmpty(timestamp))
             return -1; //out of range
         int leftSize = leftNode.totalSize();
         if (ndx < leftSize - 1) {
@@ -336,7 +436,7 @@ public class VersionedListNodeData implements Releasable {
      * @return An index of an existing value that is higher or equal, or -1.
      */
     public int ceilingIndex(int ndx, long timestamp) {
-        if (ndx >= totalSize || isNil()) {
+        if (ndx >= totalSize || isNil() || getSummary().isEmpty(timestamp)) {
             return -1; //out of range
         }
         int leftSize = leftNode.totalSize();
@@ -361,7 +461,7 @@ public class VersionedListNodeData implements Releasable {
      * @return An index of an existing value that is lower, or -1.
      */
     public int lowerIndex(int ndx, long timestamp) {
-        if (ndx <= 0 || isNil())
+        if (ndx <= 0 || isNil() || getSummary().isEmpty(timestamp))
             return -1; //out of range
         int leftSize = leftNode.totalSize();
         if (ndx > leftSize + 1) {
@@ -384,7 +484,7 @@ public class VersionedListNodeData implements Releasable {
      * @return An index of an existing value that is lower or equal, or -1.
      */
     public int floorIndex(int ndx, long timestamp) {
-        if (ndx < 0 || isNil())
+        if (ndx < 0 || isNil() || getSummary().isEmpty(timestamp))
             return -1; //out of range
         int leftSize = leftNode.totalSize();
         if (ndx > leftSize) {
@@ -399,6 +499,32 @@ public class VersionedListNodeData implements Releasable {
         return leftNode.floorIndex(ndx, timestamp);
     }
 
+    /**
+     * Returns the index of a value, at or above the given index, which was added or removed
+     * after t1 and up to t2.
+     *
+     * @param ndx A given index.
+     * @param t1  The earlier time.
+     * @param t2  The later time.
+     * @return The index of a changed value that is higher or equal, or -1.
+     */
+    public int ceilingChange(int ndx, long t1, long t2) {
+        if (ndx >= totalSize || isNil() || getSummary().isUnchanged(t1, t2))
+            return -1;
+        int leftSize = leftNode.totalSize();
+        if (ndx < leftSize) {
+            int h = leftNode.getData().ceilingChange(ndx, t1, t2);
+            if (h > -1)
+                return h;
+        }
+        if (ndx <= leftSize) {
+            if (exists(t1) != exists(t2))
+                return leftSize;
+        }
+        int h = rightNode.getData().ceilingChange(ndx - leftSize - 1, t1, t2);
+        return h <= -1 ? -1 : h + leftSize + 1;
+    }
+
     /**
      * Returns true if there are no values present for the given time.
      *
@@ -408,6 +534,9 @@ public class VersionedListNodeData implements Releasable {
     public boolean isEmpty(long timestamp) {
         if (isNil())
             return true;
+        int s = getSummary().size(timestamp);
+        if (s > -1)
+            return s == 0;
         return (!exists(timestamp) && leftNode.isEmpty(timestamp) && rightNode.isEmpty(timestamp));
     }
 
@@ -418,7 +547,7 @@ public class VersionedListNodeData implements Releasable {
      * @param timestamp The time of the query.
      */
     public void flatList(List list, long timestamp) {
-        if (isNil())
+        if (isNil() || getSummary().isEmpty(timestamp))
             return;
         leftNode.getData().flatList(list, timestamp);
         if (exists(timestamp))
@@ -541,6 +670,20 @@ public class VersionedListNodeData implements Releasable {
         return rightNode.getData().copyList(n, timestamp);
     }
 
+    /**
+     * Returns true if any value in this subtree was deleted before a given time.
+     *
+     * @param timestamp The given time.
+     * @return True if a value was deleted before the given time.
+     */
+    public boolean hasDeletedBefore(long timestamp) {
+        if (isNil() || getSummary().minCreated >= timestamp)
+            return false;
+        return deleted < timestamp ||
+                leftNode.hasDeletedBefore(timestamp) ||
+                rightNode.hasDeletedBefore(timestamp);
+    }
+
     /**
      * Empty the list by marking all the existing values as deleted.
      *
@@ -551,9 +694,10 @@ public class VersionedListNodeData implements Releasable {
             return thisNode;
         VersionedListNode ln = leftNode.clearList();
         VersionedListNode rn = rightNode.clearList();
-        if (ln == leftNode && rn == rightNode && !exists(thisNode.getTimestamp()))
+        long time = thisNode.getTimestamp();
+        if (ln == leftNode && rn == rightNode && !exists(time))
             return thisNode;
-        return replace(thisNode.getTimestamp(), ln, rn);
+        return replace(exists(time) ? time : deleted, ln, rn);
     }
 
     @Override
@@ -566,6 +710,16 @@ public class VersionedListNodeData implements Releasable {
             ((Releasable) rightNode).releaseAll();
     }
 
+    @Override
+    public void retainAll() {
+        if (leftNode instanceof Releasable)
+            ((Releasable) leftNode).retainAll();
+        if (value instanceof Releasable)
+            ((Releasable) value).retainAll();
+        if (rightNode instanceof Releasable)
+            ((Releasable) rightNode).retainAll();
+    }
+
     public VersionedListNode replace(long deleted) {
         thisNode.releaseLocal();
         return new VersionedListNodeImpl(thisNode.getRegistry(), level, totalSize, created, deleted, leftNode, value, rightNode);
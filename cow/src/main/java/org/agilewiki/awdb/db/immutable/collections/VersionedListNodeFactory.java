@@ -8,6 +8,8 @@ import java.nio.ByteBuffer;
 
 /**
  * Defines how a versioned list is serialized / deserialized.
+ * This factory reads the legacy form, with an int header;
+ * the compact form is read by a VersionedCompactListNodeFactory.
  */
 public class VersionedListNodeFactory extends BaseFactory {
 
@@ -19,6 +21,7 @@ public class VersionedListNodeFactory extends BaseFactory {
         versionedNilListNodeFactory = new VersionedNilListNodeFactory(registry);
         versionedNilList = new VersionedListNodeImpl(registry);
         new VersionedListReferenceFactory(registry);
+        new VersionedCompactListNodeFactory(registry);
     }
 
     @Override
@@ -28,6 +31,13 @@ public class VersionedListNodeFactory extends BaseFactory {
         return this;
     }
 
+    @Override
+    public char getId(Object durable) {
+        return ((VersionedListNodeImpl) durable).legacy ?
+                getId() :
+                ((DbFactoryRegistry) factoryRegistry).versionedCompactListNodeImplId;
+    }
+
     @Override
     public Class getImmutableClass() {
         return VersionedListNodeImpl.class;
@@ -45,6 +55,6 @@ public class VersionedListNodeFactory extends BaseFactory {
 
     @Override
     public VersionedListNode deserialize(ByteBuffer byteBuffer) {
-        return new VersionedListNodeImpl((DbFactoryRegistry) factoryRegistry, byteBuffer);
+        return new VersionedListNodeImpl((DbFactoryRegistry) factoryRegistry, byteBuffer, true);
     }
 }
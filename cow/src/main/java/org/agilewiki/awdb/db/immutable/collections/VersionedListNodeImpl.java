@@ -1,5 +1,6 @@
 package org.agilewiki.awdb.db.immutable.collections;
 
+import org.agilewiki.awdb.db.immutable.VarInt;
 import org.agilewiki.awdb.db.immutable.scalars.CS256;
 import org.agilewiki.awdb.db.virtualcow.Db;
 import org.agilewiki.awdb.db.virtualcow.DbFactoryRegistry;
@@ -9,6 +10,10 @@ import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * An immutable versioned list.
+ * <p>
+ * A node is written with a varint header and compact data,
+ * unless it was read in the legacy form, with an int header, and has not been revised.
+ * </p>
  */
 public class VersionedListNodeImpl implements VersionedListNode {
 
@@ -16,20 +21,35 @@ public class VersionedListNodeImpl implements VersionedListNode {
 
     protected final AtomicReference<VersionedListNodeData> dataReference = new AtomicReference<>();
     protected final int durableLength;
+    protected final int dataLength;
+
+    /**
+     * True when the node was read in the legacy form and is written back unchanged.
+     */
+    protected final boolean legacy;
     protected ByteBuffer byteBuffer;
 
     protected VersionedListNodeImpl(DbFactoryRegistry registry) {
         this.registry = registry;
         dataReference.set(new VersionedListNodeData(this));
         durableLength = 2;
+        dataLength = 0;
+        legacy = false;
     }
 
-    protected VersionedListNodeImpl(DbFactoryRegistry registry, ByteBuffer byteBuffer) {
+    protected VersionedListNodeImpl(DbFactoryRegistry registry, ByteBuffer byteBuffer, boolean legacy) {
         this.registry = registry;
-        durableLength = byteBuffer.getInt();
+        this.legacy = legacy;
+        if (legacy) {
+            durableLength = byteBuffer.getInt();
+            dataLength = durableLength - 6;
+        } else {
+            dataLength = VarInt.get(byteBuffer);
+            durableLength = 2 + VarInt.size(dataLength) + dataLength;
+        }
         this.byteBuffer = byteBuffer.slice();
-        this.byteBuffer.limit(durableLength - 6);
-        byteBuffer.position(byteBuffer.position() + durableLength - 6);
+        this.byteBuffer.limit(dataLength);
+        byteBuffer.position(byteBuffer.position() + dataLength);
     }
 
     protected VersionedListNodeImpl(DbFactoryRegistry registry,
@@ -50,7 +70,9 @@ public class VersionedListNodeImpl implements VersionedListNode {
                 leftNode,
                 value,
                 rightNode);
-        durableLength = data.getDurableLength();
+        dataLength = data.getDataLength();
+        durableLength = 2 + VarInt.size(dataLength) + dataLength;
+        legacy = false;
         dataReference.set(data);
     }
 
@@ -79,19 +101,24 @@ public class VersionedListNodeImpl implements VersionedListNode {
             byteBuffer.putChar(getRegistry().versionedNilListId);
             return;
         }
-        byteBuffer.putChar(getRegistry().versionedListNodeImplId);
+        byteBuffer.putChar(legacy ?
+                getRegistry().versionedListNodeImplId :
+                getRegistry().versionedCompactListNodeImplId);
         serialize(byteBuffer);
     }
 
     @Override
     public void serialize(ByteBuffer byteBuffer) {
-        byteBuffer.putInt(getDurableLength());
+        if (legacy)
+            byteBuffer.putInt(getDurableLength());
+        else
+            VarInt.put(byteBuffer, dataLength);
         if (this.byteBuffer == null) {
             getData().serialize(byteBuffer);
             return;
         }
         ByteBuffer bb = byteBuffer.slice();
-        bb.limit(durableLength - 6);
+        bb.limit(dataLength);
         byteBuffer.put(this.byteBuffer.slice());
         this.byteBuffer = bb;
         dataReference.set(null); //limit memory footprint, plugs memory leak.
@@ -101,12 +128,14 @@ public class VersionedListNodeImpl implements VersionedListNode {
     public Object shrink() {
         Db db = registry.db;
         VersionedListNodeData data = getData();
-        ByteBuffer byteBuffer = ByteBuffer.allocate(durableLength - 6);
+        int length = data.getDataLength();
+        ByteBuffer byteBuffer = ByteBuffer.allocate(length);
         data.serialize(byteBuffer);
         byteBuffer.flip();
         CS256 cs256 = new CS256(byteBuffer);
-        int blockNbr = db.allocate();
-        db.writeBlock(byteBuffer, blockNbr);
-        return new VersionedListReference(registry, blockNbr, durableLength - 6, cs256);
+        int blockNbr = db.writeContent(byteBuffer, cs256, VersionedListReference.class, data);
+        VersionedListReference versionedListReference = new VersionedListReference(registry, blockNbr, length, cs256);
+        versionedListReference.setSummary(data.getSummary());
+        return versionedListReference;
     }
 }
@@ -10,6 +10,12 @@ import java.nio.ByteBuffer;
  * A reference to an immutable versioned list.
  */
 public class VersionedListReference extends BlockReference implements VersionedListNode {
+
+    /**
+     * The temporal summary of the referenced list, or null when not yet known.
+     */
+    private volatile TemporalSummary summary;
+
     public VersionedListReference(DbFactoryRegistry registry,
                                   int blockNbr,
                                   int blockLength,
@@ -22,6 +28,26 @@ public class VersionedListReference extends BlockReference implements VersionedL
         return (VersionedListNodeData) super.getData();
     }
 
+    /**
+     * Records the temporal summary of the referenced list,
+     * so the summary is known without reading the block.
+     *
+     * @param summary The temporal summary.
+     */
+    public void setSummary(TemporalSummary summary) {
+        this.summary = summary;
+    }
+
+    @Override
+    public TemporalSummary getSummary() {
+        TemporalSummary s = summary;
+        if (s == null) {
+            s = getData().getSummary();
+            summary = s;
+        }
+        return s;
+    }
+
     protected Object loadData(ByteBuffer byteBuffer) {
         return new VersionedListNodeData(this, byteBuffer);
     }
@@ -6,6 +6,11 @@ import org.agilewiki.awdb.db.virtualcow.DbFactoryRegistry;
 
 import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * An immutable map of versioned lists.
@@ -197,12 +202,45 @@ public interface VersionedMapNode extends Releasable {
     default VersionedMapNode set(Comparable key, Object value) {
         if (value == null)
             throw new IllegalArgumentException("value may not be null");
-        if (isNil()) {
-            DbFactoryRegistry registry = getRegistry();
-            VersionedListNode listNode = registry.versionedNilList.add(value);
-            return getData().replace(1, listNode, key);
-        }
-        return getData().set(key, value);
+        return compute(key, l -> l.clearList().add(value));
+    }
+
+    /**
+     * Replaces the list of a key, descending the tree only once.
+     *
+     * @param key      The key of the list.
+     * @param function Maps the current list, or the nil list, to its replacement.
+     * @return The revised node.
+     */
+    default VersionedMapNode compute(Comparable key, UnaryOperator<VersionedListNode> function) {
+        if (key == null)
+            throw new IllegalArgumentException("key may not be null");
+        return getData().compute(key, function);
+    }
+
+    /**
+     * Gives a key a list when it has none.
+     *
+     * @param key      The key of the list.
+     * @param function Creates the list from the key.
+     * @return The revised node.
+     */
+    default VersionedMapNode computeIfAbsent(Comparable key, Function<Comparable, VersionedListNode> function) {
+        return compute(key, l -> l.isNil() ? function.apply(key) : l);
+    }
+
+    /**
+     * Gives a key a list when it has none, or else combines its current list with that list.
+     *
+     * @param key      The key of the list.
+     * @param listNode The list to be merged.
+     * @param function Combines the current list and the merged list.
+     * @return The revised node.
+     */
+    default VersionedMapNode merge(Comparable key,
+                                   VersionedListNode listNode,
+                                   BinaryOperator<VersionedListNode> function) {
+        return compute(key, l -> l.isNil() ? listNode : function.apply(l, listNode));
     }
 
     /**
@@ -260,6 +298,17 @@ public interface VersionedMapNode extends Releasable {
         return map;
     }
 
+    /**
+     * Returns a read-only view of the keys and values present at the given time,
+     * backed by this map. The lists are views as well.
+     *
+     * @param timestamp The time of the query.
+     * @return A map of lists.
+     */
+    default NavigableMap<Comparable, List> mapView(long timestamp) {
+        return MapView.of(this, timestamp);
+    }
+
     /**
      * Perform a complete copy.
      *
@@ -280,6 +329,35 @@ public interface VersionedMapNode extends Releasable {
         return getData().copyMap(getRegistry().versionedNilMap, timestamp);
     }
 
+    /**
+     * Returns true if any value was deleted before a given time.
+     *
+     * @param timestamp The given time.
+     * @return True if copyMap(timestamp) would drop a value.
+     */
+    default boolean hasDeletedBefore(long timestamp) {
+        if (isNil())
+            return false;
+        return getData().hasDeletedBefore(timestamp);
+    }
+
+    /**
+     * Physically removes the values deleted before a given time, along with any keys left empty.
+     * The map is rebuilt, balanced, when there is anything to remove.
+     * Its old nodes and blocks are then released, as are the removed values.
+     *
+     * @param timestamp The retention horizon.
+     * @return The compacted map, or this map when nothing was deleted before the horizon.
+     */
+    default VersionedMapNode purge(long timestamp) {
+        if (!hasDeletedBefore(timestamp))
+            return this;
+        VersionedMapNode n = copyMap(timestamp);
+        n.retainAll();
+        releaseAll();
+        return n;
+    }
+
     /**
      * Returns the count of all the keys in the map, empty or not.
      *
@@ -291,6 +369,15 @@ public interface VersionedMapNode extends Releasable {
         return getData().totalSize();
     }
 
+    /**
+     * Returns the creation and deletion times summarized over the lists of the map.
+     *
+     * @return The temporal summary.
+     */
+    default TemporalSummary getSummary() {
+        return getData().getSummary();
+    }
+
     /**
      * Returns the count of all the keys with a non-empty list.
      *
@@ -315,6 +402,64 @@ public interface VersionedMapNode extends Releasable {
         return getData().isEmpty(timestamp);
     }
 
+    /**
+     * Returns the count of the keys, empty or not, less than the given key.
+     *
+     * @param key The given key.
+     * @return The position the key has, or would have, in the map.
+     */
+    default int rank(Comparable key) {
+        if (isNil())
+            return 0;
+        return getData().rank(key);
+    }
+
+    /**
+     * Returns the key, empty or not, at the given position.
+     *
+     * @param ndx The position of the key.
+     * @return The key, or null when out of range.
+     */
+    default Comparable keyAt(int ndx) {
+        if (isNil())
+            return null;
+        return getData().keyAt(ndx);
+    }
+
+    /**
+     * Returns the count of the keys with a non-empty list less than the given key.
+     *
+     * Logarithmic only when the temporal summaries can answer the size of each left subtree,
+     * as for times after the last change. For historical times the subtrees are counted,
+     * which is linear in the size of the map.
+     *
+     * @param key       The given key.
+     * @param timestamp The time of the query.
+     * @return The position the key has, or would have, in the map.
+     */
+    default int rank(Comparable key, long timestamp) {
+        if (isNil())
+            return 0;
+        return getData().rank(key, timestamp);
+    }
+
+    /**
+     * Returns the key with a non-empty list at the given position.
+     *
+     * Logarithmic only when the temporal summaries can answer the size of each left subtree,
+     * as for times after the last change. For historical times the subtrees are counted,
+     * which is linear in the size of the map.
+     *
+     * @param ndx       The position of the key.
+     * @param timestamp The time of the query.
+     * @return The key, or null when out of range.
+     */
+    default Comparable keyAt(int ndx, long timestamp) {
+        if (isNil())
+            return null;
+        return getData().keyAt(ndx, timestamp);
+    }
+
     /**
      * Returns the smallest key of the non-empty lists for the given time.
      *
@@ -392,58 +537,82 @@ public interface VersionedMapNode extends Releasable {
     }
 
     /**
-     * Returns an iterator over the non-empty list accessors.
+     * Returns an iterator over the values added or removed after t1 and up to t2,
+     * in key order. Only the subtrees which changed in that window are visited.
      *
-     * @param timestamp The time of the query.
+     * @param t1 The earlier time.
+     * @param t2 The later time.
      * @return The iterator.
      */
-    default PeekABoo<ListAccessor> iterator(long timestamp) {
-        return new PeekABoo<ListAccessor>() {
-
-            String next = (String) firstKey(timestamp);
+    default Iterator<VersionedChange> changes(long t1, long t2) {
+        if (t1 > t2)
+            throw new IllegalArgumentException("t1 is later than t2");
+        return new Iterator<VersionedChange>() {
+            Comparable key = getData().higherChangedKey(null, t1, t2);
+            Iterator<VersionedChange> it = key == null ? null : getList(key).changes(key, t1, t2);
 
             @Override
-            public String getPosition() {
-                return next;
-            }
-
-            @Override
-            public void setPosition(String state) {
-                next = (String) ceilingKey(state, timestamp);
+            public boolean hasNext() {
+                return it != null;
             }
 
             @Override
-            public boolean positionPrior() {
-                if (next == null) {
-                    next = (String) lastKey(timestamp);
-                    return next != null;
+            public VersionedChange next() {
+                if (it == null)
+                    throw new NoSuchElementException();
+                VersionedChange change = it.next();
+                if (!it.hasNext()) {
+                    key = getData().higherChangedKey(key, t1, t2);
+                    it = key == null ? null : getList(key).changes(key, t1, t2);
                 }
-                String n = (String) lowerKey(next, timestamp);
-                if (n == null)
-                    return false;
-                next = n;
-                return true;
+                return change;
             }
+        };
+    }
 
-            @Override
-            public ListAccessor peek() {
-                return listAccessor(next, timestamp);
-            }
+    /**
+     * Returns a cursor over the keys with a non-empty list at the given time,
+     * positioned on the first such key.
+     *
+     * @param timestamp The time of the query.
+     * @return The cursor.
+     */
+    default KeyCursor cursor(long timestamp) {
+        return new VersionedMapNodeCursor(this, timestamp);
+    }
 
-            @Override
-            public boolean hasNext() {
-                return next != null;
-            }
+    /**
+     * Returns an iterator over the non-empty list accessors.
+     *
+     * @param timestamp The time of the query.
+     * @return The iterator.
+     */
+    default PeekABoo<ListAccessor> iterator(long timestamp) {
+        return new CursorPeekABoo(cursor(timestamp),
+                (k, l) -> ((VersionedListNode) l).listAccessor(k, timestamp));
+    }
 
-            @Override
-            public ListAccessor next() {
-                if (next == null)
-                    throw new NoSuchElementException();
-                ListAccessor la = peek();
-                next = (String) higherKey(next, timestamp);
-                return la;
-            }
-        };
+    /**
+     * Returns an iterator over the list accessors, starting at the given position.
+     *
+     * @param fromIndex The position of the first key with a non-empty list.
+     * @param timestamp The time of the query.
+     * @return The iterator.
+     */
+    default PeekABoo<ListAccessor> iterator(int fromIndex, long timestamp) {
+        if (fromIndex < 0)
+            throw new IndexOutOfBoundsException("index out of range " + fromIndex);
+        CursorPeekABoo iterator = new CursorPeekABoo(cursor(timestamp),
+                (k, l) -> ((VersionedListNode) l).listAccessor(k, timestamp));
+        Comparable key = keyAt(fromIndex, timestamp);
+        if (key != null) {
+            iterator.seek(key);
+        } else if (fromIndex == size(timestamp)) {
+            iterator.setPosition(null);
+        } else {
+            throw new IndexOutOfBoundsException("index out of range " + fromIndex);
+        }
+        return iterator;
     }
 
     /**
@@ -467,64 +636,59 @@ public interface VersionedMapNode extends Releasable {
      * @return The iterator.
      */
     default PeekABoo<ListAccessor> iterable(String prefix, long timestamp) {
-        return new PeekABoo<ListAccessor>() {
-
-            String next = ceiling(prefix);
-
-            private String ceiling(String state) {
-                String k = (String) ceilingKey(state, timestamp);
-                if (k != null && k.startsWith(prefix))
-                    return k;
-                return null;
-            }
-
-            @Override
-            public String getPosition() {
-                return next;
-            }
-
-            @Override
-            public void setPosition(String state) {
-                next = ceiling(state);
-            }
+        return new CursorPeekABoo(cursor(timestamp),
+                (k, l) -> ((VersionedListNode) l).listAccessor(k, timestamp), prefix);
+    }
 
-            @Override
-            public boolean positionPrior() {
-                if (next == null) {
-                    String n = (String) lowerKey(prefix + Character.MAX_VALUE, timestamp);
-                    if (n == null || !n.startsWith(prefix))
-                        return false;
-                    next = n;
-                    return true;
-                }
-                String n = (String) lowerKey(next, timestamp);
-                if (n == null || !n.startsWith(prefix))
-                    return false;
-                next = n;
-                return true;
-            }
+    /**
+     * Returns an iterator over the non-empty list accessors with keys within the given bounds.
+     * The cursor is positioned once, and iteration stops at the far bound.
+     *
+     * @param fromKey       The lower bound, or null.
+     * @param fromInclusive True if a key equal to the lower bound is included.
+     * @param toKey         The upper bound, or null.
+     * @param toInclusive   True if a key equal to the upper bound is included.
+     * @param descending    True if the keys are visited from the largest to the smallest.
+     * @param timestamp     The time of the query.
+     * @return The iterator.
+     */
+    default PeekABoo<ListAccessor> range(Comparable fromKey, boolean fromInclusive,
+                                         Comparable toKey, boolean toInclusive,
+                                         boolean descending, long timestamp) {
+        return new CursorPeekABoo(cursor(timestamp),
+                (k, l) -> ((VersionedListNode) l).listAccessor(k, timestamp),
+                fromKey, fromInclusive, toKey, toInclusive, null, descending);
+    }
 
-            @Override
-            public ListAccessor peek() {
-                return listAccessor(next);
-            }
+    /**
+     * Returns a spliterator over the list accessors of the keys with content
+     * at the given time, which splits on subtrees.
+     *
+     * @param timestamp The time of the query.
+     * @return The spliterator.
+     */
+    default Spliterator<ListAccessor> spliterator(long timestamp) {
+        return TreeSpliterator.of(this, timestamp);
+    }
 
-            @Override
-            public boolean hasNext() {
-                return next != null;
-            }
+    /**
+     * Returns a sequential stream of the list accessors of the keys with content at the given time.
+     *
+     * @param timestamp The time of the query.
+     * @return The stream.
+     */
+    default Stream<ListAccessor> stream(long timestamp) {
+        return StreamSupport.stream(spliterator(timestamp), false);
+    }
 
-            @Override
-            public ListAccessor next() {
-                if (next == null)
-                    throw new NoSuchElementException();
-                ListAccessor la = peek();
-                next = (String) higherKey(next, timestamp);
-                if (next != null && !next.startsWith(prefix))
-                    next = null;
-                return la;
-            }
-        };
+    /**
+     * Returns a parallel stream of the list accessors of the keys with content at the given time.
+     *
+     * @param timestamp The time of the query.
+     * @return The stream.
+     */
+    default Stream<ListAccessor> parallelStream(long timestamp) {
+        return StreamSupport.stream(spliterator(timestamp), true);
     }
 
     /**
@@ -544,6 +708,11 @@ public interface VersionedMapNode extends Releasable {
      */
     default MapAccessor mapAccessor(long timestamp) {
         return new MapAccessor() {
+            @Override
+            public Spliterator<ListAccessor> spliterator() {
+                return VersionedMapNode.this.spliterator(timestamp);
+            }
+
 
             @Override
             public long getTimestamp() {
@@ -615,6 +784,14 @@ public interface VersionedMapNode extends Releasable {
                 return VersionedMapNode.this.iterable(prefix, timestamp);
             }
 
+            @Override
+            public PeekABoo<ListAccessor> range(Comparable fromKey, boolean fromInclusive,
+                                                Comparable toKey, boolean toInclusive,
+                                                boolean descending) {
+                return VersionedMapNode.this.range(fromKey, fromInclusive, toKey, toInclusive,
+                        descending, timestamp);
+            }
+
             @Override
             public NavigableMap<Comparable, List> flatMap() {
                 return VersionedMapNode.this.flatMap(timestamp);
@@ -651,6 +828,13 @@ public interface VersionedMapNode extends Releasable {
         getData().releaseAll();
     }
 
+    @Override
+    default void retainAll() {
+        if (isNil())
+            return;
+        getData().retainAll();
+    }
+
     @Override
     default Object resize(int maxSize, int maxBlockSize) {
         return getData().resize(maxSize, maxBlockSize);
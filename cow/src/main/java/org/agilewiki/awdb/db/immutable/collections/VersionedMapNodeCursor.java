@@ -0,0 +1,63 @@
+package org.agilewiki.awdb.db.immutable.collections;
+
+import org.agilewiki.awdb.db.virtualcow.BlockReference;
+
+/**
+ * A cursor over the keys of a versioned map which have a non-empty list at a given time.
+ * Subtrees whose temporal summary shows them to be empty at that time are not entered.
+ */
+public class VersionedMapNodeCursor extends AATreeCursor {
+
+    private final long timestamp;
+
+    /**
+     * Create a cursor, positioned on the smallest key.
+     *
+     * @param root      The root of the map.
+     * @param timestamp The time of the query.
+     */
+    public VersionedMapNodeCursor(VersionedMapNode root, long timestamp) {
+        super(root);
+        this.timestamp = timestamp;
+        first();
+    }
+
+    @Override
+    protected Object data(Object node) {
+        VersionedMapNode n = (VersionedMapNode) node;
+        if (n.isNil() || n.getSummary().isEmpty(timestamp))
+            return null;
+        return n.getData();
+    }
+
+    @Override
+    protected void readAhead(Object node) {
+        if (node instanceof BlockReference)
+            ((BlockReference) node).readAhead();
+    }
+
+    @Override
+    protected Object left(Object data) {
+        return ((VersionedMapNodeData) data).leftNode;
+    }
+
+    @Override
+    protected Object right(Object data) {
+        return ((VersionedMapNodeData) data).rightNode;
+    }
+
+    @Override
+    protected Comparable key(Object data) {
+        return ((VersionedMapNodeData) data).key;
+    }
+
+    @Override
+    protected Object list(Object data) {
+        return ((VersionedMapNodeData) data).listNode;
+    }
+
+    @Override
+    protected boolean accept(Object data) {
+        return !((VersionedMapNodeData) data).listNode.isEmpty(timestamp);
+    }
+}
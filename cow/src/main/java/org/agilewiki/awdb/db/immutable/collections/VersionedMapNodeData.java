@@ -1,12 +1,14 @@
 package org.agilewiki.awdb.db.immutable.collections;
 
 import org.agilewiki.awdb.db.immutable.ImmutableFactory;
+import org.agilewiki.awdb.db.virtualcow.BlockReference;
 import org.agilewiki.awdb.db.virtualcow.DbFactoryRegistry;
 
 import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.NavigableMap;
 import java.util.NavigableSet;
+import java.util.function.UnaryOperator;
 
 /**
  * The durable data elements of a map node.
@@ -48,6 +50,16 @@ public class VersionedMapNodeData implements Releasable {
      */
     public final ImmutableFactory keyFactory;
 
+    /**
+     * The count of the keys in this subtree, empty or not, or -1 when not yet known.
+     */
+    private int totalSize = -1;
+
+    /**
+     * The temporal summary of the lists in this subtree, or null until needed.
+     */
+    private TemporalSummary summary;
+
     /**
      * Create the nil node data.
      *
@@ -97,16 +109,31 @@ public class VersionedMapNodeData implements Releasable {
      */
     public VersionedMapNodeData(VersionedMapNode thisNode, ByteBuffer byteBuffer) {
         this.thisNode = thisNode;
-        level = byteBuffer.getInt();
+        int l = byteBuffer.getInt();
+        level = l & ~(MapNodeData.COUNTED | TemporalSummary.SUMMARIZED | TemporalSummary.CHILD_SUMMARIZED);
+        boolean childSummarized = (l & TemporalSummary.CHILD_SUMMARIZED) != 0;
+        int leftSize = -1;
+        if ((l & MapNodeData.COUNTED) != 0) {
+            totalSize = byteBuffer.getInt();
+            leftSize = byteBuffer.getInt();
+        }
+        if ((l & TemporalSummary.SUMMARIZED) != 0)
+            summary = new TemporalSummary(byteBuffer);
         DbFactoryRegistry registry = thisNode.getRegistry();
         ImmutableFactory f = registry.readId(byteBuffer);
-        leftNode = (VersionedMapNode) f.deserialize(byteBuffer);
+        leftNode = (VersionedMapNode) readChild(f.deserialize(byteBuffer), byteBuffer, childSummarized);
         f = registry.readId(byteBuffer);
-        listNode = (VersionedListNode) f.deserialize(byteBuffer);
+        listNode = (VersionedListNode) readChild(f.deserialize(byteBuffer), byteBuffer, childSummarized);
         f = registry.readId(byteBuffer);
-        rightNode = (VersionedMapNode) f.deserialize(byteBuffer);
+        rightNode = (VersionedMapNode) readChild(f.deserialize(byteBuffer), byteBuffer, childSummarized);
         keyFactory = registry.readId(byteBuffer);
         key = (Comparable) keyFactory.deserialize(byteBuffer);
+        if (leftSize >= 0) {
+            if (leftNode instanceof VersionedMapReference)
+                ((VersionedMapReference) leftNode).setTotalSize(leftSize);
+            if (rightNode instanceof VersionedMapReference)
+                ((VersionedMapReference) rightNode).setTotalSize(totalSize - leftSize - 1);
+        }
     }
 
     /**
@@ -286,25 +313,39 @@ public class VersionedMapNodeData implements Releasable {
     }
 
     /**
-     * Replace the list entries with a single value.
+     * Replaces the list of a key, descending the tree only once.
      *
-     * @param key   The key of the list.
-     * @param value The new value.
+     * @param key      The key of the list.
+     * @param function Maps the current list, or the nil list, to its replacement.
+     *                 The nil replacement of a missing list leaves the map unchanged.
      * @return The revised node.
      */
-    public VersionedMapNode set(Comparable key, Object value) {
+    public VersionedMapNode compute(Comparable key, UnaryOperator<VersionedListNode> function) {
+        if (isNil()) {
+            VersionedListNode n = function.apply(thisNode.getRegistry().versionedNilList);
+            if (n.isNil())
+                return thisNode;
+            return replace(1, n, key);
+        }
+        VersionedMapNode t;
         int c = key.compareTo(this.key);
         if (c < 0) {
-            VersionedMapNode n = leftNode.set(key, value);
-            return replaceLeft(n);
+            VersionedMapNode n = leftNode.getData().compute(key, function);
+            if (n == leftNode)
+                return thisNode;
+            t = replaceLeft(n);
         } else if (c == 0) {
-            VersionedListNode n = listNode.clearList();
-            n = n.add(value);
+            VersionedListNode n = function.apply(listNode);
+            if (n == listNode)
+                return thisNode;
             return replace(n);
         } else {
-            VersionedMapNode n = rightNode.set(key, value);
-            return replaceRight(n);
+            VersionedMapNode n = rightNode.getData().compute(key, function);
+            if (n == rightNode)
+                return thisNode;
+            t = replaceRight(n);
         }
+        return t.getData().skew().getData().split();
     }
 
     /**
@@ -329,7 +370,7 @@ public class VersionedMapNodeData implements Releasable {
      * @param timestamp The time of the query.
      */
     public void flatKeys(NavigableSet<Comparable> keys, long timestamp) {
-        if (isNil())
+        if (isNil() || getSummary().isEmpty(timestamp))
             return;
         leftNode.getData().flatKeys(keys, timestamp);
         if (!listNode.isEmpty(timestamp))
@@ -344,7 +385,7 @@ public class VersionedMapNodeData implements Releasable {
      * @param timestamp The time of the query.
      */
     public void flatMap(NavigableMap<Comparable, List> map, long timestamp) {
-        if (isNil())
+        if (isNil() || getSummary().isEmpty(timestamp))
             return;
         leftNode.getData().flatMap(map, timestamp);
         if (!listNode.isEmpty(timestamp))
@@ -365,7 +406,21 @@ public class VersionedMapNodeData implements Releasable {
             return n;
         n = leftNode.getData().copyMap(n, timestamp);
         n = n.getData().addList(key, listNode.copyList(timestamp));
-        return leftNode.getData().copyMap(n, timestamp);
+        return rightNode.getData().copyMap(n, timestamp);
+    }
+
+    /**
+     * Returns true if any value in this subtree was deleted before a given time.
+     *
+     * @param timestamp The given time.
+     * @return True if a value was deleted before the given time.
+     */
+    public boolean hasDeletedBefore(long timestamp) {
+        if (isNil() || getSummary().minCreated >= timestamp)
+            return false;
+        return listNode.hasDeletedBefore(timestamp) ||
+                leftNode.hasDeletedBefore(timestamp) ||
+                rightNode.hasDeletedBefore(timestamp);
     }
 
     protected VersionedMapNode addList(Comparable key, VersionedListNode listNode) {
@@ -395,7 +450,118 @@ public class VersionedMapNodeData implements Releasable {
     public int totalSize() {
         if (isNil())
             return 0;
-        return leftNode.totalSize() + 1 + rightNode.totalSize();
+        int t = totalSize;
+        if (t < 0) {
+            t = leftNode.totalSize() + 1 + rightNode.totalSize();
+            if (!isTransient())
+                totalSize = t;
+        }
+        return t;
+    }
+
+    /**
+     * Returns the creation and deletion times summarized over the lists of this subtree,
+     * with each key counted as live when its list is.
+     *
+     * @return The temporal summary.
+     */
+    public TemporalSummary getSummary() {
+        if (isNil())
+            return TemporalSummary.NIL;
+        TemporalSummary s = summary;
+        if (s == null) {
+            s = leftNode.getSummary().
+                    combine(listNode.getSummary().asEntry()).
+                    combine(rightNode.getSummary());
+            if (!isTransient())
+                summary = s;
+        }
+        return s;
+    }
+
+    /**
+     * Returns the count of the keys, empty or not, less than the given key.
+     *
+     * @param key The given key.
+     * @return The position the key has, or would have, in the map.
+     */
+    public int rank(Comparable key) {
+        if (isNil())
+            return 0;
+        int c = key.compareTo(this.key);
+        if (c < 0)
+            return leftNode.rank(key);
+        if (c == 0)
+            return leftNode.totalSize();
+        return leftNode.totalSize() + 1 + rightNode.rank(key);
+    }
+
+    /**
+     * Returns the key, empty or not, at the given position.
+     *
+     * @param ndx The position of the key.
+     * @return The key, or null when out of range.
+     */
+    public Comparable keyAt(int ndx) {
+        if (isNil())
+            return null;
+        int leftSize = leftNode.totalSize();
+        if (ndx < leftSize)
+            return leftNode.keyAt(ndx);
+        if (ndx == leftSize)
+            return key;
+        return rightNode.keyAt(ndx - leftSize - 1);
+    }
+
+    /**
+     * Returns the count of the keys with a non-empty list less than the given key.
+     *
+     * Logarithmic only when the temporal summaries can answer the size of each left subtree,
+     * as for times after the last change. For historical times the subtrees are counted,
+     * which is linear in the size of the map.
+     *
+     * @param key       The given key.
+     * @param timestamp The time of the query.
+     * @return The position the key has, or would have, in the map.
+     */
+    public int rank(Comparable key, long timestamp) {
+        if (isNil())
+            return 0;
+        int c = key.compareTo(this.key);
+        if (c < 0)
+            return leftNode.rank(key, timestamp);
+        int r = leftNode.size(timestamp);
+        if (c == 0)
+            return r;
+        if (!listNode.isEmpty(timestamp))
+            r += 1;
+        return r + rightNode.rank(key, timestamp);
+    }
+
+    /**
+     * Returns the key with a non-empty list at the given position.
+     *
+     * Logarithmic only when the temporal summaries can answer the size of each left subtree,
+     * as for times after the last change. For historical times the subtrees are counted,
+     * which is linear in the size of the map.
+     *
+     * @param ndx       The position of the key.
+     * @param timestamp The time of the query.
+     * @return The key, or null when out of range.
+     */
+    public Comparable keyAt(int ndx, long timestamp) {
+        if (isNil() || getSummary().isEmpty(timestamp) || ndx < 0)
+            return null;
+        int leftSize = leftNode.size(timestamp);
+        if (ndx < leftSize)
+            return leftNode.keyAt(ndx, timestamp);
+        ndx -= leftSize;
+        if (!listNode.isEmpty(timestamp)) {
+            if (ndx == 0)
+                return key;
+            ndx -= 1;
+        }
+        return rightNode.keyAt(ndx, timestamp);
     }
 
     /**
@@ -407,7 +573,10 @@ public class VersionedMapNodeData implements Releasable {
     public int size(long timestamp) {
         if (isNil())
             return 0;
-        int s = leftNode.size(timestamp) + rightNode.size(timestamp);
+        int s = getSummary().size(timestamp);
+        if (s > -1)
+            return s;
+        s = leftNode.size(timestamp) + rightNode.size(timestamp);
         if (!listNode.isEmpty(timestamp))
             s += 1;
         return s;
@@ -416,6 +585,9 @@ public class VersionedMapNodeData implements Releasable {
     public boolean isEmpty(long timestamp) {
         if (isNil())
             return true;
+        int s = getSummary().size(timestamp);
+        if (s > -1)
+            return s == 0;
         if (!listNode.isEmpty(timestamp))
             return false;
         if (!leftNode.isEmpty(timestamp))
@@ -432,7 +604,7 @@ public class VersionedMapNodeData implements Releasable {
      * @return The smallest key, or null.
      */
     public Comparable firstKey(long timestamp) {
-        if (isNil())
+        if (isNil() || getSummary().isEmpty(timestamp))
             return null;
         Comparable k = leftNode.firstKey(timestamp);
         if (k != null)
@@ -449,7 +621,7 @@ public class VersionedMapNodeData implements Releasable {
      * @return The largest key, or null.
      */
     public Comparable lastKey(long timestamp) {
-        if (isNil())
+        if (isNil() || getSummary().isEmpty(timestamp))
             return null;
         Comparable k = rightNode.lastKey(timestamp);
         if (k != null)
@@ -459,6 +631,32 @@ public class VersionedMapNodeData implements Releasable {
         return leftNode.lastKey(timestamp);
     }
 
+    /**
+     * Queues the blocks referenced by this node and the nodes held in the same block.
+     *
+     * @param depth How many levels below those blocks are also loaded.
+     */
+    public void readAhead(int depth) {
+        if (isNil())
+            return;
+        readAhead(leftNode, depth);
+        if (listNode instanceof BlockReference)
+            ((BlockReference) listNode).readAhead(0);
+        readAhead(rightNode, depth);
+    }
+
+    private static void readAhead(VersionedMapNode node, int depth) {
+        if (node instanceof BlockReference)
+            ((BlockReference) node).readAhead(depth);
+        else
+            node.getData().readAhead(depth);
+    }
+
+    private static void readAhead(VersionedMapNode node) {
+        if (node instanceof BlockReference)
+            ((BlockReference) node).readAhead();
+    }
+
     /**
      * Returns the next greater key.
      *
@@ -467,9 +665,11 @@ public class VersionedMapNodeData implements Releasable {
      * @return The next greater key with content at the time of the query, or null.
      */
     public Comparable higherKey(Comparable key, long timestamp) {
-        if (isNil())
+        if (isNil() || getSummary().isEmpty(timestamp))
             return null;
         int c = key.compareTo(this.key);
+        if (c < 0)
+            readAhead(rightNode);
         if (c <= 0) {
             Comparable k = leftNode.higherKey(key, timestamp);
             if (k != null)
@@ -480,6 +680,28 @@ public class VersionedMapNodeData implements Releasable {
         return rightNode.higherKey(key, timestamp);
     }
 
+    /**
+     * Returns the next greater key whose list had a value added or removed after t1 and up to t2.
+     *
+     * @param key The given key, or null to find the smallest such key.
+     * @param t1  The earlier time.
+     * @param t2  The later time.
+     * @return The next greater key with a change, or null.
+     */
+    public Comparable higherChangedKey(Comparable key, long t1, long t2) {
+        if (isNil() || getSummary().isUnchanged(t1, t2))
+            return null;
+        int c = key == null ? -1 : key.compareTo(this.key);
+        if (c <= 0) {
+            Comparable k = leftNode.getData().higherChangedKey(key, t1, t2);
+            if (k != null)
+                return k;
+        }
+        if (c < 0 && listNode.getData().ceilingChange(0, t1, t2) > -1)
+            return this.key;
+        return rightNode.getData().higherChangedKey(key, t1, t2);
+    }
+
     /**
      * Returns the key with content that is greater than or equal to the given key.
      *
@@ -488,9 +710,11 @@ public class VersionedMapNodeData implements Releasable {
      * @return The key greater than or equal to the given key, or null.
      */
     public Comparable ceilingKey(Comparable key, long timestamp) {
-        if (isNil())
+        if (isNil() || getSummary().isEmpty(timestamp))
             return null;
         int c = key.compareTo(this.key);
+        if (c < 0)
+            readAhead(rightNode);
         if (c < 0) {
             Comparable k = leftNode.ceilingKey(key, timestamp);
             if (k != null)
@@ -509,7 +733,7 @@ public class VersionedMapNodeData implements Releasable {
      * @return The next smaller key with content at the time of the query, or null.
      */
     public Comparable lowerKey(Comparable key, long timestamp) {
-        if (isNil())
+        if (isNil() || getSummary().isEmpty(timestamp))
             return null;
         int c = key.compareTo(this.key);
         if (c >= 0) {
@@ -530,7 +754,7 @@ public class VersionedMapNodeData implements Releasable {
      * @return The key smaller than or equal to the given key, or null.
      */
     public Comparable floorKey(Comparable key, long timestamp) {
-        if (isNil())
+        if (isNil() || getSummary().isEmpty(timestamp))
             return null;
         int c = key.compareTo(this.key);
         if (c > 0) {
@@ -551,10 +775,10 @@ public class VersionedMapNodeData implements Releasable {
     public int getDurableLength() {
         if (isNil())
             return 2;
-        return 2 + 4 + 4 +
-                leftNode.getDurableLength() +
-                listNode.getDurableLength() +
-                rightNode.getDurableLength() +
+        return 2 + 4 + 4 + 4 + 4 + TemporalSummary.DURABLE_LENGTH +
+                leftNode.getDurableLength() + childSummaryLength(leftNode) +
+                listNode.getDurableLength() + childSummaryLength(listNode) +
+                rightNode.getDurableLength() + childSummaryLength(rightNode) +
                 keyFactory.getDurableLength(key);
     }
 
@@ -564,13 +788,71 @@ public class VersionedMapNodeData implements Releasable {
      * @param byteBuffer Where the serialized data is to be placed.
      */
     public void serialize(ByteBuffer byteBuffer) {
-        byteBuffer.putInt(level);
+        byteBuffer.putInt(level | MapNodeData.COUNTED | TemporalSummary.SUMMARIZED | TemporalSummary.CHILD_SUMMARIZED);
+        byteBuffer.putInt(totalSize());
+        byteBuffer.putInt(leftNode.totalSize());
+        getSummary().serialize(byteBuffer);
         leftNode.writeDurable(byteBuffer);
+        writeChildSummary(leftNode, byteBuffer);
         listNode.writeDurable(byteBuffer);
+        writeChildSummary(listNode, byteBuffer);
         rightNode.writeDurable(byteBuffer);
+        writeChildSummary(rightNode, byteBuffer);
         keyFactory.writeDurable(key, byteBuffer);
     }
 
+    private static Object readChild(Object child, ByteBuffer byteBuffer, boolean childSummarized) {
+        if (!childSummarized)
+            return child;
+        if (child instanceof VersionedMapReference)
+            ((VersionedMapReference) child).setSummary(new TemporalSummary(byteBuffer));
+        else if (child instanceof VersionedListReference)
+            ((VersionedListReference) child).setSummary(new TemporalSummary(byteBuffer));
+        return child;
+    }
+
+    private static int childSummaryLength(Object child) {
+        if (child instanceof VersionedMapReference || child instanceof VersionedListReference)
+            return TemporalSummary.DURABLE_LENGTH;
+        return 0;
+    }
+
+    private static void writeChildSummary(Object child, ByteBuffer byteBuffer) {
+        if (child instanceof VersionedMapReference)
+            ((VersionedMapReference) child).getSummary().serialize(byteBuffer);
+        else if (child instanceof VersionedListReference)
+            ((VersionedListReference) child).getSummary().serialize(byteBuffer);
+    }
+
+    /**
+     * Returns a Bloom filter over the keys of this subtree, for the reference replacing it.
+     * The filters of referenced subtrees are merged in, so no blocks are read.
+     *
+     * @param maxBlockSize The max block size of the db, which sets the size of the filter.
+     * @return The filter, or null when a referenced subtree has no filter.
+     */
+    public BloomFilter bloomFilter(int maxBlockSize) {
+        BloomFilter filter = BloomFilter.forBlockSize(maxBlockSize);
+        if (!addKeys(thisNode, filter))
+            return null;
+        return filter;
+    }
+
+    private static boolean addKeys(VersionedMapNode node, BloomFilter filter) {
+        if (node.isNil())
+            return true;
+        if (node instanceof VersionedMapReference) {
+            BloomFilter f = ((VersionedMapReference) node).filter;
+            if (f == null || f.wordCount() != filter.wordCount())
+                return false;
+            filter.merge(f);
+            return true;
+        }
+        VersionedMapNodeData data = node.getData();
+        filter.add(data.key);
+        return addKeys(data.leftNode, filter) && addKeys(data.rightNode, filter);
+    }
+
     @Override
     public void releaseAll() {
         if (leftNode instanceof Releasable)
@@ -581,33 +863,64 @@ public class VersionedMapNodeData implements Releasable {
             ((Releasable) rightNode).releaseAll();
     }
 
+    @Override
+    public void retainAll() {
+        if (leftNode instanceof Releasable)
+            ((Releasable) leftNode).retainAll();
+        if (listNode instanceof Releasable)
+            ((Releasable) listNode).retainAll();
+        if (rightNode instanceof Releasable)
+            ((Releasable) rightNode).retainAll();
+    }
+
     public VersionedMapNode replace(VersionedListNode listNode) {
         thisNode.releaseLocal();
-        return new VersionedMapNodeImpl(thisNode.getRegistry(), level, leftNode, listNode, rightNode, key);
+        return newNode(level, leftNode, listNode, rightNode, key);
     }
 
     public VersionedMapNode replace(int level, VersionedListNode listNode, Comparable key) {
         thisNode.releaseLocal();
-        return new VersionedMapNodeImpl(thisNode.getRegistry(), level, leftNode, listNode, rightNode, key);
+        return newNode(level, leftNode, listNode, rightNode, key);
     }
 
     public VersionedMapNode replace(VersionedMapNode leftNode, VersionedListNode listNode, VersionedMapNode rightNode) {
         thisNode.releaseLocal();
-        return new VersionedMapNodeImpl(thisNode.getRegistry(), level, leftNode, listNode, rightNode, key);
+        return newNode(level, leftNode, listNode, rightNode, key);
     }
 
     public VersionedMapNode replaceLeft(VersionedMapNode leftNode) {
         thisNode.releaseLocal();
-        return new VersionedMapNodeImpl(thisNode.getRegistry(), level, leftNode, listNode, rightNode, key);
+        return newNode(level, leftNode, listNode, rightNode, key);
     }
 
     public VersionedMapNode replaceLeft(int level, VersionedMapNode leftNode) {
         thisNode.releaseLocal();
-        return new VersionedMapNodeImpl(thisNode.getRegistry(), level, leftNode, listNode, rightNode, key);
+        return newNode(level, leftNode, listNode, rightNode, key);
     }
 
     public VersionedMapNode replaceRight(VersionedMapNode rightNode) {
         thisNode.releaseLocal();
+        return newNode(level, leftNode, listNode, rightNode, key);
+    }
+
+    /**
+     * Returns true when this data belongs to a node which can still be updated in place.
+     *
+     * @return True when transient.
+     */
+    private boolean isTransient() {
+        return thisNode instanceof VersionedMapNodeImpl && ((VersionedMapNodeImpl) thisNode).isTransient();
+    }
+
+    /**
+     * Creates the revised node, or updates this node in place when it is transient.
+     */
+    private VersionedMapNode newNode(int level, VersionedMapNode leftNode, VersionedListNode listNode, VersionedMapNode rightNode, Comparable key) {
+        if (isTransient()) {
+            VersionedMapNodeImpl impl = (VersionedMapNodeImpl) thisNode;
+            impl.dataReference.set(new VersionedMapNodeData(impl, level, leftNode, listNode, rightNode, key));
+            return impl;
+        }
         return new VersionedMapNodeImpl(thisNode.getRegistry(), level, leftNode, listNode, rightNode, key);
     }
 
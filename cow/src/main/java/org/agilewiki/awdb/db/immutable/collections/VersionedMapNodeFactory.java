@@ -5,6 +5,8 @@ import org.agilewiki.awdb.db.immutable.ImmutableFactory;
 import org.agilewiki.awdb.db.virtualcow.DbFactoryRegistry;
 
 import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.Map;
 
 /**
  * Defines how true is serialized / deserialized.
@@ -20,6 +22,51 @@ public class VersionedMapNodeFactory extends BaseFactory {
         versionedNilMapNodeFactory = new VersionedNilMapNodeFactory(registry);
         versionedNilMap = new VersionedMapNodeImpl(registry);
         new VersionedMapReferenceFactory(registry);
+        new FilteredVersionedMapReferenceFactory(registry);
+    }
+
+    /**
+     * Builds a balanced map from entries sorted by key, in linear time.
+     * A stream can be loaded by passing its iterator.
+     *
+     * @param sorted The entries, with unique keys in ascending order and non-empty lists.
+     * @return The map.
+     */
+    public VersionedMapNode bulkLoad(Iterator<? extends Map.Entry<? extends Comparable, ? extends VersionedListNode>> sorted) {
+        return bulkLoad(sorted, 0);
+    }
+
+    /**
+     * Builds a balanced map from entries sorted by key, in linear time.
+     * A stream can be loaded by passing its iterator, and is not gathered in memory.
+     * <p>
+     * When a fill size is given, each subtree whose durable length exceeds half of it
+     * is written to its own block as soon as it is built, so the blocks hold
+     * between half and all of the fill size. Blocks can only be written
+     * while processing a transaction.
+     * </p>
+     *
+     * @param sorted   The entries, with unique keys in ascending order and non-empty lists.
+     * @param fillSize The target length of a block, not more than the max block size, or 0.
+     * @return The map.
+     */
+    public VersionedMapNode bulkLoad(Iterator<? extends Map.Entry<? extends Comparable, ? extends VersionedListNode>> sorted,
+                         int fillSize) {
+        DbFactoryRegistry registry = (DbFactoryRegistry) factoryRegistry;
+        if (fillSize > registry.db.maxBlockSize)
+            throw new IllegalArgumentException("fill size exceeds max block size");
+        return BulkLoader.load(sorted, VersionedListNode::isNil, versionedNilMap,
+                (level, left, list, right, key) -> new VersionedMapNodeImpl(registry, level, left, list, right, key),
+                node -> fill(node, fillSize));
+    }
+
+    private VersionedMapNode fill(VersionedMapNode node, int fillSize) {
+        if (fillSize == 0 || node.isNil() || node.getDurableLength() <= fillSize / 2)
+            return node;
+        int maxBlockSize = ((DbFactoryRegistry) factoryRegistry).db.maxBlockSize;
+        if (node.getDurableLength() > maxBlockSize)
+            node = (VersionedMapNode) node.resize(maxBlockSize, maxBlockSize);
+        return (VersionedMapNode) node.shrink();
     }
 
     @Override
@@ -15,17 +15,20 @@ public class VersionedMapNodeImpl implements VersionedMapNode {
     public final DbFactoryRegistry registry;
 
     protected final AtomicReference<VersionedMapNodeData> dataReference = new AtomicReference<>();
-    protected final int durableLength;
+    protected final Object owner;
+    protected int durableLength;
     protected ByteBuffer byteBuffer;
 
     protected VersionedMapNodeImpl(DbFactoryRegistry registry) {
         this.registry = registry;
         dataReference.set(new VersionedMapNodeData(this));
+        owner = null;
         durableLength = 2;
     }
 
     protected VersionedMapNodeImpl(DbFactoryRegistry registry, ByteBuffer byteBuffer) {
         this.registry = registry;
+        owner = null;
         durableLength = byteBuffer.getInt();
         this.byteBuffer = byteBuffer.slice();
         this.byteBuffer.limit(durableLength - 6);
@@ -46,7 +49,8 @@ public class VersionedMapNodeImpl implements VersionedMapNode {
                 listNode,
                 rightNode,
                 key);
-        durableLength = data.getDurableLength();
+        owner = registry.db.getTransientOwner();
+        durableLength = owner == null ? data.getDurableLength() : -1;
         dataReference.set(data);
     }
 
@@ -66,9 +70,23 @@ public class VersionedMapNodeImpl implements VersionedMapNode {
 
     @Override
     public int getDurableLength() {
+        if (durableLength < 0) {
+            if (isTransient())
+                return getData().getDurableLength();
+            durableLength = getData().getDurableLength();
+        }
         return durableLength;
     }
 
+    /**
+     * Returns true while the current transaction may still update this versioned map node in place.
+     *
+     * @return True when the node is transient.
+     */
+    public boolean isTransient() {
+        return owner != null && owner == registry.db.getTransientOwner();
+    }
+
     @Override
     public void writeDurable(ByteBuffer byteBuffer) {
         if (isNil()) {
@@ -96,13 +114,17 @@ public class VersionedMapNodeImpl implements VersionedMapNode {
     @Override
     public Object shrink() {
         Db db = registry.db;
+        int dl = getDurableLength();
         VersionedMapNodeData data = getData();
-        ByteBuffer byteBuffer = ByteBuffer.allocate(durableLength - 6);
+        ByteBuffer byteBuffer = ByteBuffer.allocate(dl - 6);
         data.serialize(byteBuffer);
         byteBuffer.flip();
         CS256 cs256 = new CS256(byteBuffer);
-        int blockNbr = db.allocate();
-        db.writeBlock(byteBuffer, blockNbr);
-        return new VersionedMapReference(registry, blockNbr, durableLength - 6, cs256);
+        int blockNbr = db.writeContent(byteBuffer, cs256, VersionedMapReference.class, data);
+        VersionedMapReference versionedMapReference = new VersionedMapReference(registry, blockNbr, dl - 6, cs256,
+                data.bloomFilter(db.maxBlockSize));
+        versionedMapReference.setTotalSize(data.totalSize());
+        versionedMapReference.setSummary(data.getSummary());
+        return versionedMapReference;
     }
 }
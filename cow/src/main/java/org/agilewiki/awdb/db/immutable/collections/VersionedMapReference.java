@@ -10,11 +10,36 @@ import java.nio.ByteBuffer;
  * A reference to an immutable map of versioned lists.
  */
 public class VersionedMapReference extends BlockReference implements VersionedMapNode {
+
+    /**
+     * The count of the keys in the referenced map, or -1 when not yet known.
+     */
+    private volatile int totalSize = -1;
+
+    /**
+     * The temporal summary of the referenced map, or null when not yet known.
+     */
+    private volatile TemporalSummary summary;
+
+    /**
+     * A Bloom filter over the keys of the referenced map, or null.
+     */
+    public final BloomFilter filter;
+
     public VersionedMapReference(DbFactoryRegistry registry,
                                  int blockNbr,
                                  int blockLength,
                                  CS256 cs256) {
+        this(registry, blockNbr, blockLength, cs256, null);
+    }
+
+    public VersionedMapReference(DbFactoryRegistry registry,
+                                 int blockNbr,
+                                 int blockLength,
+                                 CS256 cs256,
+                                 BloomFilter filter) {
         super(registry, blockNbr, blockLength, cs256);
+        this.filter = filter;
     }
 
     @Override
@@ -22,6 +47,64 @@ public class VersionedMapReference extends BlockReference implements VersionedMa
         return (VersionedMapNodeData) super.getData();
     }
 
+    /**
+     * Records the count of the keys in the referenced map,
+     * so the count is known without reading the block.
+     *
+     * @param totalSize The count of the keys.
+     */
+    public void setTotalSize(int totalSize) {
+        this.totalSize = totalSize;
+    }
+
+    @Override
+    public int totalSize() {
+        int t = totalSize;
+        if (t < 0) {
+            t = getData().totalSize();
+            totalSize = t;
+        }
+        return t;
+    }
+
+    /**
+     * Records the temporal summary of the referenced map,
+     * so the summary is known without reading the block.
+     *
+     * @param summary The temporal summary.
+     */
+    public void setSummary(TemporalSummary summary) {
+        this.summary = summary;
+    }
+
+    @Override
+    public TemporalSummary getSummary() {
+        TemporalSummary s = summary;
+        if (s == null) {
+            s = getData().getSummary();
+            summary = s;
+        }
+        return s;
+    }
+
+    /**
+     * Returns the list of a key, without reading the block when the filter rules the key out.
+     *
+     * @param key The key for the node.
+     * @return The list.
+     */
+    @Override
+    public VersionedListNode getList(Comparable key) {
+        if (filter != null && !filter.mightContain(key))
+            return getRegistry().versionedNilList;
+        return getData().getList(key);
+    }
+
+    @Override
+    protected void readAheadChildren(int depth) {
+        getData().readAhead(depth);
+    }
+
     protected Object loadData(ByteBuffer byteBuffer) {
         return new VersionedMapNodeData(this, byteBuffer);
     }
@@ -33,11 +116,28 @@ public class VersionedMapReference extends BlockReference implements VersionedMa
      */
     public void writeDurable(ByteBuffer byteBuffer) {
         int expected = byteBuffer.position() + getDurableLength();
-        byteBuffer.putChar(getRegistry().versionedMapReferenceId);
+        byteBuffer.putChar(filter == null ?
+                getRegistry().versionedMapReferenceId :
+                getRegistry().filteredVersionedMapReferenceId);
         serialize(byteBuffer);
         if (expected != byteBuffer.position()) {
             getRegistry().db.close();
             throw new SerializationException();
         }
     }
+
+    @Override
+    public void serialize(ByteBuffer byteBuffer) {
+        super.serialize(byteBuffer);
+        if (filter != null)
+            filter.serialize(byteBuffer);
+    }
+
+    @Override
+    public int getDurableLength() {
+        int dl = super.getDurableLength();
+        if (filter != null)
+            dl += filter.getDurableLength();
+        return dl;
+    }
 }
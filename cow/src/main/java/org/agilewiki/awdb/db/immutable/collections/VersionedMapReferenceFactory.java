@@ -19,6 +19,13 @@ public class VersionedMapReferenceFactory extends BlockReferenceFactory {
         super(registry, registry.versionedMapReferenceId);
     }
 
+    @Override
+    public char getId(Object durable) {
+        return ((VersionedMapReference) durable).filter == null ?
+                getId() :
+                ((DbFactoryRegistry) factoryRegistry).filteredVersionedMapReferenceId;
+    }
+
     @Override
     public Class getImmutableClass() {
         return VersionedMapReference.class;
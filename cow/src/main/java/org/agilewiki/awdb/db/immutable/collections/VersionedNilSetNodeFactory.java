@@ -0,0 +1,41 @@
+package org.agilewiki.awdb.db.immutable.collections;
+
+import org.agilewiki.awdb.db.immutable.BaseFactory;
+import org.agilewiki.awdb.db.virtualcow.DbFactoryRegistry;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Defines how a versioned nil set node is serialized / deserialized.
+ */
+public class VersionedNilSetNodeFactory extends BaseFactory {
+
+    public VersionedNilSetNodeFactory(DbFactoryRegistry registry) {
+        super(registry, registry.versionedNilSetId);
+    }
+
+    @Override
+    public Class getImmutableClass() {
+        return getClass();
+    }
+
+    @Override
+    public void match(Object durable) {
+        if (!((VersionedSetNode) durable).isNil())
+            throw new IllegalArgumentException("The immutable object is not a versioned nil set node");
+    }
+
+    @Override
+    public int getDurableLength(Object durable) {
+        return 2;
+    }
+
+    @Override
+    public void serialize(Object durable, ByteBuffer byteBuffer) {
+    }
+
+    @Override
+    public VersionedSetNode deserialize(ByteBuffer byteBuffer) {
+        return ((DbFactoryRegistry) factoryRegistry).versionedNilSet;
+    }
+}
@@ -0,0 +1,304 @@
+package org.agilewiki.awdb.db.immutable.collections;
+
+import org.agilewiki.awdb.db.immutable.ImmutableFactory;
+import org.agilewiki.awdb.db.virtualcow.Db;
+import org.agilewiki.awdb.db.virtualcow.DbFactoryRegistry;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+/**
+ * An immutable sorted set of versioned keys.
+ * Each key holds only the times it was added and removed, in place of a versioned list.
+ */
+public interface VersionedSetNode extends Releasable {
+
+    /**
+     * Returns the database factory registry.
+     *
+     * @return The registry.
+     */
+    DbFactoryRegistry getRegistry();
+
+    /**
+     * Returns the database.
+     *
+     * @return The database.
+     */
+    default Db getDb() {
+        return getRegistry().db;
+    }
+
+    /**
+     * Returns the current timestamp, a unique
+     * identifier for the current transaction.
+     *
+     * @return The current transaction's timestamp
+     */
+    default long getTimestamp() {
+        return getDb().getTimestamp();
+    }
+
+    VersionedSetNodeData getData();
+
+    default boolean isNil() {
+        return this == getRegistry().versionedNilSet;
+    }
+
+    /**
+     * Returns true when the key is in the set at the given time.
+     *
+     * @param key       The key.
+     * @param timestamp The time of the query.
+     * @return True if present.
+     */
+    default boolean contains(Comparable key, long timestamp) {
+        if (key == null)
+            throw new IllegalArgumentException("key may not be null");
+        if (isNil())
+            return false;
+        return getData().contains(key, timestamp);
+    }
+
+    /**
+     * Add a key to the set, as of the current time.
+     *
+     * @param key The key.
+     * @return The revised root node.
+     */
+    default VersionedSetNode add(Comparable key) {
+        return add(key, getTimestamp());
+    }
+
+    /**
+     * Add a key to the set.
+     * Nothing changes when the key is already present.
+     *
+     * @param key     The key.
+     * @param created Creation time.
+     * @return The revised root node.
+     */
+    default VersionedSetNode add(Comparable key, long created) {
+        if (key == null)
+            throw new IllegalArgumentException("key may not be null");
+        return getData().add(key, created);
+    }
+
+    /**
+     * Remove a key from the set, as of the current time.
+     *
+     * @param key The key.
+     * @return The revised root node.
+     */
+    default VersionedSetNode remove(Comparable key) {
+        return remove(key, getTimestamp());
+    }
+
+    /**
+     * Remove a key from the set. The key is kept, with its deletion time,
+     * so the set can still be queried for earlier times.
+     *
+     * @param key     The key.
+     * @param deleted Deletion time.
+     * @return The revised root node.
+     */
+    default VersionedSetNode remove(Comparable key, long deleted) {
+        if (key == null)
+            throw new IllegalArgumentException("key may not be null");
+        if (isNil())
+            return this;
+        return getData().remove(key, deleted);
+    }
+
+    /**
+     * Returns a set of all the keys present at the given time.
+     *
+     * @param timestamp The time of the query.
+     * @return A set of the keys.
+     */
+    default NavigableSet<Comparable> flatSet(long timestamp) {
+        NavigableSet<Comparable> keys = new TreeSet<>();
+        getData().flatSet(keys, timestamp);
+        return keys;
+    }
+
+    /**
+     * Returns the count of all the keys in the set, present or not.
+     *
+     * @return The count of all the keys in the set.
+     */
+    default int totalSize() {
+        if (isNil())
+            return 0;
+        return getData().totalSize();
+    }
+
+    /**
+     * Returns the creation and deletion times summarized over the keys of the set.
+     *
+     * @return The temporal summary.
+     */
+    default TemporalSummary getSummary() {
+        return getData().getSummary();
+    }
+
+    /**
+     * Returns the count of the keys present at the given time.
+     *
+     * @param timestamp The time of the query.
+     * @return The size of the set at that time.
+     */
+    default int size(long timestamp) {
+        if (isNil())
+            return 0;
+        return getData().size(timestamp);
+    }
+
+    /**
+     * Returns true if no key is present at the given time.
+     *
+     * @param timestamp The time of the query.
+     * @return False if there is any content.
+     */
+    default boolean isEmpty(long timestamp) {
+        return size(timestamp) == 0;
+    }
+
+    /**
+     * Returns the smallest key present at the given time.
+     *
+     * @param timestamp The time of the query.
+     * @return The smallest key, or null.
+     */
+    default Comparable firstKey(long timestamp) {
+        return getData().firstKey(timestamp);
+    }
+
+    /**
+     * Returns the largest key present at the given time.
+     *
+     * @param timestamp The time of the query.
+     * @return The largest key, or null.
+     */
+    default Comparable lastKey(long timestamp) {
+        return getData().lastKey(timestamp);
+    }
+
+    /**
+     * Returns the next greater key present at the given time.
+     *
+     * @param key       The given key.
+     * @param timestamp The time of the query.
+     * @return The next greater key, or null.
+     */
+    default Comparable higherKey(Comparable key, long timestamp) {
+        return getData().higherKey(key, timestamp);
+    }
+
+    /**
+     * Returns the key present at the given time that is greater than or equal to the given key.
+     *
+     * @param key       The given key.
+     * @param timestamp The time of the query.
+     * @return The key greater than or equal to the given key, or null.
+     */
+    default Comparable ceilingKey(Comparable key, long timestamp) {
+        return getData().ceilingKey(key, timestamp);
+    }
+
+    /**
+     * Returns the next smaller key present at the given time.
+     *
+     * @param key       The given key.
+     * @param timestamp The time of the query.
+     * @return The next smaller key, or null.
+     */
+    default Comparable lowerKey(Comparable key, long timestamp) {
+        return getData().lowerKey(key, timestamp);
+    }
+
+    /**
+     * Returns the key present at the given time that is smaller than or equal to the given key.
+     *
+     * @param key       The given key.
+     * @param timestamp The time of the query.
+     * @return The key smaller than or equal to the given key, or null.
+     */
+    default Comparable floorKey(Comparable key, long timestamp) {
+        return getData().floorKey(key, timestamp);
+    }
+
+    /**
+     * Returns a cursor over the keys present at the given time,
+     * positioned on the first such key.
+     *
+     * @param timestamp The time of the query.
+     * @return The cursor.
+     */
+    default KeyCursor cursor(long timestamp) {
+        return new VersionedSetNodeCursor(this, timestamp);
+    }
+
+    /**
+     * Returns an iterator over the keys present at the given time.
+     *
+     * @param timestamp The time of the query.
+     * @return The iterator.
+     */
+    default Iterator<Comparable> iterator(long timestamp) {
+        return SetNode.keys(cursor(timestamp));
+    }
+
+    /**
+     * Returns the size of a byte array needed to serialize this object,
+     * including the space needed for the durable id.
+     *
+     * @return The size in bytes of the serialized data.
+     */
+    int getDurableLength();
+
+    /**
+     * Write the durable to a byte buffer.
+     *
+     * @param byteBuffer The byte buffer.
+     */
+    void writeDurable(ByteBuffer byteBuffer);
+
+    /**
+     * Serialize this object into a ByteBuffer.
+     *
+     * @param byteBuffer Where the serialized data is to be placed.
+     */
+    void serialize(ByteBuffer byteBuffer);
+
+    @Override
+    default void releaseAll() {
+        if (isNil())
+            return;
+        getData().releaseAll();
+    }
+
+    @Override
+    default void retainAll() {
+        if (isNil())
+            return;
+        getData().retainAll();
+    }
+
+    @Override
+    default Object resize(int maxSize, int maxBlockSize) {
+        return getData().resize(maxSize, maxBlockSize);
+    }
+
+    /**
+     * Returns a ByteBuffer loaded with the serialized contents of the immutable.
+     *
+     * @return The loaded ByteBuffer.
+     */
+    default ByteBuffer toByteBuffer() {
+        ImmutableFactory factory = getRegistry().getImmutableFactory(this);
+        return factory.toByteBuffer(this);
+    }
+}
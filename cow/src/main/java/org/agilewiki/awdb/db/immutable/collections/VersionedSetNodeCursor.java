@@ -0,0 +1,64 @@
+package org.agilewiki.awdb.db.immutable.collections;
+
+import org.agilewiki.awdb.db.virtualcow.BlockReference;
+
+/**
+ * A cursor over the keys of a versioned set which are present at a given time.
+ * Subtrees whose temporal summary shows them to be empty at that time are not entered.
+ * As a set holds no lists, the list of each key is null.
+ */
+public class VersionedSetNodeCursor extends AATreeCursor {
+
+    private final long timestamp;
+
+    /**
+     * Create a cursor, positioned on the smallest key.
+     *
+     * @param root      The root of the set.
+     * @param timestamp The time of the query.
+     */
+    public VersionedSetNodeCursor(VersionedSetNode root, long timestamp) {
+        super(root);
+        this.timestamp = timestamp;
+        first();
+    }
+
+    @Override
+    protected Object data(Object node) {
+        VersionedSetNode n = (VersionedSetNode) node;
+        if (n.isNil() || n.getSummary().isEmpty(timestamp))
+            return null;
+        return n.getData();
+    }
+
+    @Override
+    protected void readAhead(Object node) {
+        if (node instanceof BlockReference)
+            ((BlockReference) node).readAhead();
+    }
+
+    @Override
+    protected Object left(Object data) {
+        return ((VersionedSetNodeData) data).leftNode;
+    }
+
+    @Override
+    protected Object right(Object data) {
+        return ((VersionedSetNodeData) data).rightNode;
+    }
+
+    @Override
+    protected Comparable key(Object data) {
+        return ((VersionedSetNodeData) data).key;
+    }
+
+    @Override
+    protected Object list(Object data) {
+        return null;
+    }
+
+    @Override
+    protected boolean accept(Object data) {
+        return ((VersionedSetNodeData) data).exists(timestamp);
+    }
+}
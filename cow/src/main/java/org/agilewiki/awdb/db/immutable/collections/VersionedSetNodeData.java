@@ -0,0 +1,631 @@
+package org.agilewiki.awdb.db.immutable.collections;
+
+import org.agilewiki.awdb.db.immutable.FactoryRegistry;
+import org.agilewiki.awdb.db.immutable.ImmutableFactory;
+import org.agilewiki.awdb.db.virtualcow.BlockReference;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.NavigableSet;
+
+/**
+ * The durable data elements of a versioned set node.
+ * A key which is added again after being removed keeps all its creation / deletion pairs,
+ * so a key is held by a single node whatever its history.
+ */
+public class VersionedSetNodeData implements Releasable {
+
+    /**
+     * The node which holds this data.
+     */
+    public final VersionedSetNode thisNode;
+
+    /**
+     * Composite node depth--see AA Tree algorithm.
+     */
+    public final int level;
+
+    /**
+     * Left subtree node.
+     */
+    public final VersionedSetNode leftNode;
+
+    /**
+     * Right subtree node.
+     */
+    public final VersionedSetNode rightNode;
+
+    /**
+     * The key of the node.
+     */
+    public final Comparable key;
+
+    /**
+     * The factory for the key.
+     */
+    public final ImmutableFactory keyFactory;
+
+    /**
+     * The creation and deletion times of the key, in pairs and in ascending order.
+     * Only the last deletion time may be MAX_VALUE.
+     */
+    private final long[] stamps;
+
+    /**
+     * The count of the keys in this subtree, or -1 when not yet known.
+     */
+    private int totalSize = -1;
+
+    /**
+     * The temporal summary of the keys in this subtree, or null until needed.
+     */
+    private TemporalSummary summary;
+
+    /**
+     * Create the nil node data.
+     *
+     * @param thisNode The node which holds this data.
+     */
+    public VersionedSetNodeData(VersionedSetNode thisNode) {
+        this.thisNode = thisNode;
+        this.level = 0;
+        this.leftNode = thisNode;
+        this.rightNode = thisNode;
+        key = null;
+        keyFactory = null;
+        stamps = new long[0];
+    }
+
+    /**
+     * Create non-nill node data.
+     *
+     * @param thisNode  The node which holds this data.
+     * @param level     Composite node depth--see AA Tree algorithm.
+     * @param leftNode  Left subtree node.
+     * @param rightNode Right subtree node.
+     * @param key       The key of node.
+     * @param stamps    The creation and deletion times of the key.
+     */
+    public VersionedSetNodeData(VersionedSetNode thisNode,
+                                int level,
+                                VersionedSetNode leftNode,
+                                VersionedSetNode rightNode,
+                                Comparable key,
+                                long[] stamps) {
+        this.thisNode = thisNode;
+        this.level = level;
+        this.leftNode = leftNode;
+        this.rightNode = rightNode;
+        this.key = key;
+        this.stamps = stamps;
+        keyFactory = thisNode.getRegistry().getImmutableFactory(key);
+    }
+
+    /**
+     * Create non-nill node data.
+     *
+     * @param thisNode   The node which holds this data.
+     * @param byteBuffer Holds the serialized data.
+     */
+    public VersionedSetNodeData(VersionedSetNode thisNode, ByteBuffer byteBuffer) {
+        this.thisNode = thisNode;
+        level = byteBuffer.getInt();
+        totalSize = byteBuffer.getInt();
+        int leftSize = byteBuffer.getInt();
+        summary = new TemporalSummary(byteBuffer);
+        stamps = new long[2 * byteBuffer.getInt()];
+        for (int i = 0; i < stamps.length; ++i)
+            stamps[i] = byteBuffer.getLong();
+        FactoryRegistry factoryRegistry = thisNode.getRegistry();
+        ImmutableFactory f = factoryRegistry.readId(byteBuffer);
+        leftNode = readChild((VersionedSetNode) f.deserialize(byteBuffer), byteBuffer);
+        f = factoryRegistry.readId(byteBuffer);
+        rightNode = readChild((VersionedSetNode) f.deserialize(byteBuffer), byteBuffer);
+        keyFactory = factoryRegistry.readId(byteBuffer);
+        key = (Comparable) keyFactory.deserialize(byteBuffer);
+        if (leftNode instanceof VersionedSetReference)
+            ((VersionedSetReference) leftNode).setTotalSize(leftSize);
+        if (rightNode instanceof VersionedSetReference)
+            ((VersionedSetReference) rightNode).setTotalSize(totalSize - leftSize - 1);
+    }
+
+    /**
+     * Returns true if this is the data for the nil node.
+     *
+     * @return True if nil node.
+     */
+    public boolean isNil() {
+        return level == 0;
+    }
+
+    /**
+     * Returns true if the key of the node exists for the given time.
+     *
+     * @param timestamp The time of the query.
+     * @return True if the key exists.
+     */
+    public boolean exists(long timestamp) {
+        for (int i = 0; i < stamps.length; i += 2) {
+            if (timestamp < stamps[i])
+                return false;
+            if (timestamp < stamps[i + 1])
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns true when the key is in this subtree at the given time.
+     *
+     * @param key       The key.
+     * @param timestamp The time of the query.
+     * @return True if present.
+     */
+    public boolean contains(Comparable key, long timestamp) {
+        VersionedSetNodeData data = this;
+        while (!data.isNil()) {
+            int c = key.compareTo(data.key);
+            if (c == 0)
+                return data.exists(timestamp);
+            data = (c < 0 ? data.leftNode : data.rightNode).getData();
+        }
+        return false;
+    }
+
+    /**
+     * AA Tree skew operation.
+     *
+     * @return Revised root node.
+     */
+    public VersionedSetNode skew() {
+        if (isNil() || leftNode.isNil())
+            return thisNode;
+        VersionedSetNodeData leftData = leftNode.getData();
+        if (leftData.level == level) {
+            VersionedSetNode t = replaceLeft(leftData.rightNode);
+            return leftData.replaceRight(t);
+        } else
+            return thisNode;
+    }
+
+    /**
+     * AA Tree split
+     *
+     * @return The revised root node.
+     */
+    public VersionedSetNode split() {
+        if (isNil() || rightNode.isNil())
+            return thisNode;
+        VersionedSetNodeData rightData = rightNode.getData();
+        if (rightData.rightNode.isNil())
+            return thisNode;
+        if (level == rightData.rightNode.getData().level) {
+            VersionedSetNode t = replaceRight(rightData.leftNode);
+            return rightData.replace(rightData.level + 1, t, rightData.rightNode, rightData.stamps);
+        }
+        return thisNode;
+    }
+
+    /**
+     * Add a key to the set.
+     *
+     * @param key     The key.
+     * @param created Creation time.
+     * @return The revised root node.
+     */
+    public VersionedSetNode add(Comparable key, long created) {
+        if (isNil())
+            return newNode(1, thisNode, thisNode, key, new long[]{created, Long.MAX_VALUE});
+        VersionedSetNode t;
+        int c = key.compareTo(this.key);
+        if (c < 0) {
+            VersionedSetNode l = leftNode.add(key, created);
+            if (l == leftNode)
+                return thisNode;
+            t = replaceLeft(l);
+        } else if (c == 0) {
+            int last = stamps.length - 1;
+            if (stamps[last] == Long.MAX_VALUE)
+                return thisNode;
+            if (created < stamps[last])
+                throw new IllegalArgumentException("created precedes the last deletion of the key");
+            long[] s = Arrays.copyOf(stamps, stamps.length + 2);
+            s[last + 1] = created;
+            s[last + 2] = Long.MAX_VALUE;
+            return replace(level, leftNode, rightNode, s);
+        } else {
+            VersionedSetNode r = rightNode.add(key, created);
+            if (r == rightNode)
+                return thisNode;
+            t = replaceRight(r);
+        }
+        return t.getData().skew().getData().split();
+    }
+
+    /**
+     * Mark a key as deleted.
+     *
+     * @param key     The key.
+     * @param deleted Deletion time.
+     * @return The revised root node.
+     */
+    public VersionedSetNode remove(Comparable key, long deleted) {
+        if (isNil())
+            return thisNode;
+        int c = key.compareTo(this.key);
+        if (c < 0) {
+            VersionedSetNode l = leftNode.remove(key, deleted);
+            if (l == leftNode)
+                return thisNode;
+            return replaceLeft(l);
+        }
+        if (c > 0) {
+            VersionedSetNode r = rightNode.remove(key, deleted);
+            if (r == rightNode)
+                return thisNode;
+            return replaceRight(r);
+        }
+        int last = stamps.length - 1;
+        if (stamps[last] != Long.MAX_VALUE)
+            return thisNode;
+        if (deleted < stamps[last - 1])
+            throw new IllegalArgumentException("deleted precedes the creation of the key");
+        long[] s = stamps.clone();
+        s[last] = deleted;
+        return replace(level, leftNode, rightNode, s);
+    }
+
+    /**
+     * Builds a set of all keys present at the given time.
+     *
+     * @param keys      The set being built.
+     * @param timestamp The time of the query.
+     */
+    public void flatSet(NavigableSet<Comparable> keys, long timestamp) {
+        if (isNil() || getSummary().isEmpty(timestamp))
+            return;
+        leftNode.getData().flatSet(keys, timestamp);
+        if (exists(timestamp))
+            keys.add(key);
+        rightNode.getData().flatSet(keys, timestamp);
+    }
+
+    /**
+     * Returns the count of all the keys in the set, present or not.
+     *
+     * @return The count of all the keys in the set.
+     */
+    public int totalSize() {
+        if (isNil())
+            return 0;
+        int t = totalSize;
+        if (t < 0) {
+            t = leftNode.totalSize() + 1 + rightNode.totalSize();
+            if (!isTransient())
+                totalSize = t;
+        }
+        return t;
+    }
+
+    /**
+     * Returns the creation and deletion times summarized over the keys of this subtree.
+     *
+     * @return The temporal summary.
+     */
+    public TemporalSummary getSummary() {
+        if (isNil())
+            return TemporalSummary.NIL;
+        TemporalSummary s = summary;
+        if (s == null) {
+            s = leftNode.getSummary();
+            for (int i = 0; i < stamps.length; i += 2)
+                s = s.combine(TemporalSummary.of(stamps[i], stamps[i + 1]));
+            s = s.combine(rightNode.getSummary());
+            if (!isTransient())
+                summary = s;
+        }
+        return s;
+    }
+
+    /**
+     * Returns the count of the keys present at the given time.
+     *
+     * @param timestamp The time of the query.
+     * @return The size of the subtree at that time.
+     */
+    public int size(long timestamp) {
+        if (isNil())
+            return 0;
+        int s = getSummary().size(timestamp);
+        if (s > -1)
+            return s;
+        s = leftNode.size(timestamp) + rightNode.size(timestamp);
+        if (exists(timestamp))
+            s += 1;
+        return s;
+    }
+
+    /**
+     * Returns the smallest key present at the given time.
+     *
+     * @param timestamp The time of the query.
+     * @return The smallest key, or null.
+     */
+    public Comparable firstKey(long timestamp) {
+        if (isNil() || getSummary().isEmpty(timestamp))
+            return null;
+        Comparable k = leftNode.firstKey(timestamp);
+        if (k != null)
+            return k;
+        if (exists(timestamp))
+            return key;
+        return rightNode.firstKey(timestamp);
+    }
+
+    /**
+     * Returns the largest key present at the given time.
+     *
+     * @param timestamp The time of the query.
+     * @return The largest key, or null.
+     */
+    public Comparable lastKey(long timestamp) {
+        if (isNil() || getSummary().isEmpty(timestamp))
+            return null;
+        Comparable k = rightNode.lastKey(timestamp);
+        if (k != null)
+            return k;
+        if (exists(timestamp))
+            return key;
+        return leftNode.lastKey(timestamp);
+    }
+
+    /**
+     * Returns the next greater key present at the given time.
+     *
+     * @param key       The given key.
+     * @param timestamp The time of the query.
+     * @return The next greater key, or null.
+     */
+    public Comparable higherKey(Comparable key, long timestamp) {
+        if (isNil() || getSummary().isEmpty(timestamp))
+            return null;
+        int c = key.compareTo(this.key);
+        if (c >= 0)
+            return rightNode.higherKey(key, timestamp);
+        Comparable k = leftNode.higherKey(key, timestamp);
+        if (k != null)
+            return k;
+        if (exists(timestamp))
+            return this.key;
+        return rightNode.firstKey(timestamp);
+    }
+
+    /**
+     * Returns the key present at the given time that is greater than or equal to the given key.
+     *
+     * @param key       The given key.
+     * @param timestamp The time of the query.
+     * @return The key greater than or equal to the given key, or null.
+     */
+    public Comparable ceilingKey(Comparable key, long timestamp) {
+        if (isNil() || getSummary().isEmpty(timestamp))
+            return null;
+        int c = key.compareTo(this.key);
+        if (c > 0)
+            return rightNode.ceilingKey(key, timestamp);
+        if (c < 0) {
+            Comparable k = leftNode.ceilingKey(key, timestamp);
+            if (k != null)
+                return k;
+        }
+        if (exists(timestamp))
+            return this.key;
+        return rightNode.firstKey(timestamp);
+    }
+
+    /**
+     * Returns the next smaller key present at the given time.
+     *
+     * @param key       The given key.
+     * @param timestamp The time of the query.
+     * @return The next smaller key, or null.
+     */
+    public Comparable lowerKey(Comparable key, long timestamp) {
+        if (isNil() || getSummary().isEmpty(timestamp))
+            return null;
+        int c = key.compareTo(this.key);
+        if (c <= 0)
+            return leftNode.lowerKey(key, timestamp);
+        Comparable k = rightNode.lowerKey(key, timestamp);
+        if (k != null)
+            return k;
+        if (exists(timestamp))
+            return this.key;
+        return leftNode.lastKey(timestamp);
+    }
+
+    /**
+     * Returns the key present at the given time that is smaller than or equal to the given key.
+     *
+     * @param key       The given key.
+     * @param timestamp The time of the query.
+     * @return The key smaller than or equal to the given key, or null.
+     */
+    public Comparable floorKey(Comparable key, long timestamp) {
+        if (isNil() || getSummary().isEmpty(timestamp))
+            return null;
+        int c = key.compareTo(this.key);
+        if (c < 0)
+            return leftNode.floorKey(key, timestamp);
+        if (c > 0) {
+            Comparable k = rightNode.floorKey(key, timestamp);
+            if (k != null)
+                return k;
+        }
+        if (exists(timestamp))
+            return this.key;
+        return leftNode.lastKey(timestamp);
+    }
+
+    /**
+     * Queues the blocks referenced by this node and the nodes held in the same block.
+     *
+     * @param depth How many levels below those blocks are also loaded.
+     */
+    public void readAhead(int depth) {
+        if (isNil())
+            return;
+        readAhead(leftNode, depth);
+        readAhead(rightNode, depth);
+    }
+
+    private static void readAhead(VersionedSetNode node, int depth) {
+        if (node instanceof BlockReference)
+            ((BlockReference) node).readAhead(depth);
+        else
+            node.getData().readAhead(depth);
+    }
+
+    /**
+     * Returns the length of the serialized data, including the id and durable length.
+     *
+     * @return The length of the serialized data.
+     */
+    public int getDurableLength() {
+        if (isNil())
+            return 2;
+        return 2 + 4 + 4 + 4 + 4 + TemporalSummary.DURABLE_LENGTH + 4 + 8 * stamps.length +
+                leftNode.getDurableLength() + childSummaryLength(leftNode) +
+                rightNode.getDurableLength() + childSummaryLength(rightNode) +
+                keyFactory.getDurableLength(key);
+    }
+
+    /**
+     * Serialize this object into a ByteBuffer.
+     *
+     * @param byteBuffer Where the serialized data is to be placed.
+     */
+    public void serialize(ByteBuffer byteBuffer) {
+        byteBuffer.putInt(level);
+        byteBuffer.putInt(totalSize());
+        byteBuffer.putInt(leftNode.totalSize());
+        getSummary().serialize(byteBuffer);
+        byteBuffer.putInt(stamps.length / 2);
+        for (long stamp : stamps)
+            byteBuffer.putLong(stamp);
+        leftNode.writeDurable(byteBuffer);
+        writeChildSummary(leftNode, byteBuffer);
+        rightNode.writeDurable(byteBuffer);
+        writeChildSummary(rightNode, byteBuffer);
+        keyFactory.writeDurable(key, byteBuffer);
+    }
+
+    /**
+     * Each child held as a block reference is followed by its summary,
+     * so summaries are known without reading the child blocks.
+     */
+    private static VersionedSetNode readChild(VersionedSetNode child, ByteBuffer byteBuffer) {
+        if (child instanceof VersionedSetReference)
+            ((VersionedSetReference) child).setSummary(new TemporalSummary(byteBuffer));
+        return child;
+    }
+
+    private static int childSummaryLength(VersionedSetNode child) {
+        return child instanceof VersionedSetReference ? TemporalSummary.DURABLE_LENGTH : 0;
+    }
+
+    private static void writeChildSummary(VersionedSetNode child, ByteBuffer byteBuffer) {
+        if (child instanceof VersionedSetReference)
+            child.getSummary().serialize(byteBuffer);
+    }
+
+    @Override
+    public void releaseAll() {
+        if (isNil())
+            return;
+        leftNode.releaseAll();
+        rightNode.releaseAll();
+    }
+
+    @Override
+    public void retainAll() {
+        if (isNil())
+            return;
+        leftNode.retainAll();
+        rightNode.retainAll();
+    }
+
+    public VersionedSetNode replace(int level, VersionedSetNode leftNode, VersionedSetNode rightNode, long[] stamps) {
+        thisNode.releaseLocal();
+        return newNode(level, leftNode, rightNode, key, stamps);
+    }
+
+    public VersionedSetNode replaceLeft(VersionedSetNode leftNode) {
+        thisNode.releaseLocal();
+        return newNode(level, leftNode, rightNode, key, stamps);
+    }
+
+    public VersionedSetNode replaceRight(VersionedSetNode rightNode) {
+        thisNode.releaseLocal();
+        return newNode(level, leftNode, rightNode, key, stamps);
+    }
+
+    /**
+     * Returns true when this data belongs to a node which can still be updated in place.
+     *
+     * @return True when transient.
+     */
+    private boolean isTransient() {
+        return thisNode instanceof VersionedSetNodeImpl && ((VersionedSetNodeImpl) thisNode).isTransient();
+    }
+
+    /**
+     * Creates the revised node, or updates this node in place when it is transient.
+     */
+    private VersionedSetNode newNode(int level,
+                                     VersionedSetNode leftNode,
+                                     VersionedSetNode rightNode,
+                                     Comparable key,
+                                     long[] stamps) {
+        if (!isNil() && isTransient()) {
+            VersionedSetNodeImpl impl = (VersionedSetNodeImpl) thisNode;
+            impl.dataReference.set(new VersionedSetNodeData(impl, level, leftNode, rightNode, key, stamps));
+            return impl;
+        }
+        return new VersionedSetNodeImpl(thisNode.getRegistry(), level, leftNode, rightNode, key, stamps);
+    }
+
+    @Override
+    public Object resize(int maxSize, int maxBlockSize) {
+        if (thisNode.getDurableLength() <= maxSize) {
+            return thisNode;
+        }
+
+        VersionedSetNode l = leftNode;
+        if (l.getDurableLength() > maxBlockSize)
+            l = (VersionedSetNode) l.resize(maxBlockSize, maxBlockSize);
+        VersionedSetNode r = rightNode;
+        if (r.getDurableLength() > maxBlockSize)
+            r = (VersionedSetNode) r.resize(maxBlockSize, maxBlockSize);
+        if (l != leftNode || r != rightNode)
+            return replace(level, l, r, stamps).resize(maxSize, maxBlockSize);
+
+        VersionedSetNode s = leftNode;
+        if (rightNode.getDurableLength() > leftNode.getDurableLength())
+            s = rightNode;
+        VersionedSetNode q = (VersionedSetNode) s.shrink();
+        VersionedSetNode n;
+        if (leftNode == s)
+            n = replaceLeft(q);
+        else
+            n = replaceRight(q);
+        return n.resize(maxSize, maxBlockSize);
+    }
+
+    public String toString() {
+        if (isNil())
+            return "";
+        return "(" + leftNode.getData().toString() + "-" + level + "-" + key + Arrays.toString(stamps) +
+                rightNode.getData().toString() + ")";
+    }
+}
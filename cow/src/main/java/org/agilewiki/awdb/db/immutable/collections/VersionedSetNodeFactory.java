@@ -0,0 +1,50 @@
+package org.agilewiki.awdb.db.immutable.collections;
+
+import org.agilewiki.awdb.db.immutable.BaseFactory;
+import org.agilewiki.awdb.db.immutable.ImmutableFactory;
+import org.agilewiki.awdb.db.virtualcow.DbFactoryRegistry;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Defines how a versioned set is serialized / deserialized.
+ */
+public class VersionedSetNodeFactory extends BaseFactory {
+
+    public final VersionedSetNode versionedNilSet;
+    public final VersionedNilSetNodeFactory versionedNilSetNodeFactory;
+
+    public VersionedSetNodeFactory(DbFactoryRegistry registry) {
+        super(registry, registry.versionedSetNodeImplId);
+        versionedNilSetNodeFactory = new VersionedNilSetNodeFactory(registry);
+        versionedNilSet = new VersionedSetNodeImpl(registry);
+        new VersionedSetReferenceFactory(registry);
+    }
+
+    @Override
+    public ImmutableFactory getImmutableFactory(Object durable) {
+        if (((VersionedSetNode) durable).isNil())
+            return versionedNilSetNodeFactory;
+        return this;
+    }
+
+    @Override
+    public Class getImmutableClass() {
+        return VersionedSetNodeImpl.class;
+    }
+
+    @Override
+    public int getDurableLength(Object durable) {
+        return ((VersionedSetNode) durable).getDurableLength();
+    }
+
+    @Override
+    public void serialize(Object durable, ByteBuffer byteBuffer) {
+        ((VersionedSetNode) durable).serialize(byteBuffer);
+    }
+
+    @Override
+    public VersionedSetNode deserialize(ByteBuffer byteBuffer) {
+        return new VersionedSetNodeImpl(((DbFactoryRegistry) factoryRegistry), byteBuffer);
+    }
+}
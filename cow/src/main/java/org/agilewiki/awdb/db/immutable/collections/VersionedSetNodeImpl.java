@@ -0,0 +1,145 @@
+package org.agilewiki.awdb.db.immutable.collections;
+
+import org.agilewiki.awdb.db.immutable.scalars.CS256;
+import org.agilewiki.awdb.db.virtualcow.Db;
+import org.agilewiki.awdb.db.virtualcow.DbFactoryRegistry;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * An immutable sorted set of versioned keys.
+ */
+public class VersionedSetNodeImpl implements VersionedSetNode {
+
+    public final DbFactoryRegistry registry;
+
+    protected final AtomicReference<VersionedSetNodeData> dataReference = new AtomicReference<>();
+    protected final Object owner;
+    protected int durableLength;
+    protected ByteBuffer byteBuffer;
+
+    protected VersionedSetNodeImpl(DbFactoryRegistry registry) {
+        this.registry = registry;
+        dataReference.set(new VersionedSetNodeData(this));
+        owner = null;
+        durableLength = 2;
+    }
+
+    protected VersionedSetNodeImpl(DbFactoryRegistry registry, ByteBuffer byteBuffer) {
+        this.registry = registry;
+        owner = null;
+        durableLength = byteBuffer.getInt();
+        this.byteBuffer = byteBuffer.slice();
+        this.byteBuffer.limit(durableLength - 6);
+        byteBuffer.position(byteBuffer.position() + durableLength - 6);
+    }
+
+    protected VersionedSetNodeImpl(DbFactoryRegistry registry,
+                                   int level,
+                                   VersionedSetNode leftNode,
+                                   VersionedSetNode rightNode,
+                                   Comparable key,
+                                   long[] stamps) {
+        this.registry = registry;
+        VersionedSetNodeData data = new VersionedSetNodeData(
+                this,
+                level,
+                leftNode,
+                rightNode,
+                key,
+                stamps);
+        owner = registry.db.getTransientOwner();
+        durableLength = owner == null ? data.getDurableLength() : -1;
+        dataReference.set(data);
+    }
+
+    @Override
+    public DbFactoryRegistry getRegistry() {
+        return registry;
+    }
+
+    @Override
+    public VersionedSetNodeData getData() {
+        VersionedSetNodeData data = dataReference.get();
+        if (data != null)
+            return data;
+        dataReference.compareAndSet(null, new VersionedSetNodeData(this, byteBuffer.slice()));
+        return dataReference.get();
+    }
+
+    @Override
+    public int getDurableLength() {
+        if (durableLength < 0) {
+            if (isTransient())
+                return getData().getDurableLength();
+            durableLength = getData().getDurableLength();
+        }
+        return durableLength;
+    }
+
+    /**
+     * Returns true while the current transaction may still update this versioned set node in place.
+     *
+     * @return True when the node is transient.
+     */
+    public boolean isTransient() {
+        return owner != null && owner == registry.db.getTransientOwner();
+    }
+
+    /**
+     * Write the durable to a byte buffer.
+     *
+     * @param byteBuffer The byte buffer.
+     */
+    public void writeDurable(ByteBuffer byteBuffer) {
+        int expected = byteBuffer.position() + getDurableLength();
+        if (isNil()) {
+            byteBuffer.putChar(getRegistry().versionedNilSetId);
+        } else {
+            byteBuffer.putChar(getRegistry().versionedSetNodeImplId);
+            serialize(byteBuffer);
+        }
+        if (expected != byteBuffer.position()) {
+            getRegistry().db.close();
+            throw new SerializationException();
+        }
+    }
+
+    @Override
+    public void serialize(ByteBuffer byteBuffer) {
+        byteBuffer.putInt(getDurableLength());
+        if (this.byteBuffer == null) {
+            getData().serialize(byteBuffer);
+            return;
+        }
+        ByteBuffer bb = byteBuffer.slice();
+        bb.limit(durableLength - 6);
+        byteBuffer.put(this.byteBuffer.slice());
+        this.byteBuffer = bb;
+        dataReference.set(null); //limit memory footprint, plugs memory leak.
+    }
+
+    @Override
+    public Object shrink() {
+        Db db = registry.db;
+        int dl = getDurableLength();
+        VersionedSetNodeData data = getData();
+        ByteBuffer byteBuffer = ByteBuffer.allocate(dl - 6);
+        data.serialize(byteBuffer);
+        byteBuffer.flip();
+        CS256 cs256 = new CS256(byteBuffer);
+        int blockNbr = db.writeContent(byteBuffer, cs256, VersionedSetReference.class, data);
+        VersionedSetReference versionedSetReference = new VersionedSetReference(registry, blockNbr, dl - 6, cs256);
+        versionedSetReference.setTotalSize(data.totalSize());
+        versionedSetReference.setSummary(data.getSummary());
+        return versionedSetReference;
+    }
+
+    @Override
+    public String toString() {
+        if (isNil())
+            return "";
+        return getData().toString();
+    }
+}
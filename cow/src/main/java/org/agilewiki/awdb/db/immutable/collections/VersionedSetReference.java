@@ -0,0 +1,99 @@
+package org.agilewiki.awdb.db.immutable.collections;
+
+import org.agilewiki.awdb.db.immutable.scalars.CS256;
+import org.agilewiki.awdb.db.virtualcow.BlockReference;
+import org.agilewiki.awdb.db.virtualcow.DbFactoryRegistry;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A reference to an immutable sorted set of versioned keys.
+ */
+public class VersionedSetReference extends BlockReference implements VersionedSetNode {
+
+    /**
+     * The count of the keys in the referenced set, or -1 when not yet known.
+     */
+    private volatile int totalSize = -1;
+
+    /**
+     * The temporal summary of the referenced set, or null when not yet known.
+     */
+    private volatile TemporalSummary summary;
+
+    public VersionedSetReference(DbFactoryRegistry registry,
+                                 int blockNbr,
+                                 int blockLength,
+                                 CS256 cs256) {
+        super(registry, blockNbr, blockLength, cs256);
+    }
+
+    @Override
+    public VersionedSetNodeData getData() {
+        return (VersionedSetNodeData) super.getData();
+    }
+
+    /**
+     * Records the count of the keys in the referenced set,
+     * so the count is known without reading the block.
+     *
+     * @param totalSize The count of the keys.
+     */
+    public void setTotalSize(int totalSize) {
+        this.totalSize = totalSize;
+    }
+
+    @Override
+    public int totalSize() {
+        int t = totalSize;
+        if (t < 0) {
+            t = getData().totalSize();
+            totalSize = t;
+        }
+        return t;
+    }
+
+    /**
+     * Records the temporal summary of the referenced set,
+     * so the summary is known without reading the block.
+     *
+     * @param summary The temporal summary.
+     */
+    public void setSummary(TemporalSummary summary) {
+        this.summary = summary;
+    }
+
+    @Override
+    public TemporalSummary getSummary() {
+        TemporalSummary s = summary;
+        if (s == null) {
+            s = getData().getSummary();
+            summary = s;
+        }
+        return s;
+    }
+
+    @Override
+    protected void readAheadChildren(int depth) {
+        getData().readAhead(depth);
+    }
+
+    protected Object loadData(ByteBuffer byteBuffer) {
+        return new VersionedSetNodeData(this, byteBuffer);
+    }
+
+    /**
+     * Write the durable to a byte buffer.
+     *
+     * @param byteBuffer The byte buffer.
+     */
+    public void writeDurable(ByteBuffer byteBuffer) {
+        int expected = byteBuffer.position() + getDurableLength();
+        byteBuffer.putChar(getRegistry().versionedSetReferenceId);
+        serialize(byteBuffer);
+        if (expected != byteBuffer.position()) {
+            getRegistry().db.close();
+            throw new SerializationException();
+        }
+    }
+}
@@ -41,6 +41,11 @@ public class CS256 {
         return bitSet.equals(((CS256) obj).bitSet);
     }
 
+    @Override
+    public int hashCode() {
+        return bitSet.hashCode();
+    }
+
     /**
      * Returns the contents of the checksum.
      *
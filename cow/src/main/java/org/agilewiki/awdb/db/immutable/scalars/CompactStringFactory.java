@@ -0,0 +1,76 @@
+package org.agilewiki.awdb.db.immutable.scalars;
+
+import org.agilewiki.awdb.db.immutable.BaseFactory;
+import org.agilewiki.awdb.db.immutable.CompactChars;
+import org.agilewiki.awdb.db.immutable.FactoryRegistry;
+import org.agilewiki.awdb.db.immutable.VarInt;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Defines how a String is serialized / deserialized compactly.
+ * A string whose chars are all Latin-1 is written one byte per char.
+ * Otherwise each char is written in one to three bytes by {@link CompactChars},
+ * so that every string, even one with unpaired surrogates, round trips.
+ * The byte count and the form are held in a varint, (count &lt;&lt; 1) | form.
+ * <p>
+ * When registered after a StringFactory, new strings are written in the compact form
+ * while strings already written by the StringFactory remain readable.
+ * </p>
+ */
+public class CompactStringFactory extends BaseFactory {
+
+    public CompactStringFactory(FactoryRegistry factoryRegistry, char id) {
+        super(factoryRegistry, id);
+    }
+
+    @Override
+    public Class getImmutableClass() {
+        return String.class;
+    }
+
+    private static boolean isLatin1(String string) {
+        for (int i = 0; i < string.length(); ++i) {
+            if (string.charAt(i) > 0xff)
+                return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int getDurableLength(Object durable) {
+        if (durable == null)
+            return 2;
+        String string = (String) durable;
+        if (isLatin1(string))
+            return 2 + VarInt.size(string.length() << 1) + string.length();
+        int length = CompactChars.length(string);
+        return 2 + VarInt.size((length << 1) | 1) + length;
+    }
+
+    @Override
+    public void serialize(Object durable, ByteBuffer byteBuffer) {
+        String string = (String) durable;
+        int n = string.length();
+        if (isLatin1(string)) {
+            VarInt.put(byteBuffer, n << 1);
+            for (int i = 0; i < n; ++i)
+                byteBuffer.put((byte) string.charAt(i));
+            return;
+        }
+        VarInt.put(byteBuffer, (CompactChars.length(string) << 1) | 1);
+        CompactChars.encode(string, byteBuffer);
+    }
+
+    @Override
+    public String deserialize(ByteBuffer byteBuffer) {
+        int header = VarInt.get(byteBuffer);
+        int length = header >>> 1;
+        if ((header & 1) != 0)
+            return CompactChars.decode(byteBuffer, length);
+        char[] c = new char[length];
+        for (int i = 0; i < length; ++i)
+            c[i] = (char) (byteBuffer.get() & 0xff);
+        return new String(c);
+    }
+}
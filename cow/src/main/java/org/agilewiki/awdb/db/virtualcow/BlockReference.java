@@ -5,6 +5,7 @@ import org.agilewiki.awdb.db.immutable.collections.Releasable;
 import org.agilewiki.awdb.db.immutable.scalars.CS256;
 import org.agilewiki.awdb.db.immutable.scalars.CS256Factory;
 
+import java.io.IOException;
 import java.lang.ref.SoftReference;
 import java.nio.ByteBuffer;
 
@@ -30,7 +31,7 @@ public class BlockReference implements Releasable {
      */
     final public CS256 cs256;
 
-    protected SoftReference softReference;
+    protected volatile SoftReference softReference;
 
     protected final CS256Factory cs256Factory;
 
@@ -79,8 +80,7 @@ public class BlockReference implements Releasable {
         byteBuffer.flip();
         cs256 = new CS256(byteBuffer);
         cs256Factory = (CS256Factory) registry.getImmutableFactory(cs256);
-        blockNbr = db.allocate();
-        db.writeBlock(byteBuffer, blockNbr);
+        blockNbr = db.writeContent(byteBuffer, cs256, BlockReference.class, immutable);
     }
 
     public DbFactoryRegistry getRegistry() {
@@ -89,31 +89,60 @@ public class BlockReference implements Releasable {
 
     /**
      * Releases the contents of the block as well as the block.
+     * The contents are kept when the block is still shared.
      */
     @Override
     public void releaseAll() {
-        Object immutable = getData();
+        if (!registry.db.release(blockNbr))
+            return;
+        Object immutable = getContent();
         if (immutable instanceof Releasable)
             ((Releasable) immutable).releaseAll();
-        releaseLocal();
     }
 
     /**
-     * Releases the block.
+     * Releases the block. When the block is still shared,
+     * its contents gain a reference, as they are now also held by the caller.
      */
     @Override
     public void releaseLocal() {
-        registry.db.release(blockNbr);
+        if (registry.db.release(blockNbr))
+            return;
+        Object immutable = getContent();
+        if (immutable instanceof Releasable)
+            ((Releasable) immutable).retainAll();
     }
 
     /**
-     * Reads, validates, deserializes and returns the contents of the block.
+     * Adds a reference to the block. The contents are shared along with the block.
+     */
+    @Override
+    public void retainAll() {
+        registry.db.retain(blockNbr);
+    }
+
+    /**
+     * Returns the contents of the block.
      *
      * @return The contents of the block.
      */
     public Object getData() {
-        if (softReference != null) {
-            Object immutable = softReference.get();
+        return getContent();
+    }
+
+    /**
+     * Reads, validates, deserializes and returns the contents of the block.
+     * Unlike getData, this can not be overridden by a subclass.
+     *
+     * @return The contents of the block.
+     */
+    public final Object getContent() {
+        HotBlocks hotBlocks = registry.db.hotBlocks;
+        if (hotBlocks != null)
+            hotBlocks.access(blockNbr, blockLength);
+        SoftReference sr = softReference;
+        if (sr != null) {
+            Object immutable = sr.get();
             if (immutable != null)
                 return immutable;
         }
@@ -133,6 +162,64 @@ public class BlockReference implements Releasable {
         return immutable;
     }
 
+    /**
+     * Loads the contents of the block for read-ahead.
+     * A failed read is left for the scan to report, and does not close the db.
+     *
+     * @return True when the block was read, false when already loaded.
+     */
+    final boolean readAheadContent() throws IOException {
+        if (isLoaded())
+            return false;
+        ByteBuffer byteBuffer = ByteBuffer.allocate(blockLength);
+        registry.db.readAheadBlock(byteBuffer, blockNbr);
+        byteBuffer.flip();
+        CS256 cs = new CS256(byteBuffer);
+        if (!cs256.equals(cs))
+            throw new UnexpectedChecksumException();
+        softReference = new SoftReference(loadData(byteBuffer));
+        return true;
+    }
+
+    /**
+     * Returns true when the contents of the block are in memory.
+     *
+     * @return True when loaded.
+     */
+    public boolean isLoaded() {
+        SoftReference sr = softReference;
+        return sr != null && sr.get() != null;
+    }
+
+    /**
+     * Queues the block to be loaded in the background, when read-ahead is enabled.
+     */
+    public void readAhead() {
+        ReadAhead readAhead = registry.db.readAhead;
+        if (readAhead != null)
+            readAhead(readAhead.depth);
+    }
+
+    /**
+     * Queues the block to be loaded in the background, when read-ahead is enabled.
+     *
+     * @param depth How many levels below the block are also loaded.
+     */
+    public void readAhead(int depth) {
+        ReadAhead readAhead = registry.db.readAhead;
+        if (readAhead != null && !isLoaded())
+            readAhead.submit(this, depth);
+    }
+
+    /**
+     * Queues the blocks referenced by the contents of this block.
+     * Subclasses holding tree nodes override this.
+     *
+     * @param depth How many levels below those blocks are also loaded.
+     */
+    protected void readAheadChildren(int depth) {
+    }
+
     protected Object loadData(ByteBuffer byteBuffer) {
         ImmutableFactory factory = registry.readId(byteBuffer);
         return factory.deserialize(byteBuffer);
@@ -0,0 +1,143 @@
+package org.agilewiki.awdb.db.virtualcow;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The storage underlying a database: a sequence of fixed-size blocks,
+ * the first two of which are the alternating root slots.
+ * <p>
+ * Block content may be read by multiple threads at once, but is only
+ * written by the thread processing a transaction.
+ * </p>
+ */
+public interface BlockStore extends AutoCloseable {
+
+    /**
+     * Opens the store for a new database.
+     *
+     * @param maxBlockSize The size of a block.
+     * @param createNew    True when the store must not already hold a database.
+     */
+    void create(int maxBlockSize, boolean createNew) throws IOException;
+
+    /**
+     * Opens a store holding an existing database.
+     *
+     * @param maxBlockSize The size of a block.
+     */
+    void open(int maxBlockSize) throws IOException;
+
+    /**
+     * Returns true when the store is open.
+     *
+     * @return True when open.
+     */
+    boolean isOpen();
+
+    /**
+     * Returns the size of a block.
+     *
+     * @return The max block size given when the store was opened.
+     */
+    int maxBlockSize();
+
+    /**
+     * Fills the remainder of the byte buffer with the contents of the store.
+     *
+     * @param byteBuffer Where the data is to be placed.
+     * @param position   The offset in the store of the first byte to be read.
+     */
+    void read(ByteBuffer byteBuffer, long position) throws IOException;
+
+    /**
+     * Writes the remainder of the byte buffer to the store.
+     *
+     * @param byteBuffer The data to be written.
+     * @param position   The offset in the store of the first byte to be written.
+     */
+    void write(ByteBuffer byteBuffer, long position) throws IOException;
+
+    /**
+     * Ensures that everything written has reached durable storage.
+     */
+    void force() throws IOException;
+
+    /**
+     * Returns the number of bytes held by the store.
+     *
+     * @return The current size of the store.
+     */
+    long size() throws IOException;
+
+    /**
+     * Closes the store.
+     */
+    @Override
+    void close() throws IOException;
+
+    /**
+     * Returns the content of a named sidecar kept alongside the store.
+     *
+     * @param name The name of the sidecar.
+     * @return The content, or null when there is no such sidecar.
+     */
+    default ByteBuffer readSidecar(String name) throws IOException {
+        return null;
+    }
+
+    /**
+     * Replaces the content of a named sidecar kept alongside the store.
+     * Stores which do not support sidecars ignore this.
+     *
+     * @param name    The name of the sidecar.
+     * @param content The new content.
+     */
+    default void writeSidecar(String name, ByteBuffer content) throws IOException {
+    }
+
+    /**
+     * Reads the leading part of a block.
+     *
+     * @param byteBuffer Where the block content is to be placed.
+     * @param blockNbr   The block number.
+     */
+    default void readBlock(ByteBuffer byteBuffer, int blockNbr) throws IOException {
+        read(byteBuffer, blockNbr * (long) maxBlockSize());
+    }
+
+    /**
+     * Writes the leading part of a block.
+     *
+     * @param byteBuffer The block content.
+     * @param blockNbr   The block number.
+     */
+    default void writeBlock(ByteBuffer byteBuffer, int blockNbr) throws IOException {
+        write(byteBuffer, blockNbr * (long) maxBlockSize());
+    }
+
+    /**
+     * Reads part of a root slot.
+     *
+     * @param byteBuffer Where the data is to be placed.
+     * @param slot       The root slot, 0 or 1.
+     * @param offset     The offset within the slot.
+     */
+    default void readRootSlot(ByteBuffer byteBuffer, int slot, int offset) throws IOException {
+        read(byteBuffer, slot * (long) maxBlockSize() + offset);
+    }
+
+    /**
+     * Writes a root block and forces it to durable storage.
+     * Blocks written before the root are forced first, so the root
+     * never references content that has not been saved.
+     *
+     * @param byteBuffer The root block.
+     * @param slot       The root slot, 0 or 1.
+     */
+    default void writeRootSlot(ByteBuffer byteBuffer, int slot) throws IOException {
+        force();
+        write(byteBuffer, slot * (long) maxBlockSize());
+        force();
+    }
+}
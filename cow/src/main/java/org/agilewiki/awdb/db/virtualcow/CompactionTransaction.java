@@ -0,0 +1,17 @@
+package org.agilewiki.awdb.db.virtualcow;
+
+import org.agilewiki.awdb.db.immutable.collections.MapNode;
+
+/**
+ * Removes the history which is older than the retention horizon.
+ * Registered by every db, and meant to be run periodically:
+ * db.update(CompactionTransaction.NAME).call().
+ */
+public class CompactionTransaction implements Transaction {
+    public final static String NAME = "$ncompaction";
+
+    @Override
+    public void transform(Db db, MapNode tMapNode) {
+        db.compact();
+    }
+}
@@ -16,12 +16,15 @@ import org.agilewiki.awdb.db.immutable.scalars.CS256Factory;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
-import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-
-import static java.nio.file.StandardOpenOption.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.UnaryOperator;
 
 /**
  * A database that supports multiple blocks.
@@ -29,19 +32,41 @@ import static java.nio.file.StandardOpenOption.*;
 public class Db extends IsolationBladeBase implements AutoCloseable {
     public final static String transactionNameId = "$ntransactionName";
 
+    /**
+     * Prefixes the metadata map key of the hash map holding the ids with a hashed prefix.
+     */
+    public final static String hashedIdsPrefix = "#";
+
+    /**
+     * Prefixes the metadata map key holding the retention period of the ids with a given prefix.
+     */
+    public final static String retentionPrefix = "%";
+
     public final ConcurrentHashMap<String, Class> transactionRegistry =
             new ConcurrentHashMap<>(16, 0.75f, 1);
     public final DbFactoryRegistry dbFactoryRegistry;
     public final Path dbPath;
-    private FileChannel fc;
+    public final BlockStore blockStore;
     public final int maxBlockSize;
-    private long nextRootPosition;
+    private int nextRootSlot;
     private MapNode mapNode;
     private MapNode dbMapNode;
+    private MapNode metaMapNode;
+    private MapNode dbMetaMapNode;
     protected Thread privilegedThread;
     private DiskSpaceManager dsm;
     private long timestamp;
     private String jeName;
+    HotBlocks hotBlocks;
+    volatile ReadAhead readAhead;
+    private Object transientOwner;
+    private int readAheadThreads;
+    private int readAheadDepth;
+    private DedupIndex dedupIndex;
+    private boolean bTreeRootMap;
+    private final ConcurrentSkipListMap<String, Long> retention = new ConcurrentSkipListMap<>();
+    private final ConcurrentSkipListMap<String, Long> unsavedRetention = new ConcurrentSkipListMap<>();
+    private final ConcurrentSkipListSet<String> hashedPrefixes = new ConcurrentSkipListSet<>();
 
     /**
      * Create a Db actor.
@@ -53,10 +78,32 @@ public class Db extends IsolationBladeBase implements AutoCloseable {
     public Db(CascadingRegistry parentRegistry,
               Path dbPath,
               int maxBlockSize) throws Exception {
+        this(parentRegistry, dbPath, new FileBlockStore(dbPath), maxBlockSize);
+    }
+
+    /**
+     * Create a Db actor.
+     *
+     * @param parentRegistry The parent cascading registry.
+     * @param blockStore     Where the blocks of the db are held.
+     * @param maxBlockSize   The maximum root block size.
+     */
+    public Db(CascadingRegistry parentRegistry,
+              BlockStore blockStore,
+              int maxBlockSize) throws Exception {
+        this(parentRegistry, null, blockStore, maxBlockSize);
+    }
+
+    private Db(CascadingRegistry parentRegistry,
+               Path dbPath,
+               BlockStore blockStore,
+               int maxBlockSize) throws Exception {
         dbFactoryRegistry = new DbFactoryRegistry(this, parentRegistry);
         this.dbPath = dbPath;
+        this.blockStore = blockStore;
         this.maxBlockSize = maxBlockSize;
         timestamp = Timestamp.generate();
+        registerTransaction(CompactionTransaction.NAME, CompactionTransaction.class);
     }
 
     /**
@@ -78,6 +125,16 @@ public class Db extends IsolationBladeBase implements AutoCloseable {
         return (isPrivileged() ? dbMapNode : mapNode).mapAccessor();
     }
 
+    /**
+     * Returns the metadata held alongside the root map: the retention periods
+     * and the hash maps of the ids with a hashed prefix.
+     *
+     * @return A MapAccessor.
+     */
+    private MapAccessor metaMapAccessor() {
+        return (isPrivileged() ? dbMetaMapNode : metaMapNode).mapAccessor();
+    }
+
     /**
      * Returns a Versioned Map Node (VMM) for the given id.
      *
@@ -85,7 +142,7 @@ public class Db extends IsolationBladeBase implements AutoCloseable {
      * @return The VMN, or null.
      */
     public VersionedMapNode versionedMapNode(String id) {
-        ListAccessor listAccessor = mapAccessor().listAccessor(id);
+        ListAccessor listAccessor = listAccessor(id);
         if (listAccessor == null)
             return null;
         return (VersionedMapNode) listAccessor.get(0);
@@ -118,8 +175,8 @@ public class Db extends IsolationBladeBase implements AutoCloseable {
      */
     public PeekABoo<String> keysIterable(String id, long timestamp) {
         ValueId.validateAnId(id);
-        MapAccessor ma = mapAccessor();
-        ListAccessor la = ma.listAccessor(id);
+        checkRetention(id, timestamp);
+        ListAccessor la = listAccessor(id);
         if (la == null) {
             return new EmptyPeekABoo();
         }
@@ -128,17 +185,95 @@ public class Db extends IsolationBladeBase implements AutoCloseable {
         return new ListAccessorKeysMap(lait);
     }
 
+    /**
+     * Iterates over the keys under an id which are within the given bounds.
+     *
+     * @param id            The id of a VMN.
+     * @param fromKey       The lower bound, or null.
+     * @param fromInclusive True if a key equal to the lower bound is included.
+     * @param toKey         The upper bound, or null.
+     * @param toInclusive   True if a key equal to the upper bound is included.
+     * @param descending    True if the keys are visited from the largest to the smallest.
+     * @param timestamp     The time of the query.
+     * @return The key iterable.
+     */
+    public PeekABoo<String> keysIterable(String id,
+                                         String fromKey, boolean fromInclusive,
+                                         String toKey, boolean toInclusive,
+                                         boolean descending, long timestamp) {
+        ValueId.validateAnId(id);
+        checkRetention(id, timestamp);
+        ListAccessor la = listAccessor(id);
+        if (la == null) {
+            return new EmptyPeekABoo();
+        }
+        VersionedMapNode vmn = (VersionedMapNode) la.get(0);
+        PeekABoo<ListAccessor> lait = vmn.range(fromKey, fromInclusive, toKey, toInclusive,
+                descending, timestamp);
+        return new ListAccessorKeysMap(lait);
+    }
+
     /**
      * Iterates over the non-empty Ids.
+     * Ids with a hashed prefix are not visited, see {@link #hashedIdsIterator}.
      *
      * @param prefix       The prefix of the ids.
      * @param timestamp    The time of the query.
      * @return The key iterable.
      */
     public PeekABoo<String> idsIterable(String prefix, long timestamp) {
+        checkPrefixRetention(prefix, timestamp);
         return new IdPeekABooable(this, prefix, timestamp).iterator();
     }
 
+    /**
+     * Iterates over the non-empty Ids within the given bounds.
+     * Like the ids returned, the bounds do not include the prefix.
+     *
+     * @param prefix        The prefix of the ids.
+     * @param fromId        The lower bound, or null.
+     * @param fromInclusive True if an id equal to the lower bound is included.
+     * @param toId          The upper bound, or null.
+     * @param toInclusive   True if an id equal to the upper bound is included.
+     * @param descending    True if the ids are visited from the largest to the smallest.
+     * @param timestamp     The time of the query.
+     * @return The id iterable.
+     */
+    public PeekABoo<String> idsIterable(String prefix,
+                                        String fromId, boolean fromInclusive,
+                                        String toId, boolean toInclusive,
+                                        boolean descending, long timestamp) {
+        checkPrefixRetention(prefix, timestamp);
+        return new IdPeekABooable(this, prefix, fromId, fromInclusive, toId, toInclusive,
+                descending, timestamp).iterator();
+    }
+
+    /**
+     * Iterates, in no particular order, over the non-empty ids which have both
+     * the given prefix and a hashed prefix.
+     *
+     * @param prefix    The prefix of the ids.
+     * @param timestamp The time of the query.
+     * @return The ids, without the prefix.
+     */
+    public Iterator<String> hashedIdsIterator(String prefix, long timestamp) {
+        checkPrefixRetention(prefix, timestamp);
+        MapAccessor metaMapAccessor = metaMapAccessor();
+        return hashedPrefixes.stream()
+                .filter(hashedPrefix -> hashedPrefix.startsWith(prefix) || prefix.startsWith(hashedPrefix))
+                .map(hashedPrefix -> metaMapAccessor.listAccessor(hashedIdsPrefix + hashedPrefix))
+                .filter(la -> la != null && !la.isEmpty())
+                .flatMap(la -> ((HashMapNode) la.get(0)).stream())
+                .filter(la -> {
+                    if (la.isEmpty() || !((String) la.key()).startsWith(prefix))
+                        return false;
+                    Object value = la.get(0);
+                    return value instanceof VersionedMapNode && !((VersionedMapNode) value).isEmpty(timestamp);
+                })
+                .map(la -> ((String) la.key()).substring(prefix.length()))
+                .iterator();
+    }
+
     /**
      * Clear the versioned map.
      *
@@ -148,15 +283,34 @@ public class Db extends IsolationBladeBase implements AutoCloseable {
         checkPrivilege();
         if (!id.startsWith("$"))
             throw new IllegalArgumentException("not an id or composite id: " + id);
-        ListNode listNode = dbMapNode.getList(id);
-        if (listNode == null)
+        if (updateVersionedMapNode(id, vmn -> vmn.clearMap()).isNil())
             return;
-        VersionedMapNode versionedMapNode = (VersionedMapNode) listNode.get(0);
-        versionedMapNode = versionedMapNode.clearMap();
-        dbMapNode = dbMapNode.set(id, versionedMapNode);
         updateJournal(id);
     }
 
+    /**
+     * Revise the VMN held by an id, descending the root map only once.
+     * The old VMN is not released, as the new VMN shares its unchanged nodes.
+     *
+     * @param id       The id of the VMN.
+     * @param function Maps the current VMN, or the nil VMN, to its replacement.
+     * @return The revised VMN, or the nil VMN when the id has none.
+     */
+    private VersionedMapNode updateVersionedMapNode(String id, UnaryOperator<VersionedMapNode> function) {
+        VersionedMapNode nil = dbFactoryRegistry.versionedNilMap;
+        VersionedMapNode[] revised = new VersionedMapNode[1];
+        computeList(id, listNode -> {
+            VersionedMapNode versionedMapNode = listNode.isNil() ? nil : (VersionedMapNode) listNode.get(0);
+            revised[0] = function.apply(versionedMapNode);
+            if (revised[0] == versionedMapNode)
+                return listNode;
+            if (listNode.isNil())
+                return listNode.add(revised[0]);
+            return listNode.getData().replace(revised[0]);
+        });
+        return revised[0];
+    }
+
     /**
      * Add a non-null value to the end of the list.
      *
@@ -176,7 +330,7 @@ public class Db extends IsolationBladeBase implements AutoCloseable {
      */
     public void add(String id, int ndx, Object value) {
         checkPrivilege();
-        dbMapNode = dbMapNode.add(id, ndx, value);
+        computeList(id, listNode -> listNode.add(ndx, value));
     }
 
     /**
@@ -189,12 +343,8 @@ public class Db extends IsolationBladeBase implements AutoCloseable {
         checkPrivilege();
         if (!id.startsWith("$"))
             throw new IllegalArgumentException("not an id or composite id: " + id);
-        ListNode listNode = dbMapNode.getList(id);
-        if (listNode == null)
+        if (updateVersionedMapNode(id, vmn -> vmn.clearList(key)).isNil())
             return;
-        VersionedMapNode versionedMapNode = (VersionedMapNode) listNode.get(0);
-        versionedMapNode = versionedMapNode.clearList(key);
-        dbMapNode = dbMapNode.set(id, versionedMapNode);
         updateJournal(id);
     }
 
@@ -207,12 +357,8 @@ public class Db extends IsolationBladeBase implements AutoCloseable {
         checkPrivilege();
         if (!id.startsWith("$"))
             throw new IllegalArgumentException("not an id or composite id: " + id);
-        ListNode listNode = dbMapNode.getList(id);
-        if (listNode == null)
-            return;
-        if (!listNode.isEmpty())
-            return;
-        dbMapNode = dbMapNode.remove(id);
+        ListNode nil = dbFactoryRegistry.nilList;
+        computeList(id, listNode -> listNode.isEmpty() ? nil : listNode);
     }
 
     /**
@@ -225,12 +371,7 @@ public class Db extends IsolationBladeBase implements AutoCloseable {
         checkPrivilege();
         if (!id.startsWith("$"))
             throw new IllegalArgumentException("not an id or composite id: " + id);
-        ListNode listNode = dbMapNode.getList(id);
-        if (listNode == null)
-            return;
-        if (!listNode.isEmpty())
-            return;
-        dbMapNode.remove(id, value);
+        computeList(id, listNode -> listNode.isNil() ? listNode : listNode.remove(value));
     }
 
     /**
@@ -244,12 +385,8 @@ public class Db extends IsolationBladeBase implements AutoCloseable {
         checkPrivilege();
         if (!id.startsWith("$"))
             throw new IllegalArgumentException("not an id or composite id: " + id);
-        ListNode listNode = dbMapNode.getList(id);
-        if (listNode == null)
+        if (updateVersionedMapNode(id, vmn -> vmn.remove(key, ndx)).isNil())
             return;
-        VersionedMapNode versionedMapNode = (VersionedMapNode) listNode.get(0);
-        versionedMapNode = versionedMapNode.remove(key, ndx);
-        dbMapNode = dbMapNode.set(id, versionedMapNode);
         updateJournal(id);
     }
 
@@ -264,12 +401,8 @@ public class Db extends IsolationBladeBase implements AutoCloseable {
         checkPrivilege();
         if (!id.startsWith("$"))
             throw new IllegalArgumentException("not an id or composite id: " + id);
-        ListNode listNode = dbMapNode.getList(id);
-        if (listNode == null)
+        if (updateVersionedMapNode(id, vmn -> vmn.remove(key, x)).isNil())
             return;
-        VersionedMapNode versionedMapNode = (VersionedMapNode) listNode.get(0);
-        versionedMapNode = versionedMapNode.remove(key, x);
-        dbMapNode = dbMapNode.set(id, versionedMapNode);
         updateJournal(id);
     }
 
@@ -288,12 +421,7 @@ public class Db extends IsolationBladeBase implements AutoCloseable {
         checkPrivilege();
         if (!id.startsWith("$"))
             throw new IllegalArgumentException("not an id or composite id: " + id);
-        ListNode listNode = dbMapNode.getList(id);
-        VersionedMapNode versionedMapNode = listNode == null ?
-                dbFactoryRegistry.versionedNilMap :
-                (VersionedMapNode) listNode.get(0);
-        versionedMapNode = versionedMapNode.set(key, value);
-        dbMapNode = dbMapNode.set(id, versionedMapNode);
+        updateVersionedMapNode(id, vmn -> vmn.set(key, value));
         if (!journal)
             updateJournal(id);
     }
@@ -313,12 +441,7 @@ public class Db extends IsolationBladeBase implements AutoCloseable {
         checkPrivilege();
         if (!id.startsWith("$"))
             throw new IllegalArgumentException("not an id or composite id: " + id);
-        ListNode listNode = dbMapNode.getList(id);
-        VersionedMapNode versionedMapNode = listNode == null ?
-                dbFactoryRegistry.versionedNilMap :
-                (VersionedMapNode) listNode.get(0);
-        versionedMapNode = versionedMapNode.add(key, value);
-        dbMapNode = dbMapNode.set(id, versionedMapNode);
+        updateVersionedMapNode(id, vmn -> vmn.add(key, value));
         if (!journal)
             updateJournal(id);
     }
@@ -335,12 +458,7 @@ public class Db extends IsolationBladeBase implements AutoCloseable {
         checkPrivilege();
         if (!id.startsWith("$"))
             throw new IllegalArgumentException("not an id or composite id: " + id);
-        ListNode listNode = dbMapNode.getList(id);
-        VersionedMapNode versionedMapNode = listNode == null ?
-                dbFactoryRegistry.versionedNilMap :
-                (VersionedMapNode) listNode.get(0);
-        versionedMapNode = versionedMapNode.add(key, ndx, value);
-        dbMapNode = dbMapNode.set(id, versionedMapNode);
+        updateVersionedMapNode(id, vmn -> vmn.add(key, ndx, value));
         updateJournal(id);
     }
 
@@ -362,36 +480,362 @@ public class Db extends IsolationBladeBase implements AutoCloseable {
      * @param timestamp The new timestamp.
      */
     public void _setTimestamp(long timestamp) {
-        if (fc != null)
+        if (blockStore.isOpen())
             throw new UnsupportedOperationException("not valid when db is open");
         this.timestamp = timestamp;
     }
 
+    /**
+     * Enables warm restart. The most accessed blocks are tracked, and saved
+     * in a sidecar of the block store on close and on checkpoint.
+     * When the db is opened, the saved blocks are prefetched in the background.
+     * Must be called before the db is opened.
+     *
+     * @param limit The max number of blocks saved, or 0 to disable.
+     */
+    public void setHotBlockLimit(int limit) {
+        if (blockStore.isOpen())
+            throw new UnsupportedOperationException("not valid when db is open");
+        hotBlocks = limit > 0 ? new HotBlocks(limit) : null;
+    }
+
+    /**
+     * Returns the tracker of the most accessed blocks.
+     *
+     * @return The tracker, or null when warm restart is not enabled.
+     */
+    public HotBlocks getHotBlocks() {
+        return hotBlocks;
+    }
+
+    /**
+     * Saves the set of most accessed blocks.
+     */
+    public void checkpointHotBlocks() {
+        if (hotBlocks == null || !blockStore.isOpen())
+            return;
+        try {
+            blockStore.writeSidecar(HotBlocks.SIDECAR_NAME, hotBlocks.checkpoint());
+        } catch (IOException ex) {
+            getReactor().warn("unable to save the hot block set", ex);
+        }
+    }
+
+    /**
+     * Holds the root map of a new db in a B-tree rather than an AA tree,
+     * so that fewer blocks are read per lookup.
+     * Must be called before the db is created. An existing db keeps
+     * the kind of root map it was created with.
+     *
+     * @param fanout The max number of keys or children in a B-tree node.
+     */
+    public void setBTreeRootMap(int fanout) {
+        dbFactoryRegistry.bTreeMapNodeFactory.setFanout(fanout);
+        bTreeRootMap = true;
+    }
+
+    /**
+     * Sets how long the history of every id is kept, unless overridden for a prefix.
+     * Values deleted longer ago are removed by the compaction transaction,
+     * and queries for an earlier time are rejected.
+     *
+     * @param millis The retention period in milliseconds, or -1 to keep all history.
+     */
+    public void setRetention(long millis) {
+        setRetention("", millis);
+    }
+
+    /**
+     * Sets how long the history of the ids with a given prefix is kept.
+     * The longest matching prefix applies.
+     * The setting is saved in the metadata map of the root block by the next transaction,
+     * and is loaded again when the db is opened.
+     *
+     * @param prefix The prefix of the ids.
+     * @param millis The retention period in milliseconds, or -1 to keep all history.
+     */
+    public void setRetention(String prefix, long millis) {
+        retention.put(prefix, millis);
+        unsavedRetention.put(prefix, millis);
+    }
+
+    /**
+     * Loads the retention periods saved in the metadata map.
+     * Periods set since the db was created take precedence.
+     */
+    private void loadRetention() {
+        KeyCursor cursor = metaMapNode.cursor();
+        cursor.seek(retentionPrefix, true);
+        while (cursor.isValid()) {
+            String key = cursor.key().toString();
+            if (!key.startsWith(retentionPrefix))
+                break;
+            retention.putIfAbsent(key.substring(retentionPrefix.length()),
+                    (Long) metaMapNode.getList(key).get(0));
+            cursor.next();
+        }
+    }
+
+    /**
+     * Returns the earliest time for which the history of an id is kept.
+     *
+     * @param id The id.
+     * @return The retention horizon, or Long.MIN_VALUE when all history is kept.
+     */
+    public long retentionHorizon(String id) {
+        for (Map.Entry<String, Long> entry : retention.headMap(id, true).descendingMap().entrySet()) {
+            if (id.startsWith(entry.getKey())) {
+                long millis = entry.getValue();
+                if (millis < 0)
+                    return Long.MIN_VALUE;
+                return getTimestamp() - (millis << 10);
+            }
+        }
+        return Long.MIN_VALUE;
+    }
+
+    /**
+     * Rejects a query for a time whose history may already have been removed.
+     *
+     * @param id        The id being queried.
+     * @param timestamp The time of the query.
+     */
+    public void checkRetention(String id, long timestamp) {
+        if (timestamp < retentionHorizon(id))
+            throw new HistoryNotRetainedException(id, timestamp);
+    }
+
+    /**
+     * Rejects a query over the ids with a prefix for a time whose history may already
+     * have been removed, under the rule for the prefix or under that of any longer prefix.
+     *
+     * @param prefix    The prefix of the ids being queried.
+     * @param timestamp The time of the query.
+     */
+    public void checkPrefixRetention(String prefix, long timestamp) {
+        checkRetention(prefix, timestamp);
+        for (Map.Entry<String, Long> entry : retention.tailMap(prefix, false).entrySet()) {
+            if (!entry.getKey().startsWith(prefix))
+                break;
+            long millis = entry.getValue();
+            if (millis >= 0 && timestamp < getTimestamp() - (millis << 10))
+                throw new HistoryNotRetainedException(prefix, timestamp);
+        }
+    }
+
+    /**
+     * Physically removes the values deleted before the retention horizon of each id,
+     * releasing the blocks which held them. Ids left empty are removed.
+     * Called by the compaction transaction.
+     */
+    public void compact() {
+        checkPrivilege();
+        if (retention.isEmpty())
+            return;
+        for (ListAccessor la : dbMapNode.mapAccessor()) {
+            if (!la.isEmpty() && la.get(0) instanceof VersionedMapNode)
+                compact((String) la.key());
+        }
+        for (ListAccessor la : dbMetaMapNode.mapAccessor()) {
+            if (la.isEmpty() || !(la.get(0) instanceof HashMapNode))
+                continue;
+            ((HashMapNode) la.get(0)).spliterator().forEachRemaining(hla -> {
+                if (!hla.isEmpty() && hla.get(0) instanceof VersionedMapNode)
+                    compact((String) hla.key());
+            });
+        }
+    }
+
+    private void compact(String id) {
+        long horizon = retentionHorizon(id);
+        if (horizon == Long.MIN_VALUE)
+            return;
+        if (updateVersionedMapNode(id, vmn -> vmn.purge(horizon)).isNil()) {
+            ListNode nil = dbFactoryRegistry.nilList;
+            computeList(id, listNode -> {
+                if (listNode.isNil())
+                    return listNode;
+                listNode.releaseAll();
+                return nil;
+            });
+        }
+    }
+
+    /**
+     * Holds the ids with a given prefix in a hash map rather than in the root map,
+     * so that a lookup takes a few hash-indexed hops instead of a string comparison
+     * at every level of the root map. Ids with a hashed prefix are unordered:
+     * they are visited by {@link #hashedIdsIterator} rather than by {@link #idsIterable}.
+     * Must be called before the db is opened. The prefixes of hash maps already in the db
+     * are registered again when it is opened.
+     * The longest matching prefix applies, and an id equal to a prefix is not hashed.
+     *
+     * @param prefix The prefix of the ids.
+     */
+    public void setHashedPrefix(String prefix) {
+        if (prefix.isEmpty())
+            throw new IllegalArgumentException("the prefix may not be empty");
+        hashedPrefixes.add(prefix);
+    }
+
+    /**
+     * Registers the prefix of each hash map in the metadata map,
+     * so the ids hashed before a reopen are still found.
+     */
+    private void loadHashedPrefixes() {
+        KeyCursor cursor = metaMapNode.cursor();
+        cursor.seek(hashedIdsPrefix, false);
+        while (cursor.isValid()) {
+            String key = cursor.key().toString();
+            if (!key.startsWith(hashedIdsPrefix))
+                break;
+            hashedPrefixes.add(key.substring(hashedIdsPrefix.length()));
+            cursor.next();
+        }
+    }
+
+    /**
+     * Returns the metadata map key of the hash map holding an id.
+     *
+     * @param id The id.
+     * @return The key, or null when the id is held in the root map.
+     */
+    private String hashMapKey(String id) {
+        for (String prefix : hashedPrefixes.headSet(id, false).descendingSet()) {
+            if (id.startsWith(prefix))
+                return hashedIdsPrefix + prefix;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the list accessor of an id, looking in the hash map of its prefix when hashed.
+     *
+     * @param id The id.
+     * @return The list accessor, or null.
+     */
+    private ListAccessor listAccessor(String id) {
+        String key = hashMapKey(id);
+        if (key == null)
+            return mapAccessor().listAccessor(id);
+        ListAccessor la = metaMapAccessor().listAccessor(key);
+        if (la == null || la.isEmpty())
+            return null;
+        return ((HashMapNode) la.get(0)).listAccessor(id);
+    }
+
+    /**
+     * Replaces the list of an id, in the hash map of its prefix when hashed.
+     * A hash map left empty is removed from the metadata map.
+     *
+     * @param id       The id.
+     * @param function Maps the current list, or the nil list, to its replacement.
+     */
+    private void computeList(String id, UnaryOperator<ListNode> function) {
+        String key = hashMapKey(id);
+        if (key == null) {
+            dbMapNode = dbMapNode.compute(id, function);
+            return;
+        }
+        ListNode nil = dbFactoryRegistry.nilList;
+        dbMetaMapNode = dbMetaMapNode.compute(key, listNode -> {
+            HashMapNode hashMapNode = listNode.isNil() ?
+                    dbFactoryRegistry.hashMapNodeFactory.empty() :
+                    (HashMapNode) listNode.get(0);
+            HashMapNode revised = hashMapNode.update(id, function);
+            if (revised == hashMapNode)
+                return listNode;
+            if (revised.totalSize() == 0)
+                return nil;
+            if (listNode.isNil())
+                return listNode.add(revised);
+            return listNode.getData().replace(revised);
+        });
+    }
+
+    private MapNode emptyRootMap() {
+        if (bTreeRootMap)
+            return dbFactoryRegistry.bTreeMapNodeFactory.empty();
+        return dbFactoryRegistry.nilMap;
+    }
+
+    /**
+     * Enables the sharing of blocks with identical content.
+     * A block being written whose content matches a recently written block
+     * reuses that block instead, and the block gains a reference.
+     *
+     * @param limit The max number of blocks indexed by checksum, or 0 to disable.
+     */
+    public void setDedup(int limit) {
+        dedupIndex = limit > 0 ? new DedupIndex(limit) : null;
+    }
+
+    /**
+     * Returns the dedup index.
+     *
+     * @return The index, or null when dedup is not enabled.
+     */
+    public DedupIndex getDedupIndex() {
+        return dedupIndex;
+    }
+
+    /**
+     * Enables read-ahead. Scans queue the blocks they will visit next,
+     * which are then loaded by a pool of I/O threads.
+     * Takes effect when the db is next opened.
+     *
+     * @param threads The number of I/O threads, or 0 to disable.
+     * @param depth   How many levels below a queued block are also loaded.
+     */
+    public void setReadAhead(int threads, int depth) {
+        readAheadThreads = threads;
+        readAheadDepth = depth;
+    }
+
+    /**
+     * Returns the read-ahead pool.
+     *
+     * @return The pool, or null when read-ahead is not enabled or the db is closed.
+     */
+    public ReadAhead getReadAhead() {
+        return readAhead;
+    }
+
+    private void startReadAhead() {
+        if (readAheadThreads > 0)
+            readAhead = new ReadAhead(readAheadThreads, readAheadDepth);
+    }
+
     /**
      * Open the db, creating a new db file.
+     * Registration of factories is then closed.
      *
      * @param createNew True when a db file must not already exist.
      */
     public void open(boolean createNew) {
-        if (fc != null) {
+        if (blockStore.isOpen()) {
             close();
             getReactor().error("open on already open db");
             throw new DulicateOpenException();
         }
+        dbFactoryRegistry.freeze();
         mapNode = null;
         try {
-            if (createNew)
-                fc = FileChannel.open(dbPath, READ, WRITE, SYNC, CREATE_NEW);
-            else
-                fc = FileChannel.open(dbPath, READ, WRITE, SYNC, CREATE);
+            blockStore.create(maxBlockSize, createNew);
+            startReadAhead();
+            nextRootSlot = 0;
             dsm = new DiskSpaceManager();
             dsm.allocate();
             dsm.allocate();
             mapNode = null;
-            dbMapNode = dbFactoryRegistry.nilMap;
+            dbMapNode = emptyRootMap();
+            metaMapNode = null;
+            dbMetaMapNode = dbFactoryRegistry.nilMap;
             _update();
             mapNode = null;
-            dbMapNode = dbFactoryRegistry.nilMap;
+            dbMapNode = emptyRootMap();
+            metaMapNode = null;
+            dbMetaMapNode = dbFactoryRegistry.nilMap;
             _update();
         } catch (IOException ex) {
             close();
@@ -449,6 +893,11 @@ public class Db extends IsolationBladeBase implements AutoCloseable {
                     try {
                         timestamp = Timestamp.generate();
                         dbMapNode = mapNode;
+                        dbMetaMapNode = metaMapNode;
+                        Map<String, Long> savedRetention = new HashMap<>(unsavedRetention);
+                        for (Map.Entry<String, Long> entry : savedRetention.entrySet()) {
+                            dbMetaMapNode = dbMetaMapNode.set(retentionPrefix + entry.getKey(), entry.getValue());
+                        }
                         VersionedMapNode je = dbFactoryRegistry.versionedNilMap;
                         jeName = Timestamp.timestampId(timestamp);
                         MapAccessor ma = tMapNode.mapAccessor();
@@ -459,9 +908,16 @@ public class Db extends IsolationBladeBase implements AutoCloseable {
                             }
                         }
                         dbMapNode = dbMapNode.add(jeName, je);
+                        if (transaction.transientMode())
+                            transientOwner = new Object();
                         transaction.transform(Db.this, tMapNode);
+                        transientOwner = null;
                         _update();
+                        for (Map.Entry<String, Long> entry : savedRetention.entrySet()) {
+                            unsavedRetention.remove(entry.getKey(), entry.getValue());
+                        }
                     } finally {
+                        transientOwner = null;
                         privilegedThread = null;
                     }
                     _asyncResponseProcessor.processAsyncResponse(jeName);
@@ -501,22 +957,38 @@ public class Db extends IsolationBladeBase implements AutoCloseable {
         return Thread.currentThread() == privilegedThread;
     }
 
+    /**
+     * Returns the owner of the nodes which can be updated in place.
+     * Only the privileged thread of a transaction in transient mode has an owner.
+     * Clearing the owner when the transform completes freezes those nodes.
+     * The durable length of a transient node is not cached, as its descendants may also change.
+     *
+     * @return The owner of the transient nodes, or null.
+     */
+    public Object getTransientOwner() {
+        Object owner = transientOwner;
+        return owner != null && isPrivileged() ? owner : null;
+    }
+
     protected void _update() {
-        if (dbMapNode == mapNode)
+        if (dbMapNode == mapNode && dbMetaMapNode == metaMapNode)
             return; // Query?
         ImmutableFactory factory = dbFactoryRegistry.getImmutableFactory(dbMapNode);
+        ImmutableFactory metaFactory = dbFactoryRegistry.getImmutableFactory(dbMetaMapNode);
         int dsmLength = dsm.durableLength();
         int maxDurableLength = maxBlockSize - 4 - 4 - 34 - 8 - dsmLength;
-        int dl = dbMapNode.getDurableLength();
+        int dl = dbMapNode.getDurableLength() + dbMetaMapNode.getDurableLength();
         while (dl > maxDurableLength) {
-            dbMapNode = (MapNode) dbMapNode.resize(maxDurableLength, maxBlockSize);
+            dbMetaMapNode = (MapNode) dbMetaMapNode.resize(maxDurableLength / 4, maxBlockSize);
+            dbMapNode = (MapNode) dbMapNode.resize(
+                    maxDurableLength - dbMetaMapNode.getDurableLength(), maxBlockSize);
             dsmLength = dsm.durableLength(); // may have grown
             maxDurableLength = maxBlockSize - 4 - 4 - 34 - 8 - dsmLength;
-            dl = dbMapNode.getDurableLength();
+            dl = dbMapNode.getDurableLength() + dbMetaMapNode.getDurableLength();
         }
         dsm.commit();
         dsmLength = dsm.durableLength(); // may have shrunk
-        dl = dbMapNode.getDurableLength();
+        dl = dbMapNode.getDurableLength() + dbMetaMapNode.getDurableLength();
         int contentSize = 8 + dsmLength + dl;
         int blockSize = 4 + 4 + 34 + contentSize;
         if (blockSize > maxBlockSize) {
@@ -527,6 +999,7 @@ public class Db extends IsolationBladeBase implements AutoCloseable {
         contentBuffer.putLong(timestamp);
         dsm.write(contentBuffer);
         factory.writeDurable(dbMapNode, contentBuffer);
+        metaFactory.writeDurable(dbMetaMapNode, contentBuffer);
         contentBuffer.flip();
         CS256 cs256 = new CS256(contentBuffer);
         ByteBuffer byteBuffer = ByteBuffer.allocate(blockSize);
@@ -536,119 +1009,197 @@ public class Db extends IsolationBladeBase implements AutoCloseable {
         cs256Factory.writeDurable(cs256, byteBuffer);
         byteBuffer.put(contentBuffer);
         byteBuffer.flip();
-        long p = nextRootPosition;
         try {
-            while (byteBuffer.remaining() > 0) {
-                p += fc.write(byteBuffer, p);
-            }
+            blockStore.writeRootSlot(byteBuffer, nextRootSlot);
         } catch (IOException ex) {
             close();
             throw new BlockIOException(ex);
         }
-        nextRootPosition = (nextRootPosition + maxBlockSize) % (2 * maxBlockSize);
+        nextRootSlot = 1 - nextRootSlot;
         mapNode = dbMapNode;
+        metaMapNode = dbMetaMapNode;
         return;
     }
 
     public void readBlock(ByteBuffer byteBuffer, int blockNbr) {
-        long position = blockNbr * (long) maxBlockSize;
         try {
-            while (byteBuffer.remaining() > 0) {
-                position += fc.read(byteBuffer, position);
-            }
+            readAheadBlock(byteBuffer, blockNbr);
         } catch (IOException ex) {
             close();
             throw new BlockIOException(ex);
         }
     }
 
+    /**
+     * Reads a block for read-ahead. Unlike readBlock, a failed read does not close the db,
+     * as the block may have been released, or the db closed, since the read was queued.
+     *
+     * @param byteBuffer Where the block is read into.
+     * @param blockNbr   The number of the block.
+     */
+    void readAheadBlock(ByteBuffer byteBuffer, int blockNbr) throws IOException {
+        if (hotBlocks != null && hotBlocks.take(byteBuffer, blockNbr))
+            return;
+        blockStore.readBlock(byteBuffer, blockNbr);
+    }
+
     public void writeBlock(ByteBuffer byteBuffer, int blockNbr) {
         checkPrivilege();
-        long position = blockNbr * (long) maxBlockSize;
+        if (hotBlocks != null)
+            hotBlocks.written(blockNbr);
         try {
-            while (byteBuffer.remaining() > 0) {
-                position += fc.write(byteBuffer, position);
-            }
+            blockStore.writeBlock(byteBuffer, blockNbr);
         } catch (IOException ex) {
             close();
             throw new BlockIOException(ex);
         }
     }
 
+    /**
+     * Writes the content of a new block.
+     * When dedup is enabled and a block in use holds the same content,
+     * that block is retained and returned instead. The references held by
+     * the content are then released, as the shared block already holds them.
+     * But if not processing a transaction when called,
+     * an IllegalStateException is thrown.
+     *
+     * @param byteBuffer The content of the block.
+     * @param cs256      The checksum of the content.
+     * @param kind       Identifies how the content is read, as only blocks of the same kind are shared.
+     * @param content    The object serialized as the content, or null.
+     * @return The number of the block holding the content.
+     */
+    public int writeContent(ByteBuffer byteBuffer, CS256 cs256, Object kind, Object content) {
+        checkPrivilege();
+        if (dedupIndex == null) {
+            int blockNbr = dsm.allocate();
+            writeBlock(byteBuffer, blockNbr);
+            return blockNbr;
+        }
+        int blockLength = byteBuffer.remaining();
+        DedupIndex.Entry entry = dedupIndex.get(cs256);
+        if (entry != null && entry.kind.equals(kind) && entry.blockLength == blockLength &&
+                dsm.isLive(entry.blockNbr)) {
+            ByteBuffer existing = ByteBuffer.allocate(blockLength);
+            try {
+                blockStore.readBlock(existing, entry.blockNbr);
+            } catch (IOException ex) {
+                close();
+                throw new BlockIOException(ex);
+            }
+            existing.flip();
+            if (existing.equals(byteBuffer)) {
+                dsm.retain(entry.blockNbr);
+                dedupIndex.hit();
+                if (content instanceof Releasable)
+                    ((Releasable) content).releaseAll();
+                return entry.blockNbr;
+            }
+        }
+        int blockNbr = dsm.allocate();
+        writeBlock(byteBuffer, blockNbr);
+        dedupIndex.put(cs256, kind, blockNbr, blockLength);
+        return blockNbr;
+    }
+
     @Override
     public void close() {
-        if (fc != null) {
+        if (dedupIndex != null)
+            dedupIndex.clear();
+        if (blockStore.isOpen()) {
+            checkpointHotBlocks();
+            if (hotBlocks != null)
+                hotBlocks.clear();
+            ReadAhead ra = readAhead;
+            if (ra != null) {
+                readAhead = null;
+                ra.shutdown();
+            }
             try {
-                fc.close();
+                blockStore.close();
             } catch (IOException ex) {
                 throw new BlockIOException(ex);
             }
-            fc = null;
         }
     }
 
     /**
      * Open an existing database.
+     * Registration of factories is then closed.
      */
     public void open() {
-        if (fc != null) {
+        if (blockStore.isOpen()) {
             close();
             getReactor().error("open on already open db");
             throw new DulicateOpenException();
         }
-        if (Files.notExists(dbPath)) {
-            getReactor().error("file does not exist: " + dbPath);
-            throw new FileDoesNotExistExcpetion();
-        }
-        if (!Files.isReadable(dbPath)) {
-            getReactor().error("file is not readable: " + dbPath);
-            throw new FileNotReadableException();
-        }
-        if (!Files.isWritable(dbPath)) {
-            getReactor().error("file is not writable: " + dbPath);
-            throw new FileNotWritableException();
-        }
-        if (!Files.isRegularFile(dbPath)) {
-            getReactor().error("file is not a regular file: " + dbPath);
-            throw new FileNotRegularExcpetion();
+        dbFactoryRegistry.freeze();
+        try {
+            blockStore.open(maxBlockSize);
+        } catch (BlockIOException ex) {
+            getReactor().error("unable to open " + blockStore + ": " + ex.getClass().getSimpleName());
+            throw ex;
+        } catch (IOException ex) {
+            getReactor().error("Unable to open existing db file", ex);
+            throw new BlockIOException(ex);
         }
         try {
-            fc = FileChannel.open(dbPath, READ, WRITE, SYNC);
-            RootBlock rb0 = readRootBlock(0L);
-            RootBlock rb1 = readRootBlock(maxBlockSize);
+            RootBlock rb0 = readRootBlock(0);
+            RootBlock rb1 = readRootBlock(1);
             if (rb0 == null && rb1 == null) {
                 throw new IllegalStateException("no valid root blocks found");
             }
             RootBlock rb;
             if (rb0 == null) {
                 rb = rb1;
-                nextRootPosition = 0L;
+                nextRootSlot = 0;
             } else if (rb1 == null) {
                 rb = rb0;
-                nextRootPosition = maxBlockSize;
+                nextRootSlot = 1;
             } else if (rb0.timestamp > rb1.timestamp) {
                 rb = rb0;
-                nextRootPosition = maxBlockSize;
+                nextRootSlot = 1;
             } else {
                 rb = rb1;
-                nextRootPosition = 0L;
+                nextRootSlot = 0;
             }
             dsm = new DiskSpaceManager(rb.serializedContent);
             ImmutableFactory factory = dbFactoryRegistry.readId(rb.serializedContent);
             mapNode = (MapNode) factory.deserialize(rb.serializedContent);
-        } catch (IOException ex) {
+            metaMapNode = dbFactoryRegistry.nilMap;
+            if (rb.serializedContent.hasRemaining()) {
+                ImmutableFactory metaFactory = dbFactoryRegistry.readId(rb.serializedContent);
+                metaMapNode = (MapNode) metaFactory.deserialize(rb.serializedContent);
+            }
+            loadHashedPrefixes();
+            loadRetention();
+            if (hotBlocks != null)
+                prefetchHotBlocks();
+            startReadAhead();
+        } catch (RuntimeException ex) {
             close();
             getReactor().error("Unable to open existing db file", ex);
-            throw new BlockIOException(ex);
+            throw ex;
+        }
+    }
+
+    /**
+     * Starts prefetching the blocks saved by the last checkpoint.
+     */
+    private void prefetchHotBlocks() {
+        try {
+            ByteBuffer sidecar = blockStore.readSidecar(HotBlocks.SIDECAR_NAME);
+            if (sidecar != null)
+                hotBlocks.prefetch(blockStore, sidecar);
+        } catch (Exception ex) {
+            getReactor().warn("unable to read the hot block set", ex);
         }
     }
 
-    protected RootBlock readRootBlock(long position) {
+    protected RootBlock readRootBlock(int slot) {
         try {
             ByteBuffer header = ByteBuffer.allocate(4 + 4 + 34);
-            while (header.remaining() > 0) {
-                position += fc.read(header, position);
-            }
+            blockStore.readRootSlot(header, slot, 0);
             header.flip();
             int maxSize = header.getInt();
             if (maxBlockSize != maxSize) {
@@ -671,9 +1222,7 @@ public class Db extends IsolationBladeBase implements AutoCloseable {
             }
             CS256 cs1 = (CS256) csf.deserialize(header);
             ByteBuffer body = ByteBuffer.allocate(blockSize - 4 - 4 - 34);
-            while (body.remaining() > 0) {
-                position += fc.read(body, position);
-            }
+            blockStore.readRootSlot(body, slot, 4 + 4 + 34);
             body.flip();
             CS256 cs2 = new CS256(body);
             if (!cs1.equals(cs2)) {
@@ -719,17 +1268,30 @@ public class Db extends IsolationBladeBase implements AutoCloseable {
         return dsm.usage();
     }
 
+    /**
+     * Adds a reference to a shared block.
+     * But if not processing a transaction when called,
+     * an IllegalStateException is thrown.
+     *
+     * @param i The block to be retained.
+     */
+    public void retain(int i) {
+        checkPrivilege();
+        dsm.retain(i);
+    }
+
     /**
      * Release a block.
-     * It will become available on the next transaction.
+     * Once its last reference is released, it will become available on the next transaction.
      * But if not processing a transaction when called,
      * an IllegalStateException is thrown.
      *
      * @param i The block to be released.
+     * @return True when the block was freed, false when it is still shared.
      */
-    public void release(int i) {
+    public boolean release(int i) {
         checkPrivilege();
-        dsm.release(i);
+        return dsm.release(i);
     }
 
     /**
@@ -739,7 +1301,7 @@ public class Db extends IsolationBladeBase implements AutoCloseable {
      * @return The vmn, or null.
      */
     public VersionedMapNode get(Comparable id) {
-        ListAccessor la = mapAccessor().listAccessor(id);
+        ListAccessor la = id instanceof String ? listAccessor((String) id) : mapAccessor().listAccessor(id);
         if (la == null)
             return null;
         if (la.isEmpty())
@@ -756,6 +1318,7 @@ public class Db extends IsolationBladeBase implements AutoCloseable {
      * @return The selected object, or null.
      */
     public Object get(Comparable id, Comparable key, long timestamp) {
+        checkRetention(id.toString(), timestamp);
         VersionedMapNode vmn = get(id);
         if (vmn == null)
             return null;
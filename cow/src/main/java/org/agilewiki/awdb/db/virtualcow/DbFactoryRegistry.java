@@ -1,6 +1,7 @@
 package org.agilewiki.awdb.db.virtualcow;
 
 import org.agilewiki.awdb.db.immutable.CascadingRegistry;
+import org.agilewiki.awdb.db.immutable.blobs.BlobFactory;
 import org.agilewiki.awdb.db.immutable.collections.*;
 
 /**
@@ -13,26 +14,47 @@ public class DbFactoryRegistry extends CascadingRegistry {
     public final VersionedMapNode versionedNilMap;
     public final ListNode nilList;
     public final MapNode nilMap;
+    public final SetNode nilSet;
+    public final VersionedSetNode versionedNilSet;
 
     public final VersionedListNodeFactory versionedListNodeFactory;
     public final VersionedMapNodeFactory versionedMapNodeFactory;
     public final ListNodeFactory listNodeFactory;
     public final MapNodeFactory mapNodeFactory;
+    public final BTreeMapNodeFactory bTreeMapNodeFactory;
+    public final HashMapNodeFactory hashMapNodeFactory;
+    public final SetNodeFactory setNodeFactory;
+    public final VersionedSetNodeFactory versionedSetNodeFactory;
     public final BlockReferenceFactory blockReferenceFactory;
+    public final BlobFactory blobFactory;
 
     public final char versionedListNodeImplId = 'l';
+    public final char versionedCompactListNodeImplId = 'v';
     public final char versionedNilListId = '1';
     public final char versionedListReferenceId = '5';
     public final char versionedMapNodeImplId = 'm';
     public final char versionedNilMapId = '2';
     public final char versionedMapReferenceId = '6';
+    public final char filteredVersionedMapReferenceId = 'x';
     public final char listNodeImplId = 'n';
     public final char nilListId = '3';
     public final char listReferenceId = '7';
     public final char mapNodeImplId = 'o';
     public final char nilMapId = '4';
     public final char mapReferenceId = '8';
+    public final char filteredMapReferenceId = 'k';
     public final char blockReferenceFactoryId = 'r';
+    public final char blobId = 'b';
+    public final char bTreeMapNodeImplId = 'p';
+    public final char bTreeMapReferenceId = '9';
+    public final char hashMapNodeImplId = 'h';
+    public final char hashMapReferenceId = '0';
+    public final char setNodeImplId = 'e';
+    public final char nilSetId = 'g';
+    public final char setReferenceId = 'j';
+    public final char versionedSetNodeImplId = 'q';
+    public final char versionedNilSetId = 'u';
+    public final char versionedSetReferenceId = 'w';
 
     /**
      * Create a cascading factory registry.
@@ -51,6 +73,13 @@ public class DbFactoryRegistry extends CascadingRegistry {
         nilList = listNodeFactory.nilList;
         mapNodeFactory = new MapNodeFactory(this);
         nilMap = mapNodeFactory.nilMap;
+        bTreeMapNodeFactory = new BTreeMapNodeFactory(this);
+        hashMapNodeFactory = new HashMapNodeFactory(this);
+        setNodeFactory = new SetNodeFactory(this);
+        nilSet = setNodeFactory.nilSet;
+        versionedSetNodeFactory = new VersionedSetNodeFactory(this);
+        versionedNilSet = versionedSetNodeFactory.versionedNilSet;
         blockReferenceFactory = new BlockReferenceFactory(this);
+        blobFactory = new BlobFactory(this);
     }
 }
@@ -0,0 +1,110 @@
+package org.agilewiki.awdb.db.virtualcow;
+
+import org.agilewiki.awdb.db.immutable.scalars.CS256;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Maps the checksums of recently written blocks to their block numbers,
+ * so that a block with identical content can be shared rather than written again.
+ * <p>
+ * Entries are only hints. A block is reused only when it is still in use
+ * and its content compares equal, byte for byte.
+ * </p>
+ */
+public class DedupIndex {
+    /**
+     * The max number of blocks indexed.
+     */
+    public final int limit;
+
+    private final LinkedHashMap<CS256, Entry> blocks;
+    private int hits;
+
+    /**
+     * A block that has been written.
+     */
+    static class Entry {
+        final Object kind;
+        final int blockNbr;
+        final int blockLength;
+
+        Entry(Object kind, int blockNbr, int blockLength) {
+            this.kind = kind;
+            this.blockNbr = blockNbr;
+            this.blockLength = blockLength;
+        }
+    }
+
+    /**
+     * Create a dedup index.
+     *
+     * @param limit The max number of blocks indexed.
+     */
+    public DedupIndex(int limit) {
+        if (limit < 1)
+            throw new IllegalArgumentException("limit must be positive");
+        this.limit = limit;
+        blocks = new LinkedHashMap<CS256, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<CS256, Entry> eldest) {
+                return size() > DedupIndex.this.limit;
+            }
+        };
+    }
+
+    /**
+     * Returns the block last written with the given checksum.
+     *
+     * @param cs256 The checksum of the content.
+     * @return The entry, or null.
+     */
+    Entry get(CS256 cs256) {
+        return blocks.get(cs256);
+    }
+
+    /**
+     * Records a block that has been written.
+     *
+     * @param cs256       The checksum of the content.
+     * @param kind        Identifies how the content is read.
+     * @param blockNbr    The block number.
+     * @param blockLength The length of the content.
+     */
+    void put(CS256 cs256, Object kind, int blockNbr, int blockLength) {
+        blocks.put(cs256, new Entry(kind, blockNbr, blockLength));
+    }
+
+    /**
+     * Drops the entry for a checksum.
+     *
+     * @param cs256 The checksum of the content.
+     */
+    public void remove(CS256 cs256) {
+        blocks.remove(cs256);
+    }
+
+    /**
+     * Counts a block that was shared rather than written.
+     */
+    void hit() {
+        hits++;
+    }
+
+    /**
+     * Returns the number of writes avoided by sharing a block.
+     *
+     * @return The number of blocks shared.
+     */
+    public int hits() {
+        return hits;
+    }
+
+    /**
+     * Drops all entries.
+     */
+    public void clear() {
+        blocks.clear();
+    }
+}
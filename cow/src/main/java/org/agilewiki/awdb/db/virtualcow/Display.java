@@ -4,6 +4,8 @@ import org.agilewiki.awdb.db.immutable.collections.ListAccessor;
 import org.agilewiki.awdb.db.immutable.collections.MapAccessor;
 import org.agilewiki.awdb.db.immutable.collections.VersionedMapNode;
 
+import java.util.Iterator;
+
 /**
  * Diagnostic display of database contents.
  */
@@ -12,10 +14,17 @@ public class Display {
         System.out.println("\n\n--Database Dump--");
         MapAccessor mapAccessor = db.mapAccessor();
         for (ListAccessor la: mapAccessor) {
+            if (la.isEmpty() || !(la.get(0) instanceof VersionedMapNode))
+                continue;
             VersionedMapNode vmn = (VersionedMapNode) la.get(0);
             if (!vmn.isEmpty(timestamp))
                 vmn(vmn.mapAccessor(timestamp), (String) la.key());
         }
+        Iterator<String> hashedIds = db.hashedIdsIterator("", timestamp);
+        while (hashedIds.hasNext()) {
+            String id = hashedIds.next();
+            vmn(db.versionedMapNode(id).mapAccessor(timestamp), id);
+        }
     }
 
     public static void vmn(MapAccessor ma, String id) {
@@ -0,0 +1,158 @@
+package org.agilewiki.awdb.db.virtualcow;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * A block store held in a file, accessed with positional reads and writes.
+ * The file is opened for synchronous writes, so there is nothing for force to do.
+ */
+public class FileBlockStore implements BlockStore {
+    public final Path dbPath;
+    private FileChannel fc;
+    private int maxBlockSize;
+
+    /**
+     * Create a file block store.
+     *
+     * @param dbPath The path of the db file.
+     */
+    public FileBlockStore(Path dbPath) {
+        this.dbPath = dbPath;
+    }
+
+    @Override
+    public void create(int maxBlockSize, boolean createNew) throws IOException {
+        this.maxBlockSize = maxBlockSize;
+        if (createNew)
+            fc = FileChannel.open(dbPath, READ, WRITE, SYNC, CREATE_NEW);
+        else
+            fc = FileChannel.open(dbPath, READ, WRITE, SYNC, CREATE);
+    }
+
+    @Override
+    public void open(int maxBlockSize) throws IOException {
+        validate(dbPath);
+        this.maxBlockSize = maxBlockSize;
+        fc = FileChannel.open(dbPath, READ, WRITE, SYNC);
+    }
+
+    /**
+     * Verifies that an existing db file can be opened.
+     *
+     * @param dbPath The path of the db file.
+     */
+    static void validate(Path dbPath) {
+        if (Files.notExists(dbPath))
+            throw new FileDoesNotExistExcpetion();
+        if (!Files.isReadable(dbPath))
+            throw new FileNotReadableException();
+        if (!Files.isWritable(dbPath))
+            throw new FileNotWritableException();
+        if (!Files.isRegularFile(dbPath))
+            throw new FileNotRegularExcpetion();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return fc != null;
+    }
+
+    @Override
+    public int maxBlockSize() {
+        return maxBlockSize;
+    }
+
+    @Override
+    public void read(ByteBuffer byteBuffer, long position) throws IOException {
+        while (byteBuffer.remaining() > 0) {
+            int n = fc.read(byteBuffer, position);
+            if (n < 0)
+                throw new EOFException();
+            position += n;
+        }
+    }
+
+    @Override
+    public void write(ByteBuffer byteBuffer, long position) throws IOException {
+        while (byteBuffer.remaining() > 0) {
+            position += fc.write(byteBuffer, position);
+        }
+    }
+
+    @Override
+    public void force() {
+    }
+
+    @Override
+    public long size() throws IOException {
+        return fc.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (fc != null) {
+            try {
+                fc.close();
+            } finally {
+                fc = null;
+            }
+        }
+    }
+
+    @Override
+    public ByteBuffer readSidecar(String name) throws IOException {
+        return readSidecar(dbPath, name);
+    }
+
+    @Override
+    public void writeSidecar(String name, ByteBuffer content) throws IOException {
+        writeSidecar(dbPath, name, content);
+    }
+
+    /**
+     * Returns the content of a sidecar file, named after the db file.
+     *
+     * @param dbPath The path of the db file.
+     * @param name   The name of the sidecar.
+     * @return The content, or null.
+     */
+    static ByteBuffer readSidecar(Path dbPath, String name) throws IOException {
+        try {
+            return ByteBuffer.wrap(Files.readAllBytes(sidecarPath(dbPath, name)));
+        } catch (NoSuchFileException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Replaces the content of a sidecar file, named after the db file.
+     *
+     * @param dbPath  The path of the db file.
+     * @param name    The name of the sidecar.
+     * @param content The new content.
+     */
+    static void writeSidecar(Path dbPath, String name, ByteBuffer content) throws IOException {
+        try (FileChannel sc = FileChannel.open(sidecarPath(dbPath, name), WRITE, CREATE, TRUNCATE_EXISTING)) {
+            while (content.remaining() > 0) {
+                sc.write(content);
+            }
+        }
+    }
+
+    private static Path sidecarPath(Path dbPath, String name) {
+        return dbPath.resolveSibling(dbPath.getFileName() + "." + name);
+    }
+
+    @Override
+    public String toString() {
+        return dbPath.toString();
+    }
+}
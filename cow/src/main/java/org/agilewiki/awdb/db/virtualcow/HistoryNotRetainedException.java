@@ -0,0 +1,11 @@
+package org.agilewiki.awdb.db.virtualcow;
+
+/**
+ * Thrown when a query is for a time older than the retention horizon,
+ * as the history for that time may already have been removed.
+ */
+public class HistoryNotRetainedException extends IllegalArgumentException {
+    public HistoryNotRetainedException(String id, long timestamp) {
+        super("history of " + id + " is not retained for " + timestamp);
+    }
+}
@@ -0,0 +1,246 @@
+package org.agilewiki.awdb.db.virtualcow;
+
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks the most accessed blocks so they can be prefetched after a restart.
+ * <p>
+ * Each block is ranked by when it was first accessed. As a block can only be
+ * reached through the block above it, this rank orders the top levels of the
+ * tree ahead of the levels below, and it serves as the depth of the block.
+ * </p>
+ * <p>
+ * Prefetched blocks are held by soft references until read, and are dropped
+ * when the block is written, so a stale copy is never returned.
+ * </p>
+ */
+public class HotBlocks {
+    /**
+     * The name of the sidecar holding the hot block set.
+     */
+    public final static String SIDECAR_NAME = "hot";
+
+    /**
+     * The max number of blocks saved at a checkpoint.
+     */
+    public final int limit;
+
+    private final ConcurrentHashMap<Integer, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private final ConcurrentHashMap<Integer, SoftReference<ByteBuffer>> prefetched = new ConcurrentHashMap<>();
+    private final Set<Integer> overwritten = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger prefetchHits = new AtomicInteger();
+    private volatile boolean prefetching;
+    private volatile Thread prefetchThread;
+
+    private static class Entry {
+        final int blockLength;
+        final long depth;
+        volatile int hits;
+
+        Entry(int blockLength, long depth) {
+            this.blockLength = blockLength;
+            this.depth = depth;
+        }
+    }
+
+    /**
+     * Create a hot block tracker.
+     *
+     * @param limit The max number of blocks saved at a checkpoint.
+     */
+    public HotBlocks(int limit) {
+        if (limit < 1)
+            throw new IllegalArgumentException("limit must be positive");
+        this.limit = limit;
+    }
+
+    /**
+     * Records an access to a block.
+     *
+     * @param blockNbr    The block number.
+     * @param blockLength The length of the data held by the block.
+     */
+    public void access(int blockNbr, int blockLength) {
+        Entry e = entries.get(blockNbr);
+        if (e == null) {
+            e = new Entry(blockLength, sequence.incrementAndGet());
+            Entry o = entries.putIfAbsent(blockNbr, e);
+            if (o != null)
+                e = o;
+            else if (entries.size() > 8 * limit)
+                trim();
+        }
+        e.hits++;
+    }
+
+    /**
+     * Drops the entries accessed less often than the hottest blocks,
+     * and ages the rest.
+     */
+    private synchronized void trim() {
+        if (entries.size() <= 8 * limit)
+            return;
+        int threshold = threshold();
+        for (Map.Entry<Integer, Entry> me : entries.entrySet()) {
+            Entry e = me.getValue();
+            if (e.hits < threshold)
+                entries.remove(me.getKey(), e);
+            else
+                e.hits = e.hits / 2;
+        }
+    }
+
+    /**
+     * Returns the hit count of the least accessed block that will be saved.
+     *
+     * @return The min hit count.
+     */
+    private int threshold() {
+        List<Integer> hits = new ArrayList<>(entries.size());
+        for (Entry e : entries.values()) {
+            hits.add(e.hits);
+        }
+        if (hits.size() <= limit)
+            return 0;
+        Collections.sort(hits, Collections.reverseOrder());
+        return hits.get(limit - 1);
+    }
+
+    /**
+     * Notes that a block has been written. Any prefetched copy is now stale.
+     *
+     * @param blockNbr The block number.
+     */
+    public void written(int blockNbr) {
+        entries.remove(blockNbr);
+        if (prefetching)
+            overwritten.add(blockNbr);
+        prefetched.remove(blockNbr);
+    }
+
+    /**
+     * Fills the byte buffer with the prefetched content of a block.
+     *
+     * @param byteBuffer Where the content is to be placed.
+     * @param blockNbr   The block number.
+     * @return True when the block was prefetched.
+     */
+    public boolean take(ByteBuffer byteBuffer, int blockNbr) {
+        if (prefetched.isEmpty())
+            return false;
+        SoftReference<ByteBuffer> sr = prefetched.remove(blockNbr);
+        if (sr == null)
+            return false;
+        ByteBuffer bb = sr.get();
+        if (bb == null || bb.remaining() != byteBuffer.remaining())
+            return false;
+        byteBuffer.put(bb);
+        prefetchHits.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Returns the number of reads satisfied by prefetched blocks.
+     *
+     * @return The number of hits.
+     */
+    public int prefetchHits() {
+        return prefetchHits.get();
+    }
+
+    /**
+     * Serializes the hottest blocks, ordered by depth.
+     *
+     * @return The content of the sidecar.
+     */
+    public ByteBuffer checkpoint() {
+        int threshold = threshold();
+        List<long[]> hot = new ArrayList<>();
+        for (Map.Entry<Integer, Entry> me : entries.entrySet()) {
+            Entry e = me.getValue();
+            if (e.hits >= threshold && e.hits > 0)
+                hot.add(new long[]{e.depth, me.getKey(), e.blockLength});
+        }
+        hot.sort((a, b) -> Long.compare(a[0], b[0]));
+        if (hot.size() > limit)
+            hot = hot.subList(0, limit);
+        ByteBuffer byteBuffer = ByteBuffer.allocate(4 + hot.size() * 12);
+        byteBuffer.putInt(hot.size());
+        int depth = 0;
+        for (long[] h : hot) {
+            byteBuffer.putInt((int) h[1]);
+            byteBuffer.putInt((int) h[2]);
+            byteBuffer.putInt(depth++);
+        }
+        byteBuffer.flip();
+        return byteBuffer;
+    }
+
+    /**
+     * Starts a background thread which reads the blocks listed in a sidecar,
+     * top levels first.
+     *
+     * @param blockStore The store holding the blocks.
+     * @param sidecar    The content of the sidecar, written by checkpoint.
+     */
+    public void prefetch(BlockStore blockStore, ByteBuffer sidecar) {
+        int count = sidecar.getInt();
+        int[][] blocks = new int[count][];
+        for (int i = 0; i < count; ++i) {
+            blocks[i] = new int[]{sidecar.getInt(), sidecar.getInt(), sidecar.getInt()};
+        }
+        Arrays.sort(blocks, (a, b) -> Integer.compare(a[2], b[2]));
+        overwritten.clear();
+        prefetching = true;
+        Thread t = new Thread(() -> {
+            try {
+                for (int[] block : blocks) {
+                    if (!blockStore.isOpen())
+                        return;
+                    int blockNbr = block[0];
+                    ByteBuffer bb = ByteBuffer.allocate(block[1]);
+                    blockStore.readBlock(bb, blockNbr);
+                    bb.flip();
+                    prefetched.put(blockNbr, new SoftReference<>(bb));
+                    if (overwritten.contains(blockNbr))
+                        prefetched.remove(blockNbr);
+                }
+            } catch (Exception ex) {
+                prefetched.clear();
+            } finally {
+                prefetching = false;
+                overwritten.clear();
+            }
+        }, "hot block prefetch");
+        t.setDaemon(true);
+        prefetchThread = t;
+        t.start();
+    }
+
+    /**
+     * Waits for the prefetch thread to finish.
+     */
+    public void awaitPrefetch() throws InterruptedException {
+        Thread t = prefetchThread;
+        if (t != null)
+            t.join();
+    }
+
+    /**
+     * Drops the prefetched blocks that have not been read.
+     */
+    public void clear() {
+        prefetched.clear();
+    }
+}
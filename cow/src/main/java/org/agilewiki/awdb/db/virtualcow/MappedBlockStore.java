@@ -0,0 +1,189 @@
+package org.agilewiki.awdb.db.virtualcow;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.BitSet;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * A block store held in a memory-mapped file.
+ * The file is mapped in fixed-size segments which are added as the store grows,
+ * so reads of cached blocks are plain memory copies.
+ * Only the segments written since the last force are flushed.
+ */
+public class MappedBlockStore implements BlockStore {
+    /**
+     * The default size of a mapped segment, 64MB.
+     */
+    public final static int DEFAULT_SEGMENT_SIZE = 1 << 26;
+
+    public final Path dbPath;
+    public final int segmentSize;
+    private FileChannel fc;
+    private int maxBlockSize;
+    private volatile MappedByteBuffer[] segments;
+    private final BitSet dirty = new BitSet();
+
+    /**
+     * Create a memory-mapped block store with the default segment size.
+     *
+     * @param dbPath The path of the db file.
+     */
+    public MappedBlockStore(Path dbPath) {
+        this(dbPath, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Create a memory-mapped block store.
+     *
+     * @param dbPath      The path of the db file.
+     * @param segmentSize The size of each mapped region of the file.
+     */
+    public MappedBlockStore(Path dbPath, int segmentSize) {
+        if (segmentSize < 1)
+            throw new IllegalArgumentException("segment size must be positive");
+        this.dbPath = dbPath;
+        this.segmentSize = segmentSize;
+    }
+
+    @Override
+    public void create(int maxBlockSize, boolean createNew) throws IOException {
+        this.maxBlockSize = maxBlockSize;
+        if (createNew)
+            fc = FileChannel.open(dbPath, READ, WRITE, CREATE_NEW);
+        else
+            fc = FileChannel.open(dbPath, READ, WRITE, CREATE);
+        segments = new MappedByteBuffer[0];
+    }
+
+    @Override
+    public void open(int maxBlockSize) throws IOException {
+        FileBlockStore.validate(dbPath);
+        this.maxBlockSize = maxBlockSize;
+        fc = FileChannel.open(dbPath, READ, WRITE);
+        segments = new MappedByteBuffer[0];
+    }
+
+    @Override
+    public boolean isOpen() {
+        return fc != null;
+    }
+
+    @Override
+    public int maxBlockSize() {
+        return maxBlockSize;
+    }
+
+    /**
+     * Returns the segment holding the given position, mapping it when needed.
+     *
+     * @param ndx The index of the segment.
+     * @return The mapped segment.
+     */
+    private MappedByteBuffer segment(int ndx) throws IOException {
+        MappedByteBuffer[] s = segments;
+        if (ndx < s.length)
+            return s[ndx];
+        synchronized (this) {
+            s = segments;
+            if (ndx < s.length)
+                return s[ndx];
+            MappedByteBuffer[] ns = Arrays.copyOf(s, ndx + 1);
+            for (int i = s.length; i <= ndx; ++i) {
+                ns[i] = fc.map(FileChannel.MapMode.READ_WRITE, i * (long) segmentSize, segmentSize);
+            }
+            segments = ns;
+            return ns[ndx];
+        }
+    }
+
+    @Override
+    public void read(ByteBuffer byteBuffer, long position) throws IOException {
+        while (byteBuffer.remaining() > 0) {
+            int ndx = (int) (position / segmentSize);
+            int offset = (int) (position % segmentSize);
+            ByteBuffer s = segment(ndx).duplicate();
+            int n = Math.min(byteBuffer.remaining(), segmentSize - offset);
+            s.position(offset);
+            s.limit(offset + n);
+            byteBuffer.put(s);
+            position += n;
+        }
+    }
+
+    @Override
+    public void write(ByteBuffer byteBuffer, long position) throws IOException {
+        while (byteBuffer.remaining() > 0) {
+            int ndx = (int) (position / segmentSize);
+            int offset = (int) (position % segmentSize);
+            ByteBuffer s = segment(ndx).duplicate();
+            int n = Math.min(byteBuffer.remaining(), segmentSize - offset);
+            ByteBuffer src = byteBuffer.duplicate();
+            src.limit(src.position() + n);
+            s.position(offset);
+            s.put(src);
+            byteBuffer.position(byteBuffer.position() + n);
+            position += n;
+            synchronized (dirty) {
+                dirty.set(ndx);
+            }
+        }
+    }
+
+    @Override
+    public void force() {
+        MappedByteBuffer[] s = segments;
+        synchronized (dirty) {
+            for (int i = dirty.nextSetBit(0); i >= 0; i = dirty.nextSetBit(i + 1)) {
+                s[i].force();
+            }
+            dirty.clear();
+        }
+    }
+
+    /**
+     * Returns the size of the file, which grows a segment at a time.
+     *
+     * @return The current size of the file.
+     */
+    @Override
+    public long size() throws IOException {
+        return fc.size();
+    }
+
+    /**
+     * Closes the file. The mapped segments are released when garbage collected.
+     */
+    @Override
+    public void close() throws IOException {
+        if (fc != null) {
+            try {
+                force();
+                fc.close();
+            } finally {
+                fc = null;
+                segments = null;
+            }
+        }
+    }
+
+    @Override
+    public ByteBuffer readSidecar(String name) throws IOException {
+        return FileBlockStore.readSidecar(dbPath, name);
+    }
+
+    @Override
+    public void writeSidecar(String name, ByteBuffer content) throws IOException {
+        FileBlockStore.writeSidecar(dbPath, name, content);
+    }
+
+    @Override
+    public String toString() {
+        return dbPath.toString();
+    }
+}
@@ -0,0 +1,132 @@
+package org.agilewiki.awdb.db.virtualcow;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.FileAlreadyExistsException;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A block store held in memory, for tests and for caches that need no durability.
+ * The contents survive a close, so the database can be reopened
+ * for as long as the store is reachable.
+ */
+public class MemoryBlockStore implements BlockStore {
+    /**
+     * The size of the pages used to hold the store, 64KB.
+     */
+    public final static int PAGE_SIZE = 1 << 16;
+
+    private volatile byte[][] pages = new byte[0][];
+    private long size;
+    private volatile boolean open;
+    private int maxBlockSize;
+    private final ConcurrentHashMap<String, byte[]> sidecars = new ConcurrentHashMap<>();
+
+    @Override
+    public synchronized void create(int maxBlockSize, boolean createNew) throws IOException {
+        if (createNew && size > 0)
+            throw new FileAlreadyExistsException(toString());
+        this.maxBlockSize = maxBlockSize;
+        pages = new byte[0][];
+        size = 0;
+        open = true;
+    }
+
+    @Override
+    public synchronized void open(int maxBlockSize) {
+        if (size == 0)
+            throw new FileDoesNotExistExcpetion();
+        this.maxBlockSize = maxBlockSize;
+        open = true;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public int maxBlockSize() {
+        return maxBlockSize;
+    }
+
+    /**
+     * Returns the page holding the given position, adding pages when needed.
+     *
+     * @param ndx The index of the page.
+     * @return The page.
+     */
+    private byte[] page(int ndx) {
+        byte[][] p = pages;
+        if (ndx < p.length)
+            return p[ndx];
+        synchronized (this) {
+            p = pages;
+            if (ndx < p.length)
+                return p[ndx];
+            byte[][] np = Arrays.copyOf(p, ndx + 1);
+            for (int i = p.length; i <= ndx; ++i) {
+                np[i] = new byte[PAGE_SIZE];
+            }
+            pages = np;
+            return np[ndx];
+        }
+    }
+
+    @Override
+    public void read(ByteBuffer byteBuffer, long position) {
+        while (byteBuffer.remaining() > 0) {
+            int offset = (int) (position % PAGE_SIZE);
+            int n = Math.min(byteBuffer.remaining(), PAGE_SIZE - offset);
+            byteBuffer.put(page((int) (position / PAGE_SIZE)), offset, n);
+            position += n;
+        }
+    }
+
+    @Override
+    public void write(ByteBuffer byteBuffer, long position) {
+        while (byteBuffer.remaining() > 0) {
+            int offset = (int) (position % PAGE_SIZE);
+            int n = Math.min(byteBuffer.remaining(), PAGE_SIZE - offset);
+            byteBuffer.get(page((int) (position / PAGE_SIZE)), offset, n);
+            position += n;
+        }
+        synchronized (this) {
+            if (position > size)
+                size = position;
+        }
+    }
+
+    @Override
+    public void force() {
+    }
+
+    @Override
+    public synchronized long size() {
+        return size;
+    }
+
+    @Override
+    public void close() {
+        open = false;
+    }
+
+    @Override
+    public ByteBuffer readSidecar(String name) {
+        byte[] content = sidecars.get(name);
+        return content == null ? null : ByteBuffer.wrap(content);
+    }
+
+    @Override
+    public void writeSidecar(String name, ByteBuffer content) {
+        byte[] bytes = new byte[content.remaining()];
+        content.get(bytes);
+        sidecars.put(name, bytes);
+    }
+
+    @Override
+    public String toString() {
+        return "memory block store";
+    }
+}
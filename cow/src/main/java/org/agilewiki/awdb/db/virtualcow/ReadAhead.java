@@ -0,0 +1,93 @@
+package org.agilewiki.awdb.db.virtualcow;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of I/O threads which load blocks ahead of a scan.
+ * <p>
+ * Scans queue the references to the subtrees they will visit next.
+ * Once a block is loaded, the references it holds are queued in turn,
+ * down to the given depth.
+ * </p>
+ */
+public class ReadAhead {
+    /**
+     * How many levels below a queued block are also loaded.
+     */
+    public final int depth;
+
+    /**
+     * The max number of blocks queued at one time.
+     */
+    public final int maxPending;
+
+    private final ExecutorService executor;
+    private final Set<BlockReference> pending = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger loaded = new AtomicInteger();
+
+    /**
+     * Create a read-ahead pool.
+     *
+     * @param threads The number of I/O threads.
+     * @param depth   How many levels below a queued block are also loaded.
+     */
+    public ReadAhead(int threads, int depth) {
+        this.depth = depth;
+        maxPending = 64 * threads;
+        AtomicInteger count = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "read ahead " + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Queue a block to be loaded in the background.
+     *
+     * @param blockReference The reference to the block.
+     * @param depth          How many levels below the block are also loaded.
+     */
+    public void submit(BlockReference blockReference, int depth) {
+        if (pending.size() >= maxPending || !pending.add(blockReference))
+            return;
+        try {
+            executor.execute(() -> {
+                try {
+                    if (blockReference.readAheadContent())
+                        loaded.incrementAndGet();
+                    if (depth > 0)
+                        blockReference.readAheadChildren(depth - 1);
+                } catch (Exception ex) {
+                    // The scan will load the block itself, and report any error.
+                } finally {
+                    pending.remove(blockReference);
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            pending.remove(blockReference);
+        }
+    }
+
+    /**
+     * Returns the number of blocks loaded in the background.
+     *
+     * @return The count of blocks loaded.
+     */
+    public int loaded() {
+        return loaded.get();
+    }
+
+    /**
+     * Stops the I/O threads. Blocks still queued are not loaded.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+        pending.clear();
+    }
+}
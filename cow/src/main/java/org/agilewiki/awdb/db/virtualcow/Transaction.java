@@ -23,4 +23,16 @@ public interface Transaction {
     default int timeoutMillis() {
         return Integer.MAX_VALUE;
     }
+
+    /**
+     * Returns true when the nodes created by the transaction are updated in place,
+     * rather than copied, until the transform completes.
+     * Older versions of those nodes, still held by the transaction, are then no longer valid.
+     * Set to false by default.
+     *
+     * @return True for transient mode.
+     */
+    default boolean transientMode() {
+        return false;
+    }
 }
@@ -37,5 +37,20 @@ public class DSMTest extends TestCase {
         bb1.flip();
         dsm = new DiskSpaceManager(bb1);
         assertEquals(8, dsm.usage());
+
+        dsm.retain(3);
+        dsm.retain(3);
+        assertEquals(5 + 4 + 8, dsm.durableLength());
+        ByteBuffer bb2 = ByteBuffer.allocate(dsm.durableLength());
+        dsm.write(bb2);
+        bb2.flip();
+        dsm = new DiskSpaceManager(bb2);
+        assertEquals(0, bb2.remaining());
+        assertFalse(dsm.release(3));
+        assertFalse(dsm.release(3));
+        assertTrue(dsm.release(3));
+        dsm.commit();
+        assertEquals(7, dsm.usage());
+        assertEquals(5, dsm.durableLength());
     }
 }
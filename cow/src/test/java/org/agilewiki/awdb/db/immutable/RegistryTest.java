@@ -0,0 +1,63 @@
+package org.agilewiki.awdb.db.immutable;
+
+import junit.framework.TestCase;
+import org.agilewiki.awdb.db.immutable.scalars.CompactStringFactory;
+import org.agilewiki.awdb.db.immutable.scalars.IntegerFactory;
+import org.agilewiki.awdb.db.immutable.scalars.NullFactory;
+import org.agilewiki.awdb.db.immutable.scalars.StringFactory;
+
+import java.nio.ByteBuffer;
+
+public class RegistryTest extends TestCase {
+    public void test() throws Exception {
+        Registry registry = new Registry();
+        new IntegerFactory(registry, 'i');
+        ImmutableFactory s = registry.getImmutableFactory('S');
+        ImmutableFactory i = registry.getImmutableFactory('i');
+        ImmutableFactory string = registry.getImmutableFactory("abc");
+        assertFalse(registry.isFrozen());
+
+        registry.freeze();
+        assertTrue(registry.isFrozen());
+        assertFalse(registry.parent.isFrozen());
+        assertSame(s, registry.getImmutableFactory('S'));
+        assertTrue(registry.getImmutableFactory('S') instanceof StringFactory);
+        assertSame(i, registry.getImmutableFactory('i'));
+        assertNull(registry.getImmutableFactory('?'));
+        assertNull(registry.getImmutableFactory((char) 0xffff));
+        assertSame(string, registry.getImmutableFactory("xyz"));
+        assertTrue(string instanceof CompactStringFactory);
+        assertSame(i, registry.getImmutableFactory(42));
+        assertTrue(registry.getImmutableFactory((Object) null) instanceof NullFactory);
+
+        ByteBuffer byteBuffer = ByteBuffer.allocate(2);
+        byteBuffer.putChar('?');
+        byteBuffer.flip();
+        try {
+            registry.readId(byteBuffer);
+            fail();
+        } catch (IllegalStateException ex) {
+        }
+        try {
+            registry.getImmutableFactory(new Object());
+            fail();
+        } catch (IllegalArgumentException ex) {
+        }
+        try {
+            new IntegerFactory(registry, 'j');
+            fail();
+        } catch (IllegalStateException ex) {
+        }
+        registry.freeze();
+
+        new IntegerFactory(registry.parent, 'j');
+        assertNotNull(registry.parent.getImmutableFactory('j'));
+        assertNull(registry.getImmutableFactory('j'));
+        assertSame(i, registry.getImmutableFactory(42));
+        Registry sibling = new Registry(registry.parent);
+        new IntegerFactory(sibling, 'k');
+        sibling.freeze();
+        assertNotNull(sibling.getImmutableFactory('j'));
+        assertNotNull(sibling.getImmutableFactory('k'));
+    }
+}
@@ -0,0 +1,65 @@
+package org.agilewiki.awdb.db.immutable.blobs;
+
+import junit.framework.TestCase;
+import org.agilewiki.jactor2.core.impl.Plant;
+import org.agilewiki.awdb.db.ids.NameId;
+import org.agilewiki.awdb.db.immutable.BaseRegistry;
+import org.agilewiki.awdb.db.immutable.FactoryRegistry;
+import org.agilewiki.awdb.db.immutable.collections.MapNode;
+import org.agilewiki.awdb.db.virtualcow.Db;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+public class BlobTest extends TestCase {
+    public void test() throws Exception {
+        new Plant();
+        try {
+            Path dbPath = Paths.get("vcow.db");
+            Files.deleteIfExists(dbPath);
+            int maxBlockSize = 300;
+            int size = 12345;
+            try (Db db = new Db(new BaseRegistry(), dbPath, maxBlockSize)) {
+                db.registerTransaction("blobTran", BlobTran.class);
+                db.open(true);
+                MapNode tMapNode = db.dbFactoryRegistry.nilMap;
+                db.update("blobTran", tMapNode.add("size", size)).call();
+                db.close();
+                db.open();
+                Blob blob = (Blob) db.get(NameId.generate("doc"), "content", FactoryRegistry.MAX_TIMESTAMP);
+                assertEquals(size, blob.size());
+                assertTrue(blob.depth > 1);
+
+                InputStream in = blob.newInputStream();
+                for (int i = 0; i < size; ++i)
+                    assertEquals(i % 251, in.read());
+                assertEquals(-1, in.read());
+
+                SeekableByteChannel channel = blob.newChannel();
+                channel.position(9000);
+                ByteBuffer bb = ByteBuffer.allocate(1000);
+                assertEquals(1000, channel.read(bb));
+                bb.flip();
+                for (int i = 9000; i < 10000; ++i)
+                    assertEquals((byte) (i % 251), bb.get());
+                channel.position(size - 5);
+                bb.clear();
+                assertEquals(5, channel.read(bb));
+                assertEquals(-1, channel.read(bb));
+
+                db.update("blobTran", tMapNode.add("size", -1)).call();
+                db.update("blobTran", tMapNode.add("size", 0)).call();
+                blob = (Blob) db.get(NameId.generate("doc"), "content", FactoryRegistry.MAX_TIMESTAMP);
+                assertEquals(0, blob.size());
+                assertEquals(-1, blob.newInputStream().read());
+                db.close();
+            }
+        } finally {
+            Plant.close();
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package org.agilewiki.awdb.db.immutable.blobs;
+
+import org.agilewiki.awdb.db.ids.NameId;
+import org.agilewiki.awdb.db.immutable.collections.MapNode;
+import org.agilewiki.awdb.db.virtualcow.Db;
+import org.agilewiki.awdb.db.virtualcow.Transaction;
+
+import java.io.OutputStream;
+
+public class BlobTran implements Transaction {
+    /**
+     * Transforms a map list.
+     *
+     * @param db        The database to be updated.
+     * @param tMapNode  The durable content of the transaction.
+     */
+    @Override
+    public void transform(Db db, MapNode tMapNode) {
+        int size = (Integer) tMapNode.getList("size").get(0);
+        if (size < 0) {
+            db.clearList(NameId.generate("doc"), "content");
+            return;
+        }
+        try (OutputStream out = new BlobWriter(db.dbFactoryRegistry)) {
+            for (int i = 0; i < size; ++i)
+                out.write(i % 251);
+            db.set(NameId.generate("doc"), "content", ((BlobWriter) out).blob());
+        } catch (Exception ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+}
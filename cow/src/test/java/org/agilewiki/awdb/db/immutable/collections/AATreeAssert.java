@@ -0,0 +1,48 @@
+package org.agilewiki.awdb.db.immutable.collections;
+
+import junit.framework.Assert;
+
+/**
+ * Checks the AA tree invariants of map nodes.
+ */
+public final class AATreeAssert {
+
+    private AATreeAssert() {
+    }
+
+    /**
+     * Checks the levels of a map and its subtrees.
+     *
+     * @param node The root node.
+     * @return The level of the root.
+     */
+    public static int checkLevels(MapNode node) {
+        if (node.isNil())
+            return 0;
+        MapNodeData d = node.getData();
+        Assert.assertEquals(d.level - 1, checkLevels(d.leftNode));
+        int r = checkLevels(d.rightNode);
+        Assert.assertTrue(r == d.level || r == d.level - 1);
+        if (!d.rightNode.isNil())
+            Assert.assertTrue(d.rightNode.getData().rightNode.getData().level < d.level);
+        return d.level;
+    }
+
+    /**
+     * Checks the levels of a versioned map and its subtrees.
+     *
+     * @param node The root node.
+     * @return The level of the root.
+     */
+    public static int checkLevels(VersionedMapNode node) {
+        if (node.isNil())
+            return 0;
+        VersionedMapNodeData d = node.getData();
+        Assert.assertEquals(d.level - 1, checkLevels(d.leftNode));
+        int r = checkLevels(d.rightNode);
+        Assert.assertTrue(r == d.level || r == d.level - 1);
+        if (!d.rightNode.isNil())
+            Assert.assertTrue(d.rightNode.getData().rightNode.getData().level < d.level);
+        return d.level;
+    }
+}
@@ -0,0 +1,97 @@
+package org.agilewiki.awdb.db.immutable.collections;
+
+import junit.framework.TestCase;
+import org.agilewiki.jactor2.core.impl.Plant;
+import org.agilewiki.awdb.db.immutable.BaseRegistry;
+import org.agilewiki.awdb.db.virtualcow.Db;
+import org.agilewiki.awdb.db.virtualcow.DbFactoryRegistry;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+public class BTreeMapTest extends TestCase {
+    public void test() throws Exception {
+        new Plant();
+        try {
+            Path dbPath = Paths.get("cow.db");
+            int maxRootBlockSize = 1000;
+            Db db = new Db(new BaseRegistry(), dbPath, maxRootBlockSize);
+            DbFactoryRegistry registry = db.dbFactoryRegistry;
+            registry.bTreeMapNodeFactory.setFanout(4);
+
+            MapNode m = registry.bTreeMapNodeFactory.empty();
+            assertEquals(0, m.size());
+            assertNull(m.firstKey());
+            assertEquals(m, m.remove("x"));
+
+            List<String> keys = new ArrayList<>();
+            for (int i = 0; i < 200; ++i) {
+                keys.add("" + (1000 + i * 2));
+            }
+            Collections.shuffle(keys, new Random(42));
+            TreeSet<String> expected = new TreeSet<>();
+            for (String k : keys) {
+                m = m.add(k, k);
+                expected.add(k);
+            }
+            assertEquals(200, m.size());
+            assertEquals(expected, m.flatKeys());
+            assertEquals("1000", m.firstKey());
+            assertEquals("1398", m.lastKey());
+            assertEquals("1002", m.higherKey("1000"));
+            assertEquals("1002", m.higherKey("1001"));
+            assertEquals("1002", m.ceilingKey("1002"));
+            assertEquals("1004", m.ceilingKey("1003"));
+            assertEquals("1100", m.lowerKey("1102"));
+            assertEquals("1100", m.floorKey("1101"));
+            assertEquals("1102", m.floorKey("1102"));
+            assertNull(m.lowerKey("1000"));
+            assertNull(m.higherKey("1398"));
+            assertEquals("1102", m.get("1102"));
+
+            m = m.add("1102", "x");
+            assertEquals(2, m.totalSize("1102"));
+            m = m.set("1102", "y");
+            assertEquals(1, m.totalSize("1102"));
+            assertEquals("y", m.get("1102"));
+
+            for (int i = 0; i < 100; ++i) {
+                String k = keys.get(i);
+                m = i % 2 == 0 ? m.remove(k) : m.remove(k, 0);
+                expected.remove(k);
+            }
+            assertEquals(expected, m.flatKeys());
+            assertEquals(expected.first(), m.firstKey());
+            assertEquals(expected.last(), m.lastKey());
+
+            int count = 0;
+            PeekABoo<ListAccessor> it = m.iterator();
+            for (String k : expected) {
+                assertTrue(it.hasNext());
+                assertEquals(k, it.next().key());
+                count++;
+            }
+            assertFalse(it.hasNext());
+            assertEquals(100, count);
+
+            ByteBuffer bb = m.toByteBuffer();
+            MapNode m2 = (MapNode) registry.readId(bb).deserialize(bb);
+            assertEquals(m.getDurableLength(), m2.getDurableLength());
+            assertEquals(expected, m2.flatKeys());
+
+            for (int i = 100; i < 200; ++i) {
+                m = m.remove(keys.get(i));
+            }
+            assertEquals(0, m.size());
+            assertNull(m.firstKey());
+        } finally {
+            Plant.close();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package org.agilewiki.awdb.db.immutable.collections;
+
+import junit.framework.TestCase;
+
+import java.nio.ByteBuffer;
+
+public class BloomFilterTest extends TestCase {
+    public void test() throws Exception {
+        BloomFilter filter = BloomFilter.of(1000);
+        assertEquals(16384 / 64, filter.wordCount());
+        for (int i = 0; i < 1000; ++i)
+            filter.add("k" + i);
+        for (int i = 0; i < 1000; ++i)
+            assertTrue(filter.mightContain("k" + i));
+        int falsePositives = 0;
+        for (int i = 1000; i < 11000; ++i) {
+            if (filter.mightContain("k" + i))
+                falsePositives += 1;
+        }
+        assertTrue(falsePositives < 200);
+
+        ByteBuffer byteBuffer = ByteBuffer.allocate(filter.getDurableLength());
+        filter.serialize(byteBuffer);
+        assertEquals(filter.getDurableLength(), byteBuffer.position());
+        byteBuffer.flip();
+        BloomFilter filter2 = new BloomFilter(byteBuffer);
+        assertEquals(filter.wordCount(), filter2.wordCount());
+        for (int i = 0; i < 1000; ++i)
+            assertTrue(filter2.mightContain("k" + i));
+    }
+
+    public void testMerge() throws Exception {
+        BloomFilter small = BloomFilter.forBlockSize(2000);
+        for (int i = 0; i < 10; ++i)
+            small.add(i);
+        BloomFilter large = BloomFilter.forBlockSize(2000);
+        for (int i = 100; i < 140; ++i)
+            large.add(i);
+        BloomFilter merged = BloomFilter.forBlockSize(2000);
+        merged.add("x");
+        merged.merge(large);
+        merged.merge(small);
+        assertEquals(8, merged.wordCount());
+        assertTrue(merged.mightContain("x"));
+        for (int i = 0; i < 10; ++i)
+            assertTrue(merged.mightContain(i));
+        for (int i = 100; i < 140; ++i)
+            assertTrue(merged.mightContain(i));
+        int falsePositives = 0;
+        for (int i = 1000; i < 11000; ++i) {
+            if (merged.mightContain(i))
+                falsePositives += 1;
+        }
+        assertTrue(falsePositives < 500);
+        try {
+            merged.merge(BloomFilter.of(1000));
+            fail();
+        } catch (IllegalArgumentException ex) {
+        }
+        assertEquals(1, BloomFilter.forBlockSize(0).wordCount());
+        assertEquals(1, BloomFilter.of(0).wordCount());
+    }
+}
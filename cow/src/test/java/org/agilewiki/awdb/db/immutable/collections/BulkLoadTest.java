@@ -0,0 +1,61 @@
+package org.agilewiki.awdb.db.immutable.collections;
+
+import junit.framework.TestCase;
+import org.agilewiki.jactor2.core.impl.Plant;
+import org.agilewiki.awdb.db.immutable.BaseRegistry;
+import org.agilewiki.awdb.db.virtualcow.Db;
+import org.agilewiki.awdb.db.virtualcow.DbFactoryRegistry;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+public class BulkLoadTest extends TestCase {
+    public void test() throws Exception {
+        new Plant();
+        try {
+            Path dbPath = Paths.get("cow.db");
+            int maxRootBlockSize = 1000;
+            Db db = new Db(new BaseRegistry(), dbPath, maxRootBlockSize);
+            DbFactoryRegistry registry = db.dbFactoryRegistry;
+            db._setTimestamp(2);
+
+            for (int n = 0; n < 70; ++n) {
+                List<Map.Entry<Comparable, ListNode>> entries = new ArrayList<>();
+                List<Map.Entry<Comparable, VersionedListNode>> versionedEntries = new ArrayList<>();
+                for (int i = 0; i < n; ++i) {
+                    String k = "" + (1000 + i);
+                    entries.add(new AbstractMap.SimpleEntry<>(k, registry.nilList.add(k)));
+                    versionedEntries.add(new AbstractMap.SimpleEntry<>(k, registry.versionedNilList.add(k)));
+                }
+
+                MapNode m = registry.mapNodeFactory.bulkLoad(entries.iterator());
+                assertEquals(n, m.size());
+                AATreeAssert.checkLevels(m);
+                m = m.add("0", "x").add("9999", "y");
+                AATreeAssert.checkLevels(m);
+                assertEquals(n + 2, m.flatKeys().size());
+
+                VersionedMapNode vm = registry.versionedMapNodeFactory.bulkLoad(versionedEntries.stream().iterator());
+                assertEquals(n, vm.flatKeys(3).size());
+                AATreeAssert.checkLevels(vm);
+                if (n > 0)
+                    assertEquals("1000", vm.getList("1000").getExistingValue(0, 3));
+            }
+
+            List<Map.Entry<Comparable, ListNode>> unsorted = new ArrayList<>();
+            unsorted.add(new AbstractMap.SimpleEntry<>("b", registry.nilList.add("b")));
+            unsorted.add(new AbstractMap.SimpleEntry<>("a", registry.nilList.add("a")));
+            try {
+                registry.mapNodeFactory.bulkLoad(unsorted.iterator());
+                fail();
+            } catch (IllegalArgumentException ex) {
+            }
+        } finally {
+            Plant.close();
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package org.agilewiki.awdb.db.immutable.collections;
+
+import junit.framework.TestCase;
+import org.agilewiki.jactor2.core.impl.Plant;
+import org.agilewiki.awdb.db.immutable.BaseRegistry;
+import org.agilewiki.awdb.db.virtualcow.Db;
+import org.agilewiki.awdb.db.virtualcow.DbFactoryRegistry;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+public class ChangesTest extends TestCase {
+    public void test() throws Exception {
+        new Plant();
+        try {
+            Path dbPath = Paths.get("cow.db");
+            int maxRootBlockSize = 1000;
+            Db db = new Db(new BaseRegistry(), dbPath, maxRootBlockSize);
+            DbFactoryRegistry registry = db.dbFactoryRegistry;
+
+            VersionedMapNode m = registry.versionedNilMap;
+            for (int i = 0; i < 60; ++i) {
+                long created = 10 + i;
+                long deleted = i % 4 == 0 ? created + 7 : Long.MAX_VALUE;
+                m = m.add("k" + (100 + i % 15), -1, "v" + i, created, deleted);
+            }
+
+            VersionedListNode l = m.getList("k100");
+            assertEquals("[+k100:0=v0]", toString(l.changes("k100", 5, 12)));
+            assertEquals("[-0=v0, +1=v15, +2=v30]", toString(l.changes(15, 40)));
+            assertEquals("[]", toString(l.changes(80, 90)));
+
+            for (long t1 = 0; t1 < 90; t1 += 3) {
+                for (long t2 = t1; t2 < 90; t2 += 5) {
+                    List<String> expected = new ArrayList<>();
+                    for (Comparable key : allKeys(m)) {
+                        VersionedListNode ln = m.getList(key);
+                        for (int j = 0; j < ln.totalSize(); ++j) {
+                            VersionedListNodeData d = ln.getData().getListNode(j).getData();
+                            if (d.exists(t1) != d.exists(t2))
+                                expected.add((d.exists(t2) ? "+" : "-") + key + ":" + j + "=" + d.value);
+                        }
+                    }
+                    assertEquals(expected.toString(), toString(m.changes(t1, t2)));
+                }
+            }
+
+            assertFalse(registry.versionedNilMap.changes(0, 10).hasNext());
+            try {
+                m.changes(10, 0);
+                fail();
+            } catch (IllegalArgumentException ex) {
+            }
+        } finally {
+            Plant.close();
+        }
+    }
+
+    private List<Comparable> allKeys(VersionedMapNode m) {
+        List<Comparable> keys = new ArrayList<>();
+        for (int i = 0; i < m.totalSize(); ++i)
+            keys.add(m.keyAt(i));
+        return keys;
+    }
+
+    private String toString(Iterator<VersionedChange> it) {
+        List<String> list = new ArrayList<>();
+        while (it.hasNext())
+            list.add(it.next().toString());
+        return list.toString();
+    }
+}
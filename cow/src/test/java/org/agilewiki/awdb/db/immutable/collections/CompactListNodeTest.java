@@ -0,0 +1,94 @@
+package org.agilewiki.awdb.db.immutable.collections;
+
+import junit.framework.TestCase;
+import org.agilewiki.jactor2.core.impl.Plant;
+import org.agilewiki.awdb.db.immutable.BaseRegistry;
+import org.agilewiki.awdb.db.immutable.ImmutableFactory;
+import org.agilewiki.awdb.db.immutable.VarInt;
+import org.agilewiki.awdb.db.virtualcow.Db;
+import org.agilewiki.awdb.db.virtualcow.DbFactoryRegistry;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+
+public class CompactListNodeTest extends TestCase {
+    public void testSigned() throws Exception {
+        long[] values = {0L, 1L, -1L, 63L, -64L, 64L, 1000000L, Long.MAX_VALUE, Long.MIN_VALUE};
+        ByteBuffer byteBuffer = ByteBuffer.allocate(100);
+        for (long v : values) {
+            byteBuffer.clear();
+            VarInt.putSigned(byteBuffer, v);
+            assertEquals(VarInt.sizeSigned(v), byteBuffer.position());
+            byteBuffer.flip();
+            assertEquals(v, VarInt.getSigned(byteBuffer));
+        }
+        assertEquals(1, VarInt.sizeSigned(-64L));
+        assertEquals(10, VarInt.sizeSigned(Long.MIN_VALUE));
+    }
+
+    public void testDeleted() throws Exception {
+        new Plant();
+        try {
+            Db db = new Db(new BaseRegistry(), Paths.get("cow.db"), 1000);
+            DbFactoryRegistry registry = db.dbFactoryRegistry;
+            VersionedListNode l = registry.versionedNilList;
+            l = l.add(0, "a", 10L, Long.MAX_VALUE);
+            l = l.add(1, "b", 20L, 40L);
+            l = l.add(2, "c", 30L, Long.MAX_VALUE);
+
+            ImmutableFactory factory = registry.getImmutableFactory(l);
+            ByteBuffer byteBuffer = factory.toByteBuffer(l);
+            ImmutableFactory factory2 = registry.readId(byteBuffer);
+            assertTrue(factory2 instanceof VersionedCompactListNodeFactory);
+            VersionedListNode l2 = (VersionedListNode) factory2.deserialize(byteBuffer);
+            assertEquals("abc", String.join("", l2.flatList(35L)));
+            assertEquals("ac", String.join("", l2.flatList(45L)));
+            assertEquals(2, l2.size(45L));
+            assertEquals(0, l2.size(5L));
+        } finally {
+            Plant.close();
+        }
+    }
+
+    public void testLegacy() throws Exception {
+        new Plant();
+        try {
+            Db db = new Db(new BaseRegistry(), Paths.get("cow.db"), 1000);
+            DbFactoryRegistry registry = db.dbFactoryRegistry;
+            ImmutableFactory stringFactory = registry.getImmutableFactory("x");
+            int length = 2 + 4 + 4 + 4 + 8 + 8 + 2 + stringFactory.getDurableLength("x") + 2;
+            ByteBuffer byteBuffer = ByteBuffer.allocate(length);
+            byteBuffer.putChar(registry.versionedListNodeImplId);
+            byteBuffer.putInt(length);
+            byteBuffer.putInt(1);
+            byteBuffer.putInt(1);
+            byteBuffer.putLong(10L);
+            byteBuffer.putLong(Long.MAX_VALUE);
+            byteBuffer.putChar(registry.versionedNilListId);
+            stringFactory.writeDurable("x", byteBuffer);
+            byteBuffer.putChar(registry.versionedNilListId);
+            byteBuffer.flip();
+
+            ImmutableFactory factory = registry.readId(byteBuffer);
+            assertTrue(factory instanceof VersionedListNodeFactory);
+            VersionedListNode l = (VersionedListNode) factory.deserialize(byteBuffer);
+            assertEquals(length, l.getDurableLength());
+            assertEquals("x", l.getExistingValue(0, 20L));
+            assertNull(l.getExistingValue(0, 5L));
+
+            ByteBuffer byteBuffer2 = registry.getImmutableFactory(l).toByteBuffer(l);
+            byteBuffer.rewind();
+            assertEquals(byteBuffer, byteBuffer2);
+
+            VersionedListNode l2 = l.add(1, "y", 30L, Long.MAX_VALUE);
+            ByteBuffer byteBuffer3 = registry.getImmutableFactory(l2).toByteBuffer(l2);
+            assertEquals(registry.versionedCompactListNodeImplId, byteBuffer3.getChar(0));
+            assertTrue(l2.getDurableLength() < l.getDurableLength() + stringFactory.getDurableLength("y") + 36);
+            ImmutableFactory factory3 = registry.readId(byteBuffer3);
+            VersionedListNode l3 = (VersionedListNode) factory3.deserialize(byteBuffer3);
+            assertEquals("xy", String.join("", l3.flatList(40L)));
+        } finally {
+            Plant.close();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package org.agilewiki.awdb.db.immutable.collections;
+
+import junit.framework.TestCase;
+import org.agilewiki.jactor2.core.impl.Plant;
+import org.agilewiki.awdb.db.immutable.BaseRegistry;
+import org.agilewiki.awdb.db.virtualcow.Db;
+import org.agilewiki.awdb.db.virtualcow.DbFactoryRegistry;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+import java.util.TreeMap;
+
+public class ComputeTest extends TestCase {
+    public void test() throws Exception {
+        new Plant();
+        try {
+            Path dbPath = Paths.get("cow.db");
+            int maxRootBlockSize = 1000;
+            Db db = new Db(new BaseRegistry(), dbPath, maxRootBlockSize);
+            DbFactoryRegistry registry = db.dbFactoryRegistry;
+            db._setTimestamp(2);
+
+            ListNode nil = registry.nilList;
+            MapNode m = registry.nilMap;
+            TreeMap<String, Integer> expected = new TreeMap<>();
+            Random random = new Random(7);
+            for (int i = 0; i < 3000; ++i) {
+                String k = "" + (1000 + random.nextInt(400));
+                int op = random.nextInt(4);
+                if (op == 0) {
+                    m = m.compute(k, l -> nil);
+                    expected.remove(k);
+                } else if (op == 1) {
+                    m = m.computeIfAbsent(k, key -> nil.add(0));
+                    expected.putIfAbsent(k, 0);
+                } else if (op == 2) {
+                    m = m.merge(k, nil.add(1), (a, b) -> nil.add((Integer) a.get(0) + (Integer) b.get(0)));
+                    expected.merge(k, 1, Integer::sum);
+                } else {
+                    m = m.set(k, i);
+                    expected.put(k, i);
+                }
+                AATreeAssert.checkLevels(m);
+            }
+            assertEquals(expected.keySet(), m.flatKeys());
+            for (String k : expected.keySet()) {
+                assertEquals(expected.get(k), m.get(k));
+            }
+            MapNode m2 = m.compute("none", l -> l);
+            assertSame(m, m2);
+
+            VersionedMapNode vm = registry.versionedNilMap;
+            for (int i = 0; i < 200; ++i) {
+                vm = vm.set("" + (1000 + i), i);
+                AATreeAssert.checkLevels(vm);
+            }
+            assertSame(vm, vm.compute("none", l -> l));
+            vm = vm.computeIfAbsent("1005", key -> registry.versionedNilList.add("x"));
+            assertEquals(5, vm.getList("1005").getExistingValue(0, 3));
+            vm = vm.merge("1005", registry.versionedNilList.add("y"), (a, b) -> a.add("z"));
+            assertEquals("z", vm.getList("1005").getExistingValue(1, 3));
+            assertEquals(200, vm.flatKeys(3).size());
+        } finally {
+            Plant.close();
+        }
+    }
+}
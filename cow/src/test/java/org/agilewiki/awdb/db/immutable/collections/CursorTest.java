@@ -0,0 +1,137 @@
+package org.agilewiki.awdb.db.immutable.collections;
+
+import junit.framework.TestCase;
+import org.agilewiki.jactor2.core.impl.Plant;
+import org.agilewiki.awdb.db.immutable.BaseRegistry;
+import org.agilewiki.awdb.db.virtualcow.Db;
+import org.agilewiki.awdb.db.virtualcow.DbFactoryRegistry;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+public class CursorTest extends TestCase {
+    public void test() throws Exception {
+        new Plant();
+        try {
+            Path dbPath = Paths.get("cow.db");
+            int maxRootBlockSize = 1000;
+            Db db = new Db(new BaseRegistry(), dbPath, maxRootBlockSize);
+            DbFactoryRegistry registry = db.dbFactoryRegistry;
+            registry.bTreeMapNodeFactory.setFanout(4);
+
+            List<String> keys = new ArrayList<>();
+            for (int i = 0; i < 100; ++i) {
+                keys.add("" + (1000 + i * 2));
+            }
+            Collections.shuffle(keys, new Random(7));
+            MapNode aa = registry.nilMap;
+            MapNode bt = registry.bTreeMapNodeFactory.empty();
+            VersionedMapNode vm = registry.versionedNilMap;
+            TreeSet<String> expected = new TreeSet<>();
+            TreeSet<String> expected50 = new TreeSet<>();
+            int t = 1;
+            for (String k : keys) {
+                aa = aa.add(k, k);
+                bt = bt.add(k, k);
+                vm = vm.add(k, -1, k, t, t % 3 == 0 ? t + 40 : Long.MAX_VALUE);
+                expected.add(k);
+                if (t <= 50 && (t % 3 != 0 || t + 40 > 50))
+                    expected50.add(k);
+                t += 1;
+            }
+
+            assertNil(registry.nilMap.cursor());
+            assertNil(registry.bTreeMapNodeFactory.empty().cursor());
+            assertNil(registry.versionedNilMap.cursor(50));
+            check(expected, aa.cursor());
+            check(expected, bt.cursor());
+            check(expected50, vm.cursor(50));
+
+            walk(expected, aa.iterator());
+            walk(expected, bt.iterator());
+            walk(expected50, vm.iterator(50));
+            walk(expected.subSet("110", "111"), aa.iterable("110"));
+            walk(expected.subSet("110", "111"), bt.iterable("110"));
+            walk(expected50.subSet("110", "111"), vm.iterable("110", 50));
+            walk(new TreeSet<>(), aa.iterable("2"));
+            walk(new TreeSet<>(), vm.iterable("0", 50));
+        } finally {
+            Plant.close();
+        }
+    }
+
+    private void assertNil(KeyCursor cursor) {
+        assertFalse(cursor.isValid());
+        cursor.last();
+        assertFalse(cursor.isValid());
+        cursor.seek("1", true);
+        assertFalse(cursor.isValid());
+        cursor.seekBack("1", true);
+        assertFalse(cursor.isValid());
+    }
+
+    private void check(TreeSet<String> expected, KeyCursor cursor) {
+        assertTrue(cursor.isValid());
+        assertEquals(expected.first(), cursor.key());
+        List<String> forward = new ArrayList<>();
+        while (cursor.isValid()) {
+            forward.add((String) cursor.key());
+            assertNotNull(cursor.list());
+            cursor.next();
+        }
+        assertEquals(new ArrayList<>(expected), forward);
+
+        List<String> backward = new ArrayList<>();
+        cursor.last();
+        while (cursor.isValid()) {
+            backward.add((String) cursor.key());
+            cursor.prior();
+        }
+        Collections.reverse(backward);
+        assertEquals(forward, backward);
+
+        for (int i = 998; i < 1202; ++i) {
+            String k = "" + i;
+            cursor.seek(k, true);
+            assertEquals(expected.ceiling(k), cursor.isValid() ? cursor.key() : null);
+            cursor.seek(k, false);
+            assertEquals(expected.higher(k), cursor.isValid() ? cursor.key() : null);
+            cursor.seekBack(k, true);
+            assertEquals(expected.floor(k), cursor.isValid() ? cursor.key() : null);
+            cursor.seekBack(k, false);
+            assertEquals(expected.lower(k), cursor.isValid() ? cursor.key() : null);
+            if (cursor.isValid()) {
+                cursor.next();
+                assertEquals(expected.ceiling(k), cursor.isValid() ? cursor.key() : null);
+            }
+        }
+    }
+
+    private void walk(java.util.SortedSet<String> expected, PeekABoo<ListAccessor> it) {
+        List<String> forward = new ArrayList<>();
+        while (it.hasNext()) {
+            assertEquals(it.getPosition(), it.peek().key());
+            forward.add((String) it.next().key());
+        }
+        assertEquals(new ArrayList<>(expected), forward);
+        assertNull(it.getPosition());
+        List<String> backward = new ArrayList<>();
+        while (it.positionPrior())
+            backward.add(it.getPosition());
+        Collections.reverse(backward);
+        assertEquals(forward, backward);
+        if (expected.isEmpty())
+            return;
+        String mid = forward.get(forward.size() / 2);
+        it.setPosition(mid);
+        assertEquals(mid, it.getPosition());
+        assertEquals(mid, it.next().key());
+        it.setPosition("0");
+        assertEquals(expected.first(), it.getPosition());
+    }
+}
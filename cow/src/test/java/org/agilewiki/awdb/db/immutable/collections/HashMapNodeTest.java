@@ -0,0 +1,90 @@
+package org.agilewiki.awdb.db.immutable.collections;
+
+import junit.framework.TestCase;
+import org.agilewiki.jactor2.core.impl.Plant;
+import org.agilewiki.awdb.db.immutable.BaseRegistry;
+import org.agilewiki.awdb.db.immutable.ImmutableFactory;
+import org.agilewiki.awdb.db.virtualcow.Db;
+import org.agilewiki.awdb.db.virtualcow.DbFactoryRegistry;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+
+public class HashMapNodeTest extends TestCase {
+    public void test() throws Exception {
+        new Plant();
+        try {
+            Db db = new Db(new BaseRegistry(), Paths.get("cow.db"), 1000);
+            DbFactoryRegistry registry = db.dbFactoryRegistry;
+            HashMapNode empty = registry.hashMapNodeFactory.empty();
+            assertEquals(0, empty.size());
+            assertNull(empty.getList("a"));
+
+            HashMapNode m = empty;
+            for (int i = 0; i < 1000; ++i)
+                m = m.add("k" + i, i);
+            assertEquals(1000, m.size());
+            for (int i = 0; i < 1000; ++i)
+                assertEquals(i, m.get("k" + i));
+            assertNull(m.getList("k1000"));
+            assertEquals(1000, m.flatKeys().size());
+            assertEquals(1000, m.stream().count());
+
+            ImmutableFactory factory = registry.getImmutableFactory(m);
+            assertTrue(factory instanceof HashMapNodeFactory);
+            ByteBuffer byteBuffer = factory.toByteBuffer(m);
+            assertEquals(m.getDurableLength(), byteBuffer.limit());
+            HashMapNode m2 = (HashMapNode) registry.readId(byteBuffer).deserialize(byteBuffer);
+            assertEquals(1000, m2.size());
+            for (int i = 0; i < 1000; ++i)
+                assertEquals(i, m2.get("k" + i));
+
+            HashMapNode m3 = m2;
+            for (int i = 0; i < 1000; i += 2)
+                m3 = m3.remove("k" + i);
+            assertEquals(500, m3.size());
+            assertNull(m3.get("k0"));
+            assertEquals(1, m3.get("k1"));
+            assertEquals(1000, m2.size());
+            for (int i = 1; i < 1000; i += 2)
+                m3 = m3.remove("k" + i);
+            assertEquals(0, m3.size());
+            assertEquals(empty.getDurableLength(), m3.getDurableLength());
+        } finally {
+            Plant.close();
+        }
+    }
+
+    public void testCollisions() throws Exception {
+        new Plant();
+        try {
+            Db db = new Db(new BaseRegistry(), Paths.get("cow.db"), 1000);
+            DbFactoryRegistry registry = db.dbFactoryRegistry;
+            assertEquals("Aa".hashCode(), "BB".hashCode());
+            HashMapNode m = registry.hashMapNodeFactory.empty();
+            m = m.add("Aa", 1);
+            m = m.add("BB", 2);
+            m = m.add("AaAa", 3);
+            m = m.add("BBBB", 4);
+            m = m.add("AaBB", 5);
+            assertEquals(5, m.size());
+            assertEquals(1, m.get("Aa"));
+            assertEquals(2, m.get("BB"));
+            assertEquals(5, m.get("AaBB"));
+            assertNull(m.get("BBAa"));
+
+            ByteBuffer byteBuffer = m.toByteBuffer();
+            HashMapNode m2 = (HashMapNode) registry.readId(byteBuffer).deserialize(byteBuffer);
+            assertEquals(4, m2.get("BBBB"));
+
+            m2 = m2.remove("Aa");
+            assertNull(m2.get("Aa"));
+            assertEquals(2, m2.get("BB"));
+            m2 = m2.remove("BB");
+            assertEquals(3, m2.size());
+            assertEquals(3, m2.get("AaAa"));
+        } finally {
+            Plant.close();
+        }
+    }
+}
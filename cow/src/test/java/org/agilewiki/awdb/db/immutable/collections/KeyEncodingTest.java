@@ -0,0 +1,68 @@
+package org.agilewiki.awdb.db.immutable.collections;
+
+import junit.framework.TestCase;
+import org.agilewiki.jactor2.core.impl.Plant;
+import org.agilewiki.awdb.db.immutable.BaseRegistry;
+import org.agilewiki.awdb.db.virtualcow.Db;
+import org.agilewiki.awdb.db.virtualcow.DbFactoryRegistry;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+public class KeyEncodingTest extends TestCase {
+    public void test() throws Exception {
+        Comparable[][] keys = {
+                {"", "\u0000", "\u0000a", "a", "a\u0000", "ab", "b", "\u007f", "\u0080", "\u00e9",
+                        "\u07ff", "\u0800", "\ud83d\ude00", "\ue000", "\uffff"},
+                {Long.MIN_VALUE, -1L, 0L, 1L, 255L, 256L, Long.MAX_VALUE},
+                {Integer.MIN_VALUE, -256, -1, 0, 1, Integer.MAX_VALUE}};
+        for (Comparable[] ks : keys) {
+            for (Comparable a : ks) {
+                ByteBuffer bb = ByteBuffer.wrap(KeyEncoding.encode(a));
+                assertEquals(a, KeyEncoding.decode(bb, bb.limit()));
+                for (Comparable b : ks)
+                    assertEquals(Integer.signum(a.compareTo(b)), Integer.signum(compare(a, b)));
+            }
+        }
+        assertNull(KeyEncoding.encode(1.5));
+        assertEquals(4, KeyEncoding.encode("abc").length);
+
+        new Plant();
+        try {
+            Path dbPath = Paths.get("cow.db");
+            int maxRootBlockSize = 1000;
+            Db db = new Db(new BaseRegistry(), dbPath, maxRootBlockSize);
+            DbFactoryRegistry registry = db.dbFactoryRegistry;
+
+            MapNode m = registry.nilMap;
+            for (int i = 0; i < 100; ++i)
+                m = m.add("k" + (1000 + 2 * i), i);
+            ByteBuffer byteBuffer = m.toByteBuffer();
+            MapNode m2 = (MapNode) registry.readId(byteBuffer).deserialize(byteBuffer);
+            assertNull(m2.getList("k1001"));
+            assertNull(m2.getList("a"));
+            assertNull(m2.getList("z"));
+            assertNull(((MapNodeImpl) m2).dataReference.get());
+            for (int i = 0; i < 100; ++i)
+                assertEquals(i, m2.getList("k" + (1000 + 2 * i)).get(0));
+            assertEquals(m.flatMap(), m2.flatMap());
+
+            MapNode m3 = registry.nilMap;
+            for (long i = -50; i < 50; ++i)
+                m3 = m3.add(i * 1000, i);
+            byteBuffer = m3.toByteBuffer();
+            MapNode m4 = (MapNode) registry.readId(byteBuffer).deserialize(byteBuffer);
+            assertNull(m4.getList(1L));
+            assertEquals(-7L, m4.getList(-7000L).get(0));
+            assertEquals(m3.flatMap(), m4.flatMap());
+        } finally {
+            Plant.close();
+        }
+    }
+
+    private static int compare(Comparable a, Comparable b) {
+        ByteBuffer bb = ByteBuffer.wrap(KeyEncoding.encode(b));
+        return KeyEncoding.compare(KeyEncoding.encode(a), bb, 0, bb.limit());
+    }
+}
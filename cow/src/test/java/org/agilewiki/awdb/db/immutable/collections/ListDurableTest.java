@@ -40,15 +40,15 @@ public class ListDurableTest extends TestCase {
             l2 = l2.add("3");
             ImmutableFactory factory3 = registry.getImmutableFactory(l2);
             assertTrue(factory3 instanceof ListNodeFactory);
-            assertEquals(74, factory3.getDurableLength(l2));
+            assertEquals(62, factory3.getDurableLength(l2));
             ByteBuffer byteBuffer2 = ByteBuffer.allocate(factory3.getDurableLength(l2));
             factory3.writeDurable(l2, byteBuffer2);
-            assertEquals(74, byteBuffer2.position());
+            assertEquals(62, byteBuffer2.position());
             byteBuffer2.flip();
             ImmutableFactory factory4 = registry.readId(byteBuffer2);
             assertTrue(factory4 instanceof ListNodeFactory);
             Object object4 = factory4.deserialize(byteBuffer2);
-            assertEquals(74, byteBuffer2.position());
+            assertEquals(62, byteBuffer2.position());
             assertEquals("123", String.join("", ((ListNode) object4).flatList()));
         } finally {
             Plant.close();
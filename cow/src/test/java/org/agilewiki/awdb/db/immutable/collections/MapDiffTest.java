@@ -0,0 +1,66 @@
+package org.agilewiki.awdb.db.immutable.collections;
+
+import junit.framework.TestCase;
+import org.agilewiki.jactor2.core.impl.Plant;
+import org.agilewiki.awdb.db.immutable.BaseRegistry;
+import org.agilewiki.awdb.db.virtualcow.Db;
+import org.agilewiki.awdb.db.virtualcow.DbFactoryRegistry;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+public class MapDiffTest extends TestCase {
+    public void test() throws Exception {
+        new Plant();
+        try {
+            Path dbPath = Paths.get("cow.db");
+            int maxRootBlockSize = 1000;
+            Db db = new Db(new BaseRegistry(), dbPath, maxRootBlockSize);
+            DbFactoryRegistry registry = db.dbFactoryRegistry;
+            registry.bTreeMapNodeFactory.setFanout(4);
+
+            MapNode[] empties = new MapNode[]{registry.nilMap, registry.bTreeMapNodeFactory.empty()};
+            for (MapNode m1 : empties) {
+                for (int i = 0; i < 300; ++i)
+                    m1 = m1.add("" + (1000 + i * 2), "v" + i);
+                MapNode m2 = m1.add("1001", "a").remove("1100").set("1200", "b").add("2000", "c").add("0999", "d");
+                assertEquals("[+0999, +1001, -1100, ~1200, +2000]", toString(m1.diff(m2)));
+                assertEquals("[-0999, -1001, +1100, ~1200, -2000]", toString(m2.diff(m1)));
+                assertEquals("[]", toString(m1.diff(m1)));
+
+                MapNode m3 = m1.set("1200", "v100");
+                assertEquals("[]", toString(m1.diff(m3)));
+
+                MapNode m4 = registry.nilMap;
+                for (int i = 299; i >= 0; --i)
+                    m4 = m4.add("" + (1000 + i * 2), "v" + i);
+                m4 = m4.remove("1002");
+                assertEquals("[-1002]", toString(m1.diff(m4)));
+
+                assertEquals(300, count(registry.nilMap.diff(m1)));
+                assertEquals(300, count(m1.diff(empties[1])));
+            }
+        } finally {
+            Plant.close();
+        }
+    }
+
+    private int count(Iterator<MapChange> it) {
+        int c = 0;
+        while (it.hasNext()) {
+            it.next();
+            ++c;
+        }
+        return c;
+    }
+
+    private String toString(Iterator<MapChange> it) {
+        List<String> list = new ArrayList<>();
+        while (it.hasNext())
+            list.add(it.next().toString());
+        return list.toString();
+    }
+}
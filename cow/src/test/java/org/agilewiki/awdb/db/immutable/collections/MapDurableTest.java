@@ -40,15 +40,15 @@ public class MapDurableTest extends TestCase {
             m2 = m2.add("a", "3");
             ImmutableFactory factory3 = registry.getImmutableFactory(m2);
             assertTrue(factory3 instanceof MapNodeFactory);
-            assertEquals(96, factory3.getDurableLength(m2));
+            assertEquals(94, factory3.getDurableLength(m2));
             ByteBuffer byteBuffer2 = ByteBuffer.allocate(factory3.getDurableLength(m2));
             factory3.writeDurable(m2, byteBuffer2);
-            assertEquals(96, byteBuffer2.position());
+            assertEquals(94, byteBuffer2.position());
             byteBuffer2.flip();
             ImmutableFactory factory4 = registry.readId(byteBuffer2);
             assertTrue(factory4 instanceof MapNodeFactory);
             Object object4 = factory4.deserialize(byteBuffer2);
-            assertEquals(96, byteBuffer2.position());
+            assertEquals(94, byteBuffer2.position());
             assertEquals("123", String.join("", ((MapNode) object4).getList("a").flatList()));
         } finally {
             Plant.close();
@@ -0,0 +1,106 @@
+package org.agilewiki.awdb.db.immutable.collections;
+
+import junit.framework.TestCase;
+import org.agilewiki.jactor2.core.impl.Plant;
+import org.agilewiki.awdb.db.immutable.BaseRegistry;
+import org.agilewiki.awdb.db.immutable.ImmutableFactory;
+import org.agilewiki.awdb.db.virtualcow.Db;
+import org.agilewiki.awdb.db.virtualcow.DbFactoryRegistry;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+public class OrderStatisticsTest extends TestCase {
+    public void test() throws Exception {
+        new Plant();
+        try {
+            Path dbPath = Paths.get("cow.db");
+            int maxRootBlockSize = 1000;
+            Db db = new Db(new BaseRegistry(), dbPath, maxRootBlockSize);
+            DbFactoryRegistry registry = db.dbFactoryRegistry;
+            db._setTimestamp(2);
+
+            MapNode m = registry.nilMap;
+            TreeSet<String> expected = new TreeSet<>();
+            Random random = new Random(3);
+            for (int i = 0; i < 2000; ++i) {
+                String k = "" + (1000 + random.nextInt(500));
+                if (random.nextInt(3) > 0) {
+                    m = m.set(k, i);
+                    expected.add(k);
+                } else {
+                    m = m.remove(k);
+                    expected.remove(k);
+                }
+            }
+            check(m, expected);
+            ByteBuffer byteBuffer = m.toByteBuffer();
+            ImmutableFactory factory = registry.readId(byteBuffer);
+            check((MapNode) factory.deserialize(byteBuffer), expected);
+
+            MapNode bm = registry.bTreeMapNodeFactory.empty();
+            for (String k : expected) {
+                bm = bm.set(k, k);
+            }
+            check(bm, expected);
+
+            VersionedMapNode vm = registry.versionedNilMap;
+            for (int i = 0; i < 300; ++i) {
+                vm = vm.add("" + (1000 + i), i);
+            }
+            db._setTimestamp(3);
+            for (int i = 0; i < 300; i += 3) {
+                vm = vm.clearList("" + (1000 + i));
+            }
+            assertEquals(300, vm.totalSize());
+            assertEquals(200, vm.size(4));
+            for (int i = 0; i < 300; ++i) {
+                String k = "" + (1000 + i);
+                assertEquals(i, vm.rank(k));
+                assertEquals(k, vm.keyAt(i));
+                assertEquals(i, vm.rank(k, 2));
+                assertEquals(k, vm.keyAt(i, 2));
+                assertEquals(i - (i + 2) / 3, vm.rank(k, 4));
+            }
+            assertNull(vm.keyAt(200, 4));
+            assertEquals("1002", vm.keyAt(1, 4));
+            assertEquals("1150", vm.iterator(150, 2).next().key());
+            assertEquals("1149", vm.iterator(99, 4).next().key());
+            assertFalse(vm.iterator(200, 4).hasNext());
+            byteBuffer = vm.toByteBuffer();
+            factory = registry.readId(byteBuffer);
+            VersionedMapNode vm2 = (VersionedMapNode) factory.deserialize(byteBuffer);
+            assertEquals(300, vm2.totalSize());
+            assertEquals("1150", vm2.keyAt(150));
+
+            MapNode lm = registry.nilMap;
+            for (long i = 0; i < 50; ++i)
+                lm = lm.add(i * 10, "v" + i);
+            assertEquals(200L, lm.iterator(20).next().key());
+            assertFalse(lm.iterator(50).hasNext());
+        } finally {
+            Plant.close();
+        }
+    }
+
+    private void check(MapNode m, TreeSet<String> expected) {
+        List<String> keys = new ArrayList<>(expected);
+        assertEquals(keys.size(), m.size());
+        for (int i = 0; i < keys.size(); ++i) {
+            assertEquals(keys.get(i), m.keyAt(i));
+            assertEquals(i, m.rank(keys.get(i)));
+        }
+        assertNull(m.keyAt(keys.size()));
+        assertNull(m.keyAt(-1));
+        assertEquals(0, m.rank("0"));
+        assertEquals(keys.size(), m.rank("9"));
+        if (keys.size() > 10)
+            assertEquals(keys.get(10), m.iterator(10).next().key());
+        assertFalse(m.iterator(keys.size()).hasNext());
+    }
+}
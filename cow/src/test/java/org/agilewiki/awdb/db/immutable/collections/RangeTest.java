@@ -0,0 +1,93 @@
+package org.agilewiki.awdb.db.immutable.collections;
+
+import junit.framework.TestCase;
+import org.agilewiki.jactor2.core.impl.Plant;
+import org.agilewiki.awdb.db.immutable.BaseRegistry;
+import org.agilewiki.awdb.db.virtualcow.Db;
+import org.agilewiki.awdb.db.virtualcow.DbFactoryRegistry;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+public class RangeTest extends TestCase {
+    public void test() throws Exception {
+        new Plant();
+        try {
+            Path dbPath = Paths.get("cow.db");
+            int maxRootBlockSize = 1000;
+            Db db = new Db(new BaseRegistry(), dbPath, maxRootBlockSize);
+            DbFactoryRegistry registry = db.dbFactoryRegistry;
+            registry.bTreeMapNodeFactory.setFanout(4);
+
+            MapNode aa = registry.nilMap;
+            MapNode bt = registry.bTreeMapNodeFactory.empty();
+            VersionedMapNode vm = registry.versionedNilMap;
+            TreeSet<String> expected = new TreeSet<>();
+            for (int i = 0; i < 50; ++i) {
+                String k = "" + (100 + i * 2);
+                aa = aa.add(k, k);
+                bt = bt.add(k, k);
+                vm = vm.add(k, -1, k, 1, i % 5 == 0 ? 2 : Long.MAX_VALUE);
+                if (i % 5 != 0)
+                    expected.add(k);
+            }
+            TreeSet<String> all = new TreeSet<>(aa.flatKeys());
+
+            String[] bounds = {null, "099", "100", "101", "150", "151", "198", "199"};
+            for (String from : bounds) {
+                for (String to : bounds) {
+                    for (int f = 0; f < 4; ++f) {
+                        boolean fromInclusive = (f & 1) != 0;
+                        boolean toInclusive = (f & 2) != 0;
+                        if (from != null && to != null && from.compareTo(to) > 0)
+                            continue;
+                        NavigableSet<String> sub = sub(all, from, fromInclusive, to, toInclusive);
+                        NavigableSet<String> vsub = sub(expected, from, fromInclusive, to, toInclusive);
+                        check(sub, aa.range(from, fromInclusive, to, toInclusive, false), false);
+                        check(sub, aa.range(from, fromInclusive, to, toInclusive, true), true);
+                        check(sub, bt.range(from, fromInclusive, to, toInclusive, true), true);
+                        check(sub, aa.mapAccessor().range(from, fromInclusive, to, toInclusive, true), true);
+                        check(vsub, vm.range(from, fromInclusive, to, toInclusive, false, 5), false);
+                        check(vsub, vm.range(from, fromInclusive, to, toInclusive, true, 5), true);
+                    }
+                }
+            }
+        } finally {
+            Plant.close();
+        }
+    }
+
+    private NavigableSet<String> sub(NavigableSet<String> set,
+                                     String from, boolean fromInclusive,
+                                     String to, boolean toInclusive) {
+        if (from != null && to != null)
+            return set.subSet(from, fromInclusive, to, toInclusive);
+        if (from != null)
+            return set.tailSet(from, fromInclusive);
+        if (to != null)
+            return set.headSet(to, toInclusive);
+        return set;
+    }
+
+    private void check(NavigableSet<String> expected, PeekABoo<ListAccessor> it, boolean descending) {
+        List<String> keys = new ArrayList<>(descending ? expected.descendingSet() : expected);
+        List<String> visited = new ArrayList<>();
+        while (it.hasNext())
+            visited.add((String) it.next().key());
+        assertEquals(keys, visited);
+        List<String> back = new ArrayList<>();
+        while (it.positionPrior())
+            back.add(it.getPosition());
+        Collections.reverse(back);
+        assertEquals(keys, back);
+        if (keys.size() > 1) {
+            it.setPosition(keys.get(1));
+            assertEquals(keys.get(1), it.next().key());
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package org.agilewiki.awdb.db.immutable.collections;
+
+import junit.framework.TestCase;
+import org.agilewiki.jactor2.core.impl.Plant;
+import org.agilewiki.awdb.db.immutable.BaseRegistry;
+import org.agilewiki.awdb.db.immutable.ImmutableFactory;
+import org.agilewiki.awdb.db.virtualcow.Db;
+import org.agilewiki.awdb.db.virtualcow.DbFactoryRegistry;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+import java.util.Iterator;
+
+public class SetNodeTest extends TestCase {
+    public void test() throws Exception {
+        new Plant();
+        try {
+            Db db = new Db(new BaseRegistry(), Paths.get("cow.db"), 1000);
+            DbFactoryRegistry registry = db.dbFactoryRegistry;
+            SetNode s = registry.nilSet;
+            assertEquals(0, s.size());
+            assertFalse(s.contains(1));
+            assertNull(s.firstKey());
+            assertEquals(2, s.getDurableLength());
+
+            for (int i = 999; i >= 0; --i)
+                s = s.add(2 * i);
+            assertEquals(1000, s.size());
+            assertSame(s, s.add(10));
+            assertTrue(s.contains(10));
+            assertFalse(s.contains(11));
+            assertEquals(0, s.firstKey());
+            assertEquals(1998, s.lastKey());
+            assertEquals(12, s.higherKey(10));
+            assertEquals(12, s.higherKey(11));
+            assertEquals(10, s.ceilingKey(10));
+            assertEquals(8, s.lowerKey(10));
+            assertEquals(10, s.floorKey(11));
+            assertNull(s.higherKey(1998));
+
+            KeyCursor cursor = s.cursor();
+            cursor.seek(100, false);
+            assertEquals(102, cursor.key());
+            assertNull(cursor.list());
+            Iterator<Comparable> it = s.iterator();
+            int expected = 0;
+            while (it.hasNext()) {
+                assertEquals(expected, it.next());
+                expected += 2;
+            }
+            assertEquals(2000, expected);
+
+            ImmutableFactory factory = registry.getImmutableFactory(s);
+            assertTrue(factory instanceof SetNodeFactory);
+            ByteBuffer byteBuffer = factory.toByteBuffer(s);
+            assertEquals(s.getDurableLength(), byteBuffer.limit());
+            SetNode s2 = (SetNode) registry.readId(byteBuffer).deserialize(byteBuffer);
+            assertEquals(1000, s2.size());
+            assertEquals(s.flatSet(), s2.flatSet());
+
+            SetNode s3 = s2;
+            for (int i = 0; i < 1000; i += 2)
+                s3 = s3.remove(2 * i);
+            assertEquals(500, s3.size());
+            assertFalse(s3.contains(0));
+            assertTrue(s3.contains(2));
+            assertEquals(1000, s2.size());
+            for (int i = 1; i < 1000; i += 2)
+                s3 = s3.remove(2 * i);
+            assertTrue(s3.isNil());
+
+            ByteBuffer nil = registry.getImmutableFactory(s3).toByteBuffer(s3);
+            assertTrue(((SetNode) registry.readId(nil).deserialize(nil)).isNil());
+        } finally {
+            Plant.close();
+        }
+    }
+}
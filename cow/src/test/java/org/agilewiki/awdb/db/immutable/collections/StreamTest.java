@@ -0,0 +1,75 @@
+package org.agilewiki.awdb.db.immutable.collections;
+
+import junit.framework.TestCase;
+import org.agilewiki.jactor2.core.impl.Plant;
+import org.agilewiki.awdb.db.immutable.BaseRegistry;
+import org.agilewiki.awdb.db.virtualcow.Db;
+import org.agilewiki.awdb.db.virtualcow.DbFactoryRegistry;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.stream.Collectors;
+
+public class StreamTest extends TestCase {
+    public void test() throws Exception {
+        new Plant();
+        try {
+            Path dbPath = Paths.get("cow.db");
+            int maxRootBlockSize = 1000;
+            Db db = new Db(new BaseRegistry(), dbPath, maxRootBlockSize);
+            DbFactoryRegistry registry = db.dbFactoryRegistry;
+            registry.bTreeMapNodeFactory.setFanout(6);
+
+            ListNode l = registry.nilList;
+            VersionedListNode vl = registry.versionedNilList;
+            MapNode m = registry.nilMap;
+            MapNode bm = registry.bTreeMapNodeFactory.empty();
+            VersionedMapNode vm = registry.versionedNilMap;
+            for (int i = 0; i < 1000; ++i) {
+                l = l.add(i);
+                long deleted = i % 3 == 0 ? 500 + i : Long.MAX_VALUE;
+                vl = vl.add(-1, i, i, deleted);
+                m = m.add(1000 + i, i);
+                bm = bm.add(1000 + i, i);
+                vm = vm.add(1000 + i, -1, i, i, deleted);
+            }
+
+            assertEquals(l.flatList(), l.stream().collect(Collectors.toList()));
+            assertEquals(499500, l.parallelStream().mapToInt(v -> (Integer) v).sum());
+            assertEquals(1000, l.spliterator().getExactSizeIfKnown());
+            assertEquals(l.flatList(), l.listAccessor().stream().collect(Collectors.toList()));
+            assertEquals(0, registry.nilList.stream().count());
+
+            for (long t : new long[]{-1, 0, 400, 999, 1200, Long.MAX_VALUE - 1}) {
+                assertEquals(vl.flatList(t), vl.stream(t).collect(Collectors.toList()));
+                assertEquals(vl.size(t), vl.parallelStream(t).count());
+                assertEquals(vl.flatList(t), vl.listAccessor(null, t).parallelStream().collect(Collectors.toList()));
+                assertEquals(new ArrayList<>(vm.flatKeys(t)), keys(vm.parallelStream(t).collect(Collectors.toList())));
+                assertEquals(vm.size(t), vm.mapAccessor(t).stream().count());
+            }
+
+            for (MapNode map : new MapNode[]{m, bm}) {
+                assertEquals(new ArrayList<>(map.flatKeys()), keys(map.stream().collect(Collectors.toList())));
+                assertEquals(new ArrayList<>(map.flatKeys()), keys(map.parallelStream().collect(Collectors.toList())));
+                assertEquals(499500, map.mapAccessor().parallelStream().mapToInt(la -> (Integer) la.get(0)).sum());
+                Spliterator<ListAccessor> s = map.spliterator();
+                Spliterator<ListAccessor> prefix = s.trySplit();
+                assertNotNull(prefix);
+                assertEquals(1000, prefix.estimateSize() + s.estimateSize());
+                assertTrue(prefix.estimateSize() > 200 && s.estimateSize() > 200);
+            }
+        } finally {
+            Plant.close();
+        }
+    }
+
+    private List<Comparable> keys(List<ListAccessor> accessors) {
+        List<Comparable> keys = new ArrayList<>();
+        for (ListAccessor la : accessors)
+            keys.add(la.key());
+        return keys;
+    }
+}
@@ -0,0 +1,71 @@
+package org.agilewiki.awdb.db.immutable.collections;
+
+import junit.framework.TestCase;
+import org.agilewiki.jactor2.core.impl.Plant;
+import org.agilewiki.awdb.db.immutable.BaseRegistry;
+import org.agilewiki.awdb.db.virtualcow.Db;
+import org.agilewiki.awdb.db.virtualcow.DbFactoryRegistry;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+public class TemporalSummaryTest extends TestCase {
+    public void test() throws Exception {
+        new Plant();
+        try {
+            Path dbPath = Paths.get("cow.db");
+            int maxRootBlockSize = 1000;
+            Db db = new Db(new BaseRegistry(), dbPath, maxRootBlockSize);
+            DbFactoryRegistry registry = db.dbFactoryRegistry;
+
+            VersionedListNode l = registry.versionedNilList;
+            VersionedMapNode m = registry.versionedNilMap;
+            for (int i = 0; i < 20; ++i) {
+                long deleted = i % 3 == 0 ? 10 + 2 * i : Long.MAX_VALUE;
+                l = l.add(-1, "v" + i, 5 + i, deleted);
+                m = m.add("k" + (100 + i), -1, "v" + i, 5 + i, deleted);
+            }
+
+            TemporalSummary s = l.getData().getSummary();
+            assertEquals(5, s.minCreated);
+            assertEquals(Long.MAX_VALUE, s.maxDeleted);
+            assertEquals(46, s.lastChange);
+            assertEquals(13, s.liveCount);
+
+            ByteBuffer byteBuffer = l.toByteBuffer();
+            VersionedListNode l2 = (VersionedListNode) registry.readId(byteBuffer).deserialize(byteBuffer);
+            byteBuffer = m.toByteBuffer();
+            VersionedMapNode m2 = (VersionedMapNode) registry.readId(byteBuffer).deserialize(byteBuffer);
+            assertEquals(13, l2.getData().getSummary().liveCount);
+
+            for (long t = 0; t < 60; ++t) {
+                int expected = 0;
+                for (int i = 0; i < 20; ++i) {
+                    long deleted = i % 3 == 0 ? 10 + 2 * i : Long.MAX_VALUE;
+                    if (t >= 5 + i && t < deleted)
+                        expected += 1;
+                }
+                assertEquals(expected, l.size(t));
+                assertEquals(expected, l2.size(t));
+                assertEquals(expected == 0, l2.isEmpty(t));
+                assertEquals(expected, l2.flatList(t).size());
+                assertEquals(expected, m.size(t));
+                assertEquals(expected, m2.size(t));
+                assertEquals(expected == 0, m2.isEmpty(t));
+                assertEquals(expected, m2.flatKeys(t).size());
+                if (expected > 0) {
+                    assertEquals(l.firstIndex(t), l2.firstIndex(t));
+                    assertEquals(l.lastIndex(t), l2.lastIndex(t));
+                    assertEquals(m.firstKey(t), m2.firstKey(t));
+                    assertEquals(m.lastKey(t), m2.lastKey(t));
+                } else {
+                    assertEquals(-1, l2.firstIndex(t));
+                    assertNull(m2.firstKey(t));
+                }
+            }
+        } finally {
+            Plant.close();
+        }
+    }
+}
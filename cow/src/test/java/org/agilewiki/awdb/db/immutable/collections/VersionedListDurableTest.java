@@ -40,15 +40,15 @@ public class VersionedListDurableTest extends TestCase {
             l2 = l2.add("3");
             ImmutableFactory factory3 = registry.getImmutableFactory(l2);
             assertTrue(factory3 instanceof VersionedListNodeFactory);
-            assertEquals(122, factory3.getDurableLength(l2));
+            assertEquals(71, factory3.getDurableLength(l2));
             ByteBuffer byteBuffer2 = ByteBuffer.allocate(factory3.getDurableLength(l2));
             factory3.writeDurable(l2, byteBuffer2);
-            assertEquals(122, byteBuffer2.position());
+            assertEquals(71, byteBuffer2.position());
             byteBuffer2.flip();
             ImmutableFactory factory4 = registry.readId(byteBuffer2);
-            assertTrue(factory4 instanceof VersionedListNodeFactory);
+            assertTrue(factory4 instanceof VersionedCompactListNodeFactory);
             Object object4 = factory4.deserialize(byteBuffer2);
-            assertEquals(122, byteBuffer2.position());
+            assertEquals(71, byteBuffer2.position());
             assertEquals("123", String.join("", ((VersionedListNode) object4).flatList(db.getTimestamp())));
         } finally {
             Plant.close();
@@ -40,15 +40,15 @@ public class VersionedMapDurableTest extends TestCase {
             m2 = m2.add("a", "3");
             ImmutableFactory factory3 = registry.getImmutableFactory(m2);
             assertTrue(factory3 instanceof VersionedMapNodeFactory);
-            assertEquals(144, factory3.getDurableLength(m2));
+            assertEquals(125, factory3.getDurableLength(m2));
             ByteBuffer byteBuffer2 = ByteBuffer.allocate(factory3.getDurableLength(m2));
             factory3.writeDurable(m2, byteBuffer2);
-            assertEquals(144, byteBuffer2.position());
+            assertEquals(125, byteBuffer2.position());
             byteBuffer2.flip();
             ImmutableFactory factory4 = registry.readId(byteBuffer2);
             assertTrue(factory4 instanceof VersionedMapNodeFactory);
             Object object4 = factory4.deserialize(byteBuffer2);
-            assertEquals(144, byteBuffer2.position());
+            assertEquals(125, byteBuffer2.position());
             assertEquals("123", String.join("", ((VersionedMapNode) object4).getList("a").flatList(db.getTimestamp())));
         } finally {
             Plant.close();
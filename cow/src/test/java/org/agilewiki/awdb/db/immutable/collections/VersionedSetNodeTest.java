@@ -0,0 +1,86 @@
+package org.agilewiki.awdb.db.immutable.collections;
+
+import junit.framework.TestCase;
+import org.agilewiki.jactor2.core.impl.Plant;
+import org.agilewiki.awdb.db.immutable.BaseRegistry;
+import org.agilewiki.awdb.db.immutable.ImmutableFactory;
+import org.agilewiki.awdb.db.virtualcow.Db;
+import org.agilewiki.awdb.db.virtualcow.DbFactoryRegistry;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+import java.util.Iterator;
+
+public class VersionedSetNodeTest extends TestCase {
+    public void test() throws Exception {
+        new Plant();
+        try {
+            Db db = new Db(new BaseRegistry(), Paths.get("cow.db"), 1000);
+            DbFactoryRegistry registry = db.dbFactoryRegistry;
+            VersionedSetNode s = registry.versionedNilSet;
+            assertEquals(0, s.size(10));
+            assertFalse(s.contains("a", 10));
+
+            for (int i = 0; i < 100; ++i)
+                s = s.add("k" + (100 + i), i);
+            assertEquals(100, s.totalSize());
+            assertEquals(100, s.size(1000));
+            assertEquals(10, s.size(9));
+            assertFalse(s.contains("k110", 9));
+            assertTrue(s.contains("k110", 10));
+            assertSame(s, s.add("k110", 50));
+
+            s = s.remove("k110", 200);
+            s = s.remove("k111", 300);
+            s = s.add("k110", 400);
+            assertTrue(s.contains("k110", 199));
+            assertFalse(s.contains("k110", 200));
+            assertFalse(s.contains("k110", 399));
+            assertTrue(s.contains("k110", 400));
+            assertEquals(100, s.totalSize());
+            assertEquals(99, s.size(250));
+            assertEquals(98, s.size(350));
+            assertEquals(99, s.size(450));
+
+            assertEquals("k100", s.firstKey(1000));
+            assertEquals("k199", s.lastKey(1000));
+            assertEquals("k112", s.higherKey("k109", 350));
+            assertEquals("k112", s.ceilingKey("k110", 350));
+            assertEquals("k109", s.lowerKey("k112", 350));
+            assertEquals("k109", s.floorKey("k111", 350));
+            assertEquals("k110", s.higherKey("k109", 450));
+
+            Iterator<Comparable> it = s.iterator(350);
+            int count = 0;
+            while (it.hasNext()) {
+                String k = (String) it.next();
+                assertFalse(k.equals("k110") || k.equals("k111"));
+                ++count;
+            }
+            assertEquals(98, count);
+            KeyCursor cursor = s.cursor(5);
+            assertEquals("k100", cursor.key());
+            assertTrue(cursor.next());
+            assertTrue(cursor.next());
+            assertTrue(cursor.next());
+            assertTrue(cursor.next());
+            assertEquals("k104", cursor.key());
+            assertTrue(cursor.next());
+            assertEquals("k105", cursor.key());
+            assertFalse(cursor.next());
+
+            ImmutableFactory factory = registry.getImmutableFactory(s);
+            assertTrue(factory instanceof VersionedSetNodeFactory);
+            ByteBuffer byteBuffer = factory.toByteBuffer(s);
+            assertEquals(s.getDurableLength(), byteBuffer.limit());
+            VersionedSetNode s2 = (VersionedSetNode) registry.readId(byteBuffer).deserialize(byteBuffer);
+            assertEquals(100, s2.totalSize());
+            assertEquals(s.flatSet(350), s2.flatSet(350));
+            assertFalse(s2.contains("k110", 300));
+            assertTrue(s2.contains("k110", 500));
+            assertEquals(98, s2.size(350));
+        } finally {
+            Plant.close();
+        }
+    }
+}
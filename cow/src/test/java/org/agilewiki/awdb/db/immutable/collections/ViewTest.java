@@ -0,0 +1,111 @@
+package org.agilewiki.awdb.db.immutable.collections;
+
+import junit.framework.TestCase;
+import org.agilewiki.jactor2.core.impl.Plant;
+import org.agilewiki.awdb.db.immutable.BaseRegistry;
+import org.agilewiki.awdb.db.virtualcow.Db;
+import org.agilewiki.awdb.db.virtualcow.DbFactoryRegistry;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableMap;
+
+public class ViewTest extends TestCase {
+    public void test() throws Exception {
+        new Plant();
+        try {
+            Path dbPath = Paths.get("cow.db");
+            int maxRootBlockSize = 1000;
+            Db db = new Db(new BaseRegistry(), dbPath, maxRootBlockSize);
+            DbFactoryRegistry registry = db.dbFactoryRegistry;
+            registry.bTreeMapNodeFactory.setFanout(4);
+
+            ListNode l = registry.nilList;
+            VersionedListNode vl = registry.versionedNilList;
+            for (int i = 0; i < 30; ++i) {
+                l = l.add("v" + i);
+                vl = vl.add(-1, "v" + i, i, i % 4 == 0 ? i + 3 : Long.MAX_VALUE);
+            }
+            assertEquals(l.flatList(), l.listView());
+            assertEquals(l.flatList(), new ArrayList<>(l.listView()));
+            assertEquals("v7", l.listView().get(7));
+            for (long t = 0; t < 35; t += 5) {
+                List view = vl.listView(t);
+                assertEquals(vl.flatList(t), view);
+                assertEquals(vl.size(t), view.size());
+                for (int i = 0; i < view.size(); ++i)
+                    assertEquals(vl.flatList(t).get(i), view.get(i));
+            }
+
+            MapNode aa = registry.nilMap;
+            MapNode bt = registry.bTreeMapNodeFactory.empty();
+            VersionedMapNode vm = registry.versionedNilMap;
+            for (int i = 0; i < 40; ++i) {
+                String k = "" + (100 + i * 2);
+                aa = aa.add(k, k).add(k, "x");
+                bt = bt.add(k, k);
+                vm = vm.add(k, -1, k, i, i % 3 == 0 ? i + 5 : Long.MAX_VALUE);
+            }
+            check(aa.flatMap(), aa.mapView());
+            check(bt.flatMap(), bt.mapView());
+            for (long t = 0; t < 50; t += 7)
+                check(vm.flatMap(t), vm.mapView(t));
+
+            NavigableMap<Comparable, List> view = aa.mapView();
+            try {
+                view.put("x", new ArrayList());
+                fail();
+            } catch (UnsupportedOperationException ex) {
+            }
+        } finally {
+            Plant.close();
+        }
+    }
+
+    private void check(NavigableMap<Comparable, List> expected, NavigableMap<Comparable, List> view) {
+        assertEquals(expected, view);
+        assertEquals(expected.size(), view.size());
+        assertEquals(expected.keySet(), view.keySet());
+        assertEquals(expected.get("110"), view.get("110"));
+        assertNull(view.get("111"));
+        compare(expected.descendingMap(), view.descendingMap());
+        String[] bounds = {"099", "110", "111", "150", "200"};
+        for (String from : bounds) {
+            for (String to : bounds) {
+                if (from.compareTo(to) > 0)
+                    continue;
+                compare(expected.subMap(from, true, to, false), view.subMap(from, true, to, false));
+                compare(expected.subMap(from, false, to, true).descendingMap(),
+                        view.subMap(from, false, to, true).descendingMap());
+                compare(expected.descendingMap().subMap(to, true, from, true),
+                        view.descendingMap().subMap(to, true, from, true));
+            }
+            compare(expected.headMap(from, true), view.headMap(from, true));
+            compare(expected.tailMap(from, false), view.tailMap(from, false));
+            compare(expected.descendingMap().headMap(from, false), view.descendingMap().headMap(from, false));
+        }
+    }
+
+    private void compare(NavigableMap<Comparable, List> expected, NavigableMap<Comparable, List> view) {
+        assertEquals(new ArrayList<>(expected.keySet()), new ArrayList<>(view.keySet()));
+        assertEquals(new ArrayList<>(expected.navigableKeySet().descendingSet()),
+                new ArrayList<>(view.navigableKeySet().descendingSet()));
+        assertEquals(expected.size(), view.size());
+        assertEquals(expected.isEmpty(), view.isEmpty());
+        if (!expected.isEmpty()) {
+            assertEquals(expected.firstKey(), view.firstKey());
+            assertEquals(expected.lastKey(), view.lastKey());
+            assertEquals(expected.firstEntry(), view.firstEntry());
+        }
+        for (int i = 98; i < 182; ++i) {
+            String k = "" + i;
+            assertEquals(expected.ceilingKey(k), view.ceilingKey(k));
+            assertEquals(expected.higherKey(k), view.higherKey(k));
+            assertEquals(expected.floorKey(k), view.floorKey(k));
+            assertEquals(expected.lowerKey(k), view.lowerKey(k));
+            assertEquals(expected.containsKey(k), view.containsKey(k));
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package org.agilewiki.awdb.db.immutable.scalars;
+
+import junit.framework.TestCase;
+import org.agilewiki.awdb.db.immutable.FactoryRegistry;
+import org.agilewiki.awdb.db.immutable.ImmutableFactory;
+import org.agilewiki.awdb.db.immutable.Registry;
+
+import java.nio.ByteBuffer;
+
+public class CompactStringTest extends TestCase {
+    public void test() throws Exception {
+        FactoryRegistry registry = new Registry();
+        ByteBuffer byteBuffer = ByteBuffer.allocate(1000);
+        String string1 = "abc";
+        ImmutableFactory factory1 = registry.getImmutableFactory(string1);
+        assertTrue(factory1 instanceof CompactStringFactory);
+        assertEquals(6, factory1.getDurableLength(string1));
+        factory1.writeDurable(string1, byteBuffer);
+        assertEquals(6, byteBuffer.position());
+        byteBuffer.flip();
+        ImmutableFactory factory2 = registry.readId(byteBuffer);
+        assertTrue(factory2 instanceof CompactStringFactory);
+        assertEquals("abc", factory2.deserialize(byteBuffer));
+        assertEquals(6, byteBuffer.position());
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100; ++i)
+            sb.append('x');
+        String[] strings = {"", "$n" + sb, "caf\u00e9\u00ff", "\u0100\u07ff\u0800\uffff",
+                "a\ud83d\ude00b", "\udc00\ud800", "\u0000\u007f\u0080"};
+        for (String s : strings) {
+            byteBuffer.clear();
+            factory1.writeDurable(s, byteBuffer);
+            assertEquals(factory1.getDurableLength(s), byteBuffer.position());
+            byteBuffer.flip();
+            assertEquals(s, registry.readId(byteBuffer).deserialize(byteBuffer));
+            assertEquals(factory1.getDurableLength(s), byteBuffer.position());
+        }
+        assertEquals(2 + 2 + 102, factory1.getDurableLength("$n" + sb));
+        assertEquals(2 + 1 + 5, factory1.getDurableLength("caf\u00e9\u00ff"));
+    }
+}
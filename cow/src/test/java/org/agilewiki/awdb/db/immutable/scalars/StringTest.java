@@ -12,7 +12,7 @@ public class StringTest extends TestCase {
         FactoryRegistry registry = new Registry();
         ByteBuffer byteBuffer = ByteBuffer.allocate(100);
         String string1 = "abc";
-        ImmutableFactory factory1 = registry.getImmutableFactory(string1);
+        ImmutableFactory factory1 = registry.getImmutableFactory('S');
         assertTrue(factory1 instanceof StringFactory);
         assertEquals(12, factory1.getDurableLength(string1));
         factory1.writeDurable(string1, byteBuffer);
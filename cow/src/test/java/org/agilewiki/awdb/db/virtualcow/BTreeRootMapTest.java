@@ -0,0 +1,63 @@
+package org.agilewiki.awdb.db.virtualcow;
+
+import junit.framework.TestCase;
+import org.agilewiki.jactor2.core.impl.Plant;
+import org.agilewiki.awdb.db.dsm.DiskSpaceManager;
+import org.agilewiki.awdb.db.ids.NameId;
+import org.agilewiki.awdb.db.immutable.BaseRegistry;
+import org.agilewiki.awdb.db.immutable.FactoryRegistry;
+import org.agilewiki.awdb.db.immutable.ImmutableFactory;
+import org.agilewiki.awdb.db.immutable.collections.BTreeMapNode;
+import org.agilewiki.awdb.db.immutable.collections.BTreeMapNodeFactory;
+import org.agilewiki.awdb.db.immutable.collections.MapNode;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+public class BTreeRootMapTest extends TestCase {
+    public void test() throws Exception {
+        new Plant();
+        try {
+            Path dbPath = Paths.get("vcow.db");
+            Files.deleteIfExists(dbPath);
+            int maxBlockSize = 2000;
+            try (Db db = new Db(new BaseRegistry(), dbPath, maxBlockSize)) {
+                db.registerTransaction("bigMapTran", BigMapTran.class);
+                db.setBTreeRootMap(8);
+                db.open(true);
+                for (int k = 0; k < 2; ++k) {
+                    MapNode tMapNode = db.dbFactoryRegistry.nilMap;
+                    tMapNode = tMapNode.add("k", k);
+                    tMapNode = tMapNode.add("I", 300);
+                    db.update("bigMapTran", tMapNode).call();
+                }
+                db.close();
+            }
+
+            try (Db db = new Db(new BaseRegistry(), dbPath, maxBlockSize)) {
+                db.registerTransaction("bigMapTran", BigMapTran.class);
+                db.open();
+                MapNode tMapNode = db.dbFactoryRegistry.nilMap;
+                tMapNode = tMapNode.add("k", 2);
+                tMapNode = tMapNode.add("I", 100);
+                db.update("bigMapTran", tMapNode).call();
+                for (int k = 0; k < 3; ++k) {
+                    for (int i = 0; i < (k < 2 ? 300 : 100); ++i) {
+                        String id = NameId.generate("" + (k * 10000000 + i));
+                        assertEquals(3, db.get(id, "", FactoryRegistry.MAX_TIMESTAMP));
+                    }
+                }
+                Db.RootBlock rb = db.readRootBlock(0);
+                new DiskSpaceManager(rb.serializedContent);
+                ImmutableFactory factory = db.dbFactoryRegistry.readId(rb.serializedContent);
+                assertTrue(factory instanceof BTreeMapNodeFactory);
+                BTreeMapNode root = (BTreeMapNode) factory.deserialize(rb.serializedContent);
+                assertEquals(8, root.getBTreeData().fanout);
+                db.close();
+            }
+        } finally {
+            Plant.close();
+        }
+    }
+}
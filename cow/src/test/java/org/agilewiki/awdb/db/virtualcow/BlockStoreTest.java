@@ -0,0 +1,63 @@
+package org.agilewiki.awdb.db.virtualcow;
+
+import junit.framework.TestCase;
+import org.agilewiki.jactor2.core.impl.Plant;
+import org.agilewiki.awdb.db.ids.NameId;
+import org.agilewiki.awdb.db.immutable.BaseRegistry;
+import org.agilewiki.awdb.db.immutable.FactoryRegistry;
+import org.agilewiki.awdb.db.immutable.collections.MapNode;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+public class BlockStoreTest extends TestCase {
+    public void test() throws Exception {
+        new Plant();
+        try {
+            Path dbPath = Paths.get("vcow.db");
+            Files.deleteIfExists(dbPath);
+            verify(new FileBlockStore(dbPath));
+            Files.deleteIfExists(dbPath);
+            verify(new MappedBlockStore(dbPath, 4096));
+            Files.deleteIfExists(dbPath);
+            verify(new MemoryBlockStore());
+        } finally {
+            Plant.close();
+        }
+    }
+
+    void verify(BlockStore blockStore) throws Exception {
+        blockStore.create(100, true);
+        ByteBuffer out = ByteBuffer.allocate(10000);
+        for (int i = 0; i < 2500; ++i)
+            out.putInt(i);
+        out.flip();
+        blockStore.write(out, 123);
+        ByteBuffer in = ByteBuffer.allocate(10000);
+        blockStore.read(in, 123);
+        in.flip();
+        for (int i = 0; i < 2500; ++i)
+            assertEquals(i, in.getInt());
+        blockStore.close();
+        assertFalse(blockStore.isOpen());
+
+        int maxBlockSize = 1000;
+        try (Db db = new Db(new BaseRegistry(), blockStore, maxBlockSize)) {
+            db.registerTransaction("bigMapTran", BigMapTran.class);
+            db.open(false);
+            MapNode tMapNode = db.dbFactoryRegistry.nilMap;
+            tMapNode = tMapNode.add("k", 0);
+            tMapNode = tMapNode.add("I", 200);
+            db.update("bigMapTran", tMapNode).call();
+            db.close();
+            db.open();
+            for (int i = 0; i < 200; ++i) {
+                assertEquals(3, db.get(NameId.generate("" + i), "", FactoryRegistry.MAX_TIMESTAMP));
+            }
+            assertTrue(blockStore.size() > 2 * maxBlockSize);
+            db.close();
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package org.agilewiki.awdb.db.virtualcow;
+
+import junit.framework.TestCase;
+import org.agilewiki.jactor2.core.impl.Plant;
+import org.agilewiki.awdb.db.dsm.DiskSpaceManager;
+import org.agilewiki.awdb.db.ids.NameId;
+import org.agilewiki.awdb.db.immutable.BaseRegistry;
+import org.agilewiki.awdb.db.immutable.FactoryRegistry;
+import org.agilewiki.awdb.db.immutable.collections.BloomFilter;
+import org.agilewiki.awdb.db.immutable.collections.MapNode;
+import org.agilewiki.awdb.db.immutable.collections.MapNodeData;
+import org.agilewiki.awdb.db.immutable.collections.MapReference;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+public class BloomFilterTest extends TestCase {
+    public void test() throws Exception {
+        new Plant();
+        try {
+            Path dbPath = Paths.get("vcow.db");
+            Files.deleteIfExists(dbPath);
+            int maxBlockSize = 2000;
+            try (Db db = new Db(new BaseRegistry(), dbPath, maxBlockSize)) {
+                db.registerTransaction("bigMapTran", BigMapTran.class);
+                db.open(true);
+                for (int k = 0; k < 2; ++k) {
+                    MapNode tMapNode = db.dbFactoryRegistry.nilMap;
+                    tMapNode = tMapNode.add("k", k);
+                    tMapNode = tMapNode.add("I", 300);
+                    db.update("bigMapTran", tMapNode).call();
+                }
+                db.close();
+            }
+
+            try (Db db = new Db(new BaseRegistry(), dbPath, maxBlockSize)) {
+                db.open();
+                Db.RootBlock rb0 = db.readRootBlock(0);
+                Db.RootBlock rb1 = db.readRootBlock(1);
+                Db.RootBlock rb = rb0.timestamp > rb1.timestamp ? rb0 : rb1;
+                new DiskSpaceManager(rb.serializedContent);
+                MapNode root = (MapNode) db.dbFactoryRegistry.readId(rb.serializedContent).
+                        deserialize(rb.serializedContent);
+                List<MapReference> references = new ArrayList<>();
+                collect(root, references);
+                assertFalse(references.isEmpty());
+                int usable = 0;
+                for (MapReference reference : references) {
+                    assertNotNull(reference.filter);
+                    assertEquals(BloomFilter.forBlockSize(maxBlockSize).wordCount(), reference.filter.wordCount());
+                    int falsePositives = 0;
+                    for (int i = 0; i < 1000; ++i) {
+                        String key = NameId.generate("absent" + i);
+                        if (reference.filter.mightContain(key)) {
+                            falsePositives += 1;
+                        } else {
+                            assertNull(reference.getList(key));
+                        }
+                    }
+                    assertFalse(reference.isLoaded());
+                    double bits = reference.filter.wordCount() * 64;
+                    double expected = Math.pow(1 - Math.exp(-BloomFilter.HASHES * reference.totalSize() / bits),
+                            BloomFilter.HASHES);
+                    assertTrue(falsePositives <= 1000 * expected + 50);
+                    if (reference.totalSize() <= bits / BloomFilter.BITS_PER_KEY) {
+                        assertTrue(falsePositives < 50);
+                        usable += 1;
+                    }
+                }
+                assertTrue(usable > 0);
+
+                for (int k = 0; k < 2; ++k) {
+                    for (int i = 0; i < 300; ++i) {
+                        String id = NameId.generate("" + (k * 10000000 + i));
+                        assertEquals(3, db.get(id, "", FactoryRegistry.MAX_TIMESTAMP));
+                    }
+                }
+                assertNull(db.get(NameId.generate("absent"), "", FactoryRegistry.MAX_TIMESTAMP));
+                db.close();
+            }
+        } finally {
+            Plant.close();
+        }
+    }
+
+    private void collect(MapNode node, List<MapReference> references) {
+        if (node.isNil())
+            return;
+        if (node instanceof MapReference) {
+            references.add((MapReference) node);
+            return;
+        }
+        MapNodeData data = node.getData();
+        collect(data.leftNode, references);
+        collect(data.rightNode, references);
+    }
+}
@@ -0,0 +1,30 @@
+package org.agilewiki.awdb.db.virtualcow;
+
+import junit.framework.TestCase;
+import org.agilewiki.jactor2.core.impl.Plant;
+import org.agilewiki.awdb.db.immutable.BaseRegistry;
+import org.agilewiki.awdb.db.immutable.collections.MapNode;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+public class BulkLoadTest extends TestCase {
+    public void test() throws Exception {
+        new Plant();
+        try {
+            Path dbPath = Paths.get("vcow.db");
+            Files.deleteIfExists(dbPath);
+            int maxBlockSize = 1000;
+            try (Db db = new Db(new BaseRegistry(), dbPath, maxBlockSize)) {
+                db.registerTransaction("bulkLoadTran", BulkLoadTran.class);
+                db.open(true);
+                MapNode tMapNode = db.dbFactoryRegistry.nilMap;
+                db.update("bulkLoadTran", tMapNode.add("n", 5000)).call();
+                db.close();
+            }
+        } finally {
+            Plant.close();
+        }
+    }
+}
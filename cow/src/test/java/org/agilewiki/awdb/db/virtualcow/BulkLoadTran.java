@@ -0,0 +1,35 @@
+package org.agilewiki.awdb.db.virtualcow;
+
+import org.agilewiki.awdb.db.immutable.collections.ListNode;
+import org.agilewiki.awdb.db.immutable.collections.MapNode;
+
+import java.util.AbstractMap;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+public class BulkLoadTran implements Transaction {
+    /**
+     * Bulk loads a map, writing its blocks as they fill.
+     *
+     * @param db        The database to be updated.
+     * @param tMapNode  The durable content of the transaction.
+     */
+    @Override
+    public void transform(Db db, MapNode tMapNode) {
+        int n = (Integer) tMapNode.getList("n").get(0);
+        DbFactoryRegistry registry = db.dbFactoryRegistry;
+        int usage = db.usage();
+        MapNode m = registry.mapNodeFactory.bulkLoad(IntStream.range(0, n).
+                mapToObj(i -> (Map.Entry<Comparable, ListNode>) new AbstractMap.SimpleEntry<Comparable, ListNode>(
+                        "" + (100000 + i), registry.nilList.add(i))).iterator(), db.maxBlockSize * 3 / 4);
+        if (db.usage() <= usage || m.getDurableLength() > db.maxBlockSize)
+            throw new IllegalStateException("blocks were not written");
+        for (int i = 0; i < n; ++i) {
+            if (!Integer.valueOf(i).equals(m.get("" + (100000 + i))))
+                throw new IllegalStateException("missing " + i);
+        }
+        if (m.size() != n)
+            throw new IllegalStateException("wrong size");
+        m.releaseAll();
+    }
+}
@@ -0,0 +1,69 @@
+package org.agilewiki.awdb.db.virtualcow;
+
+import junit.framework.TestCase;
+import org.agilewiki.jactor2.core.impl.Plant;
+import org.agilewiki.awdb.db.ids.NameId;
+import org.agilewiki.awdb.db.immutable.BaseRegistry;
+import org.agilewiki.awdb.db.immutable.FactoryRegistry;
+import org.agilewiki.awdb.db.immutable.collections.MapNode;
+import org.agilewiki.awdb.db.immutable.collections.TemporalSummary;
+import org.agilewiki.awdb.db.immutable.collections.VersionedMapNode;
+import org.agilewiki.awdb.db.immutable.collections.VersionedMapNodeData;
+import org.agilewiki.awdb.db.immutable.collections.VersionedMapReference;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ChildSummaryTest extends TestCase {
+    public void test() throws Exception {
+        new Plant();
+        try {
+            Path dbPath = Paths.get("vcow.db");
+            Files.deleteIfExists(dbPath);
+            int maxBlockSize = 2000;
+            try (Db db = new Db(new BaseRegistry(), dbPath, maxBlockSize)) {
+                db.registerTransaction("bigVersionedMapTran", BigVersionedMapTran.class);
+                db.open(true);
+                for (int k = 0; k < 2; ++k) {
+                    MapNode tMapNode = db.dbFactoryRegistry.nilMap;
+                    tMapNode = tMapNode.add("k", k);
+                    tMapNode = tMapNode.add("I", 200);
+                    db.update("bigVersionedMapTran", tMapNode).call();
+                }
+                db.close();
+            }
+
+            try (Db db = new Db(new BaseRegistry(), dbPath, maxBlockSize)) {
+                db.open();
+                VersionedMapNode vmn = db.get(NameId.generate("1"));
+                List<VersionedMapReference> references = new ArrayList<>();
+                collect(vmn, references);
+                assertTrue(references.size() > 1);
+                for (VersionedMapReference reference : references) {
+                    TemporalSummary summary = reference.getSummary();
+                    assertFalse(reference.isLoaded());
+                    assertTrue(summary.liveCount > 0);
+                }
+                assertEquals(400, vmn.size(FactoryRegistry.MAX_TIMESTAMP));
+                db.close();
+            }
+        } finally {
+            Plant.close();
+        }
+    }
+
+    private void collect(VersionedMapNode node, List<VersionedMapReference> references) {
+        if (node.isNil())
+            return;
+        VersionedMapNodeData data = node.getData();
+        for (VersionedMapNode child : new VersionedMapNode[]{data.leftNode, data.rightNode}) {
+            if (child instanceof VersionedMapReference)
+                references.add((VersionedMapReference) child);
+            else
+                collect(child, references);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package org.agilewiki.awdb.db.virtualcow;
+
+import junit.framework.TestCase;
+import org.agilewiki.jactor2.core.impl.Plant;
+import org.agilewiki.awdb.db.ids.NameId;
+import org.agilewiki.awdb.db.immutable.BaseRegistry;
+import org.agilewiki.awdb.db.immutable.FactoryRegistry;
+import org.agilewiki.awdb.db.immutable.blobs.Blob;
+import org.agilewiki.awdb.db.immutable.collections.MapNode;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+public class DedupTest extends TestCase {
+    public void test() throws Exception {
+        new Plant();
+        try {
+            long plainSize = write(0);
+            long dedupSize = write(1000);
+            assertTrue(dedupSize < plainSize);
+        } finally {
+            Plant.close();
+        }
+    }
+
+    private long write(int dedup) throws Exception {
+        Path dbPath = Paths.get("vcow.db");
+        Files.deleteIfExists(dbPath);
+        int maxBlockSize = 1000;
+        try (Db db = new Db(new BaseRegistry(), dbPath, maxBlockSize)) {
+            db.registerTransaction("dedupTran", DedupTran.class);
+            db.setDedup(dedup);
+            db.open(true);
+            MapNode tMapNode = db.dbFactoryRegistry.nilMap;
+            tMapNode = tMapNode.add("first", 0);
+            tMapNode = tMapNode.add("count", 20);
+            db.update("dedupTran", tMapNode.add("b", 42)).call();
+            if (dedup > 0)
+                assertTrue(db.getDedupIndex().hits() > 0);
+            db.close();
+
+            db.open();
+            tMapNode = db.dbFactoryRegistry.nilMap;
+            tMapNode = tMapNode.add("first", 5);
+            tMapNode = tMapNode.add("count", 10);
+            db.update("dedupTran", tMapNode.add("b", 7)).call();
+            db.close();
+
+            db.open();
+            for (int j = 0; j < 20; ++j) {
+                Blob blob = (Blob) db.get(NameId.generate("doc" + j), "content", FactoryRegistry.MAX_TIMESTAMP);
+                assertEquals(5000, blob.size());
+                int b = j >= 5 && j < 15 ? 7 : 42;
+                InputStream in = blob.newInputStream();
+                for (int i = 0; i < 5000; ++i)
+                    assertEquals(b, in.read());
+            }
+            db.close();
+        }
+        return Files.size(dbPath);
+    }
+}
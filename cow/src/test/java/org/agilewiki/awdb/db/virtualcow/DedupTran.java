@@ -0,0 +1,31 @@
+package org.agilewiki.awdb.db.virtualcow;
+
+import org.agilewiki.awdb.db.ids.NameId;
+import org.agilewiki.awdb.db.immutable.blobs.BlobWriter;
+import org.agilewiki.awdb.db.immutable.collections.MapNode;
+
+import java.io.OutputStream;
+
+public class DedupTran implements Transaction {
+    /**
+     * Writes the same blob under several ids.
+     *
+     * @param db        The database to be updated.
+     * @param tMapNode  The durable content of the transaction.
+     */
+    @Override
+    public void transform(Db db, MapNode tMapNode) {
+        int first = (Integer) tMapNode.getList("first").get(0);
+        int count = (Integer) tMapNode.getList("count").get(0);
+        int b = (Integer) tMapNode.getList("b").get(0);
+        for (int j = first; j < first + count; ++j) {
+            try (OutputStream out = new BlobWriter(db.dbFactoryRegistry)) {
+                for (int i = 0; i < 5000; ++i)
+                    out.write(b);
+                db.set(NameId.generate("doc" + j), "content", ((BlobWriter) out).blob());
+            } catch (Exception ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+    }
+}
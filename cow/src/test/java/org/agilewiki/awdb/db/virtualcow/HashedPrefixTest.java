@@ -0,0 +1,105 @@
+package org.agilewiki.awdb.db.virtualcow;
+
+import junit.framework.TestCase;
+import org.agilewiki.jactor2.core.impl.Plant;
+import org.agilewiki.awdb.db.ids.NameId;
+import org.agilewiki.awdb.db.immutable.BaseRegistry;
+import org.agilewiki.awdb.db.immutable.FactoryRegistry;
+import org.agilewiki.awdb.db.immutable.collections.MapNode;
+import org.agilewiki.awdb.db.immutable.collections.PeekABoo;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+public class HashedPrefixTest extends TestCase {
+    public void test() throws Exception {
+        new Plant();
+        try {
+            Path dbPath = Paths.get("vcow.db");
+            Files.deleteIfExists(dbPath);
+            int maxBlockSize = 2000;
+            String prefix = NameId.generate("1");
+            try (Db db = new Db(new BaseRegistry(), dbPath, maxBlockSize)) {
+                db.registerTransaction("bigMapTran", BigMapTran.class);
+                db.setHashedPrefix(prefix);
+                db.open(true);
+                for (int k = 0; k < 2; ++k) {
+                    MapNode tMapNode = db.dbFactoryRegistry.nilMap;
+                    tMapNode = tMapNode.add("k", k);
+                    tMapNode = tMapNode.add("I", 300);
+                    db.update("bigMapTran", tMapNode).call();
+                }
+                db.close();
+            }
+
+            try (Db db = new Db(new BaseRegistry(), dbPath, maxBlockSize)) {
+                db.registerTransaction("bigMapTran", BigMapTran.class);
+                db.open();
+                for (int k = 0; k < 2; ++k) {
+                    for (int i = 0; i < 300; ++i) {
+                        String id = NameId.generate("" + (k * 10000000 + i));
+                        assertEquals(3, db.get(id, "", FactoryRegistry.MAX_TIMESTAMP));
+                    }
+                }
+                assertNull(db.get(NameId.generate("10000300"), "", FactoryRegistry.MAX_TIMESTAMP));
+
+                assertNull(db.mapAccessor().listAccessor(Db.hashedIdsPrefix + prefix));
+                Set<String> hashedIds = new HashSet<>();
+                Iterator<String> it = db.hashedIdsIterator(prefix, FactoryRegistry.MAX_TIMESTAMP);
+                while (it.hasNext())
+                    assertTrue(hashedIds.add(prefix + it.next()));
+                assertEquals(300 + 110, hashedIds.size());
+                assertTrue(hashedIds.contains(NameId.generate("10000000")));
+                assertFalse(hashedIds.contains(prefix));
+                it = db.hashedIdsIterator("", FactoryRegistry.MAX_TIMESTAMP);
+                int count = 0;
+                while (it.hasNext()) {
+                    assertTrue(hashedIds.contains(it.next()));
+                    ++count;
+                }
+                assertEquals(300 + 110, count);
+                it = db.hashedIdsIterator(NameId.generate("1000001"), FactoryRegistry.MAX_TIMESTAMP);
+                count = 0;
+                while (it.hasNext()) {
+                    it.next();
+                    ++count;
+                }
+                assertEquals(10, count);
+
+                PeekABoo<String> ids = db.idsIterable("", FactoryRegistry.MAX_TIMESTAMP);
+                count = 0;
+                while (ids.hasNext()) {
+                    String id = ids.next();
+                    assertFalse(hashedIds.contains(id));
+                    if (id.startsWith(NameId.PREFIX))
+                        ++count;
+                }
+                assertEquals(300 - 110, count);
+
+                PrintStream out = System.out;
+                ByteArrayOutputStream dump = new ByteArrayOutputStream();
+                System.setOut(new PrintStream(dump, true));
+                try {
+                    Display.all(db, FactoryRegistry.MAX_TIMESTAMP);
+                } finally {
+                    System.setOut(out);
+                }
+                assertTrue(dump.toString().contains("vmn id: " + NameId.generate("10000299") + "\n"));
+                assertTrue(dump.toString().contains("vmn id: " + NameId.generate("299") + "\n"));
+
+                assertNull(db.mapAccessor().listAccessor(NameId.generate("10000000")));
+                assertNotNull(db.mapAccessor().listAccessor(NameId.generate("0")));
+                assertNotNull(db.mapAccessor().listAccessor(prefix));
+                db.close();
+            }
+        } finally {
+            Plant.close();
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package org.agilewiki.awdb.db.virtualcow;
+
+import junit.framework.TestCase;
+import org.agilewiki.jactor2.core.impl.Plant;
+import org.agilewiki.awdb.db.ids.NameId;
+import org.agilewiki.awdb.db.immutable.BaseRegistry;
+import org.agilewiki.awdb.db.immutable.FactoryRegistry;
+import org.agilewiki.awdb.db.immutable.collections.MapNode;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+public class HotBlocksTest extends TestCase {
+    public void test() throws Exception {
+        new Plant();
+        try {
+            Path dbPath = Paths.get("vcow.db");
+            Path hotPath = Paths.get("vcow.db." + HotBlocks.SIDECAR_NAME);
+            Files.deleteIfExists(dbPath);
+            Files.deleteIfExists(hotPath);
+            int maxBlockSize = 1000;
+            try (Db db = new Db(new BaseRegistry(), dbPath, maxBlockSize)) {
+                db.registerTransaction("bigMapTran", BigMapTran.class);
+                db.setHotBlockLimit(100);
+                db.open(true);
+                MapNode tMapNode = db.dbFactoryRegistry.nilMap;
+                tMapNode = tMapNode.add("k", 0);
+                tMapNode = tMapNode.add("I", 300);
+                db.update("bigMapTran", tMapNode).call();
+                db.close();
+                db.open();
+                for (int i = 0; i < 300; ++i) {
+                    assertEquals(3, db.get(NameId.generate("" + i), "", FactoryRegistry.MAX_TIMESTAMP));
+                }
+                db.close();
+            }
+            assertTrue(Files.size(hotPath) > 4);
+
+            try (Db db = new Db(new BaseRegistry(), dbPath, maxBlockSize)) {
+                db.setHotBlockLimit(100);
+                db.open();
+                db.getHotBlocks().awaitPrefetch();
+                for (int i = 0; i < 300; ++i) {
+                    assertEquals(3, db.get(NameId.generate("" + i), "", FactoryRegistry.MAX_TIMESTAMP));
+                }
+                assertTrue(db.getHotBlocks().prefetchHits() > 0);
+                db.close();
+            }
+        } finally {
+            Plant.close();
+        }
+    }
+}
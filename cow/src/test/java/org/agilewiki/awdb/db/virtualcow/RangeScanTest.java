@@ -0,0 +1,50 @@
+package org.agilewiki.awdb.db.virtualcow;
+
+import junit.framework.TestCase;
+import org.agilewiki.jactor2.core.impl.Plant;
+import org.agilewiki.awdb.db.immutable.BaseRegistry;
+import org.agilewiki.awdb.db.immutable.FactoryRegistry;
+import org.agilewiki.awdb.db.immutable.collections.PeekABoo;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class RangeScanTest extends TestCase {
+    public void test() throws Exception {
+        new Plant();
+        try {
+            Path dbPath = Paths.get("vcow.db");
+            Files.deleteIfExists(dbPath);
+            int maxBlockSize = 2000;
+            try (Db db = new Db(new BaseRegistry(), dbPath, maxBlockSize)) {
+                db.registerTransaction("rangeScanTran", RangeScanTran.class);
+                db.open(true);
+                db.update("rangeScanTran").call();
+                long ts = FactoryRegistry.MAX_TIMESTAMP;
+
+                assertEquals(Arrays.asList("14", "13", "12"),
+                        list(db.idsIterable("$nr", "12", true, "15", false, true, ts)));
+                assertEquals(Arrays.asList("28", "29"),
+                        list(db.idsIterable("$nr", "27", false, null, false, false, ts)));
+                assertEquals(Arrays.asList("k13", "k14"),
+                        list(db.keysIterable("$nr10", "k12", false, "k14", true, false, ts)));
+                assertEquals(Arrays.asList("k29", "k28", "k27"),
+                        list(db.keysIterable("$nr10", "k27", true, null, false, true, ts)));
+                db.close();
+            }
+        } finally {
+            Plant.close();
+        }
+    }
+
+    private List<String> list(PeekABoo<String> it) {
+        List<String> l = new ArrayList<>();
+        while (it.hasNext())
+            l.add(it.next());
+        return l;
+    }
+}
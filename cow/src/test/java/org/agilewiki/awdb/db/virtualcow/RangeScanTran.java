@@ -0,0 +1,15 @@
+package org.agilewiki.awdb.db.virtualcow;
+
+import org.agilewiki.awdb.db.ids.NameId;
+import org.agilewiki.awdb.db.immutable.collections.MapNode;
+
+public class RangeScanTran implements Transaction {
+    @Override
+    public void transform(Db db, MapNode tMapNode) {
+        for (int i = 10; i < 30; ++i) {
+            String id = NameId.generate("r" + i);
+            for (int j = 10; j < 30; ++j)
+                db.set(id, "k" + j, j);
+        }
+    }
+}
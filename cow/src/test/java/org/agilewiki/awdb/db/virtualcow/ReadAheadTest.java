@@ -0,0 +1,59 @@
+package org.agilewiki.awdb.db.virtualcow;
+
+import junit.framework.TestCase;
+import org.agilewiki.jactor2.core.impl.Plant;
+import org.agilewiki.awdb.db.immutable.BaseRegistry;
+import org.agilewiki.awdb.db.immutable.collections.ListAccessor;
+import org.agilewiki.awdb.db.immutable.collections.MapNode;
+import org.agilewiki.awdb.db.immutable.collections.PeekABoo;
+import org.agilewiki.awdb.db.immutable.scalars.CS256;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+public class ReadAheadTest extends TestCase {
+    public void test() throws Exception {
+        new Plant();
+        try {
+            Path dbPath = Paths.get("vcow.db");
+            Files.deleteIfExists(dbPath);
+            int maxBlockSize = 1000;
+            try (Db db = new Db(new BaseRegistry(), dbPath, maxBlockSize)) {
+                db.registerTransaction("bigMapTran", BigMapTran.class);
+                db.open(true);
+                MapNode tMapNode = db.dbFactoryRegistry.nilMap;
+                tMapNode = tMapNode.add("k", 0);
+                tMapNode = tMapNode.add("I", 1000);
+                db.update("bigMapTran", tMapNode).call();
+                db.close();
+
+                db.setReadAhead(2, 1);
+                db.open();
+                int count = 0;
+                PeekABoo<ListAccessor> it = db.mapAccessor().iterator();
+                while (it.hasNext()) {
+                    it.next();
+                    count++;
+                }
+                assertTrue(count >= 1000);
+                assertTrue(db.getReadAhead().loaded() > 0);
+
+                BlockReference freed = new BlockReference(db.dbFactoryRegistry, 1000000, 100,
+                        new CS256(ByteBuffer.allocate(100)));
+                try {
+                    freed.readAheadContent();
+                    fail();
+                } catch (Exception ex) {
+                }
+                assertFalse(freed.isLoaded());
+                assertTrue(db.blockStore.isOpen());
+                db.close();
+                assertNull(db.getReadAhead());
+            }
+        } finally {
+            Plant.close();
+        }
+    }
+}
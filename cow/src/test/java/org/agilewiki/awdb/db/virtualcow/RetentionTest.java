@@ -0,0 +1,90 @@
+package org.agilewiki.awdb.db.virtualcow;
+
+import junit.framework.TestCase;
+import org.agilewiki.jactor2.core.impl.Plant;
+import org.agilewiki.awdb.db.ids.NameId;
+import org.agilewiki.awdb.db.immutable.BaseRegistry;
+import org.agilewiki.awdb.db.immutable.FactoryRegistry;
+import org.agilewiki.awdb.db.immutable.collections.MapNode;
+import org.agilewiki.awdb.db.immutable.collections.PeekABoo;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+public class RetentionTest extends TestCase {
+    public void test() throws Exception {
+        new Plant();
+        try {
+            Path dbPath = Paths.get("vcow.db");
+            Files.deleteIfExists(dbPath);
+            int maxBlockSize = 2000;
+            int n = 200;
+            try (Db db = new Db(new BaseRegistry(), dbPath, maxBlockSize)) {
+                db.registerTransaction("retentionTran", RetentionTran.class);
+                db.open(true);
+                MapNode tMapNode = db.dbFactoryRegistry.nilMap.add("n", n);
+                for (int round = 0; round < 3; ++round)
+                    db.update("retentionTran", tMapNode.add("round", round)).call();
+                long before = db.getTimestamp();
+                String id1 = NameId.generate("r1");
+                assertEquals(3, db.versionedListNode(id1, "k").totalSize());
+                assertEquals(1, db.get(id1, "k", before - 1));
+
+                db.update(CompactionTransaction.NAME).call();
+                assertEquals(3, db.versionedListNode(id1, "k").totalSize());
+
+                db.setRetention(0);
+                db.update(CompactionTransaction.NAME).call();
+                assertEquals(1, db.versionedListNode(id1, "k").totalSize());
+                try {
+                    db.get(id1, "k", before);
+                    fail();
+                } catch (HistoryNotRetainedException ex) {
+                }
+                db.close();
+            }
+
+            try (Db db = new Db(new BaseRegistry(), dbPath, maxBlockSize)) {
+                db.open();
+                long before = db.getTimestamp() - 1;
+                try {
+                    db.get(NameId.generate("r1"), "k", before);
+                    fail();
+                } catch (HistoryNotRetainedException ex) {
+                }
+
+                assertNull(db.mapAccessor().listAccessor(Db.retentionPrefix));
+                Display.all(db, FactoryRegistry.MAX_TIMESTAMP);
+                int count = 0;
+                PeekABoo<String> ids = db.idsIterable("", FactoryRegistry.MAX_TIMESTAMP);
+                while (ids.hasNext()) {
+                    assertFalse(ids.next().startsWith(Db.retentionPrefix));
+                    ++count;
+                }
+                assertTrue(count >= n - n / 10);
+
+                db.setRetention(-1);
+                db.setRetention(NameId.generate("r"), 0);
+                try {
+                    db.idsIterable("$n", before);
+                    fail();
+                } catch (HistoryNotRetainedException ex) {
+                }
+                assertTrue(db.idsIterable("$n", FactoryRegistry.MAX_TIMESTAMP).hasNext());
+                for (int i = 0; i < n; ++i) {
+                    String id = NameId.generate("r" + i);
+                    if (i % 10 == 0) {
+                        assertNull(db.get(id));
+                    } else {
+                        assertEquals(1, db.versionedListNode(id, "k").totalSize());
+                        assertEquals(2, db.get(id, "k", FactoryRegistry.MAX_TIMESTAMP));
+                    }
+                }
+                db.close();
+            }
+        } finally {
+            Plant.close();
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package org.agilewiki.awdb.db.virtualcow;
+
+import org.agilewiki.awdb.db.ids.NameId;
+import org.agilewiki.awdb.db.immutable.collections.MapNode;
+
+public class RetentionTran implements Transaction {
+    @Override
+    public void transform(Db db, MapNode tMapNode) {
+        int n = (Integer) tMapNode.getList("n").get(0);
+        int round = (Integer) tMapNode.getList("round").get(0);
+        for (int i = 0; i < n; ++i) {
+            String id = NameId.generate("r" + i);
+            if (round == 2 && i % 10 == 0)
+                db.clearMap(id);
+            else
+                db.set(id, "k", round);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package org.agilewiki.awdb.db.virtualcow;
+
+import junit.framework.TestCase;
+import org.agilewiki.jactor2.core.impl.Plant;
+import org.agilewiki.awdb.db.ids.NameId;
+import org.agilewiki.awdb.db.immutable.BaseRegistry;
+import org.agilewiki.awdb.db.immutable.FactoryRegistry;
+import org.agilewiki.awdb.db.immutable.collections.MapNode;
+import org.agilewiki.awdb.db.immutable.collections.SetNode;
+import org.agilewiki.awdb.db.immutable.collections.SetNodeData;
+import org.agilewiki.awdb.db.immutable.collections.SetReference;
+import org.agilewiki.awdb.db.immutable.collections.TemporalSummary;
+import org.agilewiki.awdb.db.immutable.collections.VersionedSetNode;
+import org.agilewiki.awdb.db.immutable.collections.VersionedSetNodeData;
+import org.agilewiki.awdb.db.immutable.collections.VersionedSetReference;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+public class SetReferenceTest extends TestCase {
+    public void test() throws Exception {
+        new Plant();
+        try {
+            Path dbPath = Paths.get("vcow.db");
+            Files.deleteIfExists(dbPath);
+            int maxBlockSize = 2000;
+            int n = 300;
+            try (Db db = new Db(new BaseRegistry(), dbPath, maxBlockSize)) {
+                db.registerTransaction("setTran", SetTran.class);
+                db.open(true);
+                MapNode tMapNode = db.dbFactoryRegistry.nilMap.add("I", n);
+                db.update("setTran", tMapNode).call();
+                db.close();
+            }
+
+            try (Db db = new Db(new BaseRegistry(), dbPath, maxBlockSize)) {
+                db.open();
+                SetNode s = (SetNode) db.mapAccessor().listAccessor(NameId.generate("set")).get(0);
+                List<SetReference> references = new ArrayList<>();
+                collect(s, references);
+                assertFalse(references.isEmpty());
+                assertEquals(n, s.totalSize());
+                for (int i = 0; i < n; ++i)
+                    assertTrue(s.contains("k" + (10000 + i)));
+                assertFalse(s.contains("k9999"));
+                assertEquals("k10000", s.firstKey());
+                assertEquals("k" + (10000 + n - 1), s.lastKey());
+
+                VersionedSetNode vs = (VersionedSetNode) db.mapAccessor().
+                        listAccessor(NameId.generate("vset")).get(0);
+                List<VersionedSetReference> versionedReferences = new ArrayList<>();
+                collect(vs, versionedReferences);
+                assertFalse(versionedReferences.isEmpty());
+                for (VersionedSetReference reference : versionedReferences) {
+                    TemporalSummary summary = reference.getSummary();
+                    assertFalse(reference.isLoaded());
+                    assertTrue(summary.liveCount > 0);
+                }
+                assertEquals(n, vs.totalSize());
+                assertEquals(n - n / 10, vs.size(FactoryRegistry.MAX_TIMESTAMP));
+                for (int i = 0; i < n; ++i)
+                    assertEquals(i % 10 != 0, vs.contains("k" + (10000 + i), FactoryRegistry.MAX_TIMESTAMP));
+                assertEquals("k10001", vs.firstKey(FactoryRegistry.MAX_TIMESTAMP));
+                db.close();
+            }
+        } finally {
+            Plant.close();
+        }
+    }
+
+    private void collect(SetNode node, List<SetReference> references) {
+        if (node.isNil())
+            return;
+        if (node instanceof SetReference) {
+            references.add((SetReference) node);
+            return;
+        }
+        SetNodeData data = node.getData();
+        collect(data.leftNode, references);
+        collect(data.rightNode, references);
+    }
+
+    private void collect(VersionedSetNode node, List<VersionedSetReference> references) {
+        if (node.isNil())
+            return;
+        VersionedSetNodeData data = node.getData();
+        for (VersionedSetNode child : new VersionedSetNode[]{data.leftNode, data.rightNode}) {
+            if (child instanceof VersionedSetReference)
+                references.add((VersionedSetReference) child);
+            else
+                collect(child, references);
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package org.agilewiki.awdb.db.virtualcow;
+
+import org.agilewiki.awdb.db.ids.NameId;
+import org.agilewiki.awdb.db.immutable.collections.MapNode;
+import org.agilewiki.awdb.db.immutable.collections.SetNode;
+import org.agilewiki.awdb.db.immutable.collections.VersionedSetNode;
+
+public class SetTran implements Transaction {
+    /**
+     * Adds a set and a versioned set, each large enough to be split across blocks.
+     * Every tenth key of the versioned set is removed.
+     *
+     * @param db        The database to be updated.
+     * @param tMapNode  The durable content of the transaction.
+     */
+    @Override
+    public void transform(Db db, MapNode tMapNode) {
+        int I = (Integer) tMapNode.getList("I").get(0);
+        SetNode s = db.dbFactoryRegistry.nilSet;
+        VersionedSetNode vs = db.dbFactoryRegistry.versionedNilSet;
+        for (int i = 0; i < I; i++) {
+            s = s.add("k" + (10000 + i));
+            vs = vs.add("k" + (10000 + i));
+        }
+        for (int i = 0; i < I; i += 10) {
+            vs = vs.remove("k" + (10000 + i));
+        }
+        db.add(NameId.generate("set"), s);
+        db.add(NameId.generate("vset"), vs);
+    }
+}
@@ -0,0 +1,47 @@
+package org.agilewiki.awdb.db.virtualcow;
+
+import junit.framework.TestCase;
+import org.agilewiki.jactor2.core.impl.Plant;
+import org.agilewiki.awdb.db.ids.NameId;
+import org.agilewiki.awdb.db.immutable.BaseRegistry;
+import org.agilewiki.awdb.db.immutable.FactoryRegistry;
+import org.agilewiki.awdb.db.immutable.collections.MapNode;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+public class TransientTest extends TestCase {
+    public void test() throws Exception {
+        new Plant();
+        try {
+            for (int fanout : new int[]{0, 8}) {
+                Path dbPath = Paths.get("vcow.db");
+                Files.deleteIfExists(dbPath);
+                int maxBlockSize = 2000;
+                int n = 1000;
+                try (Db db = new Db(new BaseRegistry(), dbPath, maxBlockSize)) {
+                    db.registerTransaction("transientTran", TransientTran.class);
+                    if (fanout > 0)
+                        db.setBTreeRootMap(fanout);
+                    db.open(true);
+                    MapNode tMapNode = db.dbFactoryRegistry.nilMap;
+                    db.update("transientTran", tMapNode.add("n", n)).call();
+                    assertNull(db.getTransientOwner());
+                    db.close();
+                }
+
+                try (Db db = new Db(new BaseRegistry(), dbPath, maxBlockSize)) {
+                    db.open();
+                    for (int i = n - 350; i < n; ++i) {
+                        String id = NameId.generate("t" + (i % 50));
+                        assertEquals(i, db.get(id, "k" + (i % 7), FactoryRegistry.MAX_TIMESTAMP));
+                    }
+                    db.close();
+                }
+            }
+        } finally {
+            Plant.close();
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package org.agilewiki.awdb.db.virtualcow;
+
+import org.agilewiki.awdb.db.ids.NameId;
+import org.agilewiki.awdb.db.immutable.collections.ListNode;
+import org.agilewiki.awdb.db.immutable.collections.MapNode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+
+public class TransientTran implements Transaction {
+    /**
+     * Checks that nodes are updated in place, then updates a range of ids.
+     *
+     * @param db        The database to be updated.
+     * @param tMapNode  The durable content of the transaction.
+     */
+    @Override
+    public void transform(Db db, MapNode tMapNode) {
+        int n = (Integer) tMapNode.getList("n").get(0);
+        DbFactoryRegistry registry = db.dbFactoryRegistry;
+
+        MapNode m = registry.nilMap.add("a", 1);
+        if (m.add("a", 2) != m || m.getList("a").size() != 2)
+            throw new IllegalStateException("not updated in place");
+
+        Random random = new Random(42);
+        ListNode l = registry.nilList;
+        List<Integer> expectedList = new ArrayList<>();
+        m = registry.nilMap;
+        TreeMap<String, Integer> expectedMap = new TreeMap<>();
+        for (int i = 0; i < 2000; ++i) {
+            if (expectedList.isEmpty() || random.nextInt(3) > 0) {
+                int ndx = random.nextInt(expectedList.size() + 1);
+                l = l.add(ndx, i);
+                expectedList.add(ndx, i);
+            } else {
+                int ndx = random.nextInt(expectedList.size());
+                l = l.remove(ndx);
+                expectedList.remove(ndx);
+            }
+            String key = "" + random.nextInt(300);
+            if (random.nextInt(3) > 0) {
+                m = m.set(key, i);
+                expectedMap.put(key, i);
+            } else {
+                m = m.remove(key);
+                expectedMap.remove(key);
+            }
+        }
+        if (l.size() != expectedList.size())
+            throw new IllegalStateException("wrong list size");
+        for (int i = 0; i < expectedList.size(); ++i) {
+            if (!expectedList.get(i).equals(l.get(i)))
+                throw new IllegalStateException("wrong list value at " + i);
+        }
+        if (!expectedMap.keySet().equals(m.flatKeys()))
+            throw new IllegalStateException("wrong map keys");
+        for (String key : expectedMap.keySet()) {
+            if (!expectedMap.get(key).equals(m.get(key)))
+                throw new IllegalStateException("wrong map value for " + key);
+        }
+        if (l.getDurableLength() != l.toByteBuffer().remaining() ||
+                m.getDurableLength() != m.toByteBuffer().remaining())
+            throw new IllegalStateException("wrong durable length");
+
+        for (int i = 0; i < n; ++i) {
+            db.set(NameId.generate("t" + (i % 50)), "k" + (i % 7), i);
+        }
+    }
+
+    @Override
+    public boolean transientMode() {
+        return true;
+    }
+}
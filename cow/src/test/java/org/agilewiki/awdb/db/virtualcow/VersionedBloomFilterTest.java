@@ -0,0 +1,92 @@
+package org.agilewiki.awdb.db.virtualcow;
+
+import junit.framework.TestCase;
+import org.agilewiki.jactor2.core.impl.Plant;
+import org.agilewiki.awdb.db.ids.NameId;
+import org.agilewiki.awdb.db.immutable.BaseRegistry;
+import org.agilewiki.awdb.db.immutable.collections.BloomFilter;
+import org.agilewiki.awdb.db.immutable.collections.MapNode;
+import org.agilewiki.awdb.db.immutable.collections.VersionedMapNode;
+import org.agilewiki.awdb.db.immutable.collections.VersionedMapNodeData;
+import org.agilewiki.awdb.db.immutable.collections.VersionedMapReference;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+public class VersionedBloomFilterTest extends TestCase {
+    public void test() throws Exception {
+        new Plant();
+        try {
+            Path dbPath = Paths.get("vcow.db");
+            Files.deleteIfExists(dbPath);
+            int maxBlockSize = 2000;
+            try (Db db = new Db(new BaseRegistry(), dbPath, maxBlockSize)) {
+                db.registerTransaction("bigVersionedMapTran", BigVersionedMapTran.class);
+                db.open(true);
+                for (int k = 0; k < 2; ++k) {
+                    MapNode tMapNode = db.dbFactoryRegistry.nilMap;
+                    tMapNode = tMapNode.add("k", k);
+                    tMapNode = tMapNode.add("I", 200);
+                    db.update("bigVersionedMapTran", tMapNode).call();
+                }
+                db.close();
+            }
+
+            try (Db db = new Db(new BaseRegistry(), dbPath, maxBlockSize)) {
+                db.open();
+                VersionedMapNode vmn = db.get(NameId.generate("1"));
+                List<VersionedMapReference> references = new ArrayList<>();
+                collect(vmn, references);
+                assertFalse(references.isEmpty());
+                int usable = 0;
+                for (VersionedMapReference reference : references) {
+                    assertNotNull(reference.filter);
+                    assertEquals(BloomFilter.forBlockSize(maxBlockSize).wordCount(), reference.filter.wordCount());
+                    int falsePositives = 0;
+                    for (int i = 0; i < 1000; ++i) {
+                        String key = "absent" + i;
+                        if (reference.filter.mightContain(key)) {
+                            falsePositives += 1;
+                        } else {
+                            assertTrue(reference.getList(key).isNil());
+                        }
+                    }
+                    assertFalse(reference.isLoaded());
+                    double bits = reference.filter.wordCount() * 64;
+                    double expected = Math.pow(1 - Math.exp(-BloomFilter.HASHES * reference.totalSize() / bits),
+                            BloomFilter.HASHES);
+                    assertTrue(falsePositives <= 1000 * expected + 50);
+                    if (reference.totalSize() <= bits / BloomFilter.BITS_PER_KEY) {
+                        assertTrue(falsePositives < 50);
+                        usable += 1;
+                    }
+                }
+                assertTrue(usable > 0);
+
+                for (int k = 0; k < 2; ++k) {
+                    for (int i = 0; i < 200; ++i) {
+                        assertFalse(vmn.getList("" + (k * 10000000 + i)).isNil());
+                    }
+                }
+                db.close();
+            }
+        } finally {
+            Plant.close();
+        }
+    }
+
+    private void collect(VersionedMapNode node, List<VersionedMapReference> references) {
+        if (node.isNil())
+            return;
+        if (node instanceof VersionedMapReference) {
+            references.add((VersionedMapReference) node);
+            return;
+        }
+        VersionedMapNodeData data = node.getData();
+        collect(data.leftNode, references);
+        collect(data.rightNode, references);
+    }
+}